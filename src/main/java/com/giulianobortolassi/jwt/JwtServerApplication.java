@@ -2,10 +2,12 @@ package com.giulianobortolassi.jwt;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
 @SpringBootApplication
 @EnableWebMvc
+@EnableScheduling
 public class JwtServerApplication {
 
 	public static void main(String[] args) {
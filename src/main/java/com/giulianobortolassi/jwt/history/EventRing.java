@@ -0,0 +1,84 @@
+package com.giulianobortolassi.jwt.history;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue with many producers and a single consumer, on a ring of slots.
+ * <p>
+ * Each slot carries a sequence number telling whose turn it is: a producer claims the next position with a
+ * compare-and-set on the tail, fills the slot and hands it to the consumer by advancing its sequence; the consumer
+ * empties it and hands it back to the producers one lap later. Producers never wait: when the ring is full,
+ * {@link #offer} fails right away.
+ */
+final class EventRing<E> {
+
+    private final AtomicReferenceArray<E> slots;
+
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    // Only touched by the consumer
+    private long head;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return false if the ring is full
+     */
+    boolean offer(E element) {
+        long position;
+        while (true) {
+            position = tail.get();
+            long sequence = sequences.get((int) position & mask);
+            if( sequence == position ) {
+                if( tail.compareAndSet(position, position + 1) ) {
+                    break;
+                }
+            } else if( sequence < position ) {
+                // The consumer has not emptied this slot since the last lap
+                return false;
+            }
+            // Another producer claimed the position first
+        }
+        int slot = (int) position & mask;
+        slots.lazySet(slot, element);
+        sequences.lazySet(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * Only called by the consumer thread.
+     * @return the oldest element, or null if the ring is empty
+     */
+    E poll() {
+        int slot = (int) head & mask;
+        if( sequences.get(slot) != head + 1 ) {
+            return null;
+        }
+        E element = slots.get(slot);
+        slots.lazySet(slot, null);
+        sequences.lazySet(slot, head + mask + 1);
+        head++;
+        return element;
+    }
+}
@@ -0,0 +1,462 @@
+package com.giulianobortolassi.jwt.history;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * The events of one time partition: an append-only log ({@code history-<start>.log}) and its sparse index
+ * ({@code history-<start>.idx}).
+ * <p>
+ * The log is cut in blocks of {@link #BLOCK_EVENTS} events. For every block, the index keeps where it lies in the
+ * log, the earliest and latest event time, and a small Bloom filter of the users. A query only reads the blocks
+ * whose time range overlaps its own and whose filter may hold its user. The block being filled is not indexed yet,
+ * but its summary is kept in memory, so queries see events as soon as they are written.
+ * <p>
+ * Records are framed as {@code [length][crc32][payload]}, so a record torn by a crash is detected. On startup, the
+ * events after the last indexed block are indexed, and a torn record at the end of the log is cut off.
+ */
+final class HistorySegment implements Closeable {
+
+    static final String PREFIX = "history-";
+
+    static final String LOG_SUFFIX = ".log";
+
+    static final String INDEX_SUFFIX = ".idx";
+
+    static final int BLOCK_EVENTS = 128;
+
+    private static final int HEADER_SIZE = 8;
+
+    // Far above any event, so a corrupt length is not taken for a huge record
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private static final long NO_EXPIRATION = Long.MIN_VALUE;
+
+    private final long start;
+
+    private final Path logPath;
+
+    private final Path indexPath;
+
+    // Replaced as a whole, so queries see the sealed blocks and the open one of the same moment
+    private volatile Blocks blocks = new Blocks(Collections.emptyList(), null);
+
+    // Only touched by the writer thread
+    private FileChannel log;
+    private FileChannel index;
+    private BlockBuilder builder;
+    private final CRC32 crc = new CRC32();
+
+    private HistorySegment(Path directory, long start) {
+        this.start = start;
+        this.logPath = directory.resolve(PREFIX + start + LOG_SUFFIX);
+        this.indexPath = directory.resolve(PREFIX + start + INDEX_SUFFIX);
+    }
+
+    /**
+     * Open a segment, indexing the events written after its last indexed block.
+     */
+    static HistorySegment recover(Path directory, long start) throws IOException {
+        HistorySegment segment = new HistorySegment(directory, start);
+        List<Block> sealed = segment.readIndex();
+        segment.blocks = new Blocks(sealed, null);
+        long indexed = sealed.isEmpty() ? 0 : sealed.get(sealed.size() - 1).end;
+        long size = Files.exists(segment.logPath) ? Files.size(segment.logPath) : 0;
+        if( size > indexed ) {
+            BlockBuilder tail = new BlockBuilder(indexed);
+            try (FileChannel channel = FileChannel.open(segment.logPath, StandardOpenOption.READ)) {
+                ByteBuffer bytes = ByteBuffer.allocate((int) (size - indexed));
+                readFully(channel, bytes, indexed);
+                bytes.flip();
+                decode(bytes, (offset, event) -> tail.add(event, indexed + offset));
+            }
+            segment.openForAppend();
+            segment.log.truncate(tail.end);
+            if( tail.count > 0 ) {
+                segment.builder = tail;
+                segment.sealBlock();
+            }
+            segment.close();
+        }
+        return segment;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    /**
+     * Append encoded events. Only called by the writer thread.
+     */
+    void append(List<TokenEvent> events, List<byte[]> records) throws IOException {
+        if( log == null ) {
+            openForAppend();
+        }
+        int size = 0;
+        for (byte[] record : records) {
+            size += HEADER_SIZE + record.length;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(size);
+        long position = log.size();
+        for (int i = 0; i < records.size(); i++) {
+            byte[] record = records.get(i);
+            crc.reset();
+            crc.update(record);
+            bytes.putInt(record.length).putInt((int) crc.getValue()).put(record);
+            if( builder == null ) {
+                builder = new BlockBuilder(position);
+            }
+            position += HEADER_SIZE + record.length;
+            builder.add(events.get(i), position);
+            if( builder.count == BLOCK_EVENTS ) {
+                writeFully(bytes);
+                sealBlock();
+            }
+        }
+        writeFully(bytes);
+        if( builder != null ) {
+            blocks = new Blocks(blocks.sealed, builder.build());
+        }
+    }
+
+    /**
+     * Index the block being filled and close the files. Only called by the writer thread.
+     */
+    @Override
+    public void close() throws IOException {
+        if( builder != null && builder.count > 0 ) {
+            sealBlock();
+        }
+        if( log != null ) {
+            log.force(false);
+            log.close();
+            index.close();
+            log = null;
+            index = null;
+        }
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(logPath);
+        Files.deleteIfExists(indexPath);
+    }
+
+    /**
+     * Hand every event of the user, or of every user if null, from {@code from} included to {@code to} excluded.
+     * @param to read again before each block and event, so the caller can narrow it as it goes. Blocks whose events
+     *           are all past it are not read.
+     */
+    void scan(String user, long from, LongSupplier to, Consumer<TokenEvent> consumer) throws IOException {
+        List<Block> candidates = new ArrayList<>();
+        Blocks current = blocks;
+        List<Block> all = new ArrayList<>(current.sealed);
+        if( current.open != null ) {
+            all.add(current.open);
+        }
+        for (Block block : all) {
+            if( block.maxTime >= from && block.minTime < to.getAsLong() && (user == null || block.mightContain(user)) ) {
+                candidates.add(block);
+            }
+        }
+        if( candidates.isEmpty() ) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            for (Block block : candidates) {
+                if( block.minTime >= to.getAsLong() ) {
+                    continue;
+                }
+                ByteBuffer bytes = ByteBuffer.allocate((int) (block.end - block.offset));
+                readFully(channel, bytes, block.offset);
+                bytes.flip();
+                decode(bytes, (offset, event) -> {
+                    if( event.getTime() >= from && event.getTime() < to.getAsLong()
+                            && (user == null || user.equals(event.getUser())) ) {
+                        consumer.accept(event);
+                    }
+                });
+            }
+        } catch (NoSuchFileException e) {
+            // Deleted by retention while the query ran
+        }
+    }
+
+    private void openForAppend() throws IOException {
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        log.position(log.size());
+        index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        index.position(index.size());
+    }
+
+    private void sealBlock() throws IOException {
+        Block block = builder.build();
+        ByteBuffer entry = ByteBuffer.allocate(Block.ENTRY_SIZE);
+        block.write(entry);
+        entry.flip();
+        while (entry.hasRemaining()) {
+            index.write(entry);
+        }
+        List<Block> sealed = new ArrayList<>(blocks.sealed.size() + 1);
+        sealed.addAll(blocks.sealed);
+        sealed.add(block);
+        blocks = new Blocks(sealed, null);
+        builder = null;
+    }
+
+    private List<Block> readIndex() throws IOException {
+        if( !Files.exists(indexPath) ) {
+            return Collections.emptyList();
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        List<Block> read = new ArrayList<>(bytes.remaining() / Block.ENTRY_SIZE);
+        while (bytes.remaining() >= Block.ENTRY_SIZE) {
+            read.add(Block.read(bytes));
+        }
+        if( bytes.hasRemaining() ) {
+            // A torn entry: its block is indexed again from the log
+            try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+                channel.truncate((long) read.size() * Block.ENTRY_SIZE);
+            }
+        }
+        return read;
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            log.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            int read = channel.read(bytes, position + bytes.position());
+            if( read < 0 ) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the event in its log form
+     */
+    static byte[] encode(TokenEvent event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(event.getType().ordinal());
+            out.writeLong(event.getTime());
+            writeString(out, event.getTokenId());
+            writeString(out, event.getUser());
+            List<String> roles = event.getRoles();
+            out.writeInt(roles == null ? -1 : roles.size());
+            if( roles != null ) {
+                for (String role : roles) {
+                    writeString(out, role);
+                }
+            }
+            out.writeLong(event.getExpirationTime() == null ? NO_EXPIRATION : event.getExpirationTime());
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private interface RecordConsumer {
+        /**
+         * @param end where the record ends, relative to the decoded bytes
+         */
+        void accept(long end, TokenEvent event);
+    }
+
+    /**
+     * Decode records until the end of the bytes or the first torn one.
+     */
+    private static void decode(ByteBuffer bytes, RecordConsumer consumer) {
+        CRC32 crc = new CRC32();
+        while (bytes.remaining() >= HEADER_SIZE) {
+            int length = bytes.getInt();
+            int checksum = bytes.getInt();
+            if( length < 0 || length > MAX_RECORD_SIZE || length > bytes.remaining() ) {
+                return;
+            }
+            crc.reset();
+            crc.update(bytes.array(), bytes.arrayOffset() + bytes.position(), length);
+            if( (int) crc.getValue() != checksum ) {
+                return;
+            }
+            ByteBuffer record = ByteBuffer.wrap(bytes.array(), bytes.arrayOffset() + bytes.position(), length).slice();
+            bytes.position(bytes.position() + length);
+            try {
+                consumer.accept(bytes.position(), decode(record));
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                return;
+            }
+        }
+    }
+
+    private static TokenEvent decode(ByteBuffer record) {
+        TokenEvent.Type type = TokenEvent.Type.values()[record.get()];
+        long time = record.getLong();
+        String tokenId = readString(record);
+        String user = readString(record);
+        int roleCount = record.getInt();
+        List<String> roles = null;
+        if( roleCount >= 0 ) {
+            roles = new ArrayList<>(roleCount);
+            for (int i = 0; i < roleCount; i++) {
+                roles.add(readString(record));
+            }
+        }
+        long expiration = record.getLong();
+        return new TokenEvent(type, time, tokenId, user, roles, expiration == NO_EXPIRATION ? null : expiration);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if( value == null ) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if( length < 0 ) {
+            return null;
+        }
+        String value = new String(record.array(), record.arrayOffset() + record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    private static final class Blocks {
+        private final List<Block> sealed;
+        // Summary of the events written since the last sealed block, or null
+        private final Block open;
+
+        private Blocks(List<Block> sealed, Block open) {
+            this.sealed = sealed;
+            this.open = open;
+        }
+    }
+
+    /**
+     * Summary of a run of events in the log.
+     */
+    static final class Block {
+
+        // Offset, end, earliest and latest time, then the filter
+        static final int ENTRY_SIZE = 4 * 8 + BlockBuilder.FILTER_LONGS * 8;
+
+        final long offset;
+        final long end;
+        final long minTime;
+        final long maxTime;
+        private final long[] filter;
+
+        Block(long offset, long end, long minTime, long maxTime, long[] filter) {
+            this.offset = offset;
+            this.end = end;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.filter = filter;
+        }
+
+        boolean mightContain(String user) {
+            int hash = BlockBuilder.mix(user.hashCode());
+            return isSet(hash) && isSet(hash >>> 16);
+        }
+
+        private boolean isSet(int bit) {
+            bit &= BlockBuilder.FILTER_LONGS * 64 - 1;
+            return (filter[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        void write(ByteBuffer entry) {
+            entry.putLong(offset).putLong(end).putLong(minTime).putLong(maxTime);
+            for (long bits : filter) {
+                entry.putLong(bits);
+            }
+        }
+
+        static Block read(ByteBuffer entry) {
+            long offset = entry.getLong();
+            long end = entry.getLong();
+            long minTime = entry.getLong();
+            long maxTime = entry.getLong();
+            long[] filter = new long[BlockBuilder.FILTER_LONGS];
+            for (int i = 0; i < filter.length; i++) {
+                filter[i] = entry.getLong();
+            }
+            return new Block(offset, end, minTime, maxTime, filter);
+        }
+    }
+
+    /**
+     * The block being filled by the writer thread.
+     */
+    private static final class BlockBuilder {
+
+        // 256 bits with two hashes per user: few false positives for the users of a 128 event block
+        static final int FILTER_LONGS = 4;
+
+        private final long offset;
+        private long end;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+        private final long[] filter = new long[FILTER_LONGS];
+        private int count;
+
+        private BlockBuilder(long offset) {
+            this.offset = offset;
+            this.end = offset;
+        }
+
+        void add(TokenEvent event, long eventEnd) {
+            end = eventEnd;
+            minTime = Math.min(minTime, event.getTime());
+            maxTime = Math.max(maxTime, event.getTime());
+            if( event.getUser() != null ) {
+                int hash = mix(event.getUser().hashCode());
+                set(hash);
+                set(hash >>> 16);
+            }
+            count++;
+        }
+
+        private void set(int bit) {
+            bit &= FILTER_LONGS * 64 - 1;
+            filter[bit >>> 6] |= 1L << bit;
+        }
+
+        Block build() {
+            return new Block(offset, end, minTime, maxTime, filter.clone());
+        }
+
+        static int mix(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 15);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.giulianobortolassi.jwt.history;
+
+import com.giulianobortolassi.jwt.token.RateLimitedLogger;
+import com.giulianobortolassi.jwt.token.Token;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Audit trail of the issued and revoked tokens, kept after the tokens are gone from the repository.
+ * <p>
+ * Recording an event only places it in an {@link EventRing}, without locking nor waiting: when the ring is full the
+ * event is dropped and counted ({@code jwt.history.dropped}), so auditing never slows down issuing. A single writer
+ * thread drains the ring into one {@link HistorySegment} per {@code segment-duration}, hourly by default, and
+ * deletes the segments older than {@code retention}.
+ * <p>
+ * Enabled with {@code jwt.history.enabled=true}. When disabled, recording does nothing and queries are refused.
+ */
+@Component
+public class HistoryStore {
+
+    private static final Logger log = Logger.getLogger(HistoryStore.class.getName());
+
+    private static final int MAX_BATCH = 1024;
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Value("${jwt.history.enabled:false}")
+    private boolean ENABLED = false;
+
+    @Value("${jwt.history.directory:data/history}")
+    private String DIRECTORY = "data/history";
+
+    @Value("${jwt.history.segment-duration:3600000}")
+    private long SEGMENT_DURATION = TimeUnit.HOURS.toMillis(1);
+
+    /** Segments are deleted once all their events are older than this. 0 keeps them forever. */
+    @Value("${jwt.history.retention:2592000000}")
+    private long RETENTION = TimeUnit.DAYS.toMillis(30);
+
+    /** Most events waiting for the writer. */
+    @Value("${jwt.history.buffer-size:65536}")
+    private int BUFFER_SIZE = 65_536;
+
+    @Autowired(required = false)
+    private MeterRegistry registry;
+
+    private final RateLimitedLogger failureLog = new RateLimitedLogger(log, TimeUnit.SECONDS.toMillis(10));
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final ConcurrentSkipListMap<Long, HistorySegment> segments = new ConcurrentSkipListMap<>();
+
+    private EventRing<TokenEvent> ring;
+
+    private Path directory;
+
+    private Thread writer;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    void init() throws IOException {
+        if( !ENABLED ) {
+            return;
+        }
+        directory = Paths.get(DIRECTORY);
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if( name.startsWith(HistorySegment.PREFIX) && name.endsWith(HistorySegment.LOG_SUFFIX) ) {
+                    long start = Long.parseLong(name.substring(HistorySegment.PREFIX.length(),
+                            name.length() - HistorySegment.LOG_SUFFIX.length()));
+                    segments.put(start, HistorySegment.recover(directory, start));
+                }
+            }
+        }
+        if( registry != null ) {
+            FunctionCounter.builder("jwt.history.dropped", dropped, AtomicLong::get)
+                    .description("Token events not recorded because the history writer fell behind")
+                    .register(registry);
+        }
+        ring = new EventRing<>(BUFFER_SIZE);
+        running = true;
+        writer = new Thread(this::writeLoop, "token-history-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Write the events already recorded and close the segment files.
+     */
+    @PreDestroy
+    void close() throws IOException {
+        if( writer == null ) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (HistorySegment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    public void issued(Token token) {
+        record(TokenEvent.Type.ISSUED, token);
+    }
+
+    public void revoked(Token token) {
+        record(TokenEvent.Type.REVOKED, token);
+    }
+
+    private void record(TokenEvent.Type type, Token token) {
+        if( ring == null ) {
+            return;
+        }
+        long expiration = token.getExpirationMillis();
+        TokenEvent event = new TokenEvent(type, System.currentTimeMillis(), token.getId(), token.getUser(),
+                token.getRoles(), expiration == Token.NO_EXPIRATION ? null : expiration);
+        if( !ring.offer(event) ) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Only the {@code limit} oldest events found so far are kept. Once there are that many, the query narrows to the
+     * events older than the newest of them, so the blocks past it are skipped from their index entry without being
+     * read.
+     * @return the events of the user, or of every user if null, from {@code from} included to {@code to} excluded,
+     *         oldest first, at most {@code limit} of them
+     */
+    public List<TokenEvent> query(String user, long from, long to, int limit) throws IOException {
+        if( ring == null ) {
+            throw new IllegalStateException("Token history is disabled.");
+        }
+        if( limit <= 0 ) {
+            throw new IllegalArgumentException("Limit must be positive.");
+        }
+        // Newest on top, so it is the one to drop. Events of the same millisecond keep the order they were read in
+        Comparator<Found> newestFirst = Comparator.<Found>comparingLong(found -> found.event.getTime())
+                .thenComparingLong(found -> found.order).reversed();
+        PriorityQueue<Found> oldest = new PriorityQueue<>(Math.min(limit, 1024) + 1, newestFirst);
+        LongSupplier bound = () -> oldest.size() < limit ? to : oldest.peek().event.getTime();
+        long[] read = new long[1];
+        // A segment holds the events from its start to its end, plus the stragglers written after it was started
+        Long first = segments.floorKey(from);
+        Map<Long, HistorySegment> candidates = first == null ? segments : segments.tailMap(first);
+        for (HistorySegment segment : candidates.values()) {
+            segment.scan(user, from, bound, event -> {
+                oldest.add(new Found(event, read[0]++));
+                if( oldest.size() > limit ) {
+                    oldest.poll();
+                }
+            });
+            if( segment.getStart() >= bound.getAsLong() ) {
+                break;
+            }
+        }
+        List<Found> sorted = new ArrayList<>(oldest);
+        sorted.sort(newestFirst.reversed());
+        List<TokenEvent> events = new ArrayList<>(sorted.size());
+        for (Found found : sorted) {
+            events.add(found.event);
+        }
+        return events;
+    }
+
+    private static final class Found {
+        private final TokenEvent event;
+        private final long order;
+
+        private Found(TokenEvent event, long order) {
+            this.event = event;
+            this.order = order;
+        }
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    private void writeLoop() {
+        List<TokenEvent> batch = new ArrayList<>(MAX_BATCH);
+        List<byte[]> records = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            TokenEvent event;
+            while (batch.size() < MAX_BATCH && (event = ring.poll()) != null) {
+                batch.add(event);
+            }
+            if( batch.isEmpty() ) {
+                if( !running ) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+            try {
+                write(batch, records);
+            } catch (IOException | RuntimeException e) {
+                dropped.addAndGet(batch.size());
+                failureLog.log(Level.WARNING, "Could not write " + batch.size() + " token events to the history: " + e);
+            }
+            batch.clear();
+            records.clear();
+        }
+    }
+
+    /**
+     * Write the batch to the current segment, starting a new one for the events past its end.
+     */
+    private void write(List<TokenEvent> batch, List<byte[]> records) throws IOException {
+        Map.Entry<Long, HistorySegment> last = segments.lastEntry();
+        HistorySegment current = last == null ? null : last.getValue();
+        int from = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            long start = segmentStart(batch.get(i).getTime());
+            // Events recorded just before a roll but drained after it stay in the newer segment
+            if( current == null || start > current.getStart() ) {
+                if( current != null ) {
+                    current.append(batch.subList(from, i), records);
+                    records.clear();
+                    current.close();
+                }
+                current = HistorySegment.recover(directory, start);
+                segments.put(start, current);
+                from = i;
+                deleteExpired(batch.get(i).getTime());
+            }
+            records.add(HistorySegment.encode(batch.get(i)));
+        }
+        current.append(batch.subList(from, batch.size()), records);
+    }
+
+    private long segmentStart(long time) {
+        return time - Math.floorMod(time, SEGMENT_DURATION);
+    }
+
+    private void deleteExpired(long now) throws IOException {
+        if( RETENTION <= 0 ) {
+            return;
+        }
+        for (HistorySegment segment : segments.headMap(segmentStart(now - RETENTION)).values()) {
+            segments.remove(segment.getStart());
+            segment.close();
+            segment.delete();
+        }
+    }
+}
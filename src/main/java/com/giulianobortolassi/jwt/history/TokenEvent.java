@@ -0,0 +1,55 @@
+package com.giulianobortolassi.jwt.history;
+
+import java.util.List;
+
+/**
+ * A token issued or revoked, as kept by the {@link HistoryStore}.
+ */
+public class TokenEvent {
+
+    public enum Type { ISSUED, REVOKED }
+
+    private final Type type;
+    private final long time;
+    private final String tokenId;
+    private final String user;
+    private final List<String> roles;
+    private final Long expirationTime;
+
+    /**
+     * @param time when it happened, in epoch milliseconds
+     * @param expirationTime when the token expires, in epoch milliseconds, or null if it does not
+     */
+    public TokenEvent(Type type, long time, String tokenId, String user, List<String> roles, Long expirationTime) {
+        this.type = type;
+        this.time = time;
+        this.tokenId = tokenId;
+        this.user = user;
+        this.roles = roles;
+        this.expirationTime = expirationTime;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public List<String> getRoles() {
+        return roles;
+    }
+
+    public Long getExpirationTime() {
+        return expirationTime;
+    }
+}
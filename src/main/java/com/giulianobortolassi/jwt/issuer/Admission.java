@@ -0,0 +1,21 @@
+package com.giulianobortolassi.jwt.issuer;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Puts a controller method under the concurrency limit of a budget of {@link AdmissionControl}.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Admission {
+
+    /**
+     * Requests that mostly verify a token, and requests that sign new ones, which cost several times more.
+     */
+    enum Budget { CHECK, ISSUE }
+
+    Budget value();
+}
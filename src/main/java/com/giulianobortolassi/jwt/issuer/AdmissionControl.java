@@ -0,0 +1,234 @@
+package com.giulianobortolassi.jwt.issuer;
+
+import com.giulianobortolassi.jwt.token.RateLimitedLogger;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.util.ServletRequestPathUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sheds load on the token endpoints instead of queueing it. Requests to methods marked with {@link Admission} run
+ * within the {@link ConcurrencyLimit} of their budget, and requests over it are refused at once with an HTTP 503 and
+ * a {@code Retry-After}, so the ones admitted keep their usual latency. Validation and issuance have budgets of their
+ * own, so a login peak does not shed validations, which are an order of magnitude cheaper.
+ * <p>
+ * This is the first filter of the request, and the latency of a request is measured from there. A request only gets
+ * there once Tomcat hands it a thread though, and a request waiting for one is invisible to the limits. So on a pool
+ * of platform threads, the budgets together hold fewer requests than {@code server.tomcat.threads.max}: the threads
+ * left always pick up the requests over the limits, and refuse them within microseconds. Larger limits are capped at
+ * startup. On virtual threads, every request gets a thread of its own, and the limits are the only bound. Tomcat only
+ * runs requests on virtual threads from Java 21 on, so enabling them on an older runtime fails at startup.
+ * <p>
+ * Meters, tagged with {@code budget}: {@code jwt.admission.limit}, {@code jwt.admission.inflight} and
+ * {@code jwt.admission.rejected}. Disabled with {@code jwt.admission.enabled=false}.
+ */
+@Component
+public class AdmissionControl extends OncePerRequestFilter implements SmartInitializingSingleton {
+
+    private static final Logger log = Logger.getLogger(AdmissionControl.class.getCanonicalName());
+
+    private static final RateLimitedLogger sheddingLog = new RateLimitedLogger(log, TimeUnit.SECONDS.toMillis(10));
+
+    @Value("${jwt.admission.enabled:true}")
+    private boolean ENABLED = true;
+
+    @Value("${jwt.admission.window:100}")
+    private long WINDOW = 100;
+
+    @Value("${jwt.admission.retry-after:1}")
+    private int RETRY_AFTER = 1;
+
+    @Value("${jwt.admission.check.initial-limit:100}")
+    private int CHECK_INITIAL_LIMIT = 100;
+
+    @Value("${jwt.admission.check.min-limit:20}")
+    private int CHECK_MIN_LIMIT = 20;
+
+    @Value("${jwt.admission.check.max-limit:150}")
+    private int CHECK_MAX_LIMIT = 150;
+
+    @Value("${jwt.admission.issue.initial-limit:20}")
+    private int ISSUE_INITIAL_LIMIT = 20;
+
+    @Value("${jwt.admission.issue.min-limit:4}")
+    private int ISSUE_MIN_LIMIT = 4;
+
+    @Value("${jwt.admission.issue.max-limit:30}")
+    private int ISSUE_MAX_LIMIT = 30;
+
+    @Value("${server.tomcat.threads.max:200}")
+    private int MAX_THREADS = 200;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean VIRTUAL_THREADS = false;
+
+    @Autowired(required = false)
+    private MeterRegistry registry;
+
+    @Autowired(required = false)
+    private ApplicationContext context;
+
+    private final ConcurrencyLimit[] limits = new ConcurrencyLimit[Admission.Budget.values().length];
+
+    /** Request mappings of the methods with a budget, and the budget of each, in the same order. */
+    private volatile RequestMappingInfo[] mappings = new RequestMappingInfo[0];
+    private volatile Admission.Budget[] budgets = new Admission.Budget[0];
+
+    @PostConstruct
+    void init() {
+        if( VIRTUAL_THREADS && Runtime.version().feature() < 21 ) {
+            // Tomcat would quietly keep its platform pool, behind the connection limits raised for virtual threads
+            throw new IllegalStateException("spring.threads.virtual.enabled, set by the virtual profile, needs Java 21 "
+                    + "or later, this is Java " + Runtime.version().feature() + ".");
+        }
+        if( !VIRTUAL_THREADS ) {
+            capToThreads();
+        }
+        limits[Admission.Budget.CHECK.ordinal()] = new ConcurrencyLimit(CHECK_INITIAL_LIMIT, CHECK_MIN_LIMIT, CHECK_MAX_LIMIT, WINDOW);
+        limits[Admission.Budget.ISSUE.ordinal()] = new ConcurrencyLimit(ISSUE_INITIAL_LIMIT, ISSUE_MIN_LIMIT, ISSUE_MAX_LIMIT, WINDOW);
+        if( registry == null ) {
+            return;
+        }
+        for (Admission.Budget budget : Admission.Budget.values()) {
+            ConcurrencyLimit limit = limits[budget.ordinal()];
+            String tag = budget.name().toLowerCase(Locale.ROOT);
+            Gauge.builder("jwt.admission.limit", limit, ConcurrencyLimit::getLimit)
+                    .description("Requests allowed in flight")
+                    .tag("budget", tag)
+                    .register(registry);
+            Gauge.builder("jwt.admission.inflight", limit, ConcurrencyLimit::getInflight)
+                    .description("Requests in flight")
+                    .tag("budget", tag)
+                    .register(registry);
+            FunctionCounter.builder("jwt.admission.rejected", limit, ConcurrencyLimit::getRejected)
+                    .description("Requests refused over the limit")
+                    .tag("budget", tag)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Shrink the maximum limits, in proportion, until a tenth of the request threads is left to refuse requests.
+     */
+    private void capToThreads() {
+        int budgeted = CHECK_MAX_LIMIT + ISSUE_MAX_LIMIT;
+        int available = MAX_THREADS - Math.max(1, MAX_THREADS / 10);
+        if( budgeted <= available ) {
+            return;
+        }
+        if( CHECK_MIN_LIMIT + ISSUE_MIN_LIMIT > available ) {
+            throw new IllegalStateException("jwt.admission.check.min-limit and jwt.admission.issue.min-limit hold more "
+                    + "requests than the " + available + " of the " + MAX_THREADS + " request threads left to them.");
+        }
+        int checkMax = Math.max(CHECK_MIN_LIMIT, (int) ((long) CHECK_MAX_LIMIT * available / budgeted));
+        int issueMax = Math.max(ISSUE_MIN_LIMIT, available - checkMax);
+        checkMax = available - issueMax;
+        log.warning("The admission limits of " + CHECK_MAX_LIMIT + " validations and " + ISSUE_MAX_LIMIT
+                + " issuances would hold every one of the " + MAX_THREADS + " request threads, capping them to "
+                + checkMax + " and " + issueMax + ".");
+        CHECK_MAX_LIMIT = checkMax;
+        ISSUE_MAX_LIMIT = issueMax;
+    }
+
+    /**
+     * Find the controller methods with a budget, once every mapping is registered.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if( context != null ) {
+            setHandlerMethods(context.getBean("requestMappingHandlerMapping", RequestMappingHandlerMapping.class)
+                    .getHandlerMethods());
+        }
+    }
+
+    void setHandlerMethods(Map<RequestMappingInfo, HandlerMethod> handlerMethods) {
+        List<RequestMappingInfo> mappings = new ArrayList<>();
+        List<Admission.Budget> budgets = new ArrayList<>();
+        for (Map.Entry<RequestMappingInfo, HandlerMethod> entry : handlerMethods.entrySet()) {
+            Admission admission = entry.getValue().getMethodAnnotation(Admission.class);
+            if( admission != null ) {
+                mappings.add(entry.getKey());
+                budgets.add(admission.value());
+            }
+        }
+        this.budgets = budgets.toArray(new Admission.Budget[0]);
+        this.mappings = mappings.toArray(new RequestMappingInfo[0]);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        Admission.Budget budget = ENABLED ? budgetOf(request) : null;
+        if( budget == null ) {
+            chain.doFilter(request, response);
+            return;
+        }
+        ConcurrencyLimit limit = limits[budget.ordinal()];
+        if( !limit.tryAcquire() ) {
+            sheddingLog.log(Level.WARNING, "Shedding " + budget + " requests over the limit of "
+                    + limit.getLimit() + " in flight.");
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, Integer.toString(RETRY_AFTER));
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            limit.release(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the budget of the method handling the request, or null if it has none.
+     */
+    private Admission.Budget budgetOf(HttpServletRequest request) {
+        RequestMappingInfo[] mappings = this.mappings;
+        Admission.Budget[] budgets = this.budgets;
+        boolean parsed = ServletRequestPathUtils.hasParsedRequestPath(request);
+        if( !parsed ) {
+            ServletRequestPathUtils.parseAndCache(request);
+        }
+        try {
+            for (int i = 0; i < mappings.length; i++) {
+                if( mappings[i].getMatchingCondition(request) != null ) {
+                    return budgets[i];
+                }
+            }
+            return null;
+        } finally {
+            if( !parsed ) {
+                ServletRequestPathUtils.clearParsedRequestPath(request);
+            }
+        }
+    }
+
+    ConcurrencyLimit getLimit(Admission.Budget budget) {
+        return limits[budget.ordinal()];
+    }
+}
@@ -0,0 +1,135 @@
+package com.giulianobortolassi.jwt.issuer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive limit of the requests in flight, after the gradient algorithm of Netflix's concurrency-limits.
+ * <p>
+ * By Little's law, the concurrency a server sustains is its throughput times its latency. Rather than guessing
+ * either, the limit follows how latency reacts: every window, the average latency of the window is compared with a
+ * slow moving average. When requests queue up, the window gets slower than the average and the limit shrinks in
+ * proportion; otherwise it grows by its square root, the queue allowed for. Windows where fewer than half the slots
+ * were used say nothing about the limit and leave it as is.
+ * <p>
+ * Acquiring and releasing are a couple of atomic operations. The limit is recomputed by whichever request completes
+ * a window, without blocking the others.
+ */
+final class ConcurrencyLimit {
+
+    private static final int MIN_SAMPLES = 10;
+
+    /** Weight of the new limit, so one noisy window does not swing it. */
+    private static final double SMOOTHING = 0.2;
+
+    /** Windows averaged by the long-term latency, a minute at the default window. */
+    private static final int LONG_WINDOWS = 600;
+
+    /** How much slower than the long-term latency a window can be before the limit shrinks. */
+    private static final double TOLERANCE = 1.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long windowNanos;
+
+    private volatile double limit;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicInteger peakInflight = new AtomicInteger();
+    private final LongAdder latencySum = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicBoolean updating = new AtomicBoolean();
+    private volatile long nextUpdate = System.nanoTime();
+
+    // Only touched by the thread updating the limit
+    private double longLatency;
+
+    /**
+     * @param windowMillis how often the limit is recomputed, given enough requests completed meanwhile
+     */
+    ConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long windowMillis) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * @return false if the limit is reached, in which case the request must be refused without calling
+     *         {@link #release}
+     */
+    boolean tryAcquire() {
+        int current = inflight.incrementAndGet();
+        if( current > (int) limit ) {
+            inflight.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        if( current > peakInflight.get() ) {
+            peakInflight.accumulateAndGet(current, Math::max);
+        }
+        return true;
+    }
+
+    /**
+     * @param latencyNanos how long the request was in flight
+     */
+    void release(long latencyNanos) {
+        inflight.decrementAndGet();
+        latencySum.add(latencyNanos);
+        samples.increment();
+        long now = System.nanoTime();
+        if( now - nextUpdate >= 0 && samples.sum() >= MIN_SAMPLES && updating.compareAndSet(false, true) ) {
+            try {
+                update(now);
+            } finally {
+                updating.set(false);
+            }
+        }
+    }
+
+    private void update(long now) {
+        long count = samples.sumThenReset();
+        long sum = latencySum.sumThenReset();
+        int peak = peakInflight.getAndSet(inflight.get());
+        nextUpdate = now + windowNanos;
+        if( count == 0 ) {
+            return;
+        }
+        double shortLatency = Math.max(1, (double) sum / count);
+        if( longLatency == 0 ) {
+            longLatency = shortLatency;
+        } else {
+            longLatency += (shortLatency - longLatency) / LONG_WINDOWS;
+        }
+        if( longLatency / shortLatency > 2 ) {
+            // Latency is back down after an overload: forget it faster
+            longLatency *= 0.95;
+        }
+        double current = limit;
+        if( peak < current / 2 ) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatency / shortLatency));
+        double next = current * gradient + Math.sqrt(current);
+        next = current * (1 - SMOOTHING) + next * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    int getLimit() {
+        return (int) limit;
+    }
+
+    int getInflight() {
+        return inflight.get();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+}
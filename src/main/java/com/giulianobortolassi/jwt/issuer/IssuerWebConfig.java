@@ -0,0 +1,21 @@
+package com.giulianobortolassi.jwt.issuer;
+
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Puts the public token endpoints under {@link AdmissionControl}, ahead of every other filter.
+ */
+@Configuration
+public class IssuerWebConfig {
+
+    @Bean
+    public FilterRegistrationBean<AdmissionControl> admissionControlRegistration(AdmissionControl admissionControl) {
+        FilterRegistrationBean<AdmissionControl> registration = new FilterRegistrationBean<>(admissionControl);
+        registration.addUrlPatterns("/v1/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+}
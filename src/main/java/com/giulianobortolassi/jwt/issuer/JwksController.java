@@ -0,0 +1,50 @@
+package com.giulianobortolassi.jwt.issuer;
+
+
+import com.giulianobortolassi.jwt.key.KeyRing;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Publish the public keys used to sign tokens as a JWK set (RFC 7517).
+ * Resource servers can cache this document and verify asymmetric tokens locally, asking this service only about
+ * revocation. Clients revalidate with the ETag, and get an HTTP 304 while the keys did not change.
+ * <p>
+ * With HMAC signing the set is always empty: shared secrets are never published.
+ */
+@RestController
+@RequestMapping("/.well-known/jwks.json")
+public class JwksController {
+
+    @Autowired
+    private KeyRing keyRing;
+
+    /** How long, in seconds, clients may use the key set without revalidating it. */
+    @Value("${jwt.jwks.max-age:300}")
+    private long MAX_AGE = 300;
+
+    @RequestMapping(method = RequestMethod.GET )
+    public ResponseEntity<String> keys(WebRequest request) {
+        KeyRing.PublishedKeys keys = keyRing.getPublishedKeys();
+        CacheControl cacheControl = CacheControl.maxAge(MAX_AGE, TimeUnit.SECONDS).cachePublic();
+
+        if( request.checkNotModified(keys.getEtag()) ) {
+            return ResponseEntity.status(304).eTag(keys.getEtag()).cacheControl(cacheControl).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(keys.getEtag())
+                .cacheControl(cacheControl)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(keys.getJson());
+    }
+}
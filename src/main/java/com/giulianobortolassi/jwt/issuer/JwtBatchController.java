@@ -0,0 +1,117 @@
+package com.giulianobortolassi.jwt.issuer;
+
+
+import com.giulianobortolassi.jwt.token.Token;
+import com.giulianobortolassi.jwt.token.TokenCheckResult;
+import com.giulianobortolassi.jwt.token.TokenRequest;
+import com.giulianobortolassi.jwt.token.TokenService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Batch variants of {@link JwtIssuesController}, for callers handling many tokens at once, like gateways.
+ * Every endpoint accepts a JSON array and answers with one {@link TokenBatchItem} per element, in the same order.
+ * A batch larger than {@code jwt.batch.max-size} is rejected with an HTTP 400.
+ */
+@RestController
+@RequestMapping("/v1")
+public class JwtBatchController {
+
+    @Autowired
+    private TokenService tokenService;
+
+    @Value("${jwt.batch.max-size:1000}")
+    private int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * Issue one token per request. Null requests and requests without a user are answered with an INVALID item, and
+     * requests of users holding too many active tokens, when the session limit rejects new ones, with a REJECTED item.
+     */
+    @Admission(Admission.Budget.ISSUE)
+    @RequestMapping(value = "/token:batch", method = RequestMethod.POST )
+    public ResponseEntity<List<TokenBatchItem>> generateTokens(@RequestBody List<TokenRequest> requests) {
+        if( requests.size() > MAX_BATCH_SIZE ) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        List<TokenRequest> acceptedRequests = new ArrayList<>(requests.size());
+        for (TokenRequest request : requests) {
+            if( isValid(request) ) {
+                acceptedRequests.add(request);
+            }
+        }
+        List<Token> tokens = tokenService.generateTokens(acceptedRequests);
+
+        List<TokenBatchItem> items = new ArrayList<>(requests.size());
+        int issued = 0;
+        for (TokenRequest request : requests) {
+            if( isValid(request) ) {
+                Token token = tokens.get(issued++);
+                items.add(token != null ? new TokenBatchItem(TokenBatchItem.ISSUED, token.getToken())
+                        : new TokenBatchItem(TokenBatchItem.REJECTED, null));
+            } else {
+                items.add(new TokenBatchItem(TokenBatchItem.INVALID_REQUEST, null));
+            }
+        }
+        return ResponseEntity.ok().body(items);
+    }
+
+    /**
+     * Validate every token. VALID items carry the token back, like {@link JwtIssuesController#checkToken(String)}.
+     */
+    @Admission(Admission.Budget.CHECK)
+    @RequestMapping(value = "/token/validate:batch", method = RequestMethod.POST )
+    public ResponseEntity<List<TokenBatchItem>> checkTokens(@RequestBody List<String> tokens) {
+        if( tokens.size() > MAX_BATCH_SIZE ) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        List<TokenCheckResult> results = tokenService.checkTokens(nonNull(tokens));
+        List<TokenBatchItem> items = new ArrayList<>(results.size());
+        for (TokenCheckResult result : results) {
+            items.add(new TokenBatchItem(result.getStatus().name(), result.isValid() ? result.getToken().getToken() : null));
+        }
+        return ResponseEntity.ok().body(items);
+    }
+
+    /**
+     * Revoke every token. Tokens revoked by this call are answered with a REVOKED item.
+     */
+    @Admission(Admission.Budget.CHECK)
+    @RequestMapping(value = "/token/revoke:batch", method = RequestMethod.POST )
+    public ResponseEntity<List<TokenBatchItem>> revokeTokens(@RequestBody List<String> tokens) {
+        if( tokens.size() > MAX_BATCH_SIZE ) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        List<TokenCheckResult> results = tokenService.revokeTokens(nonNull(tokens));
+        List<TokenBatchItem> items = new ArrayList<>(results.size());
+        for (TokenCheckResult result : results) {
+            items.add(new TokenBatchItem(result.isValid() ? TokenBatchItem.REVOKED : result.getStatus().name(), null));
+        }
+        return ResponseEntity.ok().body(items);
+    }
+
+    private static boolean isValid(TokenRequest request) {
+        return request != null && request.getUser() != null && !request.getUser().isEmpty();
+    }
+
+    private static List<String> nonNull(List<String> tokens) {
+        if( !tokens.contains(null) ) {
+            return tokens;
+        }
+        List<String> copy = new ArrayList<>(tokens);
+        Collections.replaceAll(copy, null, "");
+        return copy;
+    }
+}
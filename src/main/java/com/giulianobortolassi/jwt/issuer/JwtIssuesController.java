@@ -1,7 +1,10 @@
 package com.giulianobortolassi.jwt.issuer;
 
 
+import com.giulianobortolassi.jwt.token.RateLimitedLogger;
+import com.giulianobortolassi.jwt.token.SessionLimitExceededException;
 import com.giulianobortolassi.jwt.token.Token;
+import com.giulianobortolassi.jwt.token.TokenCheckResult;
 import com.giulianobortolassi.jwt.token.TokenExpiredException;
 import com.giulianobortolassi.jwt.token.TokenNotFoundException;
 import com.giulianobortolassi.jwt.token.TokenService;
@@ -16,6 +19,9 @@ import org.springframework.web.bind.annotation.RestController;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -30,12 +36,27 @@ import java.util.Objects;
 @RequestMapping("/v1/token")
 public class JwtIssuesController {
 
+    private static final Logger log = Logger.getLogger(JwtIssuesController.class.getCanonicalName());
+
+    private static final RateLimitedLogger revocationLog = new RateLimitedLogger(log, TimeUnit.SECONDS.toMillis(10));
+
+    private static final String INVALID_TOKEN = "Invalid Token.";
+
+    private static final String TOO_MANY_SESSIONS = "Too many active tokens.";
+
     @Autowired
     private TokenService tokenService;
 
     private final int MAX_CREDENTIALS = 10;
 
 
+    /**
+     * Issue a token to the user.
+     *
+     * @return a HTTP 200 and the token as the body, or an HTTP 429 if the user holds too many active tokens and
+     * {@code jwt.session.overflow} is set to reject new ones.
+     */
+    @Admission(Admission.Budget.ISSUE)
     @RequestMapping(method = RequestMethod.POST )
     public ResponseEntity<String> generateToken(String user, String credentials) {
         if( user == null || user.isEmpty() ) {
@@ -47,7 +68,12 @@ public class JwtIssuesController {
             prividedCredentials = List.of(credentials.split(",",MAX_CREDENTIALS));
         }
 
-        Token token = tokenService.generateToken(user, prividedCredentials);
+        Token token;
+        try {
+            token = tokenService.generateToken(user, prividedCredentials);
+        } catch (SessionLimitExceededException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body( TOO_MANY_SESSIONS );
+        }
 
         return new ResponseEntity<>(token.getToken(), HttpStatus.OK );
     }
@@ -58,18 +84,18 @@ public class JwtIssuesController {
      * @param token The challenging token.
      * @return a HTTP 200 and the token as the body if the token is valid with. An HTTP 403
      * <a href="https://tools.ietf.org/html/rfc7231#section-6.5.3">RFC7231</a> if token has expired or was not found.
+     * @see TokenIntrospectionController to get the user and roles of the token instead
      */
+    @Admission(Admission.Budget.CHECK)
     @RequestMapping(value = "/{token:.+}", method = RequestMethod.GET )
     public ResponseEntity<String> checkToken(@PathVariable(name = "token") String token){
-        try {
-            Token token1 = tokenService.checkToken(token);
-            return ResponseEntity.ok().body( token1.getToken() );
-        } catch ( TokenExpiredException e ) {
-            e.printStackTrace();
+        TokenCheckResult result = tokenService.validate(token);
+        if( !result.isValid() ) {
             return ResponseEntity
                     .status(HttpStatus.FORBIDDEN)
-                    .body("Invalid Token.");
+                    .body(INVALID_TOKEN);
         }
+        return ResponseEntity.ok().body( result.getToken().getToken() );
     }
 
     /**
@@ -79,16 +105,17 @@ public class JwtIssuesController {
      * @return an HTTP 200 if the token was invalidated. An HTTP 410 to indicate
      * that it was not a token generated by this server
      */
+    @Admission(Admission.Budget.CHECK)
     @RequestMapping(value = "/{token:.+}", method = RequestMethod.DELETE )
     public ResponseEntity<String> invalidateToken(@PathVariable(name = "token") String token){
         try {
             tokenService.revokeToken(token);
             return ResponseEntity.ok().build();
         } catch (TokenExpiredException | TokenNotFoundException e ) {
-            e.printStackTrace();
+            revocationLog.log(Level.INFO, "Refused to revoke an invalid token.");
             return ResponseEntity
                     .status(HttpStatus.GONE)
-                    .body("Invalid Token.");
+                    .body(INVALID_TOKEN);
         }
     }
 }
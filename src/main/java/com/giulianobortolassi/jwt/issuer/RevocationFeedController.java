@@ -0,0 +1,68 @@
+package com.giulianobortolassi.jwt.issuer;
+
+
+import com.giulianobortolassi.jwt.revocation.BloomFilter;
+import com.giulianobortolassi.jwt.revocation.RevocationDelta;
+import com.giulianobortolassi.jwt.revocation.RevocationList;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+
+/**
+ * Revocation feed for clients validating tokens locally.
+ * A client either keeps its own set of revoked ids up to date by pulling deltas, or pulls a Bloom filter snapshot
+ * and only asks this service about the tokens the filter may contain.
+ */
+@RestController
+@RequestMapping("/v1/revocations")
+public class RevocationFeedController {
+
+    public static final String VERSION_HEADER = "X-Revocation-Version";
+    public static final String FILTER_BITS_HEADER = "X-Bloom-Bits";
+    public static final String FILTER_HASHES_HEADER = "X-Bloom-Hashes";
+
+    @Autowired
+    private RevocationList revocationList;
+
+    /**
+     * @param since the last version the client applied. Zero returns every tracked revocation.
+     * @param epoch the epoch of that version, as returned with it
+     * @return the revocations after the given version and the epoch and version to ask from next time. A version the
+     * feed does not know, after a restart or from another node, is answered with every tracked revocation, flagged
+     * as a reset.
+     */
+    @RequestMapping(method = RequestMethod.GET )
+    public ResponseEntity<RevocationDelta> changes(@RequestParam(name = "since", defaultValue = "0") long since,
+                                                   @RequestParam(name = "epoch", required = false) String epoch) {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .body(revocationList.getChangesSince(epoch, since));
+    }
+
+    /**
+     * @return the Bloom filter bits. The layout and hash functions are described in {@link BloomFilter}.
+     */
+    @RequestMapping(value = "/filter", method = RequestMethod.GET )
+    public ResponseEntity<byte[]> filter(WebRequest request) {
+        BloomFilter filter = revocationList.getFilter();
+        String etag = "\"" + filter.getVersion() + "-" + filter.getPruned() + "-" + filter.getBitCount() + "\"";
+        if( request.checkNotModified(etag) ) {
+            return ResponseEntity.status(304).eTag(etag).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .header(VERSION_HEADER, String.valueOf(filter.getVersion()))
+                .header(FILTER_BITS_HEADER, String.valueOf(filter.getBitCount()))
+                .header(FILTER_HASHES_HEADER, String.valueOf(filter.getHashCount()))
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(filter.toByteArray());
+    }
+}
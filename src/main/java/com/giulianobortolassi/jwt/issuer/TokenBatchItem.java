@@ -0,0 +1,35 @@
+package com.giulianobortolassi.jwt.issuer;
+
+/**
+ * Per-item result of a batch request.
+ */
+public class TokenBatchItem {
+
+    public static final String ISSUED = "ISSUED";
+    public static final String REVOKED = "REVOKED";
+    public static final String INVALID_REQUEST = "INVALID";
+    public static final String REJECTED = "REJECTED";
+
+    private final String status;
+    private final String token;
+
+    public TokenBatchItem(String status, String token) {
+        this.status = status;
+        this.token = token;
+    }
+
+    /**
+     * @return ISSUED or REVOKED on success, INVALID for a bad issue request, REJECTED for a user holding too many
+     * tokens, otherwise the validation status of the token.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the JWT of an issued or valid token, null otherwise.
+     */
+    public String getToken() {
+        return token;
+    }
+}
@@ -0,0 +1,71 @@
+package com.giulianobortolassi.jwt.issuer;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.giulianobortolassi.jwt.token.Token;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Introspection response, as defined by <a href="https://tools.ietf.org/html/rfc7662#section-2.2">RFC7662</a>.
+ * Inactive tokens only carry {@code active}, so the response does not tell why a token was refused.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TokenIntrospection {
+
+    static final TokenIntrospection INACTIVE = new TokenIntrospection(false, null, null, null, null);
+
+    private final boolean active;
+    private final String sub;
+    private final List<String> roles;
+    private final Long exp;
+    private final Long iat;
+
+    public TokenIntrospection(boolean active, String sub, List<String> roles, Long exp, Long iat) {
+        this.active = active;
+        this.sub = sub;
+        this.roles = roles;
+        this.exp = exp;
+        this.iat = iat;
+    }
+
+    /**
+     * Describe a valid stored token. With sliding expiration, {@code exp} is the renewed expiration, not the one
+     * signed in the JWT.
+     */
+    public static TokenIntrospection of(Token token) {
+        long expiration = token.getExpirationMillis();
+        return new TokenIntrospection(true, token.getUser(), token.getRoles(),
+                expiration == Token.NO_EXPIRATION ? null : expiration / 1000, seconds(token.getIssuedTime()));
+    }
+
+    private static Long seconds(Date date) {
+        return date != null ? date.getTime() / 1000 : null;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public String getSub() {
+        return sub;
+    }
+
+    public List<String> getRoles() {
+        return roles;
+    }
+
+    /**
+     * @return when the token expires, in epoch seconds
+     */
+    public Long getExp() {
+        return exp;
+    }
+
+    /**
+     * @return when the token was issued, in epoch seconds
+     */
+    public Long getIat() {
+        return iat;
+    }
+}
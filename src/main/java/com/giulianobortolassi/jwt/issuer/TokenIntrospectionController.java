@@ -0,0 +1,53 @@
+package com.giulianobortolassi.jwt.issuer;
+
+
+import com.giulianobortolassi.jwt.token.TokenCheckResult;
+import com.giulianobortolassi.jwt.token.TokenService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+
+/**
+ * Token introspection, as defined by <a href="https://tools.ietf.org/html/rfc7662">RFC7662</a>, for resource servers
+ * that need the user and roles of a token without parsing the JWT themselves. The answer comes from the stored
+ * token, and a token validated recently is not verified again.
+ */
+@RestController
+@RequestMapping("/v1/token/introspect")
+public class TokenIntrospectionController {
+
+    private static final String BEARER = "Bearer ";
+
+    @Autowired
+    private TokenService tokenService;
+
+    /**
+     * Describe the token sent as the {@code token} form parameter, or as a bearer token in the {@code Authorization}
+     * header.
+     *
+     * @return an HTTP 200 with {@code active} set to false if the token is not valid, or an HTTP 400 if no token
+     * was sent.
+     */
+    @Admission(Admission.Budget.CHECK)
+    @RequestMapping(method = RequestMethod.POST )
+    public ResponseEntity<TokenIntrospection> introspect(@RequestParam(name = "token", required = false) String token,
+                                                         @RequestHeader(name = HttpHeaders.AUTHORIZATION, required = false) String authorization){
+        if( token == null && authorization != null && authorization.regionMatches(true, 0, BEARER, 0, BEARER.length()) ) {
+            token = authorization.substring(BEARER.length()).trim();
+        }
+        if( token == null || token.isEmpty() ) {
+            return ResponseEntity.badRequest().build();
+        }
+        TokenCheckResult result = tokenService.validate(token);
+        if( !result.isValid() ) {
+            return ResponseEntity.ok().body(TokenIntrospection.INACTIVE);
+        }
+        return ResponseEntity.ok().body(TokenIntrospection.of(result.getToken()));
+    }
+}
@@ -0,0 +1,361 @@
+package com.giulianobortolassi.jwt.key;
+
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.LocatorAdapter;
+import io.jsonwebtoken.security.Jwks;
+import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureAlgorithm;
+import io.jsonwebtoken.security.SignatureException;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Keys used to sign and verify tokens.
+ * <p>
+ * There is always one active key, used to sign new tokens, and a window of verification keys looked up by the
+ * JWT {@code kid} header. With rotation enabled, time is split in epochs of {@code jwt.keyring.rotation-period}
+ * milliseconds and the key of every epoch is derived from {@code jwt.signkey}. Every node sharing the secret
+ * derives the same keys, so rotation needs no coordination, and a token signed by a node that has already moved
+ * to the next epoch can be verified by one that has not.
+ * <p>
+ * The last {@code jwt.keyring.verification-keys} epochs are accepted. Rotation period times the number of
+ * verification keys minus one should be longer than the token expiration time, otherwise live tokens are
+ * rejected once their key leaves the window.
+ * <p>
+ * With rotation disabled (the default) the secret itself is the only key, identified as {@value #DEFAULT_KEY_ID}.
+ * Tokens without a {@code kid} header are verified with it too.
+ * <p>
+ * With {@code jwt.keyring.algorithm} set to ES256 or EdDSA, tokens are signed with a key pair generated by this
+ * node instead. The public keys are published as a JWK set, so resource servers can verify tokens locally. With
+ * rotation, the pair of the next epoch is generated and published one epoch ahead of signing with it, so resource
+ * servers caching the set for {@code jwt.jwks.max-age} already know it when it becomes active; the rotation period
+ * must be longer than that max age. Generated key pairs only live in memory and on this node: a restart invalidates
+ * the tokens signed before it, and startup fails when an asymmetric algorithm is combined with
+ * {@code jwt.replication.enabled}, as the other nodes could neither verify nor publish them.
+ */
+@Component
+public class KeyRing extends LocatorAdapter<Key> {
+
+    private static final Logger log = Logger.getLogger(KeyRing.class.getCanonicalName());
+
+    public static final String DEFAULT_KEY_ID = "default";
+
+    private static final String EPOCH_KEY_PREFIX = "e";
+
+    private static final String DERIVATION_ALGORITHM = "HmacSHA256";
+
+    private static final String HMAC_ALGORITHM = "HS256";
+
+    @Value("${jwt.signkey}")
+    private String SIGN_KEY = "myKey";
+
+    /** Rotation period in milliseconds. Zero or less disables rotation. */
+    @Value("${jwt.keyring.rotation-period:0}")
+    private long ROTATION_PERIOD = 0;
+
+    @Value("${jwt.keyring.verification-keys:3}")
+    private int VERIFICATION_KEYS = 3;
+
+    /** JWS algorithm: HS256, ES256 or EdDSA */
+    @Value("${jwt.keyring.algorithm:HS256}")
+    private String ALGORITHM = HMAC_ALGORITHM;
+
+    /** How long, in seconds, resource servers may cache the published keys. */
+    @Value("${jwt.jwks.max-age:300}")
+    private long JWKS_MAX_AGE = 300;
+
+    @Value("${jwt.replication.enabled:false}")
+    private boolean REPLICATION_ENABLED = false;
+
+    private final ConcurrentHashMap<String, SigningKey> verificationKeys = new ConcurrentHashMap<>();
+
+    /** Generated key pairs already signed with, oldest first. Only used with an asymmetric algorithm. */
+    private final Deque<SigningKey> generatedKeys = new ArrayDeque<>();
+
+    /** Key pair published ahead of the next rotation. Only used with an asymmetric algorithm and rotation. */
+    private SigningKey nextKey;
+
+    private SignatureAlgorithm signatureAlgorithm;
+
+    private volatile PublishedKeys publishedKeys;
+
+    private volatile SigningKey activeKey;
+
+    private volatile long activeEpoch;
+
+    @PostConstruct
+    void init() {
+        if( VERIFICATION_KEYS < 1 ) {
+            throw new IllegalStateException("jwt.keyring.verification-keys must be at least 1.");
+        }
+        if( !HMAC_ALGORITHM.equals(ALGORITHM) ) {
+            signatureAlgorithm = signatureAlgorithm(ALGORITHM);
+            if( REPLICATION_ENABLED ) {
+                throw new IllegalStateException("jwt.keyring.algorithm " + ALGORITHM + " can not be used with "
+                        + "jwt.replication.enabled: key pairs are generated per node. Use HS256.");
+            }
+            if( isRotationEnabled() && ROTATION_PERIOD <= TimeUnit.SECONDS.toMillis(JWKS_MAX_AGE) ) {
+                throw new IllegalStateException("jwt.keyring.rotation-period must be longer than jwt.jwks.max-age, "
+                        + "so the next key pair is published before it is used.");
+            }
+        }
+        if( isRotationEnabled() || isAsymmetric() ) {
+            rotate(System.currentTimeMillis());
+        } else {
+            SigningKey key = new SigningKey(DEFAULT_KEY_ID, Keys.hmacShaKeyFor(SIGN_KEY.getBytes(StandardCharsets.UTF_8)));
+            verificationKeys.put(key.getId(), key);
+            activeKey = key;
+            publish();
+        }
+    }
+
+    private static SignatureAlgorithm signatureAlgorithm(String algorithm) {
+        if( Jwts.SIG.ES256.getId().equals(algorithm) ) {
+            return Jwts.SIG.ES256;
+        }
+        if( Jwts.SIG.EdDSA.getId().equals(algorithm) ) {
+            return Jwts.SIG.EdDSA;
+        }
+        throw new IllegalStateException("Unsupported jwt.keyring.algorithm " + algorithm + ". Use HS256, ES256 or EdDSA.");
+    }
+
+    /**
+     * @return the key new tokens must be signed with.
+     */
+    public SigningKey getActiveKey() {
+        return activeKey;
+    }
+
+    /**
+     * @return every key currently accepted to verify a token.
+     */
+    public Collection<SigningKey> getVerificationKeys() {
+        return new ArrayList<>(verificationKeys.values());
+    }
+
+    /**
+     * Find the verification key for the given key id.
+     * @param keyId the JWT {@code kid} header. A null id refers to the default key.
+     * @return the key or null if the id is not accepted by this key ring.
+     */
+    public SigningKey getVerificationKey(String keyId) {
+        if( keyId == null ) {
+            keyId = DEFAULT_KEY_ID;
+        }
+        SigningKey key = verificationKeys.get(keyId);
+        if( key == null && isRotationEnabled() && !isAsymmetric() ) {
+            key = deriveIfInWindow(keyId);
+        }
+        return key;
+    }
+
+    @Override
+    protected Key locate(JwsHeader header) {
+        SigningKey key = getVerificationKey(header.getKeyId());
+        if( key == null ) {
+            throw new SignatureException("Unknown signing key.");
+        }
+        return key.getVerificationKey();
+    }
+
+    /**
+     * @return the public keys as a JWK set document, with its entity tag. The set is empty for HMAC keys.
+     */
+    public PublishedKeys getPublishedKeys() {
+        return publishedKeys;
+    }
+
+    /**
+     * Move to the key of the current epoch once its time has come. Cheap when the epoch did not change.
+     */
+    @Scheduled(fixedDelayString = "${jwt.keyring.check-interval:1000}")
+    public void rotateIfDue() {
+        if( isRotationEnabled() && epochOf(System.currentTimeMillis()) != activeEpoch ) {
+            rotate(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Activate the key of the epoch covering the given instant and drop keys that left the verification window.
+     * Lookups keep being served from the concurrent map while this runs.
+     */
+    synchronized void rotate(long nowMillis) {
+        if( isAsymmetric() ) {
+            rotateKeyPair(nowMillis);
+            return;
+        }
+        long epoch = epochOf(nowMillis);
+        SigningKey key = verificationKeys.computeIfAbsent(epochKeyId(epoch), id -> deriveKey(epoch));
+        activeEpoch = epoch;
+        activeKey = key;
+
+        List<String> retired = new ArrayList<>();
+        for (String keyId : verificationKeys.keySet()) {
+            Long keyEpoch = parseEpoch(keyId);
+            if( keyEpoch == null || !isInWindow(keyEpoch) ) {
+                retired.add(keyId);
+            }
+        }
+        retired.forEach(verificationKeys::remove);
+        publish();
+        log.info("Signing key rotated to " + key.getId() + ". Retired keys: " + retired);
+    }
+
+    /**
+     * Activate the key pair published at the previous rotation, and publish the one of the next rotation. Only the
+     * first pair is used as soon as it is generated, at startup, before any token refers to it.
+     */
+    private void rotateKeyPair(long nowMillis) {
+        SigningKey key = nextKey != null ? nextKey : generateKeyPair();
+        nextKey = isRotationEnabled() ? generateKeyPair() : null;
+        generatedKeys.addLast(key);
+        List<String> retired = new ArrayList<>();
+        while (generatedKeys.size() > VERIFICATION_KEYS) {
+            String retiredId = generatedKeys.removeFirst().getId();
+            verificationKeys.remove(retiredId);
+            retired.add(retiredId);
+        }
+        verificationKeys.put(key.getId(), key);
+        if( nextKey != null ) {
+            verificationKeys.put(nextKey.getId(), nextKey);
+        }
+        publish();
+        activeEpoch = isRotationEnabled() ? epochOf(nowMillis) : 0;
+        activeKey = key;
+        log.info("Signing key pair rotated to " + key.getId() + ". Retired keys: " + retired);
+    }
+
+    private SigningKey generateKeyPair() {
+        return new SigningKey(signatureAlgorithm.keyPair().build(), signatureAlgorithm);
+    }
+
+    private void publish() {
+        StringJoiner keys = new StringJoiner(",", "{\"keys\":[", "]}");
+        for (SigningKey key : verificationKeys.values()) {
+            if( key.getPublicJwk() != null ) {
+                keys.add(Jwks.json(key.getPublicJwk()));
+            }
+        }
+        publishedKeys = new PublishedKeys(keys.toString());
+    }
+
+    private boolean isAsymmetric() {
+        return signatureAlgorithm != null;
+    }
+
+    /**
+     * Runs before the signature is checked, so the id comes from anyone: only the canonical spelling of an epoch is
+     * accepted, and the key is stored under the id derived from the epoch, never under the one received.
+     */
+    private SigningKey deriveIfInWindow(String keyId) {
+        Long epoch = parseEpoch(keyId);
+        if( epoch == null || !isInWindow(epoch) ) {
+            return null;
+        }
+        return verificationKeys.computeIfAbsent(epochKeyId(epoch), id -> deriveKey(epoch));
+    }
+
+    /**
+     * Accepted epochs are the last {@code VERIFICATION_KEYS} ones, plus the next one to tolerate clock skew
+     * between nodes around an epoch boundary.
+     */
+    private boolean isInWindow(long epoch) {
+        long current = activeEpoch;
+        return epoch <= current + 1 && epoch > current - VERIFICATION_KEYS;
+    }
+
+    private boolean isRotationEnabled() {
+        return ROTATION_PERIOD > 0;
+    }
+
+    private long epochOf(long millis) {
+        return Math.floorDiv(millis, ROTATION_PERIOD);
+    }
+
+    private static String epochKeyId(long epoch) {
+        return EPOCH_KEY_PREFIX + epoch;
+    }
+
+    /**
+     * @return the epoch of the key id, or null if it is not the id {@link #epochKeyId} gives that epoch, like
+     *         {@code e05} or {@code e+5}
+     */
+    private static Long parseEpoch(String keyId) {
+        if( !keyId.startsWith(EPOCH_KEY_PREFIX) ) {
+            return null;
+        }
+        long epoch;
+        try {
+            epoch = Long.parseLong(keyId.substring(EPOCH_KEY_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return epochKeyId(epoch).equals(keyId) ? epoch : null;
+    }
+
+    /**
+     * Derive the epoch key as HMAC-SHA256(secret, key id), so it can not be used to recover the secret or the
+     * key of another epoch.
+     */
+    private SigningKey deriveKey(long epoch) {
+        String keyId = epochKeyId(epoch);
+        try {
+            Mac mac = Mac.getInstance(DERIVATION_ALGORITHM);
+            mac.init(new SecretKeySpec(SIGN_KEY.getBytes(StandardCharsets.UTF_8), DERIVATION_ALGORITHM));
+            byte[] material = mac.doFinal(keyId.getBytes(StandardCharsets.UTF_8));
+            return new SigningKey(keyId, Keys.hmacShaKeyFor(material));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to derive signing key " + keyId, e);
+        }
+    }
+
+    /**
+     * Immutable JWK set document, rebuilt whenever the verification keys change.
+     */
+    public static final class PublishedKeys {
+        private final String json;
+        private final String etag;
+
+        private PublishedKeys(String json) {
+            this.json = json;
+            this.etag = "\"" + digest(json) + "\"";
+        }
+
+        public String getJson() {
+            return json;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        private static String digest(String json) {
+            try {
+                byte[] hash = MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8));
+                return Base64.getUrlEncoder().withoutPadding().encodeToString(hash).substring(0, 22);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("SHA-256 is not available.", e);
+            }
+        }
+    }
+}
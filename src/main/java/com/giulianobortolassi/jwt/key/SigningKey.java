@@ -0,0 +1,93 @@
+package com.giulianobortolassi.jwt.key;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Jwks;
+import io.jsonwebtoken.security.PublicJwk;
+import io.jsonwebtoken.security.SecureDigestAlgorithm;
+import io.jsonwebtoken.security.SignatureAlgorithm;
+
+import javax.crypto.SecretKey;
+import java.security.Key;
+import java.security.KeyPair;
+
+/**
+ * A key of the {@link KeyRing}, identified by the value written to the JWT {@code kid} header.
+ * It is either an HMAC secret, used both to sign and verify, or a key pair whose public half can be published.
+ */
+public class SigningKey {
+
+    private final String id;
+    private final Key signingKey;
+    private final Key verificationKey;
+    private final SecureDigestAlgorithm<Key, Key> algorithm;
+    /** Public JWK of an asymmetric key. Null for HMAC secrets, which must never leave the server. */
+    private final PublicJwk<?> publicJwk;
+
+    /**
+     * Create an HS256 key.
+     */
+    public SigningKey(String id, SecretKey key) {
+        this.id = id;
+        this.signingKey = key;
+        this.verificationKey = key;
+        this.algorithm = generic(Jwts.SIG.HS256);
+        this.publicJwk = null;
+    }
+
+    /**
+     * Create an asymmetric key. The key id is the RFC 7638 thumbprint of the public key, so it is unique even
+     * across nodes generating their own keys.
+     */
+    public SigningKey(KeyPair keyPair, SignatureAlgorithm algorithm) {
+        this.publicJwk = Jwks.builder().key(keyPair.getPublic())
+                .algorithm(algorithm.getId())
+                .publicKeyUse("sig")
+                .idFromThumbprint()
+                .build();
+        this.id = publicJwk.getId();
+        this.signingKey = keyPair.getPrivate();
+        this.verificationKey = keyPair.getPublic();
+        this.algorithm = generic(algorithm);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the key used to sign new tokens.
+     */
+    public Key getSigningKey() {
+        return signingKey;
+    }
+
+    /**
+     * @return the key used to verify the signature of tokens carrying this key id.
+     */
+    public Key getVerificationKey() {
+        return verificationKey;
+    }
+
+    /**
+     * @return the JWS algorithm tokens are signed with.
+     */
+    public SecureDigestAlgorithm<Key, Key> getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return the public JWK to publish, or null for HMAC keys.
+     */
+    public PublicJwk<?> getPublicJwk() {
+        return publicJwk;
+    }
+
+    /**
+     * The key type was checked when the key was created, so the algorithm can be used with the plain
+     * {@link Key} type returned by the getters.
+     */
+    @SuppressWarnings("unchecked")
+    private static SecureDigestAlgorithm<Key, Key> generic(SecureDigestAlgorithm<?, ?> algorithm) {
+        return (SecureDigestAlgorithm<Key, Key>) algorithm;
+    }
+}
@@ -1,18 +1,36 @@
 package com.giulianobortolassi.jwt.manager;
 
 
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.giulianobortolassi.jwt.history.HistoryStore;
+import com.giulianobortolassi.jwt.history.TokenEvent;
 import com.giulianobortolassi.jwt.token.Token;
 import com.giulianobortolassi.jwt.token.TokenExpiredException;
+import com.giulianobortolassi.jwt.token.TokenExpiryTask;
+import com.giulianobortolassi.jwt.token.TokenFilter;
 import com.giulianobortolassi.jwt.token.TokenNotFoundException;
 import com.giulianobortolassi.jwt.token.TokenService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 
 /**
@@ -20,25 +38,155 @@ import java.util.List;
  * This API should not be exposed to other applications, and may be used only wit administrative
  * credentials.
  *  Actions
- *    - Revoke active tokens
- *    - List active tokens
- *    - Check issued token history
+ *    - Revoke active tokens, one by one or every token of a user or with a role
+ *    - List active tokens a page at a time, or export them all as a stream, optionally filtered
+ *    - Check issued and revoked token history, when {@code jwt.history.enabled} is set
  *
  */
 @RestController
 @RequestMapping("/v1/manager/token")
 public class JwtManagerController {
 
+    private static final Logger log = Logger.getLogger(JwtManagerController.class.getCanonicalName());
+
+    // Same settings as the JSON responses of the controllers, so both listings format tokens alike
+    private static final ObjectWriter VIEW_WRITER = Jackson2ObjectMapperBuilder.json().build().writerFor(TokenView.class);
+
     @Autowired
     private TokenService tokenService;
 
+    @Autowired
+    private TokenExpiryTask tokenExpiryTask;
+
+    @Autowired
+    private HistoryStore history;
+
+    /**
+     * List the active tokens a page at a time, ordered by id. Pass the {@code next} cursor of a page as {@code after}
+     * to get the following one. Tokens can be filtered by user, by role and by expiration time, in epoch milliseconds.
+     *
+     * @return the page, or an HTTP 400 if {@code limit} is not between 1 and {@link TokenService#MAX_PAGE_SIZE}.
+     */
     @RequestMapping(method = RequestMethod.GET )
-    public ResponseEntity<List<Token>> listTokens(String token){
-        List<Token> tokens = tokenService.listActiveTokens();
+    public ResponseEntity<TokenPage> listTokens(@RequestParam(name = "user", required = false) String user,
+                                                @RequestParam(name = "role", required = false) String role,
+                                                @RequestParam(name = "expiresAfter", required = false) Long expiresAfter,
+                                                @RequestParam(name = "expiresBefore", required = false) Long expiresBefore,
+                                                @RequestParam(name = "after", required = false) String after,
+                                                @RequestParam(name = "limit", defaultValue = "100") int limit){
+        if( limit <= 0 || limit > TokenService.MAX_PAGE_SIZE ) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<Token> tokens = tokenService.listActiveTokens(filter(user, role, expiresAfter, expiresBefore), after, limit);
+        String next = tokens.size() == limit ? tokens.get(tokens.size() - 1).getId() : null;
+        return ResponseEntity.ok().body(new TokenPage(views(tokens), next));
+    }
+
+    /**
+     * Export the active tokens as newline delimited JSON, one {@link TokenView} per line, written while the
+     * repository is walked. Takes the same filters as {@link #listTokens}.
+     */
+    @RequestMapping(value = "/export", method = RequestMethod.GET )
+    public ResponseEntity<StreamingResponseBody> exportTokens(@RequestParam(name = "user", required = false) String user,
+                                                              @RequestParam(name = "role", required = false) String role,
+                                                              @RequestParam(name = "expiresAfter", required = false) Long expiresAfter,
+                                                              @RequestParam(name = "expiresBefore", required = false) Long expiresBefore){
+        TokenFilter filter = filter(user, role, expiresAfter, expiresBefore);
+        StreamingResponseBody body = out -> {
+            try {
+                tokenService.exportActiveTokens(filter, token -> {
+                    try {
+                        out.write(VIEW_WRITER.writeValueAsBytes(TokenView.of(token)));
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                // Most likely the client went away, which ends the walk
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    private static List<TokenView> views(List<Token> tokens) {
+        List<TokenView> views = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            views.add(TokenView.of(token));
+        }
+        return views;
+    }
+
+    private static TokenFilter filter(String user, String role, Long expiresAfter, Long expiresBefore) {
+        return new TokenFilter(user, role,
+                expiresAfter != null ? new Date(expiresAfter) : null,
+                expiresBefore != null ? new Date(expiresBefore) : null);
+    }
+
+    /**
+     * Repository counters, used to keep an eye on heap usage of long running nodes.
+     *
+     * @return the number of stored tokens and how many expired tokens were evicted so far.
+     */
+    @RequestMapping(value = "/stats", method = RequestMethod.GET )
+    public ResponseEntity<Map<String, Long>> stats(){
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("live", tokenExpiryTask.getLiveCount());
+        stats.put("evicted", tokenExpiryTask.getEvictedCount());
+        return ResponseEntity.ok().body(stats);
+    }
+
+    /**
+     * Tokens issued and revoked between {@code from} included and {@code to} excluded, in epoch milliseconds, oldest
+     * first. The last 24 hours by default.
+     *
+     * @return the events, an HTTP 400 if {@code limit} is not between 1 and {@link TokenService#MAX_PAGE_SIZE}, or an
+     *         HTTP 404 if the history is disabled.
+     */
+    @RequestMapping(value = "/history", method = RequestMethod.GET )
+    public ResponseEntity<List<TokenEvent>> history(@RequestParam(name = "user", required = false) String user,
+                                                    @RequestParam(name = "from", required = false) Long from,
+                                                    @RequestParam(name = "to", required = false) Long to,
+                                                    @RequestParam(name = "limit", defaultValue = "100") int limit) throws IOException {
+        if( !history.isEnabled() ) {
+            return ResponseEntity.notFound().build();
+        }
+        if( limit <= 0 || limit > TokenService.MAX_PAGE_SIZE ) {
+            return ResponseEntity.badRequest().build();
+        }
+        long end = to != null ? to : System.currentTimeMillis() + 1;
+        long start = from != null ? from : end - TimeUnit.DAYS.toMillis(1);
+        return ResponseEntity.ok().body(history.query(user, start, end, limit));
+    }
+
+    @RequestMapping(value = "/user/{user}", method = RequestMethod.GET )
+    public ResponseEntity<List<TokenView>> listUserTokens(@PathVariable(name = "user") String user){
+        return ResponseEntity.ok().body(views(tokenService.listActiveTokensForUser(user)));
+    }
+
+    /**
+     * Log a user out everywhere.
+     *
+     * @return how many tokens were revoked.
+     */
+    @RequestMapping(value = "/user/{user}", method = RequestMethod.DELETE )
+    public ResponseEntity<Map<String, Integer>> revokeUserTokens(@PathVariable(name = "user") String user){
+        int revoked = tokenService.revokeAllForUser(user).size();
+        log.info("Revoked " + revoked + " tokens of a user.");
+        return ResponseEntity.ok().body(Collections.singletonMap("revoked", revoked));
+    }
 
-        // TODO: remove token sign keys
-        tokens.forEach(token1 -> token1.setSignKey("***"));
-        return ResponseEntity.ok().body(tokens);
+    /**
+     * Revoke every token granting a role, once the role is withdrawn.
+     *
+     * @return how many tokens were revoked.
+     */
+    @RequestMapping(value = "/role/{role}", method = RequestMethod.DELETE )
+    public ResponseEntity<Map<String, Integer>> revokeRoleTokens(@PathVariable(name = "role") String role){
+        int revoked = tokenService.revokeAllWithRole(role).size();
+        log.info("Revoked " + revoked + " tokens with role " + role + ".");
+        return ResponseEntity.ok().body(Collections.singletonMap("revoked", revoked));
     }
 
     @RequestMapping(value = "/{tokenId:.+}", method = RequestMethod.DELETE )
@@ -46,8 +194,7 @@ public class JwtManagerController {
         try {
             tokenService.revokeToken(token);
         } catch (TokenNotFoundException | TokenExpiredException e) {
-            e.printStackTrace();
-            // Log trying to expire token
+            log.info("Tried to revoke an invalid or unknown token.");
         }
         return ResponseEntity.ok().body("Token expired.");
     }
@@ -0,0 +1,22 @@
+package com.giulianobortolassi.jwt.manager;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Streamed responses, like the token export, run as async requests. The container timeout of those is meant for
+ * short requests, and would cut the export of a large repository.
+ */
+@Configuration
+public class ManagerWebConfig implements WebMvcConfigurer {
+
+    @Value("${jwt.manager.export-timeout:600000}")
+    private long EXPORT_TIMEOUT = 600_000; // default to 10min
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(EXPORT_TIMEOUT);
+    }
+}
@@ -0,0 +1,28 @@
+package com.giulianobortolassi.jwt.manager;
+
+import java.util.List;
+
+/**
+ * A page of the token listing of the manager API.
+ */
+public class TokenPage {
+
+    private final List<TokenView> tokens;
+    private final String next;
+
+    public TokenPage(List<TokenView> tokens, String next) {
+        this.tokens = tokens;
+        this.next = next;
+    }
+
+    public List<TokenView> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * @return the cursor to pass as {@code after} for the next page, null on the last page.
+     */
+    public String getNext() {
+        return next;
+    }
+}
@@ -0,0 +1,52 @@
+package com.giulianobortolassi.jwt.manager;
+
+import com.giulianobortolassi.jwt.token.Token;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * What the manager API shows of a stored token. The signed JWT is left out, since whoever reads it can use it, and
+ * the stored token itself is never modified.
+ */
+public class TokenView {
+
+    private final String id;
+    private final String user;
+    private final List<String> roles;
+    private final Date issuedTime;
+    private final Date expirationTime;
+
+    public TokenView(String id, String user, List<String> roles, Date issuedTime, Date expirationTime) {
+        this.id = id;
+        this.user = user;
+        this.roles = roles;
+        this.issuedTime = issuedTime;
+        this.expirationTime = expirationTime;
+    }
+
+    public static TokenView of(Token token) {
+        return new TokenView(token.getId(), token.getUser(), token.getRoles(), token.getIssuedTime(),
+                token.getExpirationTime());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public List<String> getRoles() {
+        return roles;
+    }
+
+    public Date getIssuedTime() {
+        return issuedTime;
+    }
+
+    public Date getExpirationTime() {
+        return expirationTime;
+    }
+}
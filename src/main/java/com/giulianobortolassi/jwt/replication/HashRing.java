@@ -0,0 +1,98 @@
+package com.giulianobortolassi.jwt.replication;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring of the cluster nodes. Every node is placed at {@link #VIRTUAL_NODES} points of a 64-bit ring,
+ * and a key is owned by the first distinct nodes met walking the ring from the hash of the key. Adding or removing a
+ * node only moves the keys next to its points, about 1/n of them, and the many points even out the share of each
+ * node.
+ * <p>
+ * Immutable, and lookups are a binary search over a sorted array.
+ */
+public final class HashRing {
+
+    static final int VIRTUAL_NODES = 128;
+
+    private final List<String> nodes;
+
+    private final long[] points;
+
+    private final String[] pointNodes;
+
+    public HashRing(Collection<String> nodes) {
+        if( nodes.isEmpty() ) {
+            throw new IllegalArgumentException("A ring needs at least one node.");
+        }
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String node : nodes) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                // A collision only loses a point
+                ring.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        this.points = new long[ring.size()];
+        this.pointNodes = new String[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            pointNodes[i] = point.getValue();
+            i++;
+        }
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @param count how many owners, at most the number of nodes
+     * @return the owners of the key, the primary one first
+     */
+    public List<String> owners(String key, int count) {
+        count = Math.min(count, nodes.size());
+        List<String> owners = new ArrayList<>(count);
+        int start = Arrays.binarySearch(points, hash(key));
+        if( start < 0 ) {
+            start = -start - 1;
+        }
+        for (int i = 0; owners.size() < count; i++) {
+            String node = pointNodes[(start + i) % points.length];
+            if( !owners.contains(node) ) {
+                owners.add(node);
+            }
+        }
+        return owners;
+    }
+
+    /**
+     * @return whether the node is one of the {@code count} owners of the key
+     */
+    public boolean isOwner(String node, String key, int count) {
+        return owners(key, count).contains(node);
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes, followed by the MurmurHash3 finalizer so close keys land far apart.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,95 @@
+package com.giulianobortolassi.jwt.replication;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Transport between nodes running in the same JVM, so a whole cluster can be run on one machine. Each node receives
+ * on a thread of its own, so delivery is asynchronous and ordered like over a socket, and nodes can be cut off from
+ * the {@link Network} to simulate failures.
+ */
+public class InProcessTransport implements Transport {
+
+    /**
+     * The nodes that can reach each other.
+     */
+    public static class Network {
+
+        private final ConcurrentHashMap<String, InProcessTransport> nodes = new ConcurrentHashMap<>();
+
+        private final Set<String> disconnected = ConcurrentHashMap.newKeySet();
+
+        /**
+         * @return the transport of a node. It replaces any previous transport of the node once started.
+         */
+        public InProcessTransport join(String node) {
+            return new InProcessTransport(this, node);
+        }
+
+        /**
+         * Drop every message from or to the node, including the ones already on their way, until it is reconnected.
+         */
+        public void disconnect(String node) {
+            disconnected.add(node);
+        }
+
+        public void reconnect(String node) {
+            disconnected.remove(node);
+        }
+
+        private boolean reachable(String from, String to) {
+            return !disconnected.contains(from) && !disconnected.contains(to);
+        }
+    }
+
+    private final Network network;
+
+    private final String node;
+
+    private final ExecutorService inbox;
+
+    private volatile Receiver receiver;
+
+    private InProcessTransport(Network network, String node) {
+        this.network = network;
+        this.node = node;
+        this.inbox = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "replication-inbox-" + node);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start(Receiver receiver) {
+        this.receiver = receiver;
+        network.nodes.put(node, this);
+    }
+
+    @Override
+    public void send(String to, byte[] message) throws IOException {
+        InProcessTransport target = network.nodes.get(to);
+        if( target == null || !network.reachable(node, to) ) {
+            throw new IOException("Node " + to + " is unreachable.");
+        }
+        try {
+            target.inbox.execute(() -> {
+                if( network.reachable(node, to) ) {
+                    target.receiver.receive(node, message);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Node " + to + " is stopped.", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        network.nodes.remove(node, this);
+        inbox.shutdownNow();
+    }
+}
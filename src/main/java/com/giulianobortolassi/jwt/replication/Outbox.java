@@ -0,0 +1,127 @@
+package com.giulianobortolassi.jwt.replication;
+
+import com.giulianobortolassi.jwt.token.RateLimitedLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The events on their way to one peer. A single thread sends whatever queued up while the previous message was in
+ * flight as one batch, so messages grow larger, not more frequent, as the write rate goes up.
+ * <p>
+ * Events are numbered in the order they were queued. An event that cannot be delivered, because the queue is full
+ * or the peer unreachable, is dropped but still uses up its number, so the peer sees a gap in the sequence and
+ * catches up through anti-entropy. Memory stays bounded however long a peer is down.
+ */
+final class Outbox implements Closeable {
+
+    private static final Logger log = Logger.getLogger(Outbox.class.getName());
+
+    private static final long POLL_MILLIS = 100;
+
+    private static final long RETRY_MILLIS = 1000;
+
+    private final String peer;
+
+    private final Transport transport;
+
+    private final long session;
+
+    private final int maxBatch;
+
+    private final BlockingQueue<byte[]> queue;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final RateLimitedLogger failureLog = new RateLimitedLogger(log, TimeUnit.SECONDS.toMillis(10));
+
+    private final Thread sender;
+
+    private volatile boolean running = true;
+
+    // Only touched by the sender thread
+    private long nextSequence;
+
+    /**
+     * @param session identifies this run of the node, so the peer can tell a restart from a gap
+     * @param maxBatch most events per message
+     * @param capacity most events waiting to be sent
+     */
+    Outbox(String peer, Transport transport, long session, int maxBatch, int capacity) {
+        this.peer = peer;
+        this.transport = transport;
+        this.session = session;
+        this.maxBatch = maxBatch;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.sender = new Thread(this::sendLoop, "replication-outbox-" + peer);
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * Queue an event without blocking.
+     */
+    void add(byte[] record) {
+        if( !running || !queue.offer(record) ) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Send what is already queued, as long as the peer can be reached, and stop.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendLoop() {
+        List<byte[]> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                byte[] first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if( first == null ) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                send(batch);
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<byte[]> batch) throws InterruptedException {
+        long firstSequence = nextSequence + dropped.getAndSet(0);
+        nextSequence = firstSequence + batch.size();
+        try {
+            transport.send(peer, ReplicationMessages.events(session, firstSequence, batch));
+        } catch (IOException e) {
+            // The peer catches up once it is back, so what queued up meanwhile is dropped as well
+            List<byte[]> pending = new ArrayList<>();
+            queue.drainTo(pending);
+            dropped.addAndGet(pending.size());
+            failureLog.log(Level.WARNING, "Could not replicate " + (batch.size() + pending.size()) + " events to "
+                    + peer + ": " + e.getMessage());
+            if( running ) {
+                Thread.sleep(RETRY_MILLIS);
+            }
+        }
+    }
+}
@@ -0,0 +1,844 @@
+package com.giulianobortolassi.jwt.replication;
+
+import com.giulianobortolassi.jwt.token.RateLimitedLogger;
+import com.giulianobortolassi.jwt.token.Token;
+import com.giulianobortolassi.jwt.token.TokenNotFoundException;
+import com.giulianobortolassi.jwt.token.TokenRecords;
+import com.giulianobortolassi.jwt.token.TokenRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Token repository that replicates the changes of the local repository to the other nodes of the cluster, so a token
+ * issued by one node validates on any other.
+ * <p>
+ * Every token is held by {@code replicas} owners on a {@link HashRing}, or by every node when it is 0. Registers,
+ * renewals and removals are applied to the local repository, then queued to the other owners of the token and sent
+ * in ordered batches by an {@link Outbox} per peer, without waiting for them. A node that does not own a token asks
+ * its owners for it when it is looked up.
+ * <p>
+ * Replicas merge what they receive: the latest expiration wins, and a removed token is remembered until it expires,
+ * so it never comes back. The outcome depends neither on the order nor on the number of times a change arrives,
+ * which lets anti-entropy catch up with plain copies: a node compares a digest per bucket of ids with a peer, and
+ * pulls the tokens of the buckets that differ. It does so with every peer on startup, with a random peer
+ * periodically, and with a peer whose events skipped sequence numbers.
+ * <p>
+ * Removals received from peers are handed to the {@link RemovalListener}s, so the services of this node learn about
+ * revocations made elsewhere. Listings, counts and lookups by user or role only cover the tokens held by this node.
+ * Enabled with {@code jwt.replication.enabled=true}, over the repository selected by {@code jwt.repository.type}.
+ */
+@Primary
+@Repository
+@ConditionalOnProperty(name = "jwt.replication.enabled", havingValue = "true")
+public class ReplicatedTokenRepository implements TokenRepository {
+
+    private static final Logger log = Logger.getLogger(ReplicatedTokenRepository.class.getName());
+
+    static final int BUCKETS = 1024;
+
+    private static final int LOCK_STRIPES = 64;
+
+    private static final long SYNC_TIMEOUT_MINUTES = 5;
+
+    @Value("${jwt.replication.node}")
+    private String NODE;
+
+    /** Every node of the cluster, this one included, as {@code name=host:port} separated by commas. */
+    @Value("${jwt.replication.nodes}")
+    private String NODES;
+
+    /** Shared by every node, which proves it knows it when connecting to another. */
+    @Value("${jwt.replication.secret:}")
+    private String SECRET;
+
+    @Value("${jwt.replication.replicas:0}")
+    private int REPLICAS = 0;
+
+    @Value("${jwt.replication.max-batch:1024}")
+    private int MAX_BATCH = 1024;
+
+    @Value("${jwt.replication.queue-capacity:100000}")
+    private int QUEUE_CAPACITY = 100_000;
+
+    /** Messages from peers waiting to be merged, or lookups waiting to be answered, before new ones are dropped. */
+    @Value("${jwt.replication.inbox-capacity:1024}")
+    private int INBOX_CAPACITY = 1024;
+
+    @Value("${jwt.replication.lookup-timeout:200}")
+    private long LOOKUP_TIMEOUT = 200;
+
+    @Value("${jwt.default.expirationtime:600000}")
+    private long EXPIRATION_TIME = 600_000;
+
+    @Autowired
+    private List<TokenRepository> repositories;
+
+    private final RateLimitedLogger failureLog = new RateLimitedLogger(log, TimeUnit.SECONDS.toMillis(10));
+
+    // Tells the events of this run of the node apart from the ones sent before a restart
+    private final long session = ThreadLocalRandom.current().nextLong();
+
+    // Expiration time of the removed tokens, by id
+    private final ConcurrentHashMap<String, Long> removed = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, EventStream> streams = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Sync> syncs = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Long, CompletableFuture<List<Token>>> lookups = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestIds = new AtomicLong();
+
+    private final List<RemovalListener> removalListeners = new CopyOnWriteArrayList<>();
+
+    // Merging a received change reads and then writes the token, under the lock of its id
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final Map<String, Outbox> outboxes = new LinkedHashMap<>();
+
+    private TokenRepository local;
+
+    private HashRing ring;
+
+    private Transport transport;
+
+    private ExecutorService syncExecutor;
+
+    // Merges and lookups are kept off the transport thread, which must keep reading the replies they may wait for
+    private ExecutorService mergeExecutor;
+
+    private ExecutorService lookupExecutor;
+
+    public ReplicatedTokenRepository() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        TokenRepository localRepository = null;
+        for (TokenRepository repository : repositories) {
+            if( repository != this ) {
+                localRepository = repository;
+            }
+        }
+        if( SECRET == null || SECRET.isEmpty() ) {
+            throw new IllegalStateException("jwt.replication.secret must be set when replication is enabled.");
+        }
+        Map<String, InetSocketAddress> addresses = parseNodes(NODES);
+        start(localRepository, new SocketTransport(NODE, addresses, SECRET.getBytes(StandardCharsets.UTF_8)),
+                addresses.keySet());
+    }
+
+    static Map<String, InetSocketAddress> parseNodes(String nodes) {
+        Map<String, InetSocketAddress> addresses = new LinkedHashMap<>();
+        for (String node : nodes.split(",")) {
+            String[] nameAndAddress = node.trim().split("=", 2);
+            int colon = nameAndAddress.length == 2 ? nameAndAddress[1].lastIndexOf(':') : -1;
+            if( colon < 0 ) {
+                throw new IllegalArgumentException("Expected name=host:port, got " + node + ".");
+            }
+            String host = nameAndAddress[1].substring(0, colon);
+            int port = Integer.parseInt(nameAndAddress[1].substring(colon + 1));
+            addresses.put(nameAndAddress[0], new InetSocketAddress(host, port));
+        }
+        return addresses;
+    }
+
+    /**
+     * Join the cluster over the given transport, and catch up with every peer in the background.
+     * @param nodes every node of the cluster, this one included
+     */
+    void start(TokenRepository local, Transport transport, Collection<String> nodes) throws IOException {
+        this.local = local;
+        this.transport = transport;
+        this.ring = new HashRing(nodes);
+        for (String node : nodes) {
+            if( !node.equals(NODE) ) {
+                outboxes.put(node, new Outbox(node, transport, session, MAX_BATCH, QUEUE_CAPACITY));
+            }
+        }
+        syncExecutor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "replication-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mergeExecutor = newInbox("replication-merge");
+        lookupExecutor = newInbox("replication-lookup");
+        transport.start(this::receive);
+        for (String peer : outboxes.keySet()) {
+            syncWith(peer);
+        }
+    }
+
+    /**
+     * A single thread working through at most {@code inbox-capacity} tasks, refusing the others.
+     */
+    private ExecutorService newInbox(String name) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(INBOX_CAPACITY), task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Send what is queued for the peers, and leave the cluster.
+     */
+    @PreDestroy
+    void close() throws IOException {
+        for (Outbox outbox : outboxes.values()) {
+            outbox.close();
+        }
+        syncExecutor.shutdownNow();
+        mergeExecutor.shutdownNow();
+        lookupExecutor.shutdownNow();
+        transport.close();
+    }
+
+    /**
+     * Anti-entropy with a random peer, so changes lost on the way are eventually caught up even without a gap
+     * showing in the events.
+     */
+    @Scheduled(fixedDelayString = "${jwt.replication.sync-interval:30000}")
+    public void syncWithRandomPeer() {
+        List<String> peers = new ArrayList<>(outboxes.keySet());
+        if( !peers.isEmpty() ) {
+            syncWith(peers.get(ThreadLocalRandom.current().nextInt(peers.size())));
+        }
+    }
+
+    /**
+     * A token is only stored on its owners, so a node revoking a token it does not hold cannot leave a copy behind.
+     */
+    @Override
+    public Token registerToken(Token token) {
+        Token registered = owns(token.getId()) ? local.registerToken(token) : token;
+        replicate(registered.getId(), TokenRecords.encodeRegister(registered));
+        return registered;
+    }
+
+    @Override
+    public List<Token> registerTokens(Collection<Token> tokens) {
+        List<Token> registered;
+        if( REPLICAS <= 0 ) {
+            registered = local.registerTokens(tokens);
+        } else {
+            registered = new ArrayList<>(tokens.size());
+            for (Token token : tokens) {
+                registered.add(owns(token.getId()) ? local.registerToken(token) : token);
+            }
+        }
+        for (Token token : registered) {
+            replicate(token.getId(), TokenRecords.encodeRegister(token));
+        }
+        return registered;
+    }
+
+    @Override
+    public Token removeToken(Token token) throws TokenNotFoundException {
+        return removeTokenById(token.getId());
+    }
+
+    /**
+     * A token this node has not received yet is remembered as removed all the same, and so is replicated, so its
+     * register is dropped when it arrives.
+     */
+    @Override
+    public Token removeTokenById(String id) throws TokenNotFoundException {
+        Token removedToken;
+        synchronized (lockFor(id)) {
+            rememberRemoval(id);
+            try {
+                removedToken = local.removeTokenById(id);
+            } catch (TokenNotFoundException e) {
+                removedToken = null;
+            }
+        }
+        if( removedToken == null && !owns(id) ) {
+            removedToken = lookupRemote(Collections.singletonList(id)).get(id);
+        }
+        if( removedToken == null ) {
+            replicateUnknownRemoval(id);
+            throw new TokenNotFoundException();
+        }
+        replicateRemoval(removedToken);
+        return removedToken;
+    }
+
+    @Override
+    public Token getToken(Token token) throws TokenNotFoundException {
+        return getTokenById(token.getId());
+    }
+
+    @Override
+    public Token getTokenById(String id) throws TokenNotFoundException {
+        try {
+            return local.getTokenById(id);
+        } catch (TokenNotFoundException e) {
+            Token token = owns(id) ? null : lookupRemote(Collections.singletonList(id)).get(id);
+            if( token == null ) {
+                throw e;
+            }
+            return token;
+        }
+    }
+
+    @Override
+    public Map<String, Token> getTokensByIds(Collection<String> ids) {
+        Map<String, Token> found = local.getTokensByIds(ids);
+        List<String> elsewhere = new ArrayList<>();
+        for (String id : ids) {
+            if( !found.containsKey(id) && !owns(id) ) {
+                elsewhere.add(id);
+            }
+        }
+        if( elsewhere.isEmpty() ) {
+            return found;
+        }
+        Map<String, Token> all = new HashMap<>(found);
+        all.putAll(lookupRemote(elsewhere));
+        return all;
+    }
+
+    /**
+     * Every removal is remembered before the tokens are removed from the local repository, so a register merged
+     * meanwhile is either removed with the batch or dropped.
+     */
+    @Override
+    public Map<String, Token> removeTokensByIds(Collection<String> ids) {
+        for (String id : ids) {
+            synchronized (lockFor(id)) {
+                rememberRemoval(id);
+            }
+        }
+        Map<String, Token> removedTokens = local.removeTokensByIds(ids);
+        List<String> elsewhere = new ArrayList<>();
+        for (String id : ids) {
+            if( !removedTokens.containsKey(id) && !owns(id) ) {
+                elsewhere.add(id);
+            }
+        }
+        if( !elsewhere.isEmpty() ) {
+            removedTokens = new HashMap<>(removedTokens);
+            removedTokens.putAll(lookupRemote(elsewhere));
+        }
+        for (String id : ids) {
+            Token removedToken = removedTokens.get(id);
+            if( removedToken != null ) {
+                replicateRemoval(removedToken);
+            } else {
+                replicateUnknownRemoval(id);
+            }
+        }
+        return removedTokens;
+    }
+
+    /**
+     * A token this node does not hold, handed back by one of its owners, is renewed on the owners only.
+     */
+    @Override
+    public boolean renewToken(Token token, long expectedMillis, long expirationMillis) {
+        String id = token.getId();
+        if( owns(id) ) {
+            synchronized (lockFor(id)) {
+                if( !local.renewToken(token, expectedMillis, expirationMillis) ) {
+                    return false;
+                }
+            }
+        } else {
+            token.setExpirationMillis(expirationMillis);
+        }
+        replicate(id, TokenRecords.encodeRegister(token));
+        return true;
+    }
+
+    @Override
+    public List<Token> getTokensByUser(String user) {
+        return local.getTokensByUser(user);
+    }
+
+    @Override
+    public List<Token> getTokensByRole(String role) {
+        return local.getTokensByRole(role);
+    }
+
+    @Override
+    public void forEachToken(Consumer<Token> consumer) {
+        local.forEachToken(consumer);
+    }
+
+    @Override
+    public void forEachTokenAfter(String after, Predicate<Token> consumer) {
+        local.forEachTokenAfter(after, consumer);
+    }
+
+    @Override
+    public List<Token> listTokens() {
+        return local.listTokens();
+    }
+
+    /**
+     * Expired tokens are evicted by every node on its own, and the removals that expired are forgotten.
+     */
+    @Override
+    public int evictExpired(long nowMillis) {
+        removed.values().removeIf(expiration -> expiration <= nowMillis);
+        return local.evictExpired(nowMillis);
+    }
+
+    @Override
+    public long countTokens() {
+        return local.countTokens();
+    }
+
+    /**
+     * The listeners are told about the removals received from peers, whether or not this node held the token. A
+     * removal received again, from a sync or another peer, is told again.
+     */
+    @Override
+    public void addRemovalListener(RemovalListener listener) {
+        removalListeners.add(listener);
+    }
+
+    /**
+     * Compare digests with a peer and pull the tokens and removals of the buckets that differ. Only one sync with a
+     * peer runs at a time.
+     * @return completes with the number of changes received, once they are all merged
+     */
+    CompletableFuture<Integer> syncWith(String peer) {
+        Sync sync = new Sync(requestIds.incrementAndGet());
+        Sync running = syncs.putIfAbsent(peer, sync);
+        if( running != null ) {
+            return running.done;
+        }
+        sync.done.orTimeout(SYNC_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+                .whenComplete((received, failure) -> {
+                    syncs.remove(peer, sync);
+                    if( failure != null ) {
+                        failureLog.log(Level.WARNING, "Could not sync the tokens with " + peer + ": " + failure);
+                    } else if( received > 0 ) {
+                        log.info("Caught up " + received + " token changes from " + peer + ".");
+                    }
+                });
+        try {
+            syncExecutor.execute(() -> {
+                try {
+                    transport.send(peer, ReplicationMessages.syncRequest(sync.requestId, digest(peer)));
+                } catch (IOException | RuntimeException e) {
+                    sync.done.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            sync.done.completeExceptionally(e);
+        }
+        return sync.done;
+    }
+
+    private void receive(String from, byte[] bytes) {
+        ByteBuffer message = ByteBuffer.wrap(bytes);
+        try {
+            byte type = message.get();
+            long id = message.getLong();
+            if( type == ReplicationMessages.EVENTS ) {
+                receiveEvents(from, id, message.getLong(), ReplicationMessages.readRecords(message));
+            } else if( type == ReplicationMessages.SYNC_REQUEST ) {
+                long[] digest = ReplicationMessages.readDigest(message);
+                syncExecutor.execute(() -> serveSync(from, id, digest));
+            } else if( type == ReplicationMessages.SYNC_RECORDS ) {
+                receiveSyncRecords(from, id, message.get() != 0, ReplicationMessages.readRecords(message));
+            } else if( type == ReplicationMessages.LOOKUP ) {
+                List<String> ids = ReplicationMessages.readIds(message);
+                try {
+                    lookupExecutor.execute(() -> serveLookup(from, id, ids));
+                } catch (RejectedExecutionException e) {
+                    // The peer gives up on this node after its lookup timeout
+                    failureLog.log(Level.WARNING, "Dropped a token lookup from " + from + ", too many are waiting.");
+                }
+            } else if( type == ReplicationMessages.LOOKUP_REPLY ) {
+                CompletableFuture<List<Token>> lookup = lookups.get(id);
+                if( lookup != null ) {
+                    lookup.complete(decodeTokens(ReplicationMessages.readRecords(message)));
+                }
+            } else {
+                failureLog.log(Level.WARNING, "Dropped a replication message of unknown type " + type + " from " + from + ".");
+            }
+        } catch (RuntimeException e) {
+            failureLog.log(Level.WARNING, "Dropped a malformed replication message from " + from + ": " + e);
+        }
+    }
+
+    private void receiveEvents(String from, long senderSession, long firstSequence, List<ByteBuffer> records) {
+        EventStream stream = streams.computeIfAbsent(from, peer -> new EventStream());
+        boolean gap;
+        synchronized (stream) {
+            // A new session starts at 0, so joining a stream midway is a gap as well
+            long expected = stream.session == senderSession ? stream.nextSequence : 0;
+            gap = firstSequence != expected;
+            stream.session = senderSession;
+            stream.nextSequence = firstSequence + records.size();
+        }
+        try {
+            mergeExecutor.execute(() -> {
+                long now = System.currentTimeMillis();
+                for (ByteBuffer record : records) {
+                    merge(record, now);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            failureLog.log(Level.WARNING, "Dropped " + records.size() + " token changes from " + from
+                    + ", too many are waiting to be merged.");
+            gap = true;
+        }
+        if( gap ) {
+            log.fine("Events from " + from + " skipped sequence numbers, catching up.");
+            syncWith(from);
+        }
+    }
+
+    private void receiveSyncRecords(String from, long requestId, boolean last, List<ByteBuffer> records) {
+        Sync sync = syncs.get(from);
+        if( sync == null || sync.requestId != requestId ) {
+            return;
+        }
+        try {
+            mergeExecutor.execute(() -> {
+                long now = System.currentTimeMillis();
+                for (ByteBuffer record : records) {
+                    merge(record, now);
+                }
+                sync.received += records.size();
+                if( last ) {
+                    sync.done.complete(sync.received);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The next sync with the peer starts over
+            sync.done.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Apply a change received from a peer: the latest expiration wins, and a removal wins over everything.
+     */
+    private void merge(ByteBuffer record, long now) {
+        byte type = record.get();
+        if( type == TokenRecords.REGISTER ) {
+            Token token = TokenRecords.decodeToken(record);
+            long expiration = token.getExpirationMillis();
+            if( (expiration != Token.NO_EXPIRATION && expiration <= now) || removed.containsKey(token.getId()) ) {
+                return;
+            }
+            synchronized (lockFor(token.getId())) {
+                // Removed locally since the check above
+                if( removed.containsKey(token.getId()) ) {
+                    return;
+                }
+                Token stored = local.getTokensByIds(Collections.singletonList(token.getId())).get(token.getId());
+                if( stored == null ) {
+                    local.registerToken(token);
+                } else if( stored.getExpirationMillis() != Token.NO_EXPIRATION && expiration > stored.getExpirationMillis() ) {
+                    local.renewToken(stored, stored.getExpirationMillis(), expiration);
+                }
+            }
+        } else if( type == TokenRecords.REMOVE ) {
+            String id = TokenRecords.readString(record);
+            long expiration = ReplicationMessages.removalExpiration(record);
+            Token removedToken;
+            synchronized (lockFor(id)) {
+                removed.put(id, expiration == Token.NO_EXPIRATION ? Long.MAX_VALUE : expiration);
+                removedToken = local.removeTokensByIds(Collections.singletonList(id)).get(id);
+            }
+            for (RemovalListener listener : removalListeners) {
+                try {
+                    listener.removed(id, expiration, removedToken);
+                } catch (RuntimeException e) {
+                    failureLog.log(Level.WARNING, "A listener failed on the removal of a replicated token: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send a peer the tokens and removals of the buckets where its digest differs from this node's.
+     */
+    private void serveSync(String peer, long requestId, long[] peerDigest) {
+        try {
+            long[] digest = digest(peer);
+            boolean[] differs = new boolean[BUCKETS];
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                differs[bucket] = bucket >= peerDigest.length || digest[bucket] != peerDigest[bucket];
+            }
+            long now = System.currentTimeMillis();
+            List<byte[]> batch = new ArrayList<>(MAX_BATCH);
+            SyncSender sender = new SyncSender(peer, requestId, batch);
+            local.forEachToken(token -> {
+                if( !isExpired(token, now) && differs[bucketOf(token.getId())] && shared(peer, token.getId()) ) {
+                    sender.add(TokenRecords.encodeRegister(token));
+                }
+            });
+            removed.forEach((id, expiration) -> {
+                if( differs[bucketOf(id)] && shared(peer, id) ) {
+                    sender.add(ReplicationMessages.removal(id, expiration));
+                }
+            });
+            sender.finish();
+        } catch (IOException | RuntimeException e) {
+            failureLog.log(Level.WARNING, "Could not send the tokens to sync to " + peer + ": " + e);
+        }
+    }
+
+    /**
+     * @return per bucket, a sum of hashes of the live tokens and removals shared with the peer. The sum does not
+     *         depend on the order of the walk.
+     */
+    private long[] digest(String peer) {
+        long now = System.currentTimeMillis();
+        long[] digest = new long[BUCKETS];
+        local.forEachToken(token -> {
+            String id = token.getId();
+            if( !isExpired(token, now) && shared(peer, id) ) {
+                digest[bucketOf(id)] += HashRing.hash(id + '@' + token.getExpirationMillis());
+            }
+        });
+        removed.forEach((id, expiration) -> {
+            if( shared(peer, id) ) {
+                digest[bucketOf(id)] += HashRing.hash(id + "@removed");
+            }
+        });
+        return digest;
+    }
+
+    private void serveLookup(String from, long requestId, List<String> ids) {
+        List<byte[]> records = new ArrayList<>(ids.size());
+        for (Token token : local.getTokensByIds(ids).values()) {
+            records.add(TokenRecords.encodeRegister(token));
+        }
+        try {
+            transport.send(from, ReplicationMessages.lookupReply(requestId, records));
+        } catch (IOException e) {
+            failureLog.log(Level.WARNING, "Could not answer a token lookup from " + from + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ask the owners of tokens this node does not hold, the primary owner first. Gives up on an owner after
+     * {@code lookup-timeout} milliseconds.
+     * @return the tokens found, by id
+     */
+    private Map<String, Token> lookupRemote(List<String> ids) {
+        Map<String, List<String>> idsByOwner = new HashMap<>();
+        for (String id : ids) {
+            List<String> owners = ring.owners(id, REPLICAS);
+            owners.remove(NODE);
+            if( !owners.isEmpty() ) {
+                idsByOwner.computeIfAbsent(String.join(",", owners), key -> new ArrayList<>()).add(id);
+            }
+        }
+        Map<String, Token> found = new HashMap<>();
+        for (Map.Entry<String, List<String>> owned : idsByOwner.entrySet()) {
+            for (String owner : owned.getKey().split(",")) {
+                List<Token> tokens = lookup(owner, owned.getValue());
+                if( tokens != null ) {
+                    for (Token token : tokens) {
+                        found.put(token.getId(), token);
+                    }
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the tokens the owner holds, or null if it did not answer
+     */
+    private List<Token> lookup(String owner, List<String> ids) {
+        long requestId = requestIds.incrementAndGet();
+        CompletableFuture<List<Token>> reply = new CompletableFuture<>();
+        lookups.put(requestId, reply);
+        try {
+            transport.send(owner, ReplicationMessages.lookup(requestId, ids));
+            return reply.get(LOOKUP_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (IOException | ExecutionException | TimeoutException e) {
+            failureLog.log(Level.WARNING, "Token lookup on " + owner + " failed: " + e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            lookups.remove(requestId);
+        }
+    }
+
+    private void replicate(String id, byte[] record) {
+        if( REPLICAS <= 0 ) {
+            for (Outbox outbox : outboxes.values()) {
+                outbox.add(record);
+            }
+            return;
+        }
+        for (String owner : ring.owners(id, REPLICAS)) {
+            Outbox outbox = outboxes.get(owner);
+            if( outbox != null ) {
+                outbox.add(record);
+            }
+        }
+    }
+
+    /**
+     * Remember a removal before knowing the expiration of the token, if it was not already: tokens last at most
+     * {@code jwt.default.expirationtime}, so a register sent before the removal expires before the removal is
+     * forgotten. Called under the lock of the id.
+     */
+    private void rememberRemoval(String id) {
+        removed.putIfAbsent(id, System.currentTimeMillis() + EXPIRATION_TIME);
+    }
+
+    /**
+     * Replicate the removal of a token no node handed back, which may still be on its way to this node.
+     */
+    private void replicateUnknownRemoval(String id) {
+        Long expiration = removed.get(id);
+        if( expiration != null ) {
+            replicate(id, ReplicationMessages.removal(id, expiration));
+        }
+    }
+
+    private void replicateRemoval(Token token) {
+        long expiration = token.getExpirationMillis();
+        removed.put(token.getId(), expiration == Token.NO_EXPIRATION ? Long.MAX_VALUE : expiration);
+        replicate(token.getId(), ReplicationMessages.removal(token.getId(), expiration));
+    }
+
+    /**
+     * @return whether this node holds the token with the given id
+     */
+    private boolean owns(String id) {
+        return REPLICAS <= 0 || REPLICAS >= ring.getNodes().size() || ring.isOwner(NODE, id, REPLICAS);
+    }
+
+    /**
+     * @return whether both this node and the peer hold the token with the given id
+     */
+    private boolean shared(String peer, String id) {
+        if( REPLICAS <= 0 || REPLICAS >= ring.getNodes().size() ) {
+            return true;
+        }
+        List<String> owners = ring.owners(id, REPLICAS);
+        return owners.contains(NODE) && owners.contains(peer);
+    }
+
+    private static int bucketOf(String id) {
+        return (int) (HashRing.hash(id) >>> 54);
+    }
+
+    private static boolean isExpired(Token token, long nowMillis) {
+        long expiration = token.getExpirationMillis();
+        return expiration != Token.NO_EXPIRATION && expiration <= nowMillis;
+    }
+
+    private static List<Token> decodeTokens(List<ByteBuffer> records) {
+        List<Token> tokens = new ArrayList<>(records.size());
+        for (ByteBuffer record : records) {
+            record.get();
+            tokens.add(TokenRecords.decodeToken(record));
+        }
+        return tokens;
+    }
+
+    private Object lockFor(String id) {
+        return locks[id.hashCode() & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Where the events of a peer are at.
+     */
+    private static final class EventStream {
+        private long session;
+        private long nextSequence;
+    }
+
+    /**
+     * A pull from a peer, waiting for its records.
+     */
+    private static final class Sync {
+        private final long requestId;
+        private final CompletableFuture<Integer> done = new CompletableFuture<>();
+        // Only touched by the merge thread
+        private int received;
+
+        private Sync(long requestId) {
+            this.requestId = requestId;
+        }
+    }
+
+    /**
+     * Sends the records of a sync reply in messages of at most {@code max-batch} records.
+     */
+    private final class SyncSender {
+        private final String peer;
+        private final long requestId;
+        private final List<byte[]> batch;
+
+        private SyncSender(String peer, long requestId, List<byte[]> batch) {
+            this.peer = peer;
+            this.requestId = requestId;
+            this.batch = batch;
+        }
+
+        void add(byte[] record) {
+            batch.add(record);
+            if( batch.size() == MAX_BATCH ) {
+                try {
+                    transport.send(peer, ReplicationMessages.syncRecords(requestId, false, batch));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                batch.clear();
+            }
+        }
+
+        void finish() throws IOException {
+            transport.send(peer, ReplicationMessages.syncRecords(requestId, true, batch));
+            batch.clear();
+        }
+    }
+}
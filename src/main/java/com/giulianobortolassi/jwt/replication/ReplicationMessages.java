@@ -0,0 +1,137 @@
+package com.giulianobortolassi.jwt.replication;
+
+import com.giulianobortolassi.jwt.token.Token;
+import com.giulianobortolassi.jwt.token.TokenRecords;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary form of the messages between replicas. A message starts with its type:
+ * <pre>
+ * EVENTS        session, sequence of the first event, events
+ * SYNC_REQUEST  request id, digest of each bucket
+ * SYNC_RECORDS  request id, whether it is the last message of the reply, events
+ * LOOKUP        request id, token ids
+ * LOOKUP_REPLY  request id, register records of the tokens found
+ * </pre>
+ * Events are the {@link TokenRecords} of the write-ahead log, each preceded by its length. A remove record is
+ * followed by the expiration time of the removed token, so replicas know how long to remember the removal.
+ */
+final class ReplicationMessages {
+
+    static final byte EVENTS = 1;
+
+    static final byte SYNC_REQUEST = 2;
+
+    static final byte SYNC_RECORDS = 3;
+
+    static final byte LOOKUP = 4;
+
+    static final byte LOOKUP_REPLY = 5;
+
+    private ReplicationMessages() {
+    }
+
+    /**
+     * @return a remove record carrying the expiration time of the removed token
+     */
+    static byte[] removal(String id, long expirationMillis) {
+        byte[] record = TokenRecords.encodeRemove(id);
+        return ByteBuffer.allocate(record.length + 8).put(record).putLong(expirationMillis).array();
+    }
+
+    /**
+     * @return the expiration time of a remove record positioned after its id
+     */
+    static long removalExpiration(ByteBuffer record) {
+        return record.remaining() >= 8 ? record.getLong() : Token.NO_EXPIRATION;
+    }
+
+    static byte[] events(long session, long firstSequence, List<byte[]> records) {
+        ByteBuffer message = ByteBuffer.allocate(1 + 8 + 8 + recordsSize(records));
+        message.put(EVENTS).putLong(session).putLong(firstSequence);
+        return putRecords(message, records).array();
+    }
+
+    static byte[] syncRequest(long requestId, long[] digest) {
+        ByteBuffer message = ByteBuffer.allocate(1 + 8 + 4 + digest.length * 8);
+        message.put(SYNC_REQUEST).putLong(requestId).putInt(digest.length);
+        for (long bucket : digest) {
+            message.putLong(bucket);
+        }
+        return message.array();
+    }
+
+    static byte[] syncRecords(long requestId, boolean last, List<byte[]> records) {
+        ByteBuffer message = ByteBuffer.allocate(1 + 8 + 1 + recordsSize(records));
+        message.put(SYNC_RECORDS).putLong(requestId).put((byte) (last ? 1 : 0));
+        return putRecords(message, records).array();
+    }
+
+    static byte[] lookup(long requestId, Collection<String> ids) {
+        List<byte[]> encodedIds = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            encodedIds.add(id.getBytes(StandardCharsets.UTF_8));
+        }
+        ByteBuffer message = ByteBuffer.allocate(1 + 8 + recordsSize(encodedIds));
+        message.put(LOOKUP).putLong(requestId);
+        return putRecords(message, encodedIds).array();
+    }
+
+    static byte[] lookupReply(long requestId, List<byte[]> records) {
+        ByteBuffer message = ByteBuffer.allocate(1 + 8 + recordsSize(records));
+        message.put(LOOKUP_REPLY).putLong(requestId);
+        return putRecords(message, records).array();
+    }
+
+    static long[] readDigest(ByteBuffer message) {
+        long[] digest = new long[message.getInt()];
+        for (int i = 0; i < digest.length; i++) {
+            digest[i] = message.getLong();
+        }
+        return digest;
+    }
+
+    /**
+     * @return the records left in the message, each wrapping its part of the message array
+     */
+    static List<ByteBuffer> readRecords(ByteBuffer message) {
+        int count = message.getInt();
+        List<ByteBuffer> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = message.getInt();
+            records.add(ByteBuffer.wrap(message.array(), message.arrayOffset() + message.position(), length).slice());
+            message.position(message.position() + length);
+        }
+        return records;
+    }
+
+    static List<String> readIds(ByteBuffer message) {
+        List<ByteBuffer> records = readRecords(message);
+        List<String> ids = new ArrayList<>(records.size());
+        for (ByteBuffer id : records) {
+            ids.add(new String(id.array(), id.arrayOffset(), id.remaining(), StandardCharsets.UTF_8));
+        }
+        return ids;
+    }
+
+    private static int recordsSize(List<byte[]> records) {
+        int size = 4;
+        for (byte[] record : records) {
+            size += 4 + record.length;
+        }
+        return size;
+    }
+
+    private static ByteBuffer putRecords(ByteBuffer message, List<byte[]> records) {
+        message.putInt(records.size());
+        for (byte[] record : records) {
+            message.putInt(record.length).put(record);
+        }
+        return message;
+    }
+}
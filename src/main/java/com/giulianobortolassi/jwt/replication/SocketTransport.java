@@ -0,0 +1,326 @@
+package com.giulianobortolassi.jwt.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Transport over TCP, with one connection per direction between two nodes. A connection starts with a handshake,
+ * followed by messages framed as {@code [length][payload]}.
+ * <p>
+ * Both ends prove they know the shared secret without sending it: the accepting node sends a random challenge, the
+ * connecting node answers with its name, a challenge of its own and an HMAC-SHA256 of both challenges and the name,
+ * and the accepting node answers with an HMAC of the same. A connection is also refused unless it comes from the
+ * address configured for the node it claims to be. Messages are neither encrypted nor authenticated past the
+ * handshake, so the replication port must stay on a private network.
+ * <p>
+ * A message is written by the sending thread under the lock of its connection, which keeps the order of the messages.
+ * A failed connection is closed, and the next message opens a new one, trying at most once per
+ * {@link #RECONNECT_MILLIS} so a node that is down costs nothing to the senders. Every incoming connection is read by
+ * a thread of its own, which hands the messages to the receiver.
+ */
+public class SocketTransport implements Transport {
+
+    private static final Logger log = Logger.getLogger(SocketTransport.class.getName());
+
+    // Far above any batch, so a corrupt length is not taken for a huge message
+    private static final int MAX_MESSAGE_SIZE = 64 << 20;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private static final long RECONNECT_MILLIS = 1000;
+
+    private static final int CHALLENGE_SIZE = 16;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final String node;
+
+    private final Map<String, InetSocketAddress> addresses;
+
+    private final SecretKeySpec secret;
+
+    private final ConcurrentHashMap<String, Connection> connections = new ConcurrentHashMap<>();
+
+    private final Set<Socket> accepted = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean running;
+
+    private ServerSocket serverSocket;
+
+    /**
+     * @param node the name of this node
+     * @param addresses the address of every node by name, this one included
+     * @param secret the secret shared by every node
+     */
+    public SocketTransport(String node, Map<String, InetSocketAddress> addresses, byte[] secret) {
+        if( !addresses.containsKey(node) ) {
+            throw new IllegalArgumentException("No address for node " + node + ".");
+        }
+        if( secret == null || secret.length == 0 ) {
+            throw new IllegalArgumentException("The replication secret is empty.");
+        }
+        this.node = node;
+        this.addresses = addresses;
+        this.secret = new SecretKeySpec(secret, HMAC_ALGORITHM);
+    }
+
+    @Override
+    public void start(Receiver receiver) throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(addresses.get(node));
+        running = true;
+        Thread acceptor = new Thread(() -> acceptLoop(receiver), "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void acceptLoop(Receiver receiver) {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                accepted.add(socket);
+                Thread reader = new Thread(() -> readLoop(socket, receiver), "replication-reader");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if( running ) {
+                    log.log(Level.WARNING, "Could not accept a replication connection.", e);
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket, Receiver receiver) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE))) {
+            String peer;
+            try {
+                peer = accept(socket, in);
+            } catch (IOException e) {
+                log.warning("Refused a replication connection from " + socket.getRemoteSocketAddress() + ": "
+                        + e.getMessage());
+                return;
+            }
+            while (true) {
+                int length = in.readInt();
+                if( length < 0 || length > MAX_MESSAGE_SIZE ) {
+                    throw new IOException("Message of " + length + " bytes is too large.");
+                }
+                byte[] message = new byte[length];
+                in.readFully(message);
+                receiver.receive(peer, message);
+            }
+        } catch (EOFException e) {
+            // Closed by the peer
+        } catch (IOException e) {
+            if( running ) {
+                log.log(Level.FINE, "Replication connection from " + socket.getRemoteSocketAddress() + " failed.", e);
+            }
+        } finally {
+            accepted.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Authenticate the node that opened the connection.
+     * @return the name of the node
+     */
+    private String accept(Socket socket, DataInputStream in) throws IOException {
+        socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        byte[] challenge = challenge();
+        out.write(challenge);
+        out.flush();
+
+        String peer = in.readUTF();
+        byte[] peerChallenge = new byte[CHALLENGE_SIZE];
+        in.readFully(peerChallenge);
+        byte[] proof = new byte[32];
+        in.readFully(proof);
+        InetSocketAddress address = addresses.get(peer);
+        if( address == null || peer.equals(node) ) {
+            throw new IOException("Unknown node " + peer + ".");
+        }
+        if( !socket.getInetAddress().equals(address.getAddress()) ) {
+            throw new IOException("Node " + peer + " connected from " + socket.getInetAddress() + " instead of "
+                    + address.getAddress() + ".");
+        }
+        if( !MessageDigest.isEqual(proof, proof('c', peer, challenge, peerChallenge)) ) {
+            throw new IOException("Node " + peer + " does not know the replication secret.");
+        }
+        out.write(proof('s', peer, challenge, peerChallenge));
+        out.flush();
+        socket.setSoTimeout(0);
+        return peer;
+    }
+
+    /**
+     * Authenticate with the node at the other end of a connection this node opened.
+     */
+    private void connect(Socket socket, DataOutputStream out) throws IOException {
+        socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] challenge = new byte[CHALLENGE_SIZE];
+        in.readFully(challenge);
+        byte[] ownChallenge = challenge();
+        out.writeUTF(node);
+        out.write(ownChallenge);
+        out.write(proof('c', node, challenge, ownChallenge));
+        out.flush();
+
+        byte[] proof = new byte[32];
+        in.readFully(proof);
+        if( !MessageDigest.isEqual(proof, proof('s', node, challenge, ownChallenge)) ) {
+            throw new IOException("Node at " + socket.getRemoteSocketAddress() + " does not know the replication secret.");
+        }
+        socket.setSoTimeout(0);
+    }
+
+    private static byte[] challenge() {
+        byte[] challenge = new byte[CHALLENGE_SIZE];
+        random.nextBytes(challenge);
+        return challenge;
+    }
+
+    /**
+     * @param side 'c' for the connecting node, 's' for the accepting one, so neither proof can be replayed as the other
+     * @param connecting the name of the connecting node
+     */
+    private byte[] proof(char side, String connecting, byte[] challenge, byte[] connectingChallenge) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secret);
+            mac.update((byte) side);
+            mac.update(connecting.getBytes(StandardCharsets.UTF_8));
+            mac.update(challenge);
+            mac.update(connectingChallenge);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void send(String to, byte[] message) throws IOException {
+        InetSocketAddress address = addresses.get(to);
+        if( address == null ) {
+            throw new IOException("Unknown node " + to + ".");
+        }
+        connections.computeIfAbsent(to, peer -> new Connection(address)).send(message);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        closeQuietly(serverSocket);
+        connections.values().forEach(Connection::close);
+        accepted.forEach(SocketTransport::closeQuietly);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if( closeable == null ) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+
+    /**
+     * Outgoing connection to a node.
+     */
+    private final class Connection {
+
+        private final InetSocketAddress address;
+
+        private Socket socket;
+
+        private DataOutputStream out;
+
+        private long retryAt;
+
+        // Not a monitor, so a virtual thread blocked on the socket does not pin its carrier thread
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Connection(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        void send(byte[] message) throws IOException {
+            lock.lock();
+            try {
+                if( !running ) {
+                    throw new IOException("The transport is closed.");
+                }
+                if( socket == null ) {
+                    connect();
+                }
+                out.writeInt(message.length);
+                out.write(message);
+                out.flush();
+            } catch (IOException e) {
+                close();
+                throw e;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void connect() throws IOException {
+            if( System.currentTimeMillis() < retryAt ) {
+                throw new IOException("Node at " + address + " is unreachable.");
+            }
+            retryAt = System.currentTimeMillis() + RECONNECT_MILLIS;
+            Socket connected = new Socket();
+            try {
+                connected.setTcpNoDelay(true);
+                connected.connect(address, CONNECT_TIMEOUT_MILLIS);
+                out = new DataOutputStream(new BufferedOutputStream(connected.getOutputStream(), BUFFER_SIZE));
+                SocketTransport.this.connect(connected, out);
+            } catch (IOException e) {
+                closeQuietly(connected);
+                throw e;
+            }
+            socket = connected;
+            retryAt = 0;
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                closeQuietly(socket);
+                socket = null;
+                out = null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
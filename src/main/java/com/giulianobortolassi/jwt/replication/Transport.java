@@ -0,0 +1,35 @@
+package com.giulianobortolassi.jwt.replication;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Message passing between the nodes of the cluster. A message is an opaque array of bytes, and messages sent to the
+ * same node arrive in the order they were sent. Delivery is best effort: a message to a node that cannot be reached
+ * is lost, and replication catches up through anti-entropy.
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Handles the messages sent to this node.
+     */
+    interface Receiver {
+
+        /**
+         * @param from the node that sent the message
+         * @param message the message, owned by the receiver
+         */
+        void receive(String from, byte[] message);
+    }
+
+    /**
+     * Start handing the messages sent to this node to the receiver, one at a time per sending node.
+     */
+    void start(Receiver receiver) throws IOException;
+
+    /**
+     * Send a message to another node.
+     * @throws IOException if the node cannot be reached. The message is lost.
+     */
+    void send(String node, byte[] message) throws IOException;
+}
@@ -0,0 +1,112 @@
+package com.giulianobortolassi.jwt.revocation;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Immutable Bloom filter over token ids, built from a snapshot of the revocation list.
+ * <p>
+ * The layout is meant to be reimplemented by clients: the filter has {@link #getBitCount()} bits stored in
+ * {@link #toByteArray()}, bit {@code i} being bit {@code i % 8} (least significant first) of byte {@code i / 8}.
+ * For a token id, {@code h} is the 64-bit FNV-1a hash of its UTF-8 bytes, {@code h1} its low 32 bits and
+ * {@code h2} its high 32 bits, both unsigned. The id may be revoked if the bits
+ * {@code (h1 + n * h2) mod bitCount} are all set, for {@code n} from 0 to {@link #getHashCount()} - 1.
+ * A clear bit proves the token was not revoked when the snapshot was taken.
+ */
+public class BloomFilter {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final byte[] bits;
+    private final int bitCount;
+    private final int hashCount;
+    private final long version;
+    private final long pruned;
+
+    private BloomFilter(byte[] bits, int bitCount, int hashCount, long version, long pruned) {
+        this.bits = bits;
+        this.bitCount = bitCount;
+        this.hashCount = hashCount;
+        this.version = version;
+        this.pruned = pruned;
+    }
+
+    /**
+     * Build a filter sized for the given ids and false positive probability.
+     */
+    static BloomFilter of(Iterable<String> ids, int expectedIds, double falsePositiveProbability, long version,
+                          long pruned) {
+        int n = Math.max(1, expectedIds);
+        // m = -n ln(p) / ln(2)^2 and k = m / n ln(2)
+        int bitCount = (int) Math.max(64, Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2))));
+        bitCount = (bitCount + 7) & ~7;
+        int hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+
+        byte[] bits = new byte[bitCount / 8];
+        for (String id : ids) {
+            long hash = hash(id);
+            long h1 = hash & 0xffffffffL;
+            long h2 = hash >>> 32;
+            for (int i = 0; i < hashCount; i++) {
+                int bit = (int) ((h1 + i * h2) % bitCount);
+                bits[bit >>> 3] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return new BloomFilter(bits, bitCount, hashCount, version, pruned);
+    }
+
+    /**
+     * @return false if the id was definitely not revoked when the snapshot was taken.
+     */
+    public boolean mightContain(String id) {
+        long hash = hash(id);
+        long h1 = hash & 0xffffffffL;
+        long h2 = hash >>> 32;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (int) ((h1 + i * h2) % bitCount);
+            if( (bits[bit >>> 3] & (1 << (bit & 7))) == 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static long hash(String id) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @return a copy of the filter bits.
+     */
+    public byte[] toByteArray() {
+        return bits.clone();
+    }
+
+    public int getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * @return the revocation feed version the filter was built from.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return how many expired revocations had been dropped from the list when the filter was built. Pruning does
+     *         not change the feed version, so a filter is identified by both.
+     */
+    public long getPruned() {
+        return pruned;
+    }
+}
@@ -0,0 +1,49 @@
+package com.giulianobortolassi.jwt.revocation;
+
+import java.util.List;
+
+/**
+ * Revocations that happened after a given feed version.
+ * A client applies {@link #getRevoked()} to its local set and asks for the next delta with {@link #getEpoch()} and
+ * {@link #getVersion()}. When {@link #isReset()} is set, the delta holds every tracked revocation instead, and
+ * replaces the local set.
+ */
+public class RevocationDelta {
+
+    private final String epoch;
+    private final long version;
+    private final boolean reset;
+    private final List<RevokedToken> revoked;
+
+    public RevocationDelta(String epoch, long version, boolean reset, List<RevokedToken> revoked) {
+        this.epoch = epoch;
+        this.version = version;
+        this.reset = reset;
+        this.revoked = revoked;
+    }
+
+    /**
+     * @return the feed the versions belong to. It changes when the node restarts, and differs between nodes.
+     */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the feed version covered by this delta.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return whether the delta holds the whole list, because the version asked for was not one of this feed.
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    public List<RevokedToken> getRevoked() {
+        return revoked;
+    }
+}
@@ -0,0 +1,175 @@
+package com.giulianobortolassi.jwt.revocation;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Revoked token ids, kept until the tokens would have expired.
+ * <p>
+ * Every revocation gets the next feed version, so clients can pull only what changed since the version they
+ * already have, or pull a {@link BloomFilter} of the whole list and check tokens locally. Entries are dropped once
+ * the token expires: clients already reject expired tokens, so they do not need to be told.
+ * <p>
+ * Versions start over when the node restarts, and every node numbers its own, so the feed is identified by a random
+ * epoch. A client asking with a version from another epoch, or older than every entry left after pruning, gets
+ * the whole list back to start over from.
+ * <p>
+ * Revocations are serialized, which keeps versions gap-free for readers. Reads never lock. Entries are also kept
+ * ordered by expiration, so pruning stops at the first one still live instead of walking the whole list.
+ */
+@Component
+public class RevocationList {
+
+    private static final Logger log = Logger.getLogger(RevocationList.class.getCanonicalName());
+
+    @Value("${jwt.revocation.filter.false-positive-probability:0.01}")
+    private double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final String epoch = UUID.randomUUID().toString();
+
+    private final ConcurrentHashMap<String, RevokedToken> revokedById = new ConcurrentHashMap<>();
+
+    private final ConcurrentSkipListMap<Long, RevokedToken> feed = new ConcurrentSkipListMap<>();
+
+    /** The entries of the feed, soonest to expire first. Versions are unique, so they break ties. */
+    private final ConcurrentSkipListSet<RevokedToken> byExpiration = new ConcurrentSkipListSet<>(
+            Comparator.comparingLong(RevokedToken::getExpiresAt).thenComparingLong(RevokedToken::getVersion));
+
+    /** Last version visible to readers. Every version up to it is already in the feed. */
+    private volatile long version;
+
+    /** How many entries were pruned so far. Pruning does not change the version, but the filter must be rebuilt. */
+    private volatile long pruned;
+
+    private volatile BloomFilter filter;
+
+    /**
+     * Record a revoked token.
+     * @param id the token id
+     * @param expiresAt when the token expires, in epoch milliseconds
+     * @return the feed version of the revocation
+     */
+    public synchronized long revoke(String id, long expiresAt) {
+        RevokedToken existing = revokedById.get(id);
+        if( existing != null ) {
+            return existing.getVersion();
+        }
+        long next = version + 1;
+        RevokedToken revoked = new RevokedToken(id, expiresAt, next);
+        revokedById.put(id, revoked);
+        feed.put(next, revoked);
+        byExpiration.add(revoked);
+        version = next;
+        return next;
+    }
+
+    public boolean isRevoked(String id) {
+        return revokedById.containsKey(id);
+    }
+
+    /**
+     * @return the current feed version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return how many revoked tokens are still tracked.
+     */
+    public int size() {
+        return revokedById.size();
+    }
+
+    /**
+     * @return the random id of this feed, which its versions belong to.
+     */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Revocations after the given version of this feed, oldest first.
+     * @see #getChangesSince(String, long)
+     */
+    public RevocationDelta getChangesSince(long sinceVersion) {
+        return getChangesSince(epoch, sinceVersion);
+    }
+
+    /**
+     * Revocations after the given version, oldest first. Revocations of tokens that already expired are left out.
+     * Every tracked revocation is returned, as a reset, for version 0, a version of another epoch, one ahead of the
+     * feed, or one the pruned entries cut the feed off from.
+     * @param sinceEpoch the epoch of the version, or null if the client does not know it
+     * @param sinceVersion the last version the client has applied, or 0 for everything
+     */
+    public RevocationDelta getChangesSince(String sinceEpoch, long sinceVersion) {
+        long upTo = version;
+        // Every version up to the horizon was pruned
+        Map.Entry<Long, RevokedToken> oldest = feed.firstEntry();
+        long horizon = oldest != null ? oldest.getKey() - 1 : upTo;
+        boolean reset = sinceVersion <= 0 || (sinceEpoch != null && !sinceEpoch.equals(epoch))
+                || sinceVersion > upTo || sinceVersion < horizon;
+        long from = reset ? 0 : sinceVersion;
+        List<RevokedToken> revoked = new ArrayList<>(feed.subMap(from, false, upTo, true).values());
+        return new RevocationDelta(epoch, upTo, reset, revoked);
+    }
+
+    /**
+     * @return a Bloom filter of every tracked revoked id. It is rebuilt at most once per feed version and prune.
+     */
+    public BloomFilter getFilter() {
+        BloomFilter current = filter;
+        long currentVersion = version;
+        long currentPruned = pruned;
+        if( current == null || current.getVersion() != currentVersion || current.getPruned() != currentPruned ) {
+            current = BloomFilter.of(revokedById.keySet(), revokedById.size(), FALSE_POSITIVE_PROBABILITY,
+                    currentVersion, currentPruned);
+            filter = current;
+        }
+        return current;
+    }
+
+    /**
+     * Drop entries of tokens that expired.
+     * @return how many entries were dropped
+     */
+    @Scheduled(fixedDelayString = "${jwt.expiry.tick:1000}")
+    public int pruneExpired() {
+        return pruneExpired(System.currentTimeMillis());
+    }
+
+    int pruneExpired(long nowMillis) {
+        int count = 0;
+        try {
+            for (RevokedToken revoked : byExpiration) {
+                if( revoked.getExpiresAt() > nowMillis ) {
+                    // Every entry after it expires later
+                    break;
+                }
+                byExpiration.remove(revoked);
+                feed.remove(revoked.getVersion(), revoked);
+                revokedById.remove(revoked.getId(), revoked);
+                count++;
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Failed to prune the revocation list.", e);
+        }
+        if( count > 0 ) {
+            pruned += count;
+        }
+        return count;
+    }
+}
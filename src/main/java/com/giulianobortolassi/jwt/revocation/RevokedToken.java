@@ -0,0 +1,35 @@
+package com.giulianobortolassi.jwt.revocation;
+
+/**
+ * Entry of the revocation feed: a revoked token id, kept until the token would have expired anyway.
+ */
+public class RevokedToken {
+
+    private final String id;
+    private final long expiresAt;
+    private final long version;
+
+    public RevokedToken(String id, long expiresAt, long version) {
+        this.id = id;
+        this.expiresAt = expiresAt;
+        this.version = version;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return when the token expires, in epoch milliseconds. Clients can drop the entry after that.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @return the feed version at which the token was revoked.
+     */
+    public long getVersion() {
+        return version;
+    }
+}
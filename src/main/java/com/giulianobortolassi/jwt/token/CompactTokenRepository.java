@@ -0,0 +1,626 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Token repository that keeps each token in a few primitive array slots instead of a graph of objects.
+ * <p>
+ * A token is its 128-bit id as two longs, its issued and expiration time as epoch milliseconds, and the ids of its
+ * user and of its role list, both interned. That is 40 bytes per slot, and the table is kept between 3/8 and 3/4
+ * full, against roughly 1 KB of objects per token in {@link InMemoryTokenRepository}. The garbage collector only
+ * sees six arrays, whatever the number of tokens. The signed JWT is not kept: tokens handed back by this repository
+ * have no {@link Token#getToken()}, and are rebuilt on every lookup.
+ * <p>
+ * Token ids must be UUIDs. Slots are an open addressing table with linear probing and backward shift deletion,
+ * guarded by a {@link StampedLock}: lookups are optimistic reads and only retry under the read lock when a write
+ * raced with them.
+ * <p>
+ * There is no secondary index, which would cost more heap per token than the slots themselves. Lookups by user or
+ * role scan the user and role id arrays instead, comparing ints without allocating, which takes a few milliseconds
+ * per million tokens. Walks in id order do not resume either: every batch of ids scans the whole table.
+ * <p>
+ * Enabled with {@code jwt.repository.type=compact}.
+ */
+@Repository
+@ConditionalOnProperty(name = "jwt.repository.type", havingValue = "compact")
+public class CompactTokenRepository implements TokenRepository {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int SLOT_BYTES = 8 + 8 + 8 + 8 + 4 + 4;
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final int NO_ROLES = -1;
+
+    // Slots scanned per lock acquisition while evicting or walking the table
+    private static final int SCAN_STRIDE = 4096;
+
+    private final StampedLock lock = new StampedLock();
+
+    // A slot is free when both halves of the id are 0, which no UUID generated for a token is
+    private long[] idHigh;
+    private long[] idLow;
+    private long[] issued;
+    private long[] expiration;
+    private int[] users;
+    private int[] roles;
+    private int size;
+
+    // Lower bound of the expiration times in the table, so eviction can skip the scan. Lowered by every token
+    // registered or moved to another slot, so a token moved behind a scan in progress is not left out of it
+    private long nextExpiration = Long.MAX_VALUE;
+
+    private final Interner<String> userNames = new Interner<>();
+
+    private final Interner<List<String>> roleLists = new Interner<>();
+
+    public CompactTokenRepository() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        idHigh = new long[capacity];
+        idLow = new long[capacity];
+        issued = new long[capacity];
+        expiration = new long[capacity];
+        users = new int[capacity];
+        roles = new int[capacity];
+    }
+
+    @Override
+    public Token registerToken(Token token) {
+        UUID id = parseId(token.getId());
+        int user = userNames.intern(token.getUser());
+        int roleList = token.getRoles() == null ? NO_ROLES
+                : roleLists.intern(Collections.unmodifiableList(new ArrayList<>(token.getRoles())));
+        long issuedTime = token.getIssuedTime() == null ? NO_TIME : token.getIssuedTime().getTime();
+        long expirationTime = token.getExpirationMillis();
+
+        long stamp = lock.writeLock();
+        try {
+            if( (size + 1) * 4L > idHigh.length * 3L ) {
+                resize(idHigh.length * 2);
+            }
+            int slot = findSlot(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if( slot < 0 ) {
+                slot = -slot - 1;
+                size++;
+            }
+            idHigh[slot] = id.getMostSignificantBits();
+            idLow[slot] = id.getLeastSignificantBits();
+            issued[slot] = issuedTime;
+            expiration[slot] = expirationTime;
+            users[slot] = user;
+            roles[slot] = roleList;
+            lowerNextExpiration(expirationTime);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return token;
+    }
+
+    @Override
+    public List<Token> registerTokens(Collection<Token> tokens) {
+        List<Token> registered = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            registered.add(registerToken(token));
+        }
+        return registered;
+    }
+
+    @Override
+    public Token removeToken(Token token) throws TokenNotFoundException {
+        return removeTokenById(token.getId());
+    }
+
+    @Override
+    public Token removeTokenById(String id) throws TokenNotFoundException {
+        Token removedToken = remove(id);
+        if( removedToken == null ) {
+            throw new TokenNotFoundException();
+        }
+        return removedToken;
+    }
+
+    @Override
+    public Token getToken(Token token) throws TokenNotFoundException {
+        return getTokenById(token.getId());
+    }
+
+    @Override
+    public Token getTokenById(String id) throws TokenNotFoundException {
+        Token token = find(id);
+        if( token == null ) {
+            throw new TokenNotFoundException();
+        }
+        return token;
+    }
+
+    @Override
+    public Map<String, Token> getTokensByIds(Collection<String> ids) {
+        Map<String, Token> tokens = new HashMap<>();
+        for (String id : ids) {
+            Token token = find(id);
+            if( token != null ) {
+                tokens.put(id, token);
+            }
+        }
+        return tokens;
+    }
+
+    @Override
+    public Map<String, Token> removeTokensByIds(Collection<String> ids) {
+        Map<String, Token> removed = new HashMap<>();
+        for (String id : ids) {
+            Token token = remove(id);
+            if( token != null ) {
+                removed.put(id, token);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Takes the write lock, which is fine since a token is renewed at most once per renewal window. The lower bound
+     * of the expiration times stays valid, as the expiration only moves forward.
+     */
+    @Override
+    public boolean renewToken(Token token, long expectedMillis, long expirationMillis) {
+        UUID uuid = parseIdOrNull(token.getId());
+        if( uuid == null ) {
+            return false;
+        }
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if( slot < 0 || expiration[slot] != expectedMillis ) {
+                return false;
+            }
+            expiration[slot] = expirationMillis;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        token.setExpirationMillis(expirationMillis);
+        return true;
+    }
+
+    @Override
+    public List<Token> getTokensByUser(String userName) {
+        int user = userNames.find(userName);
+        if( user < 0 ) {
+            return Collections.emptyList();
+        }
+        List<Token> tokens = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            for (int slot = 0; slot < idHigh.length; slot++) {
+                if( users[slot] == user && !isFree(slot) ) {
+                    tokens.add(toToken(slot, idHigh[slot], idLow[slot]));
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return tokens;
+    }
+
+    @Override
+    public List<Token> getTokensByRole(String role) {
+        // Role lists are few, so find the ones holding the role first and only compare their ids per slot
+        boolean[] matching = roleLists.matching(roleList -> roleList.contains(role));
+        List<Token> tokens = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            for (int slot = 0; slot < idHigh.length; slot++) {
+                int roleList = roles[slot];
+                if( roleList >= 0 && roleList < matching.length && matching[roleList] && !isFree(slot) ) {
+                    tokens.add(toToken(slot, idHigh[slot], idLow[slot]));
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return tokens;
+    }
+
+    /**
+     * Copies the tokens of a stride of slots under the read lock, and hands them to the consumer once it is released,
+     * so a slow consumer never holds writers back. A token moved by a resize or by the backward shift of a removal
+     * while the walk runs can be missed or handed twice.
+     */
+    @Override
+    public void forEachToken(Consumer<Token> consumer) {
+        List<Token> stride = new ArrayList<>();
+        for (int start = 0; ; start += SCAN_STRIDE) {
+            long stamp = lock.readLock();
+            try {
+                if( start >= idHigh.length ) {
+                    return;
+                }
+                int end = Math.min(start + SCAN_STRIDE, idHigh.length);
+                for (int slot = start; slot < end; slot++) {
+                    if( !isFree(slot) ) {
+                        stride.add(toToken(slot, idHigh[slot], idLow[slot]));
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            stride.forEach(consumer);
+            stride.clear();
+        }
+    }
+
+    @Override
+    public List<Token> listTokens() {
+        long now = System.currentTimeMillis();
+        List<Token> tokens = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            for (int slot = 0; slot < idHigh.length; slot++) {
+                if( !isFree(slot) && !isExpired(expiration[slot], now) ) {
+                    tokens.add(toToken(slot, idHigh[slot], idLow[slot]));
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return tokens;
+    }
+
+    /**
+     * Scan the table for expired tokens, a stride of slots at a time so writers are never held for long. Skipped
+     * entirely until the earliest expiration time is reached.
+     * <p>
+     * A removal or a resize between two strides can move a token into a slot already scanned, in which case it is
+     * only evicted by the next call, which is not skipped since moving the token lowered the earliest expiration.
+     */
+    @Override
+    public int evictExpired(long nowMillis) {
+        long stamp = lock.writeLock();
+        try {
+            if( nowMillis < nextExpiration ) {
+                return 0;
+            }
+            nextExpiration = Long.MAX_VALUE;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        int evicted = 0;
+        long earliest = Long.MAX_VALUE;
+        for (int start = 0; ; start += SCAN_STRIDE) {
+            stamp = lock.writeLock();
+            try {
+                if( start >= idHigh.length ) {
+                    nextExpiration = Math.min(nextExpiration, earliest);
+                    return evicted;
+                }
+                int end = Math.min(start + SCAN_STRIDE, idHigh.length);
+                for (int slot = start; slot < end; slot++) {
+                    while (!isFree(slot) && isExpired(expiration[slot], nowMillis)) {
+                        // The shift may move another token into this slot, so check it again
+                        delete(slot);
+                        evicted++;
+                    }
+                    if( !isFree(slot) && expiration[slot] != NO_TIME ) {
+                        earliest = Math.min(earliest, expiration[slot]);
+                    }
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    @Override
+    public long countTokens() {
+        long stamp = lock.tryOptimisticRead();
+        int count = size;
+        if( !lock.validate(stamp) ) {
+            stamp = lock.readLock();
+            try {
+                count = size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the heap held by the slot table and the interned users and roles, divided by the stored tokens
+     */
+    public long bytesPerToken() {
+        long stamp = lock.readLock();
+        try {
+            long bytes = (long) idHigh.length * SLOT_BYTES + userNames.footprint() + roleLists.footprint();
+            return size == 0 ? bytes : bytes / size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private Token find(String id) {
+        UUID uuid = parseIdOrNull(id);
+        if( uuid == null ) {
+            return null;
+        }
+        long high = uuid.getMostSignificantBits();
+        long low = uuid.getLeastSignificantBits();
+
+        long stamp = lock.tryOptimisticRead();
+        if( stamp != 0 ) {
+            Token token = read(high, low);
+            if( lock.validate(stamp) ) {
+                return token;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return read(high, low);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Look a token up without taking the lock. Under an optimistic read the arrays may be swapped or modified
+     * underneath, so every array is read once, indexes are bounded by that array, and the result is only trusted
+     * once the stamp is validated.
+     */
+    private Token read(long high, long low) {
+        long[] highs = idHigh;
+        long[] lows = idLow;
+        int mask = highs.length - 1;
+        int slot = slotOf(high, low, mask);
+        for (int probes = 0; probes <= mask; probes++, slot = (slot + 1) & mask) {
+            long slotHigh = highs[slot];
+            long slotLow = lows.length > slot ? lows[slot] : 0;
+            if( slotHigh == 0 && slotLow == 0 ) {
+                return null;
+            }
+            if( slotHigh == high && slotLow == low ) {
+                return toToken(slot, high, low);
+            }
+        }
+        return null;
+    }
+
+    private Token remove(String id) {
+        UUID uuid = parseIdOrNull(id);
+        if( uuid == null ) {
+            return null;
+        }
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if( slot < 0 ) {
+                return null;
+            }
+            Token removedToken = toToken(slot, idHigh[slot], idLow[slot]);
+            delete(slot);
+            return removedToken;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Called under the write lock.
+     * @return the slot holding the id, or {@code -(free slot) - 1} where it would go
+     */
+    private int findSlot(long high, long low) {
+        int mask = idHigh.length - 1;
+        int slot = slotOf(high, low, mask);
+        while (!isFree(slot)) {
+            if( idHigh[slot] == high && idLow[slot] == low ) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    /**
+     * Free a slot and shift back the tokens that follow it in the probe sequence, so lookups never need tombstones.
+     * Called under the write lock.
+     */
+    private void delete(int slot) {
+        int mask = idHigh.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (!isFree(next)) {
+            int home = slotOf(idHigh[next], idLow[next], mask);
+            // Move the token into the hole unless its home slot lies cyclically in (hole, next]
+            boolean stays = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+            if( !stays ) {
+                copySlot(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        idHigh[hole] = 0;
+        idLow[hole] = 0;
+        size--;
+    }
+
+    private void copySlot(int from, int to) {
+        idHigh[to] = idHigh[from];
+        idLow[to] = idLow[from];
+        issued[to] = issued[from];
+        expiration[to] = expiration[from];
+        users[to] = users[from];
+        roles[to] = roles[from];
+        lowerNextExpiration(expiration[to]);
+    }
+
+    // Called under the write lock
+    private void lowerNextExpiration(long expirationTime) {
+        if( expirationTime != NO_TIME ) {
+            nextExpiration = Math.min(nextExpiration, expirationTime);
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldHigh = idHigh;
+        long[] oldLow = idLow;
+        long[] oldIssued = issued;
+        long[] oldExpiration = expiration;
+        int[] oldUsers = users;
+        int[] oldRoles = roles;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldHigh.length; i++) {
+            if( oldHigh[i] == 0 && oldLow[i] == 0 ) {
+                continue;
+            }
+            int slot = slotOf(oldHigh[i], oldLow[i], mask);
+            while (!isFree(slot)) {
+                slot = (slot + 1) & mask;
+            }
+            idHigh[slot] = oldHigh[i];
+            idLow[slot] = oldLow[i];
+            issued[slot] = oldIssued[i];
+            expiration[slot] = oldExpiration[i];
+            users[slot] = oldUsers[i];
+            roles[slot] = oldRoles[i];
+            lowerNextExpiration(oldExpiration[i]);
+        }
+    }
+
+    private boolean isFree(int slot) {
+        return idHigh[slot] == 0 && idLow[slot] == 0;
+    }
+
+    private Token toToken(int slot, long high, long low) {
+        long[] issuedTimes = issued;
+        long[] expirationTimes = expiration;
+        int[] userIds = users;
+        int[] roleIds = roles;
+        if( slot >= issuedTimes.length || slot >= expirationTimes.length || slot >= userIds.length
+                || slot >= roleIds.length ) {
+            // Arrays swapped by a resize during an optimistic read, which will not validate
+            return null;
+        }
+        long issuedTime = issuedTimes[slot];
+        long expirationTime = expirationTimes[slot];
+        return new Token(new UUID(high, low).toString(), null, userNames.get(userIds[slot]),
+                roleIds[slot] == NO_ROLES ? null : roleLists.get(roleIds[slot]),
+                issuedTime == NO_TIME ? null : new Date(issuedTime),
+                expirationTime == NO_TIME ? null : new Date(expirationTime));
+    }
+
+    private static boolean isExpired(long expirationTime, long nowMillis) {
+        return expirationTime != NO_TIME && expirationTime <= nowMillis;
+    }
+
+    private static int slotOf(long high, long low, int mask) {
+        long hash = (high ^ low) * 0x9e3779b97f4a7c15L;
+        return (int) (hash >>> 32) & mask;
+    }
+
+    private static UUID parseId(String id) {
+        UUID uuid = parseIdOrNull(id);
+        if( uuid == null ) {
+            throw new IllegalArgumentException("Token id is not a UUID: " + id);
+        }
+        return uuid;
+    }
+
+    private static UUID parseIdOrNull(String id) {
+        if( id == null || id.length() != 36 ) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.getMostSignificantBits() == 0 && uuid.getLeastSignificantBits() == 0 ? null : uuid;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Maps each distinct value to a stable int id. Values are never released, which is fine for users and role
+     * lists since there are far fewer of them than tokens.
+     */
+    private static final class Interner<T> {
+
+        private final ConcurrentHashMap<T, Integer> ids = new ConcurrentHashMap<>();
+
+        private volatile Object[] values = new Object[64];
+
+        private int count;
+
+        int intern(T value) {
+            if( value == null ) {
+                return -1;
+            }
+            Integer id = ids.get(value);
+            if( id != null ) {
+                return id;
+            }
+            synchronized (this) {
+                return ids.computeIfAbsent(value, v -> {
+                    Object[] current = values;
+                    if( count == current.length ) {
+                        current = Arrays.copyOf(current, current.length * 2);
+                    }
+                    current[count] = v;
+                    values = current;
+                    return count++;
+                });
+            }
+        }
+
+        /**
+         * @return the id of the value, or -1 if it was never interned
+         */
+        int find(T value) {
+            Integer id = value == null ? null : ids.get(value);
+            return id == null ? -1 : id;
+        }
+
+        /**
+         * @return for each id interned so far, whether its value matches
+         */
+        @SuppressWarnings("unchecked")
+        boolean[] matching(Predicate<T> predicate) {
+            Object[] current = values;
+            boolean[] matching = new boolean[current.length];
+            for (int i = 0; i < current.length; i++) {
+                matching[i] = current[i] != null && predicate.test((T) current[i]);
+            }
+            return matching;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(int id) {
+            Object[] current = values;
+            return id < 0 || id >= current.length ? null : (T) current[id];
+        }
+
+        /**
+         * @return a rough estimate of the heap held, at 64 bytes per value plus the map entry
+         */
+        long footprint() {
+            return ids.size() * 128L;
+        }
+    }
+}
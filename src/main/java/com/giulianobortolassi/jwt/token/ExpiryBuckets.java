@@ -0,0 +1,101 @@
+package com.giulianobortolassi.jwt.token;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * Expiry-ordered buckets of tokens.
+ * Every token is placed in the bucket covering its expiration time, rounded up to the bucket resolution. Draining
+ * only visits the buckets that are already due, so the work per tick is proportional to the number of expired
+ * tokens and not to the number of stored ones.
+ * <p>
+ * The only lock is the monitor of a single bucket, taken while a token is added to it or when it is closed for
+ * draining. Token lookups never touch this structure.
+ */
+class ExpiryBuckets {
+
+    private final long resolutionMillis;
+
+    private final ConcurrentSkipListMap<Long, Bucket> buckets = new ConcurrentSkipListMap<>();
+
+    ExpiryBuckets(long resolutionMillis) {
+        if( resolutionMillis <= 0 ) {
+            throw new IllegalArgumentException("Bucket resolution must be positive.");
+        }
+        this.resolutionMillis = resolutionMillis;
+    }
+
+    /**
+     * Schedule the token to be handed back by {@link #drainExpired(long, Consumer)} once its expiration time has
+     * passed. Tokens without an expiration time are ignored.
+     */
+    void schedule(Token token) {
+        long expiration = token.getExpirationMillis();
+        if( expiration == Token.NO_EXPIRATION ) {
+            return;
+        }
+        long slot = slotOf(expiration);
+        while (true) {
+            Bucket bucket = buckets.computeIfAbsent(slot, s -> new Bucket());
+            if( bucket.add(token) ) {
+                return;
+            }
+            // The bucket was closed by a concurrent drain. Drop the stale mapping and try again with a fresh one.
+            buckets.remove(slot, bucket);
+        }
+    }
+
+    /**
+     * Hand every token scheduled to expire at or before the given instant to the consumer.
+     * @param nowMillis the current time in epoch milliseconds
+     * @param consumer receives each due token exactly once
+     * @return how many tokens were handed to the consumer
+     */
+    int drainExpired(long nowMillis, Consumer<Token> consumer) {
+        long lastDueSlot = Math.floorDiv(nowMillis, resolutionMillis);
+        int drained = 0;
+        Map.Entry<Long, Bucket> entry;
+        while ((entry = buckets.firstEntry()) != null && entry.getKey() <= lastDueSlot) {
+            if( !buckets.remove(entry.getKey(), entry.getValue()) ) {
+                continue;
+            }
+            for (Token token : entry.getValue().close()) {
+                consumer.accept(token);
+                drained++;
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * @return the number of buckets waiting to expire
+     */
+    int pendingBuckets() {
+        return buckets.size();
+    }
+
+    private long slotOf(long expirationMillis) {
+        // Round up, so a bucket is only due once every token in it has expired
+        return Math.floorDiv(expirationMillis + resolutionMillis - 1, resolutionMillis);
+    }
+
+    private static final class Bucket {
+        private ArrayDeque<Token> tokens = new ArrayDeque<>();
+
+        synchronized boolean add(Token token) {
+            if( tokens == null ) {
+                return false;
+            }
+            tokens.add(token);
+            return true;
+        }
+
+        synchronized ArrayDeque<Token> close() {
+            ArrayDeque<Token> drained = tokens;
+            tokens = null;
+            return drained;
+        }
+    }
+}
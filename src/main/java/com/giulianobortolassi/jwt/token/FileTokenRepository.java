@@ -0,0 +1,766 @@
+package com.giulianobortolassi.jwt.token;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Token repository that survives restarts. Every register and remove is appended to a {@link WriteAheadLog} before
+ * the call returns.
+ * <p>
+ * Every {@code snapshot-every} records the log is rolled to a new segment and the live tokens are written to a
+ * compacted {@link MappedTokenSnapshot} in the background. The segments the snapshot covers are deleted afterwards.
+ * On startup the newest snapshot is memory mapped, not loaded, and only the segments written after it are replayed,
+ * so a node serves lookups as soon as that short log tail is applied, whatever the number of tokens.
+ * <p>
+ * Tokens from the snapshot are decoded from the mapping on each lookup and never moved to the heap. Tokens
+ * registered since startup live in an {@link InMemoryTokenRepository}, which takes precedence, and removed snapshot
+ * tokens are remembered in a set of tombstones. Snapshot tokens that expire are not evicted: lookups hand them back
+ * like any stored expired token, listings skip them, and the next snapshot drops them. Expired tokens are skipped
+ * during recovery as well, which is why expiry evictions are not logged at all.
+ * <p>
+ * Snapshot tokens are indexed by user and role in the background after startup. Until that is done, lookups by
+ * user or role scan the mapping.
+ * <p>
+ * Enabled with {@code jwt.repository.type=wal}.
+ */
+@Repository
+@ConditionalOnProperty(name = "jwt.repository.type", havingValue = "wal")
+public class FileTokenRepository implements TokenRepository {
+
+    private static final Logger log = Logger.getLogger(FileTokenRepository.class.getName());
+
+    static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    static final String SNAPSHOT_SUFFIX = ".dat";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int LOCK_STRIPES = 64;
+
+    @Value("${jwt.repository.wal.directory:data/tokens}")
+    private String DIRECTORY;
+
+    @Value("${jwt.repository.wal.max-batch:1024}")
+    private int MAX_BATCH = 1024;
+
+    @Value("${jwt.repository.wal.snapshot-every:1000000}")
+    private long SNAPSHOT_EVERY = 1_000_000;
+
+    private final InMemoryTokenRepository tokens = new InMemoryTokenRepository();
+
+    // Ids of the mapped tokens that were removed or registered again since startup
+    private final Set<String> tombstones = ConcurrentHashMap.newKeySet();
+
+    private MappedTokenSnapshot mapped;
+
+    private long mappedSegment = -1;
+
+    private final TokenIndex mappedIndex = new TokenIndex();
+
+    private volatile boolean mappedIndexed;
+
+    // Applying a change and queueing its record happen under the same lock, so the log sees the changes of a token
+    // in the order they were applied
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final AtomicLong appendedSinceSnapshot = new AtomicLong();
+
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+
+    private volatile CompletableFuture<Void> snapshot = CompletableFuture.completedFuture(null);
+
+    private Path directory;
+
+    private WriteAheadLog wal;
+
+    private ExecutorService snapshotExecutor;
+
+    public FileTokenRepository() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        long start = System.nanoTime();
+        long lastSegment = recover();
+        log.info(String.format("Recovered %d tokens from %s in %d ms.", countTokens(), directory,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+        wal = new WriteAheadLog(directory, lastSegment + 1, MAX_BATCH);
+        snapshotExecutor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "token-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotExecutor.execute(this::indexMapped);
+    }
+
+    private void indexMapped() {
+        long start = System.nanoTime();
+        forEachMapped(mappedIndex::add);
+        mappedIndexed = true;
+        if( mapped != null ) {
+            log.info(String.format("Indexed the token snapshot in %d ms.",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        }
+    }
+
+    /**
+     * Flush the log and write a final snapshot, so the next start only has to load it.
+     */
+    @PreDestroy
+    void close() throws IOException {
+        shutdown(true);
+    }
+
+    /**
+     * @param finalSnapshot whether to write a final snapshot. Without it the store is left as after a crash.
+     */
+    void shutdown(boolean finalSnapshot) throws IOException {
+        try {
+            this.snapshot.exceptionally(failure -> null).get(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.log(Level.WARNING, "Gave up waiting for the running token snapshot.", e);
+        }
+        snapshotExecutor.shutdown();
+        if( !finalSnapshot ) {
+            wal.close();
+            return;
+        }
+        long segment = await(wal.roll());
+        wal.close();
+        writeSnapshot(segment);
+    }
+
+    /**
+     * Map the newest snapshot and replay the log segments written after it. Older snapshots and segments, left by a
+     * cleanup that did not complete, are deleted.
+     * @return the number of the last segment found, 0 if there is none
+     */
+    long recover() throws IOException {
+        directory = Paths.get(DIRECTORY);
+        Files.createDirectories(directory);
+
+        TreeSet<Long> snapshots = new TreeSet<>();
+        TreeSet<Long> segments = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if( name.endsWith(TEMP_SUFFIX) ) {
+                    // Snapshot interrupted before it was complete
+                    Files.delete(file);
+                } else if( isSnapshot(name) ) {
+                    snapshots.add(numberOf(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX));
+                } else if( isSegment(name) ) {
+                    segments.add(numberOf(name, WriteAheadLog.SEGMENT_PREFIX, WriteAheadLog.SEGMENT_SUFFIX));
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        long firstSegment = 0;
+        if( !snapshots.isEmpty() ) {
+            firstSegment = snapshots.last();
+            deleteOlderThan(firstSegment);
+            mapped = MappedTokenSnapshot.open(snapshotPath(firstSegment));
+            mappedSegment = firstSegment;
+        }
+        for (long segment : segments.tailSet(firstSegment)) {
+            Path file = WriteAheadLog.segmentPath(directory, segment);
+            long valid = WriteAheadLog.read(file, record -> apply(record, now));
+            long size = Files.size(file);
+            if( valid < size ) {
+                log.warning(String.format("Dropped %d bytes of torn records at the end of %s.", size - valid, file));
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                }
+            }
+        }
+        long last = firstSegment;
+        if( !segments.isEmpty() ) {
+            last = Math.max(last, segments.last());
+        }
+        return last;
+    }
+
+    private void apply(ByteBuffer record, long now) {
+        byte type = record.get();
+        if( type == TokenRecords.REGISTER ) {
+            Token token = TokenRecords.decodeToken(record);
+            if( !isExpired(token, now) ) {
+                register(token);
+            }
+        } else if( type == TokenRecords.REMOVE ) {
+            // Null when registered before the snapshot and expired since, or removed twice
+            remove(TokenRecords.readString(record));
+        }
+    }
+
+    private void register(Token token) {
+        tokens.registerToken(token);
+        if( mapped != null && mapped.contains(token.getId()) ) {
+            // Registered again, the new token shadows the mapped one
+            tombstones.add(token.getId());
+        }
+    }
+
+    /**
+     * @return the removed token, or null if there was none
+     */
+    private Token remove(String id) {
+        Token removedToken = tokens.remove(id);
+        if( removedToken != null ) {
+            return removedToken;
+        }
+        Token mappedToken = findMapped(id);
+        if( mappedToken != null ) {
+            tombstones.add(id);
+            mappedIndex.remove(mappedToken);
+        }
+        return mappedToken;
+    }
+
+    private Token find(String id) {
+        Token token = tokens.find(id);
+        return token != null ? token : findMapped(id);
+    }
+
+    private Token findMapped(String id) {
+        if( mapped == null || tombstones.contains(id) ) {
+            return null;
+        }
+        return mapped.get(id);
+    }
+
+    /**
+     * Put back what the id held before a register whose record could not be written, unless it changed since.
+     */
+    private void unregister(Token token, Token previous, boolean shadowed) {
+        String id = token.getId();
+        synchronized (lockFor(id)) {
+            if( tokens.find(id) != token ) {
+                return;
+            }
+            if( previous != null ) {
+                tokens.registerToken(previous);
+            } else {
+                tokens.remove(id);
+            }
+            if( !shadowed ) {
+                tombstones.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Put back a token whose removal could not be written, unless the id was registered again since.
+     */
+    private void unremove(Token removedToken, boolean live) {
+        String id = removedToken.getId();
+        synchronized (lockFor(id)) {
+            if( find(id) != null ) {
+                return;
+            }
+            if( live ) {
+                tokens.registerToken(removedToken);
+            } else {
+                tombstones.remove(id);
+                mappedIndex.add(removedToken);
+            }
+        }
+    }
+
+    /**
+     * A token whose record could not be written is not registered either, and the failure is thrown.
+     */
+    @Override
+    public Token registerToken(Token token) {
+        byte[] record = TokenRecords.encodeRegister(token);
+        Token previous;
+        boolean shadowed;
+        CompletableFuture<Long> written;
+        synchronized (lockFor(token.getId())) {
+            previous = tokens.find(token.getId());
+            shadowed = tombstones.contains(token.getId());
+            register(token);
+            written = append(record);
+        }
+        try {
+            await(written);
+        } catch (RuntimeException e) {
+            unregister(token, previous, shadowed);
+            throw e;
+        }
+        return token;
+    }
+
+    /**
+     * The tokens whose records could not be written are not registered, and the first failure is thrown once every
+     * write completed. The others are registered.
+     */
+    @Override
+    public List<Token> registerTokens(Collection<Token> tokensToRegister) {
+        List<Token> registered = new ArrayList<>(tokensToRegister.size());
+        List<Token> previousTokens = new ArrayList<>(tokensToRegister.size());
+        boolean[] shadowed = new boolean[tokensToRegister.size()];
+        List<CompletableFuture<Long>> writes = new ArrayList<>(tokensToRegister.size());
+        for (Token token : tokensToRegister) {
+            byte[] record = TokenRecords.encodeRegister(token);
+            synchronized (lockFor(token.getId())) {
+                previousTokens.add(tokens.find(token.getId()));
+                shadowed[registered.size()] = tombstones.contains(token.getId());
+                register(token);
+                registered.add(token);
+                writes.add(append(record));
+            }
+        }
+        RuntimeException failure = null;
+        for (int i = 0; i < writes.size(); i++) {
+            try {
+                await(writes.get(i));
+            } catch (RuntimeException e) {
+                unregister(registered.get(i), previousTokens.get(i), shadowed[i]);
+                if( failure == null ) {
+                    failure = e;
+                }
+            }
+        }
+        if( failure != null ) {
+            throw failure;
+        }
+        return registered;
+    }
+
+    @Override
+    public Token removeToken(Token token) throws TokenNotFoundException {
+        return removeTokenById(token.getId());
+    }
+
+    /**
+     * A token whose removal could not be written is put back, and the failure is thrown.
+     */
+    @Override
+    public Token removeTokenById(String id) throws TokenNotFoundException {
+        byte[] record = TokenRecords.encodeRemove(id);
+        Token removedToken;
+        boolean live;
+        CompletableFuture<Long> written;
+        synchronized (lockFor(id)) {
+            live = tokens.find(id) != null;
+            removedToken = remove(id);
+            if( removedToken == null ) {
+                throw new TokenNotFoundException();
+            }
+            written = append(record);
+        }
+        try {
+            await(written);
+        } catch (RuntimeException e) {
+            unremove(removedToken, live);
+            throw e;
+        }
+        return removedToken;
+    }
+
+    @Override
+    public Token getToken(Token token) throws TokenNotFoundException {
+        return getTokenById(token.getId());
+    }
+
+    @Override
+    public Token getTokenById(String id) throws TokenNotFoundException {
+        Token token = find(id);
+        if( token == null ) {
+            throw new TokenNotFoundException();
+        }
+        return token;
+    }
+
+    @Override
+    public Map<String, Token> getTokensByIds(Collection<String> ids) {
+        Map<String, Token> found = new HashMap<>();
+        for (String id : ids) {
+            Token token = find(id);
+            if( token != null ) {
+                found.put(id, token);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Tokens whose removal could not be written are put back and left out of the map, so the caller still learns
+     * about every token that was removed.
+     */
+    @Override
+    public Map<String, Token> removeTokensByIds(Collection<String> ids) {
+        Map<String, Token> removed = new HashMap<>();
+        List<Token> removedTokens = new ArrayList<>(ids.size());
+        List<Boolean> live = new ArrayList<>(ids.size());
+        List<CompletableFuture<Long>> writes = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            byte[] record = TokenRecords.encodeRemove(id);
+            synchronized (lockFor(id)) {
+                boolean wasLive = tokens.find(id) != null;
+                Token removedToken = remove(id);
+                if( removedToken == null ) {
+                    continue;
+                }
+                removed.put(id, removedToken);
+                removedTokens.add(removedToken);
+                live.add(wasLive);
+                writes.add(append(record));
+            }
+        }
+        int failed = 0;
+        for (int i = 0; i < writes.size(); i++) {
+            try {
+                await(writes.get(i));
+            } catch (RuntimeException e) {
+                Token removedToken = removedTokens.get(i);
+                removed.remove(removedToken.getId());
+                unremove(removedToken, live.get(i));
+                failed++;
+            }
+        }
+        if( failed > 0 ) {
+            log.severe("Put back " + failed + " tokens whose removal could not be logged.");
+        }
+        return removed;
+    }
+
+    /**
+     * Logged as a register record, without waiting for it to reach the disk: a renewal lost in a crash only brings
+     * the expiration back to the previous one. A renewed snapshot token moves to the heap.
+     */
+    @Override
+    public boolean renewToken(Token token, long expectedMillis, long expirationMillis) {
+        Token renewedToken;
+        synchronized (lockFor(token.getId())) {
+            renewedToken = tokens.find(token.getId());
+            if( renewedToken != null ) {
+                if( !tokens.renewToken(renewedToken, expectedMillis, expirationMillis) ) {
+                    return false;
+                }
+            } else {
+                renewedToken = findMapped(token.getId());
+                if( renewedToken == null || renewedToken.getExpirationMillis() != expectedMillis ) {
+                    return false;
+                }
+                renewedToken.setExpirationMillis(expirationMillis);
+                register(renewedToken);
+            }
+            append(TokenRecords.encodeRegister(renewedToken));
+        }
+        if( renewedToken != token ) {
+            token.setExpirationMillis(expirationMillis);
+        }
+        return true;
+    }
+
+    @Override
+    public List<Token> getTokensByUser(String user) {
+        List<Token> matched = new ArrayList<>(tokens.getTokensByUser(user));
+        if( mappedIndexed ) {
+            matched.addAll(mappedIndex.tokensOfUser(user, this::getMappedByIds));
+        } else {
+            forEachMapped(token -> {
+                if( user.equals(token.getUser()) ) {
+                    matched.add(token);
+                }
+            });
+        }
+        return matched;
+    }
+
+    @Override
+    public List<Token> getTokensByRole(String role) {
+        List<Token> matched = new ArrayList<>(tokens.getTokensByRole(role));
+        if( mappedIndexed ) {
+            matched.addAll(mappedIndex.tokensWithRole(role, this::getMappedByIds));
+        } else {
+            forEachMapped(token -> {
+                if( token.getRoles() != null && token.getRoles().contains(role) ) {
+                    matched.add(token);
+                }
+            });
+        }
+        return matched;
+    }
+
+    private Map<String, Token> getMappedByIds(Collection<String> ids) {
+        Map<String, Token> found = new HashMap<>();
+        for (String id : ids) {
+            Token token = findMapped(id);
+            if( token != null ) {
+                found.put(id, token);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void forEachToken(Consumer<Token> consumer) {
+        tokens.forEachToken(consumer);
+        forEachMapped(consumer);
+    }
+
+    /**
+     * Merge the ids registered since startup with the indexed ids of the snapshot. Until the snapshot is indexed,
+     * falls back to walking the whole repository for every batch of ids.
+     */
+    @Override
+    public void forEachTokenAfter(String after, Predicate<Token> consumer) {
+        if( mapped == null ) {
+            tokens.forEachTokenAfter(after, consumer);
+            return;
+        }
+        if( !mappedIndexed ) {
+            TokenRepository.super.forEachTokenAfter(after, consumer);
+            return;
+        }
+        Iterator<String> liveIds = tokens.idsAfter(after).iterator();
+        Iterator<String> mappedIds = mappedIndex.idsAfter(after).iterator();
+        String liveId = next(liveIds);
+        String mappedId = next(mappedIds);
+        while (liveId != null || mappedId != null) {
+            Token token;
+            if( mappedId == null || (liveId != null && liveId.compareTo(mappedId) <= 0) ) {
+                if( liveId.equals(mappedId) ) {
+                    // Registered again, the mapped token is shadowed
+                    mappedId = next(mappedIds);
+                }
+                token = tokens.find(liveId);
+                liveId = next(liveIds);
+            } else {
+                token = findMapped(mappedId);
+                mappedId = next(mappedIds);
+            }
+            if( token != null && !consumer.test(token) ) {
+                return;
+            }
+        }
+    }
+
+    private static String next(Iterator<String> ids) {
+        return ids.hasNext() ? ids.next() : null;
+    }
+
+    @Override
+    public List<Token> listTokens() {
+        List<Token> live = tokens.listTokens();
+        long now = System.currentTimeMillis();
+        forEachMapped(token -> {
+            if( !isExpired(token, now) ) {
+                live.add(token);
+            }
+        });
+        return live;
+    }
+
+    @Override
+    public int evictExpired(long nowMillis) {
+        return tokens.evictExpired(nowMillis);
+    }
+
+    @Override
+    public long countTokens() {
+        long count = tokens.countTokens();
+        if( mapped != null ) {
+            count += mapped.size() - tombstones.size();
+        }
+        return count;
+    }
+
+    /**
+     * Hand every mapped token that was not removed or shadowed to the consumer, expired ones included.
+     */
+    private void forEachMapped(Consumer<Token> consumer) {
+        if( mapped == null ) {
+            return;
+        }
+        mapped.forEach(token -> {
+            if( !tombstones.contains(token.getId()) ) {
+                consumer.accept(token);
+            }
+        });
+    }
+
+    private static boolean isExpired(Token token, long nowMillis) {
+        long expiration = token.getExpirationMillis();
+        return expiration != Token.NO_EXPIRATION && expiration <= nowMillis;
+    }
+
+    private Object lockFor(String id) {
+        return locks[id.hashCode() & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * @return completes once the record is on disk, or exceptionally if it could not be written
+     */
+    private CompletableFuture<Long> append(byte[] record) {
+        CompletableFuture<Long> written;
+        try {
+            written = wal.append(record);
+        } catch (IllegalStateException e) {
+            // Closed: the change must be undone like any failed write, not left applied
+            return CompletableFuture.failedFuture(e);
+        }
+        if( appendedSinceSnapshot.incrementAndGet() >= SNAPSHOT_EVERY ) {
+            startSnapshot();
+        }
+        return written;
+    }
+
+    private void startSnapshot() {
+        if( !snapshotRunning.compareAndSet(false, true) ) {
+            return;
+        }
+        appendedSinceSnapshot.set(0);
+        snapshot = wal.roll()
+                .thenAcceptAsync(segment -> {
+                    try {
+                        writeSnapshot(segment);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, snapshotExecutor)
+                .whenComplete((ignored, failure) -> {
+                    snapshotRunning.set(false);
+                    if( failure != null ) {
+                        log.log(Level.SEVERE, "Could not write the token snapshot.", failure);
+                    }
+                });
+    }
+
+    /**
+     * Write every live token to a snapshot covering the log up to, not including, the given segment, then delete
+     * the segments and snapshots it replaces.
+     * <p>
+     * The segment must already be rolled to. Every change logged in earlier segments was applied before its record
+     * was queued, so it is visible here; changes logged in later segments may be captured as well, and replaying
+     * them again is harmless.
+     */
+    private void writeSnapshot(long segment) throws IOException {
+        long start = System.nanoTime();
+        Path target = snapshotPath(segment);
+        Path temp = directory.resolve(target.getFileName() + TEMP_SUFFIX);
+        long now = System.currentTimeMillis();
+        long[] written = new long[1];
+        try (MappedTokenSnapshot.Writer writer = new MappedTokenSnapshot.Writer(temp)) {
+            for (Token token : tokens.tokens()) {
+                if( !isExpired(token, now) ) {
+                    writer.add(TokenRecords.encodeRegister(token));
+                    written[0]++;
+                }
+            }
+            try {
+                forEachMapped(token -> {
+                    // Skip the ones registered again, they were written above
+                    if( !isExpired(token, now) && tokens.find(token.getId()) == null ) {
+                        try {
+                            writer.add(TokenRecords.encodeRegister(token));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        written[0]++;
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.finish();
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        deleteOlderThan(segment);
+        log.info(String.format("Wrote a snapshot of %d tokens to %s in %d ms.", written[0], target,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    /**
+     * Delete the snapshots and segments a newer snapshot replaces, except the snapshot that is still mapped.
+     */
+    private void deleteOlderThan(long segment) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if( isSnapshot(name) ) {
+                    long number = numberOf(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+                    if( number < segment && number != mappedSegment ) {
+                        Files.delete(file);
+                    }
+                } else if( isSegment(name)
+                        && numberOf(name, WriteAheadLog.SEGMENT_PREFIX, WriteAheadLog.SEGMENT_SUFFIX) < segment ) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static boolean isSnapshot(String name) {
+        return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX);
+    }
+
+    private static boolean isSegment(String name) {
+        return name.startsWith(WriteAheadLog.SEGMENT_PREFIX) && name.endsWith(WriteAheadLog.SEGMENT_SUFFIX);
+    }
+
+    private Path snapshotPath(long segment) {
+        return directory.resolve(SNAPSHOT_PREFIX + segment + SNAPSHOT_SUFFIX);
+    }
+
+    private static long numberOf(String name, String prefix, String suffix) {
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    private static long await(CompletableFuture<Long> written) {
+        try {
+            return written.join();
+        } catch (CompletionException e) {
+            if( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.giulianobortolassi.jwt.token;
+
+import com.giulianobortolassi.jwt.key.SigningKey;
+import io.jsonwebtoken.Jwts;
+
+import javax.crypto.Mac;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.List;
+
+/**
+ * Signs HS256 tokens without going through the jjwt builder, for the issue path. The JSON is written straight into
+ * a reused buffer, with the claims in the order and the escaping of jjwt and Jackson, so the tokens are the same
+ * byte for byte as the ones {@link TokenService} builds with jjwt.
+ * <p>
+ * Buffers and {@link Mac} instances live in a few stripes picked by thread id, like the generators of
+ * {@link TimeOrderedTokenIdGenerator}, rather than in thread locals that every virtual thread would build again.
+ * Each stripe keeps the Base64URL header of the last key it signed with, and only rebuilds it when keys rotate.
+ */
+final class HmacTokenEncoder {
+
+    private static final byte[] BASE64URL =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final int SIGNATURE_SIZE = 32;
+
+    // A power of two, a few times the number of cores
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 4;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    HmacTokenEncoder() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @param roles joined with commas into the {@link Token#ROLES_KEY} claim, left out if null or empty
+     * @return the signed JWT, or null if the key is not an HS256 key or a value is blank, which jjwt leaves out, in
+     *         which case the token is left to jjwt
+     */
+    String encode(SigningKey key, String id, String subject, List<String> roles, long issuedMillis, long expirationMillis) {
+        if( !Jwts.SIG.HS256.getId().equals(key.getAlgorithm().getId()) || !hasText(key.getId()) || !hasText(id)
+                || (subject != null && !hasText(subject))
+                || (roles != null && roles.size() == 1 && !hasText(String.valueOf(roles.get(0)))) ) {
+            return null;
+        }
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        synchronized (stripe) {
+            try {
+                return stripe.encode(key, id, subject, roles, issuedMillis / 1000, expirationMillis / 1000);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Failed to sign token with key " + key.getId(), e);
+            }
+        }
+    }
+
+    private static final class Stripe {
+
+        private final Mac mac;
+
+        private SigningKey key;
+
+        // The Base64URL header followed by a dot
+        private byte[] header;
+
+        private byte[] json = new byte[512];
+
+        private int length;
+
+        private byte[] out = new byte[1024];
+
+        private final byte[] signature = new byte[SIGNATURE_SIZE];
+
+        Stripe() {
+            try {
+                mac = Mac.getInstance(MAC_ALGORITHM);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+            }
+        }
+
+        String encode(SigningKey signingKey, String id, String subject, List<String> roles, long issuedAt,
+                      long expiration) throws GeneralSecurityException {
+            if( signingKey != key ) {
+                mac.init(signingKey.getSigningKey());
+                length = 0;
+                appendAscii("{\"kid\":");
+                appendString(signingKey.getId());
+                appendAscii(",\"alg\":\"HS256\"}");
+                header = new byte[base64Length(length) + 1];
+                int end = base64(json, length, header, 0);
+                header[end] = '.';
+                key = signingKey;
+            }
+
+            length = 0;
+            appendAscii("{");
+            if( roles != null && !roles.isEmpty() ) {
+                appendAscii("\"roles\":\"");
+                for (int i = 0; i < roles.size(); i++) {
+                    if( i > 0 ) {
+                        appendAscii(",");
+                    }
+                    appendChars(String.valueOf(roles.get(i)));
+                }
+                appendAscii("\",");
+            }
+            appendAscii("\"jti\":");
+            appendString(id);
+            if( subject != null ) {
+                appendAscii(",\"sub\":");
+                appendString(subject);
+            }
+            appendAscii(",\"iat\":");
+            appendAscii(Long.toString(issuedAt));
+            appendAscii(",\"exp\":");
+            appendAscii(Long.toString(expiration));
+            appendAscii("}");
+
+            int size = header.length + base64Length(length) + 1 + base64Length(SIGNATURE_SIZE);
+            if( out.length < size ) {
+                out = new byte[Math.max(size, out.length * 2)];
+            }
+            System.arraycopy(header, 0, out, 0, header.length);
+            int end = base64(json, length, out, header.length);
+            mac.update(out, 0, end);
+            mac.doFinal(signature, 0);
+            out[end++] = '.';
+            end = base64(signature, SIGNATURE_SIZE, out, end);
+            return new String(out, 0, end, StandardCharsets.ISO_8859_1);
+        }
+
+        private void appendAscii(String value) {
+            ensureCapacity(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                json[length++] = (byte) value.charAt(i);
+            }
+        }
+
+        private void appendString(String value) {
+            appendAscii("\"");
+            appendChars(value);
+            appendAscii("\"");
+        }
+
+        /**
+         * Append the characters as Jackson escapes them: quotes, backslashes, control characters and surrogates, the
+         * rest as UTF-8.
+         */
+        private void appendChars(String value) {
+            // At most 6 bytes per character, for \\u00XX escapes
+            ensureCapacity(value.length() * 6);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if( c < 0x80 ) {
+                    if( c >= 0x20 && c != '"' && c != '\\' ) {
+                        json[length++] = (byte) c;
+                    } else {
+                        appendEscape(c);
+                    }
+                } else if( c < 0x800 ) {
+                    json[length++] = (byte) (0xC0 | (c >> 6));
+                    json[length++] = (byte) (0x80 | (c & 0x3F));
+                } else if( !Character.isSurrogate(c) ) {
+                    json[length++] = (byte) (0xE0 | (c >> 12));
+                    json[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    json[length++] = (byte) (0x80 | (c & 0x3F));
+                } else {
+                    appendUnicodeEscape(c);
+                }
+            }
+        }
+
+        private void appendEscape(char c) {
+            char escape = shortEscape(c);
+            if( escape == 0 ) {
+                appendUnicodeEscape(c);
+                return;
+            }
+            json[length++] = '\\';
+            json[length++] = (byte) escape;
+        }
+
+        private void appendUnicodeEscape(char c) {
+            json[length++] = '\\';
+            json[length++] = 'u';
+            json[length++] = HEX[c >> 12];
+            json[length++] = HEX[(c >> 8) & 0xF];
+            json[length++] = HEX[(c >> 4) & 0xF];
+            json[length++] = HEX[c & 0xF];
+        }
+
+        private void ensureCapacity(int extra) {
+            if( json.length - length < extra ) {
+                byte[] grown = new byte[Math.max(length + extra, json.length * 2)];
+                System.arraycopy(json, 0, grown, 0, length);
+                json = grown;
+            }
+        }
+    }
+
+    private static char shortEscape(char c) {
+        switch (c) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '\b': return 'b';
+            case '\t': return 't';
+            case '\n': return 'n';
+            case '\f': return 'f';
+            case '\r': return 'r';
+            default: return 0;
+        }
+    }
+
+    private static boolean hasText(String value) {
+        if( value == null ) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if( !Character.isWhitespace(value.charAt(i)) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int base64Length(int size) {
+        return (size * 4 + 2) / 3;
+    }
+
+    /**
+     * Write the first {@code size} bytes of {@code src} as unpadded Base64URL.
+     * @return the offset after the last character written
+     */
+    private static int base64(byte[] src, int size, byte[] dst, int offset) {
+        int i = 0;
+        for (; i + 3 <= size; i += 3) {
+            int bits = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF);
+            dst[offset++] = BASE64URL[bits >>> 18];
+            dst[offset++] = BASE64URL[(bits >>> 12) & 0x3F];
+            dst[offset++] = BASE64URL[(bits >>> 6) & 0x3F];
+            dst[offset++] = BASE64URL[bits & 0x3F];
+        }
+        int remaining = size - i;
+        if( remaining == 1 ) {
+            int bits = (src[i] & 0xFF) << 16;
+            dst[offset++] = BASE64URL[bits >>> 18];
+            dst[offset++] = BASE64URL[(bits >>> 12) & 0x3F];
+        } else if( remaining == 2 ) {
+            int bits = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8;
+            dst[offset++] = BASE64URL[bits >>> 18];
+            dst[offset++] = BASE64URL[(bits >>> 12) & 0x3F];
+            dst[offset++] = BASE64URL[(bits >>> 6) & 0x3F];
+        }
+        return offset;
+    }
+}
@@ -1,25 +1,70 @@
 package com.giulianobortolassi.jwt.token;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
+/**
+ * Token repository backed by a {@link ConcurrentHashMap}.
+ * Reads never block, and writes only contend on the bin of the token id being written, so it is safe to
+ * share between the request threads.
+ * <p>
+ * Every registered token is also placed in {@link ExpiryBuckets}, so {@link #evictExpired(long)} can drop expired
+ * tokens without scanning the whole map, and in a {@link TokenIndex} by user and role.
+ */
 @Repository
+@ConditionalOnProperty(name = "jwt.repository.type", havingValue = "memory", matchIfMissing = true)
 public class InMemoryTokenRepository implements TokenRepository {
 
-    private HashMap<String, Token> tokenDatabase = new HashMap<>();
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final long EXPIRY_RESOLUTION = TimeUnit.SECONDS.toMillis(1);
+
+    private final ConcurrentHashMap<String, Token> tokenDatabase =
+            new ConcurrentHashMap<>(INITIAL_CAPACITY, 0.75f, Runtime.getRuntime().availableProcessors());
+
+    private final ExpiryBuckets expiryBuckets = new ExpiryBuckets(EXPIRY_RESOLUTION);
+
+    private final TokenIndex index = new TokenIndex();
 
     @Override
     public Token registerToken(Token token) {
-        this.tokenDatabase.put(token.getId(), token);
+        Token previous = this.tokenDatabase.put(token.getId(), token);
+        if( previous != null && previous != token ) {
+            this.index.remove(previous);
+        }
+        this.index.add(token);
+        this.expiryBuckets.schedule(token);
         return token;
     }
 
+    @Override
+    public List<Token> registerTokens(Collection<Token> tokens) {
+        List<Token> registered = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            registered.add(registerToken(token));
+        }
+        return registered;
+    }
+
     @Override
     public Token removeToken(Token token) throws TokenNotFoundException {
-        Token removedToken = this.tokenDatabase.remove(token.getId());
+        return removeTokenById(token.getId());
+    }
+
+    @Override
+    public Token removeTokenById(String id) throws TokenNotFoundException {
+        Token removedToken = remove(id);
         if( removedToken == null ) {
             throw new TokenNotFoundException();
         }
@@ -28,24 +73,145 @@ public class InMemoryTokenRepository implements TokenRepository {
 
     @Override
     public Token getToken(Token token) throws TokenNotFoundException {
-        Token token1 = this.tokenDatabase.get(token.getId());
-        if( token1 == null ) {
-            throw new TokenNotFoundException();
-        }
-        return  token1;
+        return getTokenById(token.getId());
     }
 
     @Override
     public Token getTokenById(String id) throws TokenNotFoundException {
-        Token token = this.tokenDatabase.get(id);
+        Token token = find(id);
         if( token == null ) {
             throw new TokenNotFoundException();
         }
         return token;
     }
 
+    @Override
+    public Map<String, Token> getTokensByIds(Collection<String> ids) {
+        Map<String, Token> tokens = new HashMap<>();
+        for (String id : ids) {
+            Token token = this.tokenDatabase.get(id);
+            if( token != null ) {
+                tokens.put(id, token);
+            }
+        }
+        return tokens;
+    }
+
+    @Override
+    public Map<String, Token> removeTokensByIds(Collection<String> ids) {
+        Map<String, Token> removed = new HashMap<>();
+        for (String id : ids) {
+            Token token = remove(id);
+            if( token != null ) {
+                removed.put(id, token);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * The stored token is updated in place. It stays in the expiry bucket of its previous expiration time, and is
+     * moved to the right one when that bucket is drained.
+     */
+    @Override
+    public boolean renewToken(Token token, long expectedMillis, long expirationMillis) {
+        Token storedToken = this.tokenDatabase.get(token.getId());
+        if( storedToken == null || !storedToken.compareAndSetExpiration(expectedMillis, expirationMillis) ) {
+            return false;
+        }
+        if( storedToken != token ) {
+            token.setExpirationMillis(expirationMillis);
+        }
+        return true;
+    }
+
+    @Override
+    public List<Token> getTokensByUser(String user) {
+        return this.index.tokensOfUser(user, this::getTokensByIds);
+    }
+
+    @Override
+    public List<Token> getTokensByRole(String role) {
+        return this.index.tokensWithRole(role, this::getTokensByIds);
+    }
+
+    @Override
+    public void forEachToken(Consumer<Token> consumer) {
+        this.tokenDatabase.values().forEach(consumer);
+    }
+
+    @Override
+    public void forEachTokenAfter(String after, Predicate<Token> consumer) {
+        this.index.forEachAfter(after, this.tokenDatabase::get, consumer);
+    }
+
     @Override
     public List<Token> listTokens() {
-        return new ArrayList<>(this.tokenDatabase.values());
+        long now = System.currentTimeMillis();
+        List<Token> tokens = new ArrayList<>();
+        for (Token token : this.tokenDatabase.values()) {
+            if( !isExpired(token, now) ) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    @Override
+    public int evictExpired(long nowMillis) {
+        int[] evicted = new int[1];
+        this.expiryBuckets.drainExpired(nowMillis, token -> {
+            if( !isExpired(token, nowMillis) ) {
+                // Expiration was pushed forward after the token was scheduled
+                this.expiryBuckets.schedule(token);
+            } else if( this.tokenDatabase.remove(token.getId(), token) ) {
+                this.index.remove(token);
+                evicted[0]++;
+            }
+        });
+        return evicted[0];
+    }
+
+    @Override
+    public long countTokens() {
+        return this.tokenDatabase.mappingCount();
+    }
+
+    /**
+     * @return the stored token, or null if there is none
+     */
+    Token find(String id) {
+        return this.tokenDatabase.get(id);
+    }
+
+    /**
+     * @return the removed token, or null if there was none
+     */
+    Token remove(String id) {
+        Token removedToken = this.tokenDatabase.remove(id);
+        if( removedToken != null ) {
+            this.index.remove(removedToken);
+        }
+        return removedToken;
+    }
+
+    /**
+     * @return a live view of the ids after the given one, in ascending order. It may still hold ids of tokens just
+     *         removed.
+     */
+    NavigableSet<String> idsAfter(String after) {
+        return this.index.idsAfter(after);
+    }
+
+    /**
+     * @return a live view of every stored token, expired ones included
+     */
+    Collection<Token> tokens() {
+        return this.tokenDatabase.values();
+    }
+
+    private static boolean isExpired(Token token, long nowMillis) {
+        long expiration = token.getExpirationMillis();
+        return expiration != Token.NO_EXPIRATION && expiration <= nowMillis;
     }
 }
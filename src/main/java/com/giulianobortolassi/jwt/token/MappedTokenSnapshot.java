@@ -0,0 +1,348 @@
+package com.giulianobortolassi.jwt.token;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Snapshot of the token repository laid out to be served straight from a memory mapping.
+ * <pre>
+ * header   magic, version, record count, offset and size of the slot table
+ * records  [length][register record], the same record as in the write-ahead log
+ * slots    open addressing hash table of [id hash][record offset], linear probing, at most 3/4 full
+ * </pre>
+ * Opening a snapshot only maps the file and reads the header, so its size does not matter at startup. A lookup
+ * probes the slot table and compares the id in place; only a match is decoded into a {@link Token}, which is never
+ * kept on the heap. The mapping is split in chunks of 1 GB since a single mapping is limited to 2 GB.
+ * <p>
+ * Immutable once written, and safe to read from any thread. The mapping is released when the instance is garbage
+ * collected.
+ */
+final class MappedTokenSnapshot {
+
+    private static final int MAGIC = 0x4a575453;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final int SLOT_SIZE = 16;
+
+    private static final int CHUNK_BITS = 30;
+
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    private static final long EMPTY = 0;
+
+    private final MappedByteBuffer[] chunks;
+
+    private final long count;
+
+    private final long slotsOffset;
+
+    private final long slotMask;
+
+    private MappedTokenSnapshot(MappedByteBuffer[] chunks) throws IOException {
+        this.chunks = chunks;
+        if( readInt(0) != MAGIC || readInt(4) != VERSION ) {
+            throw new IOException("Not a token snapshot.");
+        }
+        this.count = readLong(8);
+        this.slotsOffset = readLong(16);
+        this.slotMask = readLong(24) - 1;
+    }
+
+    /**
+     * Map a snapshot written by {@link Writer}.
+     */
+    static MappedTokenSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if( size < HEADER_SIZE ) {
+                throw new IOException("Not a token snapshot: " + file);
+            }
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long position = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position));
+            }
+            // The mapping stays valid after the channel is closed
+            return new MappedTokenSnapshot(chunks);
+        }
+    }
+
+    /**
+     * @return the number of tokens in the snapshot
+     */
+    long size() {
+        return count;
+    }
+
+    /**
+     * @return the token with the given id, or null if the snapshot does not hold it
+     */
+    Token get(String id) {
+        long record = find(id);
+        return record < 0 ? null : decode(record);
+    }
+
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * Decode every token of the snapshot, in the order they were written.
+     */
+    void forEach(Consumer<Token> consumer) {
+        long position = HEADER_SIZE;
+        for (long i = 0; i < count; i++) {
+            consumer.accept(decode(position));
+            position += 4 + readInt(position);
+        }
+    }
+
+    /**
+     * @return the offset of the record of the token, -1 if it is not there
+     */
+    private long find(String id) {
+        long hash = hash(id);
+        for (long slot = hash & slotMask; ; slot = (slot + 1) & slotMask) {
+            long slotOffset = slotsOffset + slot * SLOT_SIZE;
+            long slotHash = readLong(slotOffset);
+            if( slotHash == EMPTY ) {
+                return -1;
+            }
+            if( slotHash == hash ) {
+                long record = readLong(slotOffset + 8);
+                if( idEquals(record, id) ) {
+                    return record;
+                }
+            }
+        }
+    }
+
+    private Token decode(long record) {
+        byte[] bytes = new byte[readInt(record)];
+        read(record + 4, bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.get();
+        return TokenRecords.decodeToken(buffer);
+    }
+
+    /**
+     * Compare the id of a record with the given one without decoding it.
+     */
+    private boolean idEquals(long record, String id) {
+        // Skip the record length and type
+        long position = record + 5;
+        int length = readInt(position);
+        position += 4;
+        if( isAscii(id) ) {
+            if( length != id.length() ) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if( readByte(position + i) != id.charAt(i) ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        byte[] expected = id.getBytes(StandardCharsets.UTF_8);
+        if( length != expected.length ) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if( readByte(position + i) != expected[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte readByte(long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & (CHUNK_SIZE - 1)));
+    }
+
+    private int readInt(long position) {
+        int offset = (int) (position & (CHUNK_SIZE - 1));
+        MappedByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+        if( offset + 4 <= chunk.limit() ) {
+            return chunk.getInt(offset);
+        }
+        byte[] bytes = new byte[4];
+        read(position, bytes);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    private long readLong(long position) {
+        int offset = (int) (position & (CHUNK_SIZE - 1));
+        MappedByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+        if( offset + 8 <= chunk.limit() ) {
+            return chunk.getLong(offset);
+        }
+        byte[] bytes = new byte[8];
+        read(position, bytes);
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    /**
+     * Copy bytes that may span two chunks.
+     */
+    private void read(long position, byte[] target) {
+        int copied = 0;
+        while (copied < target.length) {
+            int offset = (int) (position & (CHUNK_SIZE - 1));
+            ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)].duplicate();
+            int length = Math.min(target.length - copied, chunk.limit() - offset);
+            chunk.position(offset);
+            chunk.get(target, copied, length);
+            copied += length;
+            position += length;
+        }
+    }
+
+    private static boolean isAscii(String id) {
+        for (int i = 0; i < id.length(); i++) {
+            if( id.charAt(i) >= 0x80 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes of the id, never {@link #EMPTY}.
+     */
+    static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        if( isAscii(id) ) {
+            for (int i = 0; i < id.length(); i++) {
+                hash = (hash ^ id.charAt(i)) * 0x100000001b3L;
+            }
+        } else {
+            for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+                hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+            }
+        }
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private static long hash(byte[] id) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : id) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    /**
+     * Writes a snapshot in a single pass: the records are streamed first, and the slot table is built at the end
+     * once their number is known. Holds 16 bytes per token on the heap until {@link #finish()}.
+     */
+    static final class Writer implements Closeable {
+
+        private final FileChannel channel;
+
+        private final DataOutputStream out;
+
+        private long position = HEADER_SIZE;
+
+        private int count;
+
+        private long[] hashes = new long[1024];
+
+        private long[] offsets = new long[1024];
+
+        Writer(Path file) throws IOException {
+            this.channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.channel.position(HEADER_SIZE);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        }
+
+        /**
+         * @param record a register record from {@link TokenRecords#encodeRegister(Token)}
+         */
+        void add(byte[] record) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            if( buffer.get() != TokenRecords.REGISTER ) {
+                throw new IllegalArgumentException("Only register records can be added to a snapshot.");
+            }
+            byte[] id = new byte[buffer.getInt()];
+            buffer.get(id);
+
+            if( count == hashes.length ) {
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            hashes[count] = hash(id);
+            offsets[count] = position;
+            count++;
+
+            out.writeInt(record.length);
+            out.write(record);
+            position += 4 + record.length;
+        }
+
+        /**
+         * Write the slot table and the header, and force everything to disk.
+         */
+        void finish() throws IOException {
+            out.flush();
+            long slotCount = Long.highestOneBit(Math.max(4, count * 4L / 3 + 1)) << 1;
+            // Aligned, so a slot never spans two chunks
+            long slotsOffset = (position + SLOT_SIZE - 1) / SLOT_SIZE * SLOT_SIZE;
+            long slotsSize = slotCount * SLOT_SIZE;
+
+            // Mapping past the end of the file grows it with zeros, which are empty slots
+            MappedByteBuffer[] slots = new MappedByteBuffer[(int) ((slotsSize + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < slots.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                slots[i] = channel.map(FileChannel.MapMode.READ_WRITE, slotsOffset + start,
+                        Math.min(CHUNK_SIZE, slotsSize - start));
+            }
+            long mask = slotCount - 1;
+            for (int i = 0; i < count; i++) {
+                long slot = hashes[i] & mask;
+                while (slotChunk(slots, slot).getLong(slotIndex(slot)) != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                slotChunk(slots, slot).putLong(slotIndex(slot), hashes[i]).putLong(slotIndex(slot) + 8, offsets[i]);
+            }
+            for (MappedByteBuffer chunk : slots) {
+                chunk.force();
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(count).putLong(slotsOffset).putLong(slotCount);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+
+        private static MappedByteBuffer slotChunk(MappedByteBuffer[] slots, long slot) {
+            return slots[(int) ((slot * SLOT_SIZE) >>> CHUNK_BITS)];
+        }
+
+        private static int slotIndex(long slot) {
+            return (int) ((slot * SLOT_SIZE) & (CHUNK_SIZE - 1));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
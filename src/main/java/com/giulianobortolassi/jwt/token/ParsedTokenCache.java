@@ -0,0 +1,135 @@
+package com.giulianobortolassi.jwt.token;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokens whose signature was already verified, by SHA-256 digest of the JWT string, so a token validated over and
+ * over is only decoded and verified once. Keys are 32 bytes whatever the size of the token, and the bounded
+ * W-TinyLFU policy of Caffeine keeps the tokens validated most often.
+ * <p>
+ * Only the signature and the claims are cached, with the id of the key that verified the signature: validation
+ * still asks the repository whether the token is stored, so a token revoked anywhere is rejected even while its entry
+ * lives, and the key ring whether the key is still accepted. An entry expires with the {@code exp} claim of
+ * its token or, with sliding expiration, once the token is idle for a full expiration time.
+ */
+final class ParsedTokenCache {
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform implements SHA-256
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Cache<ByteBuffer, Entry> cache;
+
+    /**
+     * @param maxSize most tokens kept, 0 to disable the cache
+     * @param slidingMillis with sliding expiration, how long an entry lives after its last read, otherwise 0
+     */
+    ParsedTokenCache(long maxSize, long slidingMillis) {
+        this.cache = maxSize <= 0 ? null : Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new TokenExpiry(slidingMillis))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return the underlying cache, to expose its statistics, or null if disabled
+     */
+    Cache<ByteBuffer, Entry> getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the token parsed from the JWT string, or null if not cached
+     */
+    Entry get(String tokenStr) {
+        return cache == null ? null : cache.getIfPresent(digest(tokenStr));
+    }
+
+    /**
+     * @param keyId the {@code kid} header of the token, null for the default key
+     */
+    void put(String tokenStr, Token parsed, String keyId) {
+        if( cache != null ) {
+            cache.put(digest(tokenStr), new Entry(parsed, keyId));
+        }
+    }
+
+    /**
+     * Drop the token right away, for instance once it is revoked.
+     */
+    void invalidate(String tokenStr) {
+        if( cache != null && tokenStr != null ) {
+            cache.invalidate(digest(tokenStr));
+        }
+    }
+
+    private static ByteBuffer digest(String tokenStr) {
+        // The structural check already let only Base64URL characters and dots through, so Latin-1 is lossless
+        return ByteBuffer.wrap(SHA_256.get().digest(tokenStr.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    /**
+     * A parsed token, with the id of the key its signature was verified with.
+     */
+    static final class Entry {
+
+        private final Token token;
+
+        private final String keyId;
+
+        private Entry(Token token, String keyId) {
+            this.token = token;
+            this.keyId = keyId;
+        }
+
+        Token getToken() {
+            return token;
+        }
+
+        String getKeyId() {
+            return keyId;
+        }
+    }
+
+    private static final class TokenExpiry implements Expiry<ByteBuffer, Entry> {
+
+        private final long slidingNanos;
+
+        private TokenExpiry(long slidingMillis) {
+            this.slidingNanos = TimeUnit.MILLISECONDS.toNanos(slidingMillis);
+        }
+
+        @Override
+        public long expireAfterCreate(ByteBuffer key, Entry entry, long currentTime) {
+            if( slidingNanos > 0 ) {
+                return slidingNanos;
+            }
+            long remaining = entry.getToken().getExpirationMillis() - System.currentTimeMillis();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, remaining));
+        }
+
+        @Override
+        public long expireAfterUpdate(ByteBuffer key, Entry entry, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, entry, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(ByteBuffer key, Entry entry, long currentTime, long currentDuration) {
+            return slidingNanos > 0 ? slidingNanos : currentDuration;
+        }
+    }
+}
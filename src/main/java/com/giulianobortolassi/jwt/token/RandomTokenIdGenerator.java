@@ -0,0 +1,20 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Random (version 4) UUIDs from {@link UUID#randomUUID()}, which draws on a {@link java.security.SecureRandom}
+ * shared by the whole JVM.
+ */
+@Component
+@ConditionalOnProperty(name = "jwt.token.id-generator", havingValue = "random")
+public class RandomTokenIdGenerator implements TokenIdGenerator {
+
+    @Override
+    public String nextId() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,46 @@
+package com.giulianobortolassi.jwt.token;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logger for events that can be triggered by clients at high rate, like rejected tokens during a credential
+ * stuffing attack. At most one message is written per interval, together with how many were suppressed since the
+ * previous one, and never with a stack trace.
+ */
+public class RateLimitedLogger {
+
+    private final Logger log;
+    private final long intervalNanos;
+    private final AtomicLong nextLogTime = new AtomicLong(Long.MIN_VALUE);
+    private final LongAdder suppressed = new LongAdder();
+
+    public RateLimitedLogger(Logger log, long intervalMillis) {
+        this.log = log;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+    }
+
+    /**
+     * Log the message unless another one was already logged in the current interval.
+     * Suppressed calls cost a clock read and a counter increment.
+     */
+    public void log(Level level, String message) {
+        if( !log.isLoggable(level) ) {
+            return;
+        }
+        long now = System.nanoTime();
+        long next = nextLogTime.get();
+        if( (next != Long.MIN_VALUE && now - next < 0) || !nextLogTime.compareAndSet(next, now + intervalNanos) ) {
+            suppressed.increment();
+            return;
+        }
+        long suppressedCount = suppressed.sumThenReset();
+        if( suppressedCount > 0 ) {
+            log.log(level, message + " (" + suppressedCount + " similar messages suppressed)");
+        } else {
+            log.log(level, message);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.giulianobortolassi.jwt.token;
+
+/**
+ * Thrown when a user asks for a token while holding {@code jwt.session.max-per-user} live tokens already, with
+ * {@code jwt.session.overflow=reject}. Like {@link TokenNotFoundException}, it does not capture a stack trace.
+ */
+public class SessionLimitExceededException extends RuntimeException {
+
+    public SessionLimitExceededException(String user) {
+        super("Too many active tokens for user " + user, null, false, false);
+    }
+}
@@ -0,0 +1,257 @@
+package com.giulianobortolassi.jwt.token;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caps how many live tokens a user holds, {@code jwt.session.max-per-user}, so a client logging in on every request
+ * can not fill the repository. Each user's token ids are kept in issue order, with their expiration, so the oldest
+ * is found and dropped in constant time.
+ * <p>
+ * Once a user holds the maximum, a new token either makes {@link TokenService} revoke the oldest one
+ * ({@code jwt.session.overflow=evict}, the default) or is refused ({@code reject}). Expired tokens stop counting
+ * as soon as they expire, and are forgotten every {@code jwt.session.sweep-interval}. The count is per node: with
+ * replication, each node caps the tokens issued through it.
+ */
+@Component
+public class SessionLimiter {
+
+    enum Overflow { EVICT, REJECT }
+
+    /** Most live tokens per user. 0 disables the limit. */
+    @Value("${jwt.session.max-per-user:0}")
+    private int MAX_PER_USER = 0;
+
+    @Value("${jwt.session.overflow:evict}")
+    private String OVERFLOW = "evict";
+
+    @Autowired
+    private TokenRepository repository;
+
+    private Overflow overflow;
+
+    private final ConcurrentHashMap<String, Sessions> byUser = new ConcurrentHashMap<>();
+
+    /**
+     * Count the tokens already stored, so a restart with a persistent repository does not reset the limit.
+     */
+    @PostConstruct
+    void init() {
+        overflow = Overflow.valueOf(OVERFLOW.toUpperCase(Locale.ROOT));
+        if( !isEnabled() ) {
+            return;
+        }
+        Map<String, List<Token>> stored = new HashMap<>();
+        repository.forEachToken(token -> {
+            if( token.getUser() != null ) {
+                stored.computeIfAbsent(token.getUser(), user -> new ArrayList<>()).add(token);
+            }
+        });
+        for (Map.Entry<String, List<Token>> entry : stored.entrySet()) {
+            List<Token> tokens = entry.getValue();
+            tokens.sort(Comparator.comparing(Token::getIssuedTime, Comparator.nullsFirst(Comparator.naturalOrder())));
+            Sessions sessions = new Sessions();
+            for (Token token : tokens) {
+                sessions.tokens.put(token.getId(), token.getExpirationMillis());
+            }
+            byUser.put(entry.getKey(), sessions);
+        }
+    }
+
+    public boolean isEnabled() {
+        return MAX_PER_USER > 0;
+    }
+
+    /**
+     * Count a new token of its user.
+     *
+     * @return the ids of the user's oldest tokens to revoke to make room for it, oldest first, or null if the token
+     *         is refused because the user holds the maximum already
+     */
+    List<String> add(Token token) {
+        if( !isEnabled() || token.getUser() == null ) {
+            return Collections.emptyList();
+        }
+        long now = System.currentTimeMillis();
+        while (true) {
+            Sessions sessions = byUser.computeIfAbsent(token.getUser(), user -> new Sessions());
+            synchronized (sessions) {
+                if( sessions.removed ) {
+                    // Emptied and dropped by another thread in the meantime
+                    continue;
+                }
+                sessions.removeExpiredHead(now);
+                if( overflow == Overflow.REJECT && sessions.tokens.size() >= MAX_PER_USER ) {
+                    return null;
+                }
+                sessions.tokens.put(token.getId(), token.getExpirationMillis());
+                if( sessions.tokens.size() <= MAX_PER_USER ) {
+                    return Collections.emptyList();
+                }
+                List<String> evicted = new ArrayList<>(sessions.tokens.size() - MAX_PER_USER);
+                Iterator<String> oldest = sessions.tokens.keySet().iterator();
+                while (sessions.tokens.size() > MAX_PER_USER) {
+                    evicted.add(oldest.next());
+                    oldest.remove();
+                }
+                return evicted;
+            }
+        }
+    }
+
+    /**
+     * Undo {@link #add} for a token that could not be stored after all: stop counting it, and count the tokens it
+     * pushed out again, ahead of the others, as long as they are still stored.
+     *
+     * @param evicted the ids {@link #add} returned for the token
+     */
+    void cancel(Token token, List<String> evicted) {
+        if( !isEnabled() || token.getUser() == null ) {
+            return;
+        }
+        Map<String, Token> stored = evicted.isEmpty() ? Collections.emptyMap() : repository.getTokensByIds(evicted);
+        while (true) {
+            Sessions sessions = byUser.computeIfAbsent(token.getUser(), user -> new Sessions());
+            synchronized (sessions) {
+                if( sessions.removed ) {
+                    continue;
+                }
+                sessions.tokens.remove(token.getId());
+                if( !stored.isEmpty() ) {
+                    LinkedHashMap<String, Long> restored = new LinkedHashMap<>();
+                    for (String id : evicted) {
+                        Token evictedToken = stored.get(id);
+                        if( evictedToken != null ) {
+                            restored.put(id, evictedToken.getExpirationMillis());
+                        }
+                    }
+                    restored.putAll(sessions.tokens);
+                    sessions.tokens.clear();
+                    sessions.tokens.putAll(restored);
+                }
+                if( sessions.tokens.isEmpty() ) {
+                    forget(token.getUser(), sessions);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop counting a revoked token.
+     */
+    void remove(Token token) {
+        if( !isEnabled() || token.getUser() == null ) {
+            return;
+        }
+        Sessions sessions = byUser.get(token.getUser());
+        if( sessions == null ) {
+            return;
+        }
+        synchronized (sessions) {
+            sessions.tokens.remove(token.getId());
+            if( sessions.tokens.isEmpty() ) {
+                forget(token.getUser(), sessions);
+            }
+        }
+    }
+
+    /**
+     * Follow a sliding renewal, so the token keeps counting until its new expiration. Its place in the issue order
+     * does not change.
+     */
+    void renewed(Token token, long expirationMillis) {
+        if( !isEnabled() || token.getUser() == null ) {
+            return;
+        }
+        Sessions sessions = byUser.get(token.getUser());
+        if( sessions == null ) {
+            return;
+        }
+        synchronized (sessions) {
+            sessions.tokens.replace(token.getId(), expirationMillis);
+        }
+    }
+
+    /**
+     * Forget the expired tokens, and the users left without any.
+     */
+    @Scheduled(fixedDelayString = "${jwt.session.sweep-interval:60000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Sessions> entry : byUser.entrySet()) {
+            Sessions sessions = entry.getValue();
+            synchronized (sessions) {
+                sessions.tokens.values().removeIf(expiration -> isExpired(expiration, now));
+                if( sessions.tokens.isEmpty() ) {
+                    forget(entry.getKey(), sessions);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return how many live tokens the user is counted for
+     */
+    int count(String user) {
+        Sessions sessions = byUser.get(user);
+        if( sessions == null ) {
+            return 0;
+        }
+        synchronized (sessions) {
+            sessions.removeExpiredHead(System.currentTimeMillis());
+            return sessions.tokens.size();
+        }
+    }
+
+    /**
+     * @return how many users hold at least one counted token
+     */
+    int countUsers() {
+        return byUser.size();
+    }
+
+    // Called holding the lock of the sessions
+    private void forget(String user, Sessions sessions) {
+        sessions.removed = true;
+        byUser.remove(user, sessions);
+    }
+
+    private static boolean isExpired(long expiration, long now) {
+        return expiration != Token.NO_EXPIRATION && expiration <= now;
+    }
+
+    /**
+     * Token ids of a user in issue order, with their expiration. Guarded by its own lock.
+     */
+    private static final class Sessions {
+
+        final LinkedHashMap<String, Long> tokens = new LinkedHashMap<>();
+
+        boolean removed;
+
+        /**
+         * Drop the oldest tokens while they are expired. Tokens expire in issue order, unless renewed.
+         */
+        void removeExpiredHead(long now) {
+            Iterator<Long> oldest = tokens.values().iterator();
+            while (oldest.hasNext() && isExpired(oldest.next(), now)) {
+                oldest.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Time-ordered (version 7) UUIDs: 48 bits of Unix milliseconds, a 12 bit counter and 62 random bits. Ids issued
+ * close in time sort close together, which keeps ordered listings and persistent repositories local.
+ * <p>
+ * Randomness is drawn from one of a few generators picked by thread id, each a DRBG of its own seeded once from the
+ * system, and read from a buffer refilled 256 bytes at a time. Threads do not contend on a single {@link SecureRandom},
+ * and never wait for entropy after startup. The counter starts at a random value every millisecond and goes up with
+ * every id of that generator, so the ids issued by a thread are strictly increasing.
+ */
+@Component
+@ConditionalOnProperty(name = "jwt.token.id-generator", havingValue = "time-ordered", matchIfMissing = true)
+public class TimeOrderedTokenIdGenerator implements TokenIdGenerator {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // A power of two, a few times the number of cores
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 4;
+
+    private static final int MAX_COUNTER = 0xFFF;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public TimeOrderedTokenIdGenerator() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public String nextId() {
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        long high;
+        long low;
+        synchronized (stripe) {
+            high = stripe.nextHigh(System.currentTimeMillis());
+            low = stripe.nextRandom();
+        }
+        low = (low & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return format(high, low);
+    }
+
+    /**
+     * @return the canonical form of the UUID, built in a single buffer
+     */
+    static String format(long high, long low) {
+        byte[] chars = new byte[36];
+        hex(chars, 0, high >>> 32, 8);
+        chars[8] = '-';
+        hex(chars, 9, high >>> 16, 4);
+        chars[13] = '-';
+        hex(chars, 14, high, 4);
+        chars[18] = '-';
+        hex(chars, 19, low >>> 48, 4);
+        chars[23] = '-';
+        hex(chars, 24, low, 12);
+        return new String(chars, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void hex(byte[] chars, int offset, long value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            chars[i] = HEX[(int) value & 0xF];
+            value >>>= 4;
+        }
+    }
+
+    private static final class Stripe {
+
+        private static final int BUFFERED_LONGS = 32;
+
+        private final SecureRandom random = newRandom();
+
+        private final long[] buffer = new long[BUFFERED_LONGS];
+
+        private final byte[] bytes = new byte[BUFFERED_LONGS * 8];
+
+        private int position = BUFFERED_LONGS;
+
+        private long lastMillis;
+
+        private int counter;
+
+        /**
+         * @return the timestamp, version and counter half of the next id
+         */
+        long nextHigh(long nowMillis) {
+            if( nowMillis > lastMillis ) {
+                lastMillis = nowMillis;
+                // Leave room for counting up within the millisecond
+                counter = (int) nextRandom() & (MAX_COUNTER >>> 1);
+            } else if( ++counter > MAX_COUNTER ) {
+                // Clock went back or the counter is exhausted: borrow the next millisecond
+                lastMillis++;
+                counter = 0;
+            }
+            return (lastMillis << 16) | 0x7000 | counter;
+        }
+
+        long nextRandom() {
+            if( position == BUFFERED_LONGS ) {
+                random.nextBytes(bytes);
+                for (int i = 0; i < BUFFERED_LONGS; i++) {
+                    long value = 0;
+                    for (int b = 0; b < 8; b++) {
+                        value = (value << 8) | (bytes[i * 8 + b] & 0xFF);
+                    }
+                    buffer[i] = value;
+                }
+                position = 0;
+            }
+            return buffer[position++];
+        }
+
+        private static SecureRandom newRandom() {
+            try {
+                return SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException e) {
+                return new SecureRandom();
+            }
+        }
+    }
+}
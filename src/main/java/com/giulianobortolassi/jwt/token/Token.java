@@ -2,17 +2,23 @@ package com.giulianobortolassi.jwt.token;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 public class Token {
 
+    /** {@link #getExpirationMillis()} of a token that never expires. */
+    public static final long NO_EXPIRATION = Long.MIN_VALUE;
+
+    private static final AtomicLongFieldUpdater<Token> EXPIRATION =
+            AtomicLongFieldUpdater.newUpdater(Token.class, "expirationMillis");
+
     private String id;
     private String token;
     private String user;
     private List<String> roles;
     private Date issuedTime;
-    private Date expirationTime;
-    /** Sign key used to this token. This information must never leave the server */
-    private String signKey;
+    // A primitive, so renewals move it with a compare-and-set instead of allocating a Date
+    private volatile long expirationMillis = NO_EXPIRATION;
 
     public static String ROLES_KEY = "roles";
 
@@ -20,14 +26,13 @@ public class Token {
     public Token() {
     }
 
-    public Token(String id, String token, String user, List<String> roles, Date issuedTime, Date expirationTime, String signKey) {
+    public Token(String id, String token, String user, List<String> roles, Date issuedTime, Date expirationTime) {
         this.id = id;
         this.token = token;
         this.user = user;
         this.roles = roles;
         this.issuedTime = issuedTime;
-        this.expirationTime = expirationTime;
-        this.signKey = signKey;
+        setExpirationTime(expirationTime);
     }
 
     public String getId() {
@@ -71,18 +76,33 @@ public class Token {
     }
 
     public void setExpirationTime(Date expirationTime) {
-        this.expirationTime = expirationTime;
+        this.expirationMillis = expirationTime == null ? NO_EXPIRATION : expirationTime.getTime();
     }
 
+    /**
+     * @return a copy of the expiration time, or null if the token never expires
+     */
     public Date getExpirationTime() {
-        return expirationTime;
+        long expiration = expirationMillis;
+        return expiration == NO_EXPIRATION ? null : new Date(expiration);
+    }
+
+    /**
+     * @return the expiration time in epoch milliseconds, {@link #NO_EXPIRATION} if the token never expires
+     */
+    public long getExpirationMillis() {
+        return expirationMillis;
     }
 
-    public void setSignKey(String signKey) {
-        this.signKey = signKey;
+    public void setExpirationMillis(long expirationMillis) {
+        this.expirationMillis = expirationMillis;
     }
 
-    public String getSignKey() {
-        return signKey;
+    /**
+     * Atomically set the expiration time, if it is still the expected one.
+     * @return false if it was changed since it was read
+     */
+    public boolean compareAndSetExpiration(long expectedMillis, long expirationMillis) {
+        return EXPIRATION.compareAndSet(this, expectedMillis, expirationMillis);
     }
 }
@@ -0,0 +1,43 @@
+package com.giulianobortolassi.jwt.token;
+
+/**
+ * Result of validating a token: its status and, for a valid token, the stored {@link Token}.
+ * Results without a token are shared instances, so rejecting a token allocates nothing.
+ */
+public class TokenCheckResult {
+
+    private static final TokenCheckResult[] FAILURES = new TokenCheckResult[TokenStatus.values().length];
+
+    static {
+        for (TokenStatus status : TokenStatus.values()) {
+            FAILURES[status.ordinal()] = new TokenCheckResult(status, null);
+        }
+    }
+
+    private final TokenStatus status;
+    private final Token token;
+
+    TokenCheckResult(TokenStatus status, Token token) {
+        this.status = status;
+        this.token = token;
+    }
+
+    static TokenCheckResult of(TokenStatus status) {
+        return FAILURES[status.ordinal()];
+    }
+
+    public TokenStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the stored token, or the parsed one when no stored token applies. Null if the token could not be parsed.
+     */
+    public Token getToken() {
+        return token;
+    }
+
+    public boolean isValid() {
+        return status == TokenStatus.VALID;
+    }
+}
@@ -1,16 +1,19 @@
 package com.giulianobortolassi.jwt.token;
 
+/**
+ * Thrown when a token is not valid. It is part of the regular rejection path, so it does not capture a stack trace.
+ */
 public class TokenExpiredException extends  Exception {
 
 
     TokenExpiredException(){
-        super();
+        this(null, null);
     }
 
     TokenExpiredException(String message){
-        super(message);
+        this(message, null);
     }
     TokenExpiredException(String message, Throwable e){
-        super(message, e);
+        super(message, e, false, false);
     }
 }
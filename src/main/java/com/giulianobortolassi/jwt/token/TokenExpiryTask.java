@@ -0,0 +1,51 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background task that periodically evicts expired tokens from the {@link TokenRepository}, so the repository
+ * size is bounded by the number of live sessions.
+ */
+@Component
+public class TokenExpiryTask {
+
+    private static final Logger log = Logger.getLogger(TokenExpiryTask.class.getCanonicalName());
+
+    @Autowired
+    private TokenRepository repository;
+
+    private final LongAdder evictedTokens = new LongAdder();
+
+    @Scheduled(fixedDelayString = "${jwt.expiry.tick:1000}")
+    public void evictExpiredTokens() {
+        try {
+            int evicted = repository.evictExpired(System.currentTimeMillis());
+            evictedTokens.add(evicted);
+            if( evicted > 0 && log.isLoggable(Level.FINE) ) {
+                log.fine("Evicted " + evicted + " expired tokens.");
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Failed to evict expired tokens.", e);
+        }
+    }
+
+    /**
+     * @return how many tokens were evicted since the application started
+     */
+    public long getEvictedCount() {
+        return evictedTokens.sum();
+    }
+
+    /**
+     * @return how many tokens the repository currently holds
+     */
+    public long getLiveCount() {
+        return repository.countTokens();
+    }
+}
@@ -0,0 +1,73 @@
+package com.giulianobortolassi.jwt.token;
+
+import java.util.Date;
+
+/**
+ * Criteria of the administrative token listings, checked on each token while the repository is walked.
+ * Every criterion is optional, and a token must match all the ones given.
+ */
+public class TokenFilter {
+
+    private final String user;
+    private final String role;
+    private final Date expiresAfter;
+    private final Date expiresBefore;
+
+    /**
+     * @param user only the tokens of this user, or null
+     * @param role only the tokens with this role, or null
+     * @param expiresAfter only the tokens expiring after this instant, or null. Tokens without expiration match.
+     * @param expiresBefore only the tokens expiring before this instant, or null. Tokens without expiration do not
+     *                      match.
+     */
+    public TokenFilter(String user, String role, Date expiresAfter, Date expiresBefore) {
+        this.user = user;
+        this.role = role;
+        this.expiresAfter = expiresAfter;
+        this.expiresBefore = expiresBefore;
+    }
+
+    /**
+     * @return a filter matching every active token
+     */
+    public static TokenFilter none() {
+        return new TokenFilter(null, null, null, null);
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public Date getExpiresAfter() {
+        return expiresAfter;
+    }
+
+    public Date getExpiresBefore() {
+        return expiresBefore;
+    }
+
+    /**
+     * @return whether the token is still active at the given instant and matches every criterion
+     */
+    boolean matches(Token token, long nowMillis) {
+        long expiration = token.getExpirationMillis();
+        boolean expires = expiration != Token.NO_EXPIRATION;
+        if( expires && expiration <= nowMillis ) {
+            return false;
+        }
+        if( user != null && !user.equals(token.getUser()) ) {
+            return false;
+        }
+        if( role != null && (token.getRoles() == null || !token.getRoles().contains(role)) ) {
+            return false;
+        }
+        if( expiresAfter != null && expires && expiration <= expiresAfter.getTime() ) {
+            return false;
+        }
+        return expiresBefore == null || (expires && expiration < expiresBefore.getTime());
+    }
+}
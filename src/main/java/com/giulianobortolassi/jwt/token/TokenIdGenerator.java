@@ -0,0 +1,13 @@
+package com.giulianobortolassi.jwt.token;
+
+/**
+ * Source of the ids of the issued tokens, selected with {@code jwt.token.id-generator}. Ids must be UUIDs in their
+ * canonical form, as {@link CompactTokenRepository} packs them into two longs.
+ */
+public interface TokenIdGenerator {
+
+    /**
+     * @return a new unique id. Called concurrently by the request threads.
+     */
+    String nextId();
+}
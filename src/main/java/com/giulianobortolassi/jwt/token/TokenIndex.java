@@ -0,0 +1,151 @@
+package com.giulianobortolassi.jwt.token;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Secondary indexes from user and from role to the ids of their tokens, so both can be looked up in time
+ * proportional to the tokens matched instead of scanning the repository, and of every id in order, so a listing
+ * resumes after a given id without walking the ids before it.
+ * <p>
+ * Sets are only created and dropped inside {@link ConcurrentHashMap#compute}, so an id is never added to a set
+ * that was just dropped for being empty. Reads iterate the concurrent sets without locking.
+ * <p>
+ * The index may hold ids of tokens already gone from the repository, for instance when it is kept up to date in
+ * the background. {@link #resolve} drops them as it comes across them, so callers always check the ids against the
+ * repository.
+ */
+final class TokenIndex {
+
+    private final ConcurrentHashMap<String, Set<String>> byUser = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Set<String>> byRole = new ConcurrentHashMap<>();
+
+    private final ConcurrentSkipListSet<String> ids = new ConcurrentSkipListSet<>();
+
+    void add(Token token) {
+        ids.add(token.getId());
+        if( token.getUser() != null ) {
+            add(byUser, token.getUser(), token.getId());
+        }
+        if( token.getRoles() != null ) {
+            for (String role : token.getRoles()) {
+                add(byRole, role, token.getId());
+            }
+        }
+    }
+
+    void remove(Token token) {
+        ids.remove(token.getId());
+        if( token.getUser() != null ) {
+            remove(byUser, token.getUser(), token.getId());
+        }
+        if( token.getRoles() != null ) {
+            for (String role : token.getRoles()) {
+                remove(byRole, role, token.getId());
+            }
+        }
+    }
+
+    void clear() {
+        ids.clear();
+        byUser.clear();
+        byRole.clear();
+    }
+
+    /**
+     * @param lookup resolves ids to the stored tokens, leaving out the ones not stored anymore
+     * @return the stored tokens of the user
+     */
+    List<Token> tokensOfUser(String user, Function<Collection<String>, Map<String, Token>> lookup) {
+        return resolve(byUser, user, lookup);
+    }
+
+    /**
+     * @param lookup resolves ids to the stored tokens, leaving out the ones not stored anymore
+     * @return the stored tokens that have the role
+     */
+    List<Token> tokensWithRole(String role, Function<Collection<String>, Map<String, Token>> lookup) {
+        return resolve(byRole, role, lookup);
+    }
+
+    /**
+     * Hand the stored tokens to the consumer in ascending id order, starting after the given id.
+     * @param after id to start after, or null to start with the lowest id
+     * @param lookup resolves an id to the stored token, or null if it is not stored anymore
+     * @param consumer returns false to stop the walk
+     * @return false if the consumer stopped the walk
+     */
+    boolean forEachAfter(String after, Function<String, Token> lookup, Predicate<Token> consumer) {
+        for (String id : idsAfter(after)) {
+            Token token = lookup.apply(id);
+            if( token == null ) {
+                ids.remove(id);
+                // Registered again between the lookup and the removal
+                token = lookup.apply(id);
+                if( token == null ) {
+                    continue;
+                }
+                ids.add(id);
+            }
+            if( !consumer.test(token) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param after id to start after, or null to start with the lowest id
+     * @return a live view of the indexed ids after the given one, in ascending order
+     */
+    NavigableSet<String> idsAfter(String after) {
+        return after == null ? ids : ids.tailSet(after, false);
+    }
+
+    private static List<Token> resolve(ConcurrentHashMap<String, Set<String>> index, String key,
+                                       Function<Collection<String>, Map<String, Token>> lookup) {
+        Set<String> ids = index.get(key);
+        if( ids == null ) {
+            return Collections.emptyList();
+        }
+        List<String> matched = new ArrayList<>(ids);
+        Map<String, Token> tokens = lookup.apply(matched);
+        List<Token> resolved = new ArrayList<>(tokens.size());
+        for (String id : matched) {
+            Token token = tokens.get(id);
+            if( token == null ) {
+                remove(index, key, id);
+            } else {
+                resolved.add(token);
+            }
+        }
+        return resolved;
+    }
+
+    private static void add(ConcurrentHashMap<String, Set<String>> index, String key, String id) {
+        index.compute(key, (k, ids) -> {
+            if( ids == null ) {
+                ids = ConcurrentHashMap.newKeySet();
+            }
+            ids.add(id);
+            return ids;
+        });
+    }
+
+    private static void remove(ConcurrentHashMap<String, Set<String>> index, String key, String id) {
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+}
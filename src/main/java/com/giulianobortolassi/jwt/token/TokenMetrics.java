@@ -0,0 +1,206 @@
+package com.giulianobortolassi.jwt.token;
+
+import com.giulianobortolassi.jwt.revocation.RevocationList;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the {@link TokenService} operations, exported at {@code /actuator/prometheus}.
+ * <ul>
+ *     <li>{@code jwt.token.operation}: latency histogram per operation (generate, check, revoke, list, their batch
+ *     variants, and revoke_all for the revocations by user or role), failed operations included</li>
+ *     <li>{@code jwt.token.check.phase}: latency histogram of the validation phases. {@code signature} is the
+ *     structural check plus the JWT library decoding and verifying the token (the library does both in one call),
+ *     {@code parse} the checks and mapping of the verified claims, {@code cache} a token found in the
+ *     {@link ParsedTokenCache} instead of both, {@code lookup} the repository access</li>
+ *     <li>{@code jwt.token.check.outcome}: validation count per {@link TokenStatus}</li>
+ *     <li>{@code jwt.token.issued}: tokens issued</li>
+ *     <li>{@code jwt.token.revocations}: tokens revoked, whether one by one, in batches, by user or role, or to
+ *     make room under the session limit</li>
+ *     <li>{@code jwt.token.renewals}: expirations moved forward by sliding renewal</li>
+ *     <li>{@code jwt.sessions.evicted} and {@code jwt.sessions.rejected}: tokens revoked and issue requests refused
+ *     to keep users within the {@link SessionLimiter} cap, and {@code jwt.sessions.users}: users it counts tokens of</li>
+ *     <li>{@code jwt.tokens.live} and {@code jwt.tokens.revoked}: stored tokens and tracked revocations</li>
+ *     <li>{@code cache.gets}, {@code cache.evictions} and {@code cache.size} tagged {@code cache=jwt.validation}:
+ *     hits and misses, evictions and size of the {@link ParsedTokenCache}</li>
+ * </ul>
+ * Every meter is created once at startup and kept in an array, so recording is a clock read and an array access.
+ * <p>
+ * Recording into a percentile histogram costs about as much as a token lookup, so latencies are only timed for one
+ * operation in {@code jwt.metrics.sample-every}, picked at random, phases included. The count of the latency
+ * histograms is that fraction of the operations; counters count every one of them. {@code TokenMetricsBenchmark}
+ * compares the hot paths with these meters and with no-op ones.
+ */
+@Component
+public class TokenMetrics {
+
+    enum Operation { GENERATE, CHECK, REVOKE, LIST, GENERATE_BATCH, CHECK_BATCH, REVOKE_BATCH, REVOKE_ALL }
+
+    enum Phase { PARSE, SIGNATURE, CACHE, LOOKUP }
+
+    /** Value of {@link #start()} for an operation whose latency is not sampled. */
+    static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    /** Latency is timed for one operation in this many. 1 times every operation. */
+    @Value("${jwt.metrics.sample-every:64}")
+    private int SAMPLE_EVERY = 64;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private TokenRepository repository;
+
+    @Autowired
+    private RevocationList revocationList;
+
+    @Autowired
+    private SessionLimiter sessions;
+
+    private final Timer[] operationTimers = new Timer[Operation.values().length];
+    private final Timer[] phaseTimers = new Timer[Phase.values().length];
+    private final Counter[] outcomeCounters = new Counter[TokenStatus.values().length];
+    private Counter issueCounter;
+    private Counter revocationCounter;
+    private Counter renewalCounter;
+    private Counter evictionCounter;
+    private Counter rejectionCounter;
+
+    @PostConstruct
+    void init() {
+        for (Operation operation : Operation.values()) {
+            operationTimers[operation.ordinal()] = Timer.builder("jwt.token.operation")
+                    .description("Latency of token operations")
+                    .tag("operation", tagValue(operation))
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+        for (Phase phase : Phase.values()) {
+            phaseTimers[phase.ordinal()] = Timer.builder("jwt.token.check.phase")
+                    .description("Latency of each token validation phase")
+                    .tag("phase", tagValue(phase))
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+        for (TokenStatus status : TokenStatus.values()) {
+            outcomeCounters[status.ordinal()] = Counter.builder("jwt.token.check.outcome")
+                    .description("Token validations by outcome")
+                    .tag("outcome", tagValue(status))
+                    .register(registry);
+        }
+        issueCounter = Counter.builder("jwt.token.issued")
+                .description("Tokens issued")
+                .register(registry);
+        revocationCounter = Counter.builder("jwt.token.revocations")
+                .description("Tokens revoked")
+                .register(registry);
+        renewalCounter = Counter.builder("jwt.token.renewals")
+                .description("Token expirations moved forward on validation")
+                .register(registry);
+        evictionCounter = Counter.builder("jwt.sessions.evicted")
+                .description("Oldest tokens revoked to keep users within the session limit")
+                .register(registry);
+        rejectionCounter = Counter.builder("jwt.sessions.rejected")
+                .description("Tokens refused to users holding the session limit")
+                .register(registry);
+        Gauge.builder("jwt.sessions.users", sessions, SessionLimiter::countUsers)
+                .description("Users with tokens counted by the session limit")
+                .register(registry);
+        Gauge.builder("jwt.tokens.live", repository, TokenRepository::countTokens)
+                .description("Tokens held by the repository")
+                .register(registry);
+        Gauge.builder("jwt.tokens.revoked", revocationList, RevocationList::size)
+                .description("Revoked tokens tracked until they expire")
+                .register(registry);
+    }
+
+    private static String tagValue(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the current time, to be passed back to one of the record methods, or {@link #NOT_SAMPLED} if the
+     *         operation is not timed.
+     */
+    long start() {
+        if( SAMPLE_EVERY > 1 && ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) != 0 ) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Start a phase of an operation, timed only if the operation is.
+     * @param operationStart the value {@link #start()} returned for the operation
+     */
+    long startPhase(long operationStart) {
+        return operationStart == NOT_SAMPLED ? NOT_SAMPLED : System.nanoTime();
+    }
+
+    /**
+     * Record an operation that started at {@code startNanos}.
+     * @return the current time, so phases can be chained.
+     */
+    long record(Operation operation, long startNanos) {
+        if( startNanos == NOT_SAMPLED ) {
+            return NOT_SAMPLED;
+        }
+        long now = System.nanoTime();
+        operationTimers[operation.ordinal()].record(now - startNanos, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    /**
+     * Record a validation phase that started at {@code startNanos}.
+     * @return the current time, so phases can be chained.
+     */
+    long record(Phase phase, long startNanos) {
+        if( startNanos == NOT_SAMPLED ) {
+            return NOT_SAMPLED;
+        }
+        long now = System.nanoTime();
+        phaseTimers[phase.ordinal()].record(now - startNanos, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    void count(TokenStatus status) {
+        outcomeCounters[status.ordinal()].increment();
+    }
+
+    void issued() {
+        issueCounter.increment();
+    }
+
+    void revoked() {
+        revocationCounter.increment();
+    }
+
+    void renewed() {
+        renewalCounter.increment();
+    }
+
+    void sessionsEvicted(int count) {
+        evictionCounter.increment(count);
+    }
+
+    void sessionRejected() {
+        rejectionCounter.increment();
+    }
+
+    void monitor(ParsedTokenCache parsedTokens) {
+        if( parsedTokens.getCache() != null ) {
+            CaffeineCacheMetrics.monitor(registry, parsedTokens.getCache(), "jwt.validation");
+        }
+    }
+}
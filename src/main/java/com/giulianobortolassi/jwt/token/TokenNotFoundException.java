@@ -1,4 +1,12 @@
 package com.giulianobortolassi.jwt.token;
 
+/**
+ * Thrown when a token is not registered. It is part of the regular rejection path, so it does not capture a stack
+ * trace.
+ */
 public class TokenNotFoundException extends Exception {
+
+    public TokenNotFoundException() {
+        super(null, null, false, false);
+    }
 }
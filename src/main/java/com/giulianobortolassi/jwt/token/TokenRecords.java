@@ -0,0 +1,109 @@
+package com.giulianobortolassi.jwt.token;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Binary form of the token changes, shared by the write-ahead log, the snapshots and replication.
+ * <p>
+ * A record starts with its type. A register record follows with the id, token, user, roles, issued and expiration
+ * time; a remove record only with the id. Strings are a length followed by their UTF-8 bytes, -1 for null.
+ */
+public final class TokenRecords {
+
+    public static final byte REGISTER = 1;
+
+    public static final byte REMOVE = 2;
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private TokenRecords() {
+    }
+
+    /**
+     * @return a record registering the token
+     */
+    public static byte[] encodeRegister(Token token) {
+        int sizeHint = token.getToken() != null ? token.getToken().length() + 128 : 128;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(sizeHint);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(REGISTER);
+            writeString(out, token.getId());
+            writeString(out, token.getToken());
+            writeString(out, token.getUser());
+            List<String> roles = token.getRoles();
+            out.writeInt(roles == null ? -1 : roles.size());
+            if( roles != null ) {
+                for (String role : roles) {
+                    writeString(out, role);
+                }
+            }
+            out.writeLong(token.getIssuedTime() == null ? NO_TIME : token.getIssuedTime().getTime());
+            out.writeLong(token.getExpirationMillis() == Token.NO_EXPIRATION ? NO_TIME : token.getExpirationMillis());
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return a record removing the token with the given id
+     */
+    public static byte[] encodeRemove(String id) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + 4 + idBytes.length).put(REMOVE).putInt(idBytes.length).put(idBytes).array();
+    }
+
+    /**
+     * Decode a register record, positioned after its type byte.
+     */
+    public static Token decodeToken(ByteBuffer record) {
+        String id = readString(record);
+        String tokenStr = readString(record);
+        String user = readString(record);
+        int roleCount = record.getInt();
+        List<String> roles = null;
+        if( roleCount >= 0 ) {
+            roles = new ArrayList<>(roleCount);
+            for (int i = 0; i < roleCount; i++) {
+                roles.add(readString(record));
+            }
+        }
+        Date issued = readTime(record);
+        Date expiration = readTime(record);
+        return new Token(id, tokenStr, user, roles, issued, expiration);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if( value == null ) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if( length < 0 ) {
+            return null;
+        }
+        String value = new String(record.array(), record.arrayOffset() + record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    private static Date readTime(ByteBuffer record) {
+        long time = record.getLong();
+        return time == NO_TIME ? null : new Date(time);
+    }
+}
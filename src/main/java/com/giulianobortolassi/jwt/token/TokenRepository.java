@@ -1,22 +1,157 @@
 package com.giulianobortolassi.jwt.token;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public interface TokenRepository {
 
     Token registerToken(Token token);
 
+    /**
+     * Register several tokens at once.
+     * @param tokens the tokens to register
+     * @return the registered tokens, in the same order
+     */
+    List<Token> registerTokens(Collection<Token> tokens);
+
     Token removeToken(Token token) throws TokenNotFoundException;
 
+    /**
+     * Atomically look up and remove the token with the given id.
+     * @param id the token id
+     * @return the removed token
+     * @throws TokenNotFoundException if no token is registered with the given id
+     */
+    Token removeTokenById(String id) throws TokenNotFoundException;
+
     Token getToken(Token token) throws TokenNotFoundException;
 
     Token getTokenById(String id) throws TokenNotFoundException;
 
-    // TODO implement filter options
+    /**
+     * Look up several tokens at once.
+     * @param ids the token ids
+     * @return the registered tokens by id. Ids not registered are absent from the map.
+     */
+    Map<String, Token> getTokensByIds(Collection<String> ids);
+
+    /**
+     * Remove several tokens at once. Each token is removed atomically, but not the batch as a whole: a concurrent
+     * reader may see some of the tokens removed and others not yet.
+     * @param ids the token ids
+     * @return the removed tokens by id. Ids not registered are absent from the map.
+     */
+    Map<String, Token> removeTokensByIds(Collection<String> ids);
+
+    /**
+     * Move the expiration time of a stored token, unless it changed since the token was read.
+     * @param token the token as read from this repository. Its expiration time is updated as well on success.
+     * @param expectedMillis the expiration time the token was read with
+     * @param expirationMillis the new expiration time
+     * @return false if the token is gone or its expiration time is not the expected one anymore
+     */
+    boolean renewToken(Token token, long expectedMillis, long expirationMillis);
+
+    /**
+     * @param user the user name
+     * @return the stored tokens of the user, including expired ones not evicted yet
+     */
+    List<Token> getTokensByUser(String user);
+
+    /**
+     * @param role the role name
+     * @return the stored tokens that have the role, including expired ones not evicted yet
+     */
+    List<Token> getTokensByRole(String role);
+
+    /**
+     * Hand every stored token to the consumer, expired ones not evicted yet included, without copying the
+     * repository. The walk is weakly consistent: tokens written while it runs may or may not be seen, and a
+     * repository that moves tokens around may miss or repeat the ones it moves.
+     * @param consumer called once per token, never while the repository holds a lock
+     */
+    void forEachToken(Consumer<Token> consumer);
+
+    /**
+     * Hand the stored tokens to the consumer in ascending id order, starting after the given id, until it returns
+     * false. Expired tokens not evicted yet are included, and the walk is weakly consistent like
+     * {@link #forEachToken}, but never hands a token twice.
+     * <p>
+     * The default implementation has no ordered index to resume from: it walks the whole repository for every
+     * batch of ids, so repositories that can afford an index override it.
+     * @param after id to start after, or null to start with the lowest id
+     * @param consumer returns false to stop the walk
+     */
+    default void forEachTokenAfter(String after, Predicate<Token> consumer) {
+        int batchSize = 1024;
+        String cursor = after;
+        while (true) {
+            String from = cursor;
+            TreeMap<String, Token> batch = new TreeMap<>();
+            forEachToken(token -> {
+                String id = token.getId();
+                if( from != null && id.compareTo(from) <= 0 ) {
+                    return;
+                }
+                if( batch.size() == batchSize && id.compareTo(batch.lastKey()) >= 0 ) {
+                    return;
+                }
+                batch.put(id, token);
+                if( batch.size() > batchSize ) {
+                    batch.pollLastEntry();
+                }
+            });
+            for (Token token : batch.values()) {
+                if( !consumer.test(token) ) {
+                    return;
+                }
+            }
+            if( batch.size() < batchSize ) {
+                return;
+            }
+            cursor = batch.lastKey();
+        }
+    }
 
     /**
      * Return a list with all active tokens.
      * @return a list with all active tokens or a empty list if none.
      */
     List<Token> listTokens();
+
+    /**
+     * Remove every token whose expiration time is at or before the given instant.
+     * @param nowMillis the current time in epoch milliseconds
+     * @return how many tokens were removed
+     */
+    int evictExpired(long nowMillis);
+
+    /**
+     * @return how many tokens are currently stored, including expired ones not evicted yet.
+     */
+    long countTokens();
+
+    /**
+     * Listen to the tokens removed without a call to this repository, like revocations made through another node of
+     * the cluster. Repositories only changed through their own calls never call it.
+     */
+    default void addRemovalListener(RemovalListener listener) {
+    }
+
+    /**
+     * Told about a token removed without a call to the repository.
+     */
+    interface RemovalListener {
+
+        /**
+         * @param id the removed token id
+         * @param expirationMillis when the token expires, or {@link Token#NO_EXPIRATION} if it never does
+         * @param token the token that was stored here, or null if this repository did not hold it
+         */
+        void removed(String id, long expirationMillis, Token token);
+    }
 }
@@ -0,0 +1,36 @@
+package com.giulianobortolassi.jwt.token;
+
+import java.util.List;
+
+/**
+ * Request to issue a token for a user with the given roles.
+ */
+public class TokenRequest {
+
+    private String user;
+    private List<String> roles;
+
+    public TokenRequest() {
+    }
+
+    public TokenRequest(String user, List<String> roles) {
+        this.user = user;
+        this.roles = roles;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public List<String> getRoles() {
+        return roles;
+    }
+
+    public void setRoles(List<String> roles) {
+        this.roles = roles;
+    }
+}
@@ -1,21 +1,29 @@
 package com.giulianobortolassi.jwt.token;
 
 
+import com.giulianobortolassi.jwt.history.HistoryStore;
+import com.giulianobortolassi.jwt.key.KeyRing;
+import com.giulianobortolassi.jwt.key.SigningKey;
+import com.giulianobortolassi.jwt.revocation.RevocationList;
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.MalformedJwtException;
-import io.jsonwebtoken.io.Decoders;
-import io.jsonwebtoken.io.Encoders;
-import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SecurityException;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import javax.crypto.SecretKey;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Component to handle main token functions.
@@ -25,25 +33,203 @@ public class TokenService {
 
     private static final Logger log = Logger.getLogger(TokenService.class.getCanonicalName());
 
+    /** Rejected tokens are logged at most once per interval, so floods of bad tokens do not flood the log. */
+    private static final RateLimitedLogger rejectionLog = new RateLimitedLogger(log, TimeUnit.SECONDS.toMillis(10));
+
+    private static final String[] REJECTION_MESSAGES = new String[TokenStatus.values().length];
+
+    static {
+        for (TokenStatus status : TokenStatus.values()) {
+            REJECTION_MESSAGES[status.ordinal()] = "Rejected token: " + status.name();
+        }
+    }
+
+    /** Batches with at least this many tokens are signed and verified in parallel. */
+    private static final int PARALLEL_BATCH_SIZE = 16;
+
+    /**
+     * The parser accepts expired tokens, so {@link #parseForCheck(String)} can report them without an exception.
+     * The skew applies to the {@code nbf} claim as well, so both are checked by this service right after parsing.
+     */
+    private static final long PARSER_CLOCK_SKEW_SECONDS = TimeUnit.DAYS.toSeconds(365L * 100);
+
+    /** Most tokens in a page of {@link #listActiveTokens(TokenFilter, String, int)}. */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    /** Tokens longer than this are rejected before parsing. */
+    private static final int MAX_TOKEN_LENGTH = 8 * 1024;
+
     @Value("${jwt.default.expirationtime}")
     private long EXPIRATION_TIME = 600_000; // default to 10min
 
-    @Value("${jwt.signkey}")
-    private String SIGN_KEY = "myKey";
+    /**
+     * With sliding expiration, every successful validation moves the expiration of the stored token to a full
+     * {@link #EXPIRATION_TIME} from now. The signed JWT is not reissued, so its {@code exp} claim keeps the original
+     * expiration and is not checked anymore: the stored expiration is the one that counts.
+     */
+    @Value("${jwt.renewal.sliding:false}")
+    private boolean SLIDING_EXPIRATION = false;
+
+    /** A token is renewed at most once per window, however often it is validated. */
+    @Value("${jwt.renewal.window:60000}")
+    private long RENEWAL_WINDOW = 60_000; // default to 1min
+
+    /** Most tokens whose verified claims are kept, see {@link ParsedTokenCache}. 0 disables the cache. */
+    @Value("${jwt.validation.cache.max-size:100000}")
+    private long VALIDATION_CACHE_SIZE = 100_000;
 
     @Autowired
     private TokenRepository repository;
 
+    @Autowired
+    private KeyRing keyRing;
+
+    @Autowired
+    private TokenIdGenerator idGenerator;
+
+    @Autowired
+    private RevocationList revocationList;
+
+    @Autowired
+    private TokenMetrics metrics;
+
+    @Autowired
+    private HistoryStore history;
+
+    @Autowired
+    private SessionLimiter sessions;
+
+    /**
+     * Thread-safe parser shared by all requests. It asks the {@link KeyRing} for the key matching the token
+     * {@code kid} header, so it does not need to be rebuilt when keys rotate.
+     */
+    private JwtParser parser;
+
+    private ParsedTokenCache parsedTokens;
+
+    private final HmacTokenEncoder encoder = new HmacTokenEncoder();
+
+    @PostConstruct
+    void init() {
+        this.parser = Jwts.parser()
+                .keyLocator(keyRing)
+                .clockSkewSeconds(PARSER_CLOCK_SKEW_SECONDS)
+                .build();
+        this.parsedTokens = new ParsedTokenCache(VALIDATION_CACHE_SIZE, SLIDING_EXPIRATION ? EXPIRATION_TIME : 0);
+        metrics.monitor(parsedTokens);
+        repository.addRemovalListener(this::removedElsewhere);
+    }
+
     /**
      * Generate a new JWT token and register into database.
      *
      * @param username the subject for JWT claims
      * @param roles a custom claim. The claim is named ROLES and will be set into body part of generated token
      * @return a {@link Token} object.
+     * @throws SessionLimitExceededException if the user holds the most tokens allowed already and the
+     *          {@link SessionLimiter} refuses new ones. By default, the oldest token of the user is revoked instead.
      */
     public Token generateToken(String username, List<String> roles) {
-        Token token = generateTokenObject(username, roles);
-        return repository.registerToken( token );
+        long start = metrics.start();
+        try {
+            Token token = generateTokenObject(username, roles);
+            List<String> evicted = sessions.add(token);
+            if( evicted == null ) {
+                metrics.sessionRejected();
+                throw new SessionLimitExceededException(username);
+            }
+            Token registeredToken;
+            try {
+                registeredToken = repository.registerToken( token );
+            } catch (RuntimeException e) {
+                sessions.cancel(token, evicted);
+                throw e;
+            }
+            history.issued(registeredToken);
+            metrics.issued();
+            evict(evicted);
+            return registeredToken;
+        } finally {
+            metrics.record(TokenMetrics.Operation.GENERATE, start);
+        }
+    }
+
+    /**
+     * Generate several tokens and register them into database with a single repository call.
+     *
+     * @param requests the user and roles of each token
+     * @return the generated tokens, in the order of the requests. Requests refused by the {@link SessionLimiter}
+     *          get a null token.
+     */
+    public List<Token> generateTokens(List<TokenRequest> requests) {
+        long start = metrics.start();
+        try {
+            return generateBatch(requests);
+        } finally {
+            metrics.record(TokenMetrics.Operation.GENERATE_BATCH, start);
+        }
+    }
+
+    private List<Token> generateBatch(List<TokenRequest> requests) {
+        List<Token> tokens = stream(requests)
+                .map(request -> generateTokenObject(request.getUser(), request.getRoles()))
+                .collect(Collectors.toList());
+        if( !sessions.isEnabled() ) {
+            List<Token> registeredTokens = repository.registerTokens( tokens );
+            for (Token registeredToken : registeredTokens) {
+                history.issued(registeredToken);
+                metrics.issued();
+            }
+            return registeredTokens;
+        }
+
+        List<Token> accepted = new ArrayList<>(tokens.size());
+        List<List<String>> evictedByToken = new ArrayList<>(tokens.size());
+        List<String> evicted = new ArrayList<>();
+        for (Token token : tokens) {
+            List<String> oldest = sessions.add(token);
+            if( oldest == null ) {
+                metrics.sessionRejected();
+            } else {
+                accepted.add(token);
+                evictedByToken.add(oldest);
+                evicted.addAll(oldest);
+            }
+        }
+        Iterator<Token> registeredTokens;
+        try {
+            registeredTokens = repository.registerTokens( accepted ).iterator();
+        } catch (RuntimeException e) {
+            // Latest first, so a token pushed out by a later one of the batch is counted again in its place
+            for (int i = accepted.size() - 1; i >= 0; i--) {
+                sessions.cancel(accepted.get(i), evictedByToken.get(i));
+            }
+            throw e;
+        }
+        List<Token> results = new ArrayList<>(tokens.size());
+        int next = 0;
+        for (Token token : tokens) {
+            if( next < accepted.size() && accepted.get(next) == token ) {
+                Token registeredToken = registeredTokens.next();
+                history.issued(registeredToken);
+                metrics.issued();
+                results.add(registeredToken);
+                next++;
+            } else {
+                results.add(null);
+            }
+        }
+        evict(evicted);
+        return results;
+    }
+
+    /**
+     * Revoke the tokens the {@link SessionLimiter} pushed out to make room for new ones. Some may be gone already.
+     */
+    private void evict(List<String> ids) {
+        if( !ids.isEmpty() ) {
+            metrics.sessionsEvicted(revokeByIds(ids).size());
+        }
     }
 
     /**
@@ -53,9 +239,31 @@ public class TokenService {
      * @return a {@link Token} object.
      */
     Token generateTokenObject(String username, List<String> roles) {
-        // TODO: Improve the SIGN_KEY usage. It can be useful to delegate the key generation to a external class in
-        //  order to implement different key generation strategies.
+        String id = idGenerator.nextId();
+        Date issuedDate = new Date();
+        Date expiryDate = new Date(issuedDate.getTime() + EXPIRATION_TIME);
+
+        SigningKey signingKey = keyRing.getActiveKey();
+        String tokenString = encoder.encode(signingKey, id, username, roles, issuedDate.getTime(), expiryDate.getTime());
+        if( tokenString == null ) {
+            tokenString = compact(signingKey, id, username, roles, issuedDate, expiryDate);
+        }
+
+        Token token = new Token();
+        token.setId(id);
+        token.setRoles(roles);
+        token.setUser(username);
+        token.setToken(tokenString);
+        token.setIssuedTime(issuedDate);
+        token.setExpirationTime(expiryDate);
 
+        return token;
+    }
+
+    /**
+     * Sign the token with jjwt, for the keys {@link HmacTokenEncoder} does not handle.
+     */
+    static String compact(SigningKey signingKey, String id, String username, List<String> roles, Date issuedDate, Date expiryDate) {
         String roles_names = "";
         if ( roles != null && !roles.isEmpty() ) {
             StringBuilder builder = new StringBuilder();
@@ -66,45 +274,24 @@ public class TokenService {
             roles_names = builder.toString();
         }
 
-        UUID uuid = UUID.randomUUID();
-        Date issuedDate = new Date();
-        Date expiryDate = new Date(issuedDate.getTime() + EXPIRATION_TIME);
-
-
         Map<String, Object> extraClaims = new HashMap<>();
         if( !roles_names.isEmpty() ){
             extraClaims.put(Token.ROLES_KEY, roles_names);
         }
 
-        String tokenString = Jwts.builder()
+        return Jwts.builder()
+                .header().keyId(signingKey.getId()).and()
                 .claims().add(extraClaims).and()
-                .id(uuid.toString())
+                .id(id)
                 .subject(username)
-                .signWith(getSignatureKey(), Jwts.SIG.HS256)
+                .signWith(signingKey.getSigningKey(), signingKey.getAlgorithm())
                 .issuedAt(issuedDate)
                 .expiration(expiryDate)
                 .compact();
-
-        Token token = new Token();
-        token.setId(uuid.toString());
-        token.setRoles(roles);
-        token.setUser(username);
-        token.setToken(tokenString);
-        token.setIssuedTime(issuedDate);
-        token.setExpirationTime(expiryDate);
-        token.setSignKey(SIGN_KEY);
-
-        return token;
     }
 
 
 
-    private SecretKey getSignatureKey() {
-        // TODO: Store the encoded key on application.yml file
-        String encodedKey =  Encoders.BASE64.encode(SIGN_KEY.getBytes());
-        return Keys.hmacShaKeyFor(Decoders.BASE64.decode(encodedKey));
-    }
-
 
     /**
      * Check if the given token is valid:
@@ -112,13 +299,93 @@ public class TokenService {
      * 2 - Check expiration time
      *
      * @param tokenStr the full JWT token. It will be parsed and checkToken(Token token) method will be invoked.
-     * @return the valid token. It is configured to auto-renew, so the token returned will have the new expiry date.
+     * @return the valid token. With sliding expiration ({@code jwt.renewal.sliding}) it is renewed, and the token
+     *          returned has the new expiry date.
      * @throws TokenExpiredException exception if the token was expired. It can be returned if the expiredDate was
      *          in the past or if the token was not found in repository
      */
     public Token checkToken(String tokenStr) throws TokenExpiredException {
-        Token token = parseToken(tokenStr);
-        return checkToken( token );
+        TokenCheckResult result = validate(tokenStr);
+        if( !result.isValid() ) {
+            throw new TokenExpiredException(result.getStatus().name());
+        }
+        return result.getToken();
+    }
+
+    /**
+     * Validate the given token without throwing. This is the fast path for request validation: a rejected token
+     * costs no more than an accepted one, and returns a shared result instance.
+     *
+     * @param tokenStr the full JWT token.
+     * @return a {@link TokenStatus#VALID} result with the stored token, or a result with the rejection status.
+     */
+    public TokenCheckResult validate(String tokenStr) {
+        long start = metrics.start();
+        TokenCheckResult result = validate(tokenStr, start);
+        metrics.count(result.getStatus());
+        metrics.record(TokenMetrics.Operation.CHECK, start);
+        if( !result.isValid() ) {
+            rejectionLog.log(Level.INFO, REJECTION_MESSAGES[result.getStatus().ordinal()]);
+        }
+        return result;
+    }
+
+    private TokenCheckResult validate(String tokenStr, long start) {
+        TokenCheckResult parsed = parseForCheck(tokenStr, start);
+        if( !parsed.isValid() ) {
+            return parsed;
+        }
+        long lookupStart = metrics.startPhase(start);
+        Token storedToken;
+        try {
+            storedToken = repository.getTokenById(parsed.getToken().getId());
+        } catch (TokenNotFoundException e) {
+            return TokenCheckResult.of(TokenStatus.UNKNOWN);
+        } finally {
+            metrics.record(TokenMetrics.Phase.LOOKUP, lookupStart);
+        }
+        long now = System.currentTimeMillis();
+        if( isExpired(storedToken, now) ) {
+            return TokenCheckResult.of(TokenStatus.EXPIRED);
+        }
+        renew(storedToken, now);
+        return new TokenCheckResult(TokenStatus.VALID, withSignedToken(storedToken, tokenStr));
+    }
+
+    private static boolean isExpired(Token storedToken, long now) {
+        long expiration = storedToken.getExpirationMillis();
+        return expiration != Token.NO_EXPIRATION && expiration < now;
+    }
+
+    /**
+     * Slide the expiration of a valid token, unless it was renewed less than {@link #RENEWAL_WINDOW} ago. A token
+     * validated in a tight loop is written once per window, and concurrent validations of the same token race on a
+     * compare-and-set of its expiration, so only one of them writes.
+     */
+    private void renew(Token storedToken, long now) {
+        if( !SLIDING_EXPIRATION ) {
+            return;
+        }
+        long expiration = storedToken.getExpirationMillis();
+        long renewed = now + EXPIRATION_TIME;
+        if( expiration == Token.NO_EXPIRATION || renewed - expiration < RENEWAL_WINDOW ) {
+            return;
+        }
+        if( repository.renewToken(storedToken, expiration, renewed) ) {
+            sessions.renewed(storedToken, renewed);
+            metrics.renewed();
+        }
+    }
+
+    /**
+     * Repositories that do not keep the signed JWT, like {@link CompactTokenRepository}, hand back a fresh token
+     * without it. Fill it in from the request, so callers always get the full token back.
+     */
+    private static Token withSignedToken(Token storedToken, String tokenStr) {
+        if( storedToken.getToken() == null ) {
+            storedToken.setToken(tokenStr);
+        }
+        return storedToken;
     }
 
     /**
@@ -127,7 +394,8 @@ public class TokenService {
      * 2 - Check expiration time
      *
      * @param token a {@link Token} object to be validated
-     * @return the valid token. It is configured to auto-renew, so the token returned will have the new expiry date.
+     * @return the valid token. With sliding expiration ({@code jwt.renewal.sliding}) it is renewed, and the token
+     *          returned has the new expiry date.
      * @throws TokenExpiredException exception if the token was expired. It can be returned if the expiredDate was
      *          in the past or if the token was not found in repository
      *
@@ -137,10 +405,11 @@ public class TokenService {
         try {
             Token storedToken = repository.getTokenById(token.getId());
 
-            Date now = new Date(System.currentTimeMillis());
-            if( storedToken.getExpirationTime().before(now) ){
+            long now = System.currentTimeMillis();
+            if( isExpired(storedToken, now) ){
                 throw new TokenExpiredException();
             }
+            renew(storedToken, now);
             return storedToken;
 
         } catch (TokenNotFoundException e) {
@@ -149,6 +418,114 @@ public class TokenService {
     }
 
 
+    /**
+     * Validate several tokens at once. Signatures are verified in parallel for large batches, and the registered
+     * tokens are fetched with a single repository call.
+     *
+     * @param tokenStrs the full JWT tokens
+     * @return one result per token, in the same order
+     */
+    public List<TokenCheckResult> checkTokens(List<String> tokenStrs) {
+        long start = metrics.start();
+        try {
+            return checkBatch(tokenStrs);
+        } finally {
+            metrics.record(TokenMetrics.Operation.CHECK_BATCH, start);
+        }
+    }
+
+    private List<TokenCheckResult> checkBatch(List<String> tokenStrs) {
+        List<TokenCheckResult> parsed = parseAll(tokenStrs);
+        Map<String, String> tokenStrsById = new HashMap<>();
+        for (TokenCheckResult result : parsed) {
+            if( result.isValid() ) {
+                tokenStrsById.put(result.getToken().getId(), result.getToken().getToken());
+            }
+        }
+        Map<String, Token> storedTokens = repository.getTokensByIds(validIds(parsed));
+
+        long now = System.currentTimeMillis();
+        List<TokenCheckResult> results = new ArrayList<>(parsed.size());
+        for (TokenCheckResult result : parsed) {
+            if( !result.isValid() ) {
+                results.add(result);
+                continue;
+            }
+            Token storedToken = storedTokens.get(result.getToken().getId());
+            if( storedToken == null ) {
+                results.add(TokenCheckResult.of(TokenStatus.UNKNOWN));
+            } else if( isExpired(storedToken, now) ) {
+                results.add(TokenCheckResult.of(TokenStatus.EXPIRED));
+            } else {
+                renew(storedToken, now);
+                String tokenStr = tokenStrsById.get(storedToken.getId());
+                results.add(new TokenCheckResult(TokenStatus.VALID, withSignedToken(storedToken, tokenStr)));
+            }
+        }
+        for (TokenCheckResult result : results) {
+            metrics.count(result.getStatus());
+        }
+        return results;
+    }
+
+    /**
+     * Revoke several tokens at once, with a single repository call.
+     *
+     * @param tokenStrs the full JWT tokens
+     * @return one result per token, in the same order. A {@link TokenStatus#VALID} result means the token was
+     * revoked by this call.
+     */
+    public List<TokenCheckResult> revokeTokens(List<String> tokenStrs) {
+        long start = metrics.start();
+        try {
+            return revokeBatch(tokenStrs);
+        } finally {
+            metrics.record(TokenMetrics.Operation.REVOKE_BATCH, start);
+        }
+    }
+
+    private List<TokenCheckResult> revokeBatch(List<String> tokenStrs) {
+        List<TokenCheckResult> parsed = parseAll(tokenStrs);
+        Map<String, Token> removedTokens = repository.removeTokensByIds(validIds(parsed));
+        for (String tokenStr : tokenStrs) {
+            parsedTokens.invalidate(tokenStr);
+        }
+        long now = System.currentTimeMillis();
+        for (Token removedToken : removedTokens.values()) {
+            revoked(removedToken, now);
+        }
+
+        List<TokenCheckResult> results = new ArrayList<>(parsed.size());
+        for (TokenCheckResult result : parsed) {
+            if( !result.isValid() ) {
+                results.add(result);
+            } else if( removedTokens.containsKey(result.getToken().getId()) ) {
+                results.add(new TokenCheckResult(TokenStatus.VALID, removedTokens.get(result.getToken().getId())));
+            } else {
+                results.add(TokenCheckResult.of(TokenStatus.UNKNOWN));
+            }
+        }
+        return results;
+    }
+
+    private List<TokenCheckResult> parseAll(List<String> tokenStrs) {
+        return stream(tokenStrs).map(this::parseForCheck).collect(Collectors.toList());
+    }
+
+    private static Set<String> validIds(List<TokenCheckResult> parsed) {
+        Set<String> ids = new HashSet<>();
+        for (TokenCheckResult result : parsed) {
+            if( result.isValid() ) {
+                ids.add(result.getToken().getId());
+            }
+        }
+        return ids;
+    }
+
+    private static <T> Stream<T> stream(List<T> items) {
+        return items.size() >= PARALLEL_BATCH_SIZE ? items.parallelStream() : items.stream();
+    }
+
     /**
      * Remove token from database in order to invalidate it
      *
@@ -156,36 +533,49 @@ public class TokenService {
      * @throws TokenNotFoundException if given token does not exist
      */
     public void revokeToken(String tokenStr) throws TokenNotFoundException, TokenExpiredException {
-        revokeToken ( parseToken(tokenStr) );
+        try {
+            revokeToken ( parseToken(tokenStr) );
+        } finally {
+            parsedTokens.invalidate(tokenStr);
+        }
     }
 
     /**
-     * Remove token from database in order to invalidate it
+     * Remove token from database in order to invalidate it. The token id is also published in the
+     * {@link RevocationList} until the token expires, so clients validating tokens locally learn about it.
      *
      * @param token a {@link Token} object to be removed from database
      * @throws TokenNotFoundException if given token does not exist
      */
     public void revokeToken(Token token) throws TokenNotFoundException {
-        Token tokenById = repository.getTokenById( token.getId() );
+        long start = metrics.start();
+        try {
+            Token removedToken = repository.removeTokenById( token.getId() );
 
-        if( tokenById == null ) {
-            throw new TokenNotFoundException();
+            if( removedToken == null ) {
+                throw new TokenNotFoundException();
+            }
+            revoked(removedToken, System.currentTimeMillis());
+        } finally {
+            metrics.record(TokenMetrics.Operation.REVOKE, start);
         }
-        repository.removeToken( tokenById );
     }
 
     /**
-     * Return all active tokens
+     * Return all active tokens. Every token is copied into the list, so the manager API pages through
+     * {@link #listActiveTokens(TokenFilter, String, int)} instead.
      *
      * @return a list with all active tokens or an empty list if none.
      */
     public List<Token> listActiveTokens() {
 
+        long start = metrics.start();
         try {
             List<Token> tokens = repository.listTokens();
             if( tokens == null ){
                 tokens = new ArrayList<>();
             }
+            metrics.record(TokenMetrics.Operation.LIST, start);
             return tokens;
         } catch (Exception e) {
             log.log(Level.WARNING, "Failed to list active tokens.", e);
@@ -193,27 +583,278 @@ public class TokenService {
         }
     }
 
+    /**
+     * Return a page of the active tokens matching the filter, ordered by id.
+     * <p>
+     * A page resumes from the cursor through the repository walk in id order, so it only reads the tokens from the
+     * cursor to the end of the page. A filter on the user only walks the tokens of the user, keeping the lowest ids
+     * after the cursor.
+     *
+     * @param filter the tokens to list
+     * @param after id of the last token of the previous page, or null for the first page
+     * @param limit most tokens in the page, from 1 to {@link #MAX_PAGE_SIZE}
+     * @return the page, with fewer than {@code limit} tokens only if it is the last one
+     */
+    public List<Token> listActiveTokens(TokenFilter filter, String after, int limit) {
+        if( limit <= 0 || limit > MAX_PAGE_SIZE ) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE + ".");
+        }
+        long start = metrics.start();
+        long now = System.currentTimeMillis();
+        List<Token> page;
+        if( filter.getUser() != null ) {
+            page = lowestAfter(repository.getTokensByUser(filter.getUser()), filter, now, after, limit);
+        } else {
+            page = new ArrayList<>(limit);
+            List<Token> collected = page;
+            repository.forEachTokenAfter(after, token -> {
+                if( filter.matches(token, now) ) {
+                    collected.add(token);
+                }
+                return collected.size() < limit;
+            });
+        }
+        metrics.record(TokenMetrics.Operation.LIST, start);
+        return page;
+    }
+
+    private static List<Token> lowestAfter(List<Token> tokens, TokenFilter filter, long now, String after, int limit) {
+        TreeMap<String, Token> page = new TreeMap<>();
+        for (Token token : tokens) {
+            String id = token.getId();
+            if( (after != null && id.compareTo(after) <= 0) || !filter.matches(token, now) ) {
+                continue;
+            }
+            if( page.size() == limit && id.compareTo(page.lastKey()) >= 0 ) {
+                continue;
+            }
+            page.put(id, token);
+            if( page.size() > limit ) {
+                page.pollLastEntry();
+            }
+        }
+        return new ArrayList<>(page.values());
+    }
+
+    /**
+     * Hand every active token matching the filter to the consumer while the repository is walked, in no particular
+     * order. Nothing is collected, so it suits exports of the whole repository. A repository that moves tokens
+     * around during the walk may hand some twice.
+     *
+     * @param filter the tokens to export
+     * @param consumer called once per token
+     */
+    public void exportActiveTokens(TokenFilter filter, Consumer<Token> consumer) {
+        long start = metrics.start();
+        walkActiveTokens(filter, consumer);
+        metrics.record(TokenMetrics.Operation.LIST, start);
+    }
+
+    private void walkActiveTokens(TokenFilter filter, Consumer<Token> consumer) {
+        long now = System.currentTimeMillis();
+        Consumer<Token> matching = token -> {
+            if( filter.matches(token, now) ) {
+                consumer.accept(token);
+            }
+        };
+        if( filter.getUser() != null ) {
+            repository.getTokensByUser(filter.getUser()).forEach(matching);
+        } else {
+            repository.forEachToken(matching);
+        }
+    }
+
+    /**
+     * Return the active tokens of a user, looked up through the repository index.
+     *
+     * @param user the user name
+     * @return the active tokens of the user, or an empty list if none.
+     */
+    public List<Token> listActiveTokensForUser(String user) {
+        long now = System.currentTimeMillis();
+        List<Token> tokens = new ArrayList<>();
+        for (Token token : repository.getTokensByUser(user)) {
+            if( token.getExpirationTime() == null || token.getExpirationTime().getTime() > now ) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Revoke every token of a user, to log them out everywhere.
+     *
+     * @param user the user name
+     * @return the revoked tokens
+     */
+    public List<Token> revokeAllForUser(String user) {
+        return revokeAll(() -> repository.getTokensByUser(user));
+    }
+
+    /**
+     * Revoke every token that carries a role, once the role is withdrawn.
+     *
+     * @param role the role name
+     * @return the revoked tokens
+     */
+    public List<Token> revokeAllWithRole(String role) {
+        return revokeAll(() -> repository.getTokensByRole(role));
+    }
+
+    private List<Token> revokeAll(Supplier<List<Token>> matching) {
+        long start = metrics.start();
+        try {
+            List<Token> matched = matching.get();
+            List<String> ids = new ArrayList<>(matched.size());
+            for (Token token : matched) {
+                ids.add(token.getId());
+            }
+            return revokeByIds(ids);
+        } finally {
+            metrics.record(TokenMetrics.Operation.REVOKE_ALL, start);
+        }
+    }
+
+    private List<Token> revokeByIds(List<String> ids) {
+        // Tokens revoked concurrently are left out, so each revocation is reported once
+        Map<String, Token> removedTokens = repository.removeTokensByIds(ids);
+        long now = System.currentTimeMillis();
+        for (Token removedToken : removedTokens.values()) {
+            revoked(removedToken, now);
+        }
+        return new ArrayList<>(removedTokens.values());
+    }
+
+    /**
+     * Publish a token removed from the repository in the {@link RevocationList}, until it expires or for a default
+     * expiration time if it never does, record it in the history and stop counting it in its user's sessions.
+     */
+    private void revoked(Token removedToken, long now) {
+        long expiration = removedToken.getExpirationMillis();
+        revocationList.revoke(removedToken.getId(), expiration != Token.NO_EXPIRATION ? expiration : now + EXPIRATION_TIME);
+        history.revoked(removedToken);
+        sessions.remove(removedToken);
+        metrics.revoked();
+    }
+
+    /**
+     * Publish a token revoked through another node of the cluster. The history only records the revocations made here.
+     */
+    private void removedElsewhere(String id, long expirationMillis, Token removedToken) {
+        long now = System.currentTimeMillis();
+        revocationList.revoke(id, expirationMillis != Token.NO_EXPIRATION ? expirationMillis : now + EXPIRATION_TIME);
+        if( removedToken != null ) {
+            sessions.remove(removedToken);
+        }
+    }
+
     /**
      * Parse JWT string to a {@link Token} object
      * @param tokenStr a full JWT token to be parsed into a Token object.
      * @return a {@link Token} object
      */
     Token parseToken(String tokenStr) throws TokenExpiredException {
+        TokenCheckResult result = parseForCheck(tokenStr);
+        if( !result.isValid() ) {
+            rejectionLog.log(Level.WARNING, "Failed to parse token with the provided string: " + result.getStatus().name());
+            throw new TokenExpiredException( result.getStatus().name() );
+        }
+        return result.getToken();
+    }
+
+    /**
+     * Parse the JWT string without throwing.
+     * @return a {@link TokenStatus#VALID} result with the parsed token if the signature is valid and the token
+     * did not expire, otherwise a result with the failure status.
+     */
+    private TokenCheckResult parseForCheck(String tokenStr) {
+        return parseForCheck(tokenStr, metrics.start());
+    }
+
+    /**
+     * A token seen before is taken from the {@link ParsedTokenCache} instead, with no signature check nor JSON
+     * parsing, as long as the key that verified it is still accepted.
+     * @param start when the signature phase started, as returned by {@link TokenMetrics#start()}
+     */
+    private TokenCheckResult parseForCheck(String tokenStr, long start) {
+        if( !looksLikeJws(tokenStr) ) {
+            metrics.record(TokenMetrics.Phase.SIGNATURE, start);
+            return TokenCheckResult.of(TokenStatus.MALFORMED);
+        }
+        ParsedTokenCache.Entry cached = parsedTokens.get(tokenStr);
+        if( cached != null ) {
+            try {
+                if( keyRing.getVerificationKey(cached.getKeyId()) == null ) {
+                    // Retired since the signature was verified
+                    parsedTokens.invalidate(tokenStr);
+                    return TokenCheckResult.of(TokenStatus.BAD_SIGNATURE);
+                }
+                if( !SLIDING_EXPIRATION && cached.getToken().getExpirationMillis() < System.currentTimeMillis() ) {
+                    return TokenCheckResult.of(TokenStatus.EXPIRED);
+                }
+                return new TokenCheckResult(TokenStatus.VALID, cached.getToken());
+            } finally {
+                metrics.record(TokenMetrics.Phase.CACHE, start);
+            }
+        }
+        Jws<Claims> jws;
+        Claims claims;
+        try {
+            jws = parser.parseSignedClaims(tokenStr);
+            claims = jws.getPayload();
+        } catch (SecurityException e) {
+            return TokenCheckResult.of(TokenStatus.BAD_SIGNATURE);
+        } catch (JwtException|IllegalArgumentException e) {
+            return TokenCheckResult.of(TokenStatus.MALFORMED);
+        } finally {
+            start = metrics.record(TokenMetrics.Phase.SIGNATURE, start);
+        }
         try {
-            Claims claims = Jwts.parser()
-                    .verifyWith(getSignatureKey())
-                    .build().parseSignedClaims(tokenStr)
-                    .getPayload();
+            if( claims.getExpiration() == null || claims.getId() == null ) {
+                return TokenCheckResult.of(TokenStatus.MALFORMED);
+            }
+            long now = System.currentTimeMillis();
+            if( !SLIDING_EXPIRATION && claims.getExpiration().getTime() < now ) {
+                return TokenCheckResult.of(TokenStatus.EXPIRED);
+            }
+            Date notBefore = claims.getNotBefore();
+            if( notBefore != null && notBefore.getTime() > now ) {
+                return TokenCheckResult.of(TokenStatus.NOT_YET_VALID);
+            }
+            Token parsed = toToken(tokenStr, claims);
+            parsedTokens.put(tokenStr, parsed, jws.getHeader().getKeyId());
+            return new TokenCheckResult(TokenStatus.VALID, parsed);
+        } finally {
+            metrics.record(TokenMetrics.Phase.PARSE, start);
+        }
+    }
 
-            List<String> roles = null;
-            if( claims.get(Token.ROLES_KEY) != null ) {
-                roles = Arrays.asList(claims.get(Token.ROLES_KEY).toString().split(","));
+    /**
+     * Cheap structural check, so garbage is rejected without going through the JWT parser and its exceptions.
+     * @return true if the string is made of three Base64URL segments.
+     */
+    private static boolean looksLikeJws(String tokenStr) {
+        if( tokenStr == null || tokenStr.isEmpty() || tokenStr.length() > MAX_TOKEN_LENGTH ) {
+            return false;
+        }
+        int dots = 0;
+        for (int i = 0; i < tokenStr.length(); i++) {
+            char c = tokenStr.charAt(i);
+            if( c == '.' ) {
+                dots++;
+            } else if( !((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_') ) {
+                return false;
             }
+        }
+        return dots == 2;
+    }
 
-            return new Token(claims.getId(),tokenStr,claims.getSubject(),roles,claims.getIssuedAt(),claims.getExpiration(), SIGN_KEY);
-        } catch (ExpiredJwtException|MalformedJwtException|SecurityException e) {
-            log.log(Level.WARNING, "Failed to parse token with the provided string.", e);
-            throw new TokenExpiredException( e.getMessage() );
+    private static Token toToken(String tokenStr, Claims claims) {
+        List<String> roles = null;
+        if( claims.get(Token.ROLES_KEY) != null ) {
+            roles = Arrays.asList(claims.get(Token.ROLES_KEY).toString().split(","));
         }
+
+        return new Token(claims.getId(),tokenStr,claims.getSubject(),roles,claims.getIssuedAt(),claims.getExpiration());
     }
 }
@@ -0,0 +1,19 @@
+package com.giulianobortolassi.jwt.token;
+
+/**
+ * Outcome of validating a token.
+ */
+public enum TokenStatus {
+    /** Signed by this service, registered and not expired. */
+    VALID,
+    /** The expiration time has passed. */
+    EXPIRED,
+    /** The {@code nbf} (not before) time has not come yet. */
+    NOT_YET_VALID,
+    /** Correctly signed, but not registered: it was revoked or evicted. */
+    UNKNOWN,
+    /** Not a JWT, or a JWT that could not be read. */
+    MALFORMED,
+    /** A JWT whose signature does not match any key of this service. */
+    BAD_SIGNATURE
+}
@@ -0,0 +1,277 @@
+package com.giulianobortolassi.jwt.token;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log split in numbered segment files ({@code wal-<segment>.log}).
+ * <p>
+ * Appends are queued and written by a single thread. Every pass of that thread takes whatever queued up while the
+ * previous fsync was running, writes it with one call and forces it to disk once (group commit), so the cost of an
+ * fsync is shared by every writer waiting on it.
+ * <p>
+ * Records are framed as {@code [length][crc32][payload]}. A record torn by a crash fails the check, and reading the
+ * segment stops there.
+ */
+final class WriteAheadLog implements Closeable {
+
+    private static final Logger log = Logger.getLogger(WriteAheadLog.class.getName());
+
+    static final String SEGMENT_PREFIX = "wal-";
+
+    static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // Far above any token, so a corrupt length is not taken for a huge record
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private static final long POLL_MILLIS = 100;
+
+    private final Path directory;
+
+    private final int maxBatch;
+
+    private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    // Only touched by the writer thread
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private FileChannel channel;
+    private long segment;
+
+    /**
+     * @param segment number of the segment to write first. It must not exist yet.
+     * @param maxBatch most records written per fsync
+     */
+    WriteAheadLog(Path directory, long segment, int maxBatch) throws IOException {
+        if( maxBatch <= 0 ) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        this.directory = directory;
+        this.maxBatch = maxBatch;
+        this.segment = segment;
+        this.channel = openSegment(segment);
+        this.writer = new Thread(this::writeLoop, "token-wal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    static Path segmentPath(Path directory, long segment) {
+        return directory.resolve(SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Queue a record.
+     * @return completes with the number of the segment holding the record once it is on disk
+     */
+    CompletableFuture<Long> append(byte[] payload) {
+        return enqueue(new Append(payload));
+    }
+
+    /**
+     * Close the current segment once everything queued before this call is on disk, and continue in a new one.
+     * @return completes with the number of the new segment
+     */
+    CompletableFuture<Long> roll() {
+        return enqueue(new Append(null));
+    }
+
+    private CompletableFuture<Long> enqueue(Append append) {
+        if( !running ) {
+            throw new IllegalStateException("The write-ahead log is closed.");
+        }
+        queue.add(append);
+        return append.done;
+    }
+
+    /**
+     * Write everything already queued and close the current segment.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void writeLoop() {
+        List<Append> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Append first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if( first == null ) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        // Appends that raced with close
+        Append append;
+        while ((append = queue.poll()) != null) {
+            append.done.completeExceptionally(new IllegalStateException("The write-ahead log is closed."));
+        }
+    }
+
+    private void writeBatch(List<Append> batch) {
+        int pending = 0;
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Append append = batch.get(i);
+                if( append.payload != null ) {
+                    put(append.payload);
+                    continue;
+                }
+                force(batch, pending, i);
+                channel.close();
+                segment++;
+                channel = openSegment(segment);
+                append.done.complete(segment);
+                pending = i + 1;
+            }
+            force(batch, pending, batch.size());
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Could not write the token log segment " + segment + ".", e);
+            buffer.clear();
+            UncheckedIOException failure = new UncheckedIOException("Could not write the token log.", e);
+            for (int i = pending; i < batch.size(); i++) {
+                batch.get(i).done.completeExceptionally(failure);
+            }
+            // Part of the batch may have reached the file, and reading stops at the first broken record. Continue
+            // in a fresh segment so later records stay readable.
+            try {
+                channel.close();
+                segment++;
+                channel = openSegment(segment);
+            } catch (IOException rollFailure) {
+                log.log(Level.SEVERE, "Could not open the token log segment " + segment + ".", rollFailure);
+            }
+        }
+    }
+
+    private void put(byte[] payload) throws IOException {
+        if( payload.length > MAX_RECORD_SIZE ) {
+            throw new IOException("Record of " + payload.length + " bytes is too large.");
+        }
+        int frameSize = HEADER_SIZE + payload.length;
+        if( buffer.remaining() < frameSize ) {
+            drain();
+            if( buffer.capacity() < frameSize ) {
+                buffer = ByteBuffer.allocateDirect(frameSize);
+            }
+        }
+        crc.reset();
+        crc.update(payload);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+    }
+
+    /**
+     * Make the appends {@code [from, to)} of the batch durable and complete them.
+     */
+    private void force(List<Append> batch, int from, int to) throws IOException {
+        if( from == to ) {
+            return;
+        }
+        drain();
+        channel.force(false);
+        for (int i = from; i < to; i++) {
+            batch.get(i).done.complete(segment);
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        return FileChannel.open(segmentPath(directory, segment),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Hand the payload of every intact record of a segment to the consumer. The buffer is reused for
+     * the next record once the consumer returns.
+     * @return the length of the intact prefix of the file. Anything after it is a torn or corrupt record.
+     */
+    static long read(Path file, Consumer<ByteBuffer> consumer) throws IOException {
+        CRC32 crc = new CRC32();
+        long valid = 0;
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            byte[] payload = new byte[256];
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if( length < 0 || length > MAX_RECORD_SIZE ) {
+                        return valid;
+                    }
+                    if( payload.length < length ) {
+                        payload = new byte[Math.max(length, payload.length * 2)];
+                    }
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    return valid;
+                }
+                crc.reset();
+                crc.update(payload, 0, length);
+                if( (int) crc.getValue() != checksum ) {
+                    return valid;
+                }
+                consumer.accept(ByteBuffer.wrap(payload, 0, length));
+                valid += HEADER_SIZE + length;
+            }
+        }
+    }
+
+    private static final class Append {
+        private final byte[] payload;
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        private Append(byte[] payload) {
+            this.payload = payload;
+        }
+    }
+}
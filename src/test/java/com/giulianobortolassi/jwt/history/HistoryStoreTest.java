@@ -0,0 +1,141 @@
+package com.giulianobortolassi.jwt.history;
+
+import com.giulianobortolassi.jwt.token.Token;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class HistoryStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private HistoryStore open(long segmentDuration, long retention) throws IOException {
+        HistoryStore store = new HistoryStore();
+        ReflectionTestUtils.setField(store, "ENABLED", true);
+        ReflectionTestUtils.setField(store, "DIRECTORY", directory.toString());
+        ReflectionTestUtils.setField(store, "SEGMENT_DURATION", segmentDuration);
+        ReflectionTestUtils.setField(store, "RETENTION", retention);
+        store.init();
+        return store;
+    }
+
+    private static Token newToken(String id, String user) {
+        long now = System.currentTimeMillis();
+        return new Token(id, "header.payload." + id, user, List.of("admin"), new Date(now), new Date(now + 60_000));
+    }
+
+    private static List<TokenEvent> all(HistoryStore store) throws IOException {
+        return store.query(null, 0, Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    private List<String> logs() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(HistorySegment.LOG_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void queriesByUserAndTime() throws Exception {
+        HistoryStore store = open(3_600_000, 0);
+        long before = System.currentTimeMillis();
+        // More than a block of events, so some blocks are skipped by their user filter
+        for (int i = 0; i < 1_000; i++) {
+            store.issued(newToken("t-" + i, "user-" + (i % 10)));
+        }
+        store.revoked(newToken("t-3", "user-3"));
+        await().atMost(Duration.ofSeconds(5)).until(() -> all(store).size() == 1_001);
+
+        List<TokenEvent> events = store.query("user-3", before, Long.MAX_VALUE, 1_000);
+        assertThat(events).hasSize(101).allMatch(event -> event.getUser().equals("user-3"));
+        assertThat(events).extracting(TokenEvent::getTime).isSorted();
+        TokenEvent revoked = events.get(events.size() - 1);
+        assertThat(revoked.getType()).isEqualTo(TokenEvent.Type.REVOKED);
+        assertThat(revoked.getTokenId()).isEqualTo("t-3");
+        assertThat(revoked.getRoles()).containsExactly("admin");
+        assertThat(revoked.getExpirationTime()).isNotNull();
+
+        // A limited query keeps the oldest events
+        assertThat(store.query("user-3", before, Long.MAX_VALUE, 10)).extracting(TokenEvent::getTime)
+                .containsExactlyElementsOf(events.subList(0, 10).stream().map(TokenEvent::getTime).collect(Collectors.toList()));
+        assertThat(store.query("nobody", before, Long.MAX_VALUE, 10)).isEmpty();
+        assertThat(store.query(null, 0, before, 10)).isEmpty();
+        store.close();
+    }
+
+    @Test
+    public void eventsSurviveRestart() throws Exception {
+        HistoryStore store = open(3_600_000, 0);
+        for (int i = 0; i < 300; i++) {
+            store.issued(newToken("t-" + i, "user-" + (i % 3)));
+        }
+        store.close();
+
+        HistoryStore reopened = open(3_600_000, 0);
+        assertThat(all(reopened)).hasSize(300);
+        reopened.issued(newToken("after", "user-0"));
+        await().atMost(Duration.ofSeconds(5)).until(() -> all(reopened).size() == 301);
+        assertThat(reopened.query("user-0", 0, Long.MAX_VALUE, 1_000)).hasSize(101);
+        reopened.close();
+    }
+
+    @Test
+    public void tornRecordIsDroppedOnRecovery() throws Exception {
+        HistoryStore store = open(3_600_000, 0);
+        store.issued(newToken("a", "user-a"));
+        store.issued(newToken("b", "user-b"));
+        store.close();
+
+        Path log = directory.resolve(logs().get(0));
+        Files.write(log, new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        HistoryStore reopened = open(3_600_000, 0);
+        assertThat(all(reopened)).extracting(TokenEvent::getTokenId).containsExactly("a", "b");
+        reopened.issued(newToken("c", "user-c"));
+        await().atMost(Duration.ofSeconds(5)).until(() -> all(reopened).size() == 3);
+        reopened.close();
+    }
+
+    @Test
+    public void segmentsRollAndExpire() throws Exception {
+        HistoryStore store = open(50, 200);
+        store.issued(newToken("old", "user"));
+        await().atMost(Duration.ofSeconds(5)).until(() -> all(store).size() == 1);
+        String oldest = logs().get(0);
+
+        // Each event past the retention rolls a new segment and deletes the expired ones
+        await().atMost(Duration.ofSeconds(5)).pollInterval(Duration.ofMillis(60)).until(() -> {
+            store.issued(newToken("new", "user"));
+            return !logs().contains(oldest);
+        });
+        assertThat(all(store)).extracting(TokenEvent::getTokenId).doesNotContain("old");
+        store.close();
+    }
+
+    @Test
+    public void disabledStoreRecordsNothing() throws Exception {
+        HistoryStore store = new HistoryStore();
+        ReflectionTestUtils.setField(store, "DIRECTORY", directory.toString());
+        store.init();
+        store.issued(newToken("a", "user"));
+        assertThat(store.isEnabled()).isFalse();
+        assertThat(logs()).isEmpty();
+        store.close();
+    }
+}
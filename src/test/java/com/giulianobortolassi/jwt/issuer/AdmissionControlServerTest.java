@@ -0,0 +1,133 @@
+package com.giulianobortolassi.jwt.issuer;
+
+import com.giulianobortolassi.jwt.token.TokenCheckResult;
+import com.giulianobortolassi.jwt.token.TokenService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Keeps more validations in flight than Tomcat has request threads, against a validation that slows down.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "server.tomcat.threads.max=16",
+        "jwt.admission.window=20",
+        "jwt.admission.check.initial-limit=8",
+        "jwt.admission.check.min-limit=2",
+        "jwt.admission.check.max-limit=8",
+        "jwt.admission.issue.max-limit=4"})
+public class AdmissionControlServerTest {
+
+    private static final int CLIENTS = 12;
+
+    @LocalServerPort
+    private int port;
+
+    @MockBean
+    private TokenService tokenService;
+
+    @Autowired
+    private AdmissionControl admissionControl;
+
+    private final AtomicLong latency = new AtomicLong(20);
+    private final AtomicInteger validating = new AtomicInteger();
+    private final AtomicInteger peakValidating = new AtomicInteger();
+
+    private final AtomicInteger served = new AtomicInteger();
+    private final AtomicInteger refused = new AtomicInteger();
+    private final AtomicInteger refusedWithoutRetryAfter = new AtomicInteger();
+    private final AtomicLong refusedNanos = new AtomicLong();
+
+    @Test
+    public void shedsWhatThePoolCannotServe() throws Exception {
+        TokenCheckResult invalid = mock(TokenCheckResult.class);
+        when(tokenService.validate(anyString())).thenAnswer(invocation -> {
+            peakValidating.accumulateAndGet(validating.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(latency.get());
+            } finally {
+                validating.decrementAndGet();
+            }
+            return invalid;
+        });
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/v1/token/abc"))
+                .timeout(Duration.ofSeconds(10))
+                .build();
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            for (int i = 0; i < CLIENTS; i++) {
+                clients.execute(() -> {
+                    while (running.get()) {
+                        send(client, request);
+                    }
+                });
+            }
+            ConcurrencyLimit limit = admissionControl.getLimit(Admission.Budget.CHECK);
+            await().atMost(10, TimeUnit.SECONDS).until(() -> served.get() > 200 && refused.get() > 0);
+            assertThat(limit.getLimit()).isEqualTo(8);
+
+            // Validation gets ten times slower: the limit shrinks instead of letting requests queue
+            latency.set(200);
+            await().atMost(20, TimeUnit.SECONDS).until(() -> limit.getLimit() <= 6);
+        } finally {
+            running.set(false);
+            clients.shutdown();
+            assertThat(clients.awaitTermination(20, TimeUnit.SECONDS)).isTrue();
+        }
+
+        assertThat(peakValidating.get()).isLessThanOrEqualTo(8);
+        assertThat(refusedWithoutRetryAfter.get()).isZero();
+        // Refused without waiting for a thread, let alone behind the slow requests admitted
+        assertThat(refusedNanos.get() / refused.get()).isLessThan(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    private void send(HttpClient client, HttpRequest request) {
+        long start = System.nanoTime();
+        HttpResponse<Void> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        if( response.statusCode() != 503 ) {
+            served.incrementAndGet();
+            return;
+        }
+        refusedNanos.addAndGet(System.nanoTime() - start);
+        refused.incrementAndGet();
+        if( response.headers().firstValue("Retry-After").isEmpty() ) {
+            refusedWithoutRetryAfter.incrementAndGet();
+        }
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.giulianobortolassi.jwt.issuer;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.support.StaticWebApplicationContext;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AdmissionControlTest {
+
+    private static AdmissionControl admissionControl() {
+        StaticWebApplicationContext context = new StaticWebApplicationContext();
+        context.registerSingleton("issues", JwtIssuesController.class);
+        context.registerSingleton("keys", JwksController.class);
+        context.refresh();
+        RequestMappingHandlerMapping mapping = new RequestMappingHandlerMapping();
+        mapping.setApplicationContext(context);
+        mapping.afterPropertiesSet();
+
+        AdmissionControl admission = new AdmissionControl();
+        ReflectionTestUtils.setField(admission, "ISSUE_INITIAL_LIMIT", 1);
+        ReflectionTestUtils.setField(admission, "ISSUE_MIN_LIMIT", 1);
+        admission.init();
+        admission.setHandlerMethods(mapping.getHandlerMethods());
+        return admission;
+    }
+
+    private static MockHttpServletResponse filter(AdmissionControl admission, String method, String path,
+                                                  FilterChain chain) throws IOException, ServletException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        admission.doFilter(new MockHttpServletRequest(method, path), response, chain);
+        return response;
+    }
+
+    @Test
+    public void shedsRequestsOverTheBudget() throws Exception {
+        AdmissionControl admission = admissionControl();
+        FilterChain served = (request, response) -> { };
+
+        MockHttpServletResponse admitted = filter(admission, "POST", "/v1/token", (request, response) -> {
+            // While this issuance is in flight
+            MockHttpServletResponse refused = filter(admission, "POST", "/v1/token", served);
+            assertThat(refused.getStatus()).isEqualTo(503);
+            assertThat(refused.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+
+            // Validations and endpoints without a budget are not held back by issuance
+            assertThat(filter(admission, "GET", "/v1/token/abc", served).getStatus()).isEqualTo(200);
+            assertThat(filter(admission, "GET", "/.well-known/jwks.json", served).getStatus()).isEqualTo(200);
+            assertThat(admission.getLimit(Admission.Budget.ISSUE).getInflight()).isEqualTo(1);
+        });
+        assertThat(admitted.getStatus()).isEqualTo(200);
+
+        assertThat(admission.getLimit(Admission.Budget.ISSUE).getInflight()).isZero();
+        assertThat(admission.getLimit(Admission.Budget.ISSUE).getRejected()).isEqualTo(1);
+        assertThat(filter(admission, "POST", "/v1/token", served).getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    public void leavesThreadsToRefuseRequests() {
+        AdmissionControl admission = new AdmissionControl();
+        ReflectionTestUtils.setField(admission, "MAX_THREADS", 100);
+        ReflectionTestUtils.setField(admission, "CHECK_MAX_LIMIT", 2000);
+        ReflectionTestUtils.setField(admission, "ISSUE_MAX_LIMIT", 500);
+        admission.init();
+
+        int check = admission.getLimit(Admission.Budget.CHECK).getLimit();
+        int issue = admission.getLimit(Admission.Budget.ISSUE).getLimit();
+        assertThat(check + issue).isLessThan(100);
+        assertThat(issue).isGreaterThanOrEqualTo(4);
+    }
+
+    @Test
+    @EnabledForJreRange(max = JRE.JAVA_20)
+    public void virtualThreadsNeedJava21() {
+        AdmissionControl admission = new AdmissionControl();
+        ReflectionTestUtils.setField(admission, "VIRTUAL_THREADS", true);
+
+        assertThatThrownBy(admission::init).isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Java 21");
+    }
+}
@@ -0,0 +1,65 @@
+package com.giulianobortolassi.jwt.issuer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrencyLimitTest {
+
+    /**
+     * Fill every slot, then complete the requests with the given latency.
+     */
+    private static void saturate(ConcurrencyLimit limit, long latencyMillis, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            int admitted = 0;
+            while (limit.tryAcquire()) {
+                admitted++;
+            }
+            for (int i = 0; i < admitted; i++) {
+                limit.release(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+            }
+        }
+    }
+
+    @Test
+    public void refusesOverTheLimit() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(2, 1, 10, 0);
+        assertThat(limit.tryAcquire()).isTrue();
+        assertThat(limit.tryAcquire()).isTrue();
+        assertThat(limit.tryAcquire()).isFalse();
+        assertThat(limit.getRejected()).isEqualTo(1);
+
+        limit.release(1_000);
+        assertThat(limit.tryAcquire()).isTrue();
+        assertThat(limit.getInflight()).isEqualTo(2);
+    }
+
+    @Test
+    public void growsWhileLatencyHolds() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(20, 10, 1000, 0);
+        saturate(limit, 1, 50);
+        assertThat(limit.getLimit()).isGreaterThan(40);
+    }
+
+    @Test
+    public void shrinksWhenRequestsQueue() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(100, 10, 1000, 0);
+        saturate(limit, 1, 20);
+        int steady = limit.getLimit();
+
+        saturate(limit, 10, 2);
+        assertThat(limit.getLimit()).isLessThan(steady / 2).isGreaterThanOrEqualTo(10);
+    }
+
+    @Test
+    public void idleSlotsSayNothingAboutTheLimit() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(100, 10, 1000, 0);
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(limit.tryAcquire()).isTrue();
+            limit.release(TimeUnit.MILLISECONDS.toNanos(i % 2 == 0 ? 1 : 50));
+        }
+        assertThat(limit.getLimit()).isEqualTo(100);
+    }
+}
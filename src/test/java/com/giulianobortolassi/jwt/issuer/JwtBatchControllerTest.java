@@ -0,0 +1,65 @@
+package com.giulianobortolassi.jwt.issuer;
+
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.giulianobortolassi.jwt.token.TokenRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class JwtBatchControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private JsonNode postBatch(String path, Object body) throws Exception {
+        String response = mockMvc.perform(post(path)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(body)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return mapper.readTree(response);
+    }
+
+    @Test
+    public void issueValidateAndRevokeBatches() throws Exception {
+        JsonNode issued = postBatch("/v1/token:batch", Arrays.asList(
+                new TokenRequest("alice", List.of("ADMIN")),
+                new TokenRequest("", null),
+                new TokenRequest("bob", null),
+                null));
+
+        assertThat(issued).hasSize(4);
+        assertThat(issued.get(0).get("status").asText()).isEqualTo("ISSUED");
+        assertThat(issued.get(1).get("status").asText()).isEqualTo("INVALID");
+        assertThat(issued.get(2).get("status").asText()).isEqualTo("ISSUED");
+        assertThat(issued.get(3).get("status").asText()).isEqualTo("INVALID");
+        String alice = issued.get(0).get("token").asText();
+        String bob = issued.get(2).get("token").asText();
+
+        JsonNode revoked = postBatch("/v1/token/revoke:batch", List.of(bob, "not-a-token"));
+        assertThat(revoked.get(0).get("status").asText()).isEqualTo("REVOKED");
+        assertThat(revoked.get(1).get("status").asText()).isEqualTo("MALFORMED");
+
+        JsonNode validated = postBatch("/v1/token/validate:batch", List.of(alice, bob, "not-a-token"));
+        assertThat(validated.get(0).get("status").asText()).isEqualTo("VALID");
+        assertThat(validated.get(0).get("token").asText()).isEqualTo(alice);
+        assertThat(validated.get(1).get("status").asText()).isEqualTo("UNKNOWN");
+        assertThat(validated.get(2).get("status").asText()).isEqualTo("MALFORMED");
+    }
+}
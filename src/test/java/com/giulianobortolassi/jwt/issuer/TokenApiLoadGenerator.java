@@ -0,0 +1,123 @@
+package com.giulianobortolassi.jwt.issuer;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load test of the token API running elsewhere: keeps a fixed number of requests in flight, each on a
+ * connection of its own, and reports the latency percentiles of what completed. Three quarters of the requests
+ * validate a token, the others issue a new one, as seen by the API in production.
+ * <p>
+ * Takes the base URL, the number of concurrent connections, and the duration in seconds. The first seconds are a
+ * warm up and not measured. At 10k connections, raise the open files limit of both processes ({@code ulimit -n}).
+ * <pre>
+ * mvn -Ploadtest test-compile exec:exec -Dloadtest.args="http://localhost:8888 10000 60"
+ * </pre>
+ */
+public class TokenApiLoadGenerator {
+
+    private static final int WARM_UP_SECONDS = 10;
+
+    private static final int TOKENS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8888";
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+
+        List<String> tokens = new ArrayList<>(TOKENS);
+        for (int i = 0; i < TOKENS; i++) {
+            HttpResponse<String> response = client.send(issue(baseUrl, i), HttpResponse.BodyHandlers.ofString());
+            tokens.add(response.body());
+        }
+
+        long warmUpEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARM_UP_SECONDS);
+        long end = warmUpEnd + TimeUnit.SECONDS.toNanos(seconds);
+        Semaphore inFlight = new Semaphore(connections);
+        Latencies latencies = new Latencies();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicLong issued = new AtomicLong(TOKENS);
+
+        while (System.nanoTime() < end) {
+            inFlight.acquire();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            HttpRequest request = random.nextInt(4) == 0
+                    ? issue(baseUrl, issued.getAndIncrement())
+                    : HttpRequest.newBuilder(URI.create(baseUrl + "/v1/token/" + tokens.get(random.nextInt(TOKENS))))
+                            .timeout(Duration.ofSeconds(60)).GET().build();
+            long start = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                long now = System.nanoTime();
+                inFlight.release();
+                if( failure != null || response.statusCode() != 200 ) {
+                    errors.incrementAndGet();
+                } else if( start >= warmUpEnd && now <= end ) {
+                    latencies.add(now - start);
+                }
+            });
+        }
+        inFlight.acquire(connections);
+
+        long[] measured = latencies.sorted();
+        System.out.printf("connections %d, %d requests in %ds (%.0f/s), %d errors%n", connections, measured.length,
+                seconds, measured.length / (double) seconds, errors.get());
+        for (String percentile : new String[]{"50", "90", "99", "99.9"}) {
+            System.out.printf("p%s %.2f ms%n", percentile, percentile(measured, Double.parseDouble(percentile)) / 1e6);
+        }
+    }
+
+    private static HttpRequest issue(String baseUrl, long user) {
+        String query = "user=" + URLEncoder.encode("load-" + user, StandardCharsets.UTF_8) + "&credentials=user";
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/v1/token?" + query))
+                .timeout(Duration.ofSeconds(60))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if( sorted.length == 0 ) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * Latencies in nanoseconds, appended by the threads completing the requests.
+     */
+    private static final class Latencies {
+        private long[] values = new long[1 << 20];
+        private int size;
+
+        synchronized void add(long latency) {
+            if( size == values.length ) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = latency;
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.giulianobortolassi.jwt.issuer;
+
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.giulianobortolassi.jwt.token.Token;
+import com.giulianobortolassi.jwt.token.TokenService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class TokenIntrospectionControllerTest {
+
+    private static final String PATH = "/v1/token/introspect";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TokenService tokenService;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private JsonNode introspect(MockHttpServletRequestBuilder request) throws Exception {
+        String response = mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return mapper.readTree(response);
+    }
+
+    @Test
+    public void introspectFormParameter() throws Exception {
+        Token token = tokenService.generateToken("alice", List.of("ADMIN", "AUDIT"));
+
+        JsonNode introspection = introspect(post(PATH)
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .param("token", token.getToken()));
+
+        assertThat(introspection.get("active").asBoolean()).isTrue();
+        assertThat(introspection.get("sub").asText()).isEqualTo("alice");
+        assertThat(introspection.get("roles")).extracting(JsonNode::asText).containsExactly("ADMIN", "AUDIT");
+        assertThat(introspection.get("exp").asLong()).isEqualTo(token.getExpirationTime().getTime() / 1000);
+        assertThat(introspection.get("iat").asLong()).isEqualTo(token.getIssuedTime().getTime() / 1000);
+    }
+
+    @Test
+    public void introspectBearerHeader() throws Exception {
+        Token token = tokenService.generateToken("bob", List.of());
+
+        JsonNode introspection = introspect(post(PATH).header(HttpHeaders.AUTHORIZATION, "Bearer " + token.getToken()));
+        assertThat(introspection.get("active").asBoolean()).isTrue();
+        assertThat(introspection.get("sub").asText()).isEqualTo("bob");
+
+        tokenService.revokeToken(token.getToken());
+        JsonNode revoked = introspect(post(PATH).header(HttpHeaders.AUTHORIZATION, "Bearer " + token.getToken()));
+        assertThat(revoked.get("active").asBoolean()).isFalse();
+        assertThat(revoked.size()).as("Inactive tokens only carry the active member.").isEqualTo(1);
+    }
+
+    @Test
+    public void refuseInvalidRequests() throws Exception {
+        assertThat(introspect(post(PATH).param("token", "not-a-token")).get("active").asBoolean()).isFalse();
+        mockMvc.perform(post(PATH)).andExpect(status().isBadRequest());
+        mockMvc.perform(post(PATH).header(HttpHeaders.AUTHORIZATION, "Basic dXNlcjpwYXNz"))
+                .andExpect(status().isBadRequest());
+    }
+}
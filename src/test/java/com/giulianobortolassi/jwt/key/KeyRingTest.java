@@ -0,0 +1,206 @@
+package com.giulianobortolassi.jwt.key;
+
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.JwkSet;
+import io.jsonwebtoken.security.Jwks;
+import io.jsonwebtoken.security.PublicJwk;
+import io.jsonwebtoken.security.SignatureException;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class KeyRingTest {
+
+    private static final String SIGN_KEY = "MyKey1234567890-1234567890-1234567890";
+
+    private static final long PERIOD = TimeUnit.HOURS.toMillis(1);
+
+    private static KeyRing newKeyRing(long rotationPeriod, int verificationKeys) {
+        return newKeyRing(rotationPeriod, verificationKeys, "HS256");
+    }
+
+    private static KeyRing newKeyRing(long rotationPeriod, int verificationKeys, String algorithm) {
+        KeyRing keyRing = new KeyRing();
+        ReflectionTestUtils.setField(keyRing, "SIGN_KEY", SIGN_KEY);
+        ReflectionTestUtils.setField(keyRing, "ALGORITHM", algorithm);
+        ReflectionTestUtils.setField(keyRing, "ROTATION_PERIOD", rotationPeriod);
+        ReflectionTestUtils.setField(keyRing, "VERIFICATION_KEYS", verificationKeys);
+        keyRing.init();
+        return keyRing;
+    }
+
+    private static String sign(SigningKey key, boolean withKeyId) {
+        if( withKeyId ) {
+            return Jwts.builder().header().keyId(key.getId()).and().subject("user")
+                    .signWith(key.getSigningKey(), key.getAlgorithm()).compact();
+        }
+        return Jwts.builder().subject("user").signWith(key.getSigningKey(), key.getAlgorithm()).compact();
+    }
+
+    @Test
+    public void withoutRotationTheSecretIsTheOnlyKey() {
+        KeyRing keyRing = newKeyRing(0, 3);
+        JwtParser parser = Jwts.parser().keyLocator(keyRing).build();
+
+        assertThat(keyRing.getActiveKey().getId()).isEqualTo(KeyRing.DEFAULT_KEY_ID);
+        assertThat(keyRing.getVerificationKeys()).hasSize(1);
+        assertThat(parser.parseSignedClaims(sign(keyRing.getActiveKey(), true)).getPayload().getSubject()).isEqualTo("user");
+        assertThat(parser.parseSignedClaims(sign(keyRing.getActiveKey(), false)).getPayload().getSubject()).isEqualTo("user");
+    }
+
+    @Test
+    public void rotatedKeysStayValidInsideTheWindow() {
+        KeyRing keyRing = newKeyRing(PERIOD, 2);
+        JwtParser parser = Jwts.parser().keyLocator(keyRing).build();
+        long now = System.currentTimeMillis();
+
+        SigningKey first = keyRing.getActiveKey();
+        String firstToken = sign(first, true);
+
+        keyRing.rotate(now + PERIOD);
+        SigningKey second = keyRing.getActiveKey();
+        assertThat(second.getId()).isNotEqualTo(first.getId());
+        assertThat(parser.parseSignedClaims(firstToken).getPayload().getSubject()).isEqualTo("user");
+        assertThat(parser.parseSignedClaims(sign(second, true)).getPayload().getSubject()).isEqualTo("user");
+
+        keyRing.rotate(now + 2 * PERIOD);
+        assertThat(keyRing.getVerificationKey(first.getId())).isNull();
+        assertThatThrownBy(() -> parser.parseSignedClaims(firstToken)).isInstanceOf(SignatureException.class);
+    }
+
+    /**
+     * Two nodes sharing the secret derive the same keys, even when one of them did not rotate yet.
+     */
+    @Test
+    public void nodesDeriveTheSameKeys() {
+        KeyRing nodeA = newKeyRing(PERIOD, 2);
+        KeyRing nodeB = newKeyRing(PERIOD, 2);
+        nodeA.rotate(System.currentTimeMillis() + PERIOD);
+
+        String token = sign(nodeA.getActiveKey(), true);
+        JwtParser parserB = Jwts.parser().keyLocator(nodeB).build();
+
+        assertThat(parserB.parseSignedClaims(token).getPayload().getSubject()).isEqualTo("user");
+    }
+
+    @Test
+    public void unknownKeyIdIsRejected() {
+        KeyRing keyRing = newKeyRing(PERIOD, 2);
+
+        assertThat(keyRing.getVerificationKey("e1")).isNull();
+        assertThat(keyRing.getVerificationKey("something")).isNull();
+        assertThat(keyRing.getVerificationKey(null)).isNull();
+    }
+
+    /**
+     * Key ids are read before the signature is checked: other spellings of an epoch must not add keys.
+     */
+    @Test
+    public void onlyTheCanonicalEpochKeyIdIsAccepted() {
+        KeyRing keyRing = newKeyRing(PERIOD, 2);
+        String activeId = keyRing.getActiveKey().getId();
+        long epoch = Long.parseLong(activeId.substring(1));
+
+        for (String padded : new String[] { "e0" + epoch, "e+" + epoch, "e000000" + epoch }) {
+            assertThat(keyRing.getVerificationKey(padded)).isNull();
+        }
+        assertThat(keyRing.getVerificationKey(activeId)).isSameAs(keyRing.getActiveKey());
+        assertThat(keyRing.getVerificationKey("e" + (epoch - 1)).getId()).isEqualTo("e" + (epoch - 1));
+        assertThat(keyRing.getVerificationKeys()).extracting(SigningKey::getId)
+                .containsExactlyInAnyOrder(activeId, "e" + (epoch - 1));
+    }
+
+    @Test
+    public void hmacKeysAreNeverPublished() {
+        KeyRing keyRing = newKeyRing(0, 3);
+
+        assertThat(keyRing.getPublishedKeys().getJson()).isEqualTo("{\"keys\":[]}");
+    }
+
+    @Test
+    public void es256TokensVerifyWithThePublishedKeySet() {
+        assertVerifiableWithPublishedKeys(newKeyRing(0, 2, "ES256"));
+    }
+
+    @Test
+    public void edDsaTokensVerifyWithThePublishedKeySet() {
+        assertVerifiableWithPublishedKeys(newKeyRing(0, 2, "EdDSA"));
+    }
+
+    @Test
+    public void keyPairRotationRetiresOldestKey() {
+        KeyRing keyRing = newKeyRing(PERIOD, 2, "ES256");
+        long now = System.currentTimeMillis();
+        SigningKey first = keyRing.getActiveKey();
+        String etag = keyRing.getPublishedKeys().getEtag();
+
+        keyRing.rotate(now + PERIOD);
+        assertThat(keyRing.getVerificationKey(first.getId())).isNotNull();
+        assertThat(keyRing.getPublishedKeys().getEtag()).isNotEqualTo(etag);
+
+        keyRing.rotate(now + 2 * PERIOD);
+        assertThat(keyRing.getVerificationKey(first.getId())).isNull();
+        // The two last active keys, and the next one
+        assertThat(keyRing.getVerificationKeys()).hasSize(3);
+        assertThat(keyRing.getPublishedKeys().getJson()).doesNotContain(first.getId());
+    }
+
+    /**
+     * Resource servers cache the key set: a key pair must have been published for a whole rotation period before
+     * tokens are signed with it.
+     */
+    @Test
+    public void keyPairIsPublishedBeforeItIsActive() {
+        KeyRing keyRing = newKeyRing(PERIOD, 2, "ES256");
+        long now = System.currentTimeMillis();
+        String cachedKeySet = keyRing.getPublishedKeys().getJson();
+
+        keyRing.rotate(now + PERIOD);
+        assertThat(cachedKeySet).contains(keyRing.getActiveKey().getId());
+        assertThat(Jwks.setParser().build().parse(cachedKeySet).getKeys()).hasSize(2);
+    }
+
+    @Test
+    public void keyPairRotationShorterThanJwksMaxAgeFailsAtStartup() {
+        assertThatThrownBy(() -> newKeyRing(TimeUnit.SECONDS.toMillis(60), 2, "ES256"))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void keyPairsAreRefusedWithReplication() {
+        KeyRing keyRing = new KeyRing();
+        ReflectionTestUtils.setField(keyRing, "SIGN_KEY", SIGN_KEY);
+        ReflectionTestUtils.setField(keyRing, "ALGORITHM", "EdDSA");
+        ReflectionTestUtils.setField(keyRing, "REPLICATION_ENABLED", true);
+
+        assertThatThrownBy(keyRing::init).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void unsupportedAlgorithmFailsAtStartup() {
+        assertThatThrownBy(() -> newKeyRing(0, 2, "RS256")).isInstanceOf(IllegalStateException.class);
+    }
+
+    /**
+     * A resource server only has the JWK set document: it must be able to verify a token with it.
+     */
+    private static void assertVerifiableWithPublishedKeys(KeyRing keyRing) {
+        String token = sign(keyRing.getActiveKey(), true);
+
+        JwkSet keySet = Jwks.setParser().build().parse(keyRing.getPublishedKeys().getJson());
+        assertThat(keySet.getKeys()).hasSize(1);
+        PublicJwk<?> jwk = (PublicJwk<?>) keySet.getKeys().iterator().next();
+        assertThat(jwk.getId()).isEqualTo(keyRing.getActiveKey().getId());
+        assertThat(keyRing.getPublishedKeys().getJson()).doesNotContain("\"d\"");
+
+        Key publicKey = jwk.toKey();
+        JwtParser parser = Jwts.parser().keyLocator(header -> publicKey).build();
+        assertThat(parser.parseSignedClaims(token).getPayload().getSubject()).isEqualTo("user");
+    }
+}
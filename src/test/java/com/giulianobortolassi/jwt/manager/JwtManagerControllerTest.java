@@ -1,15 +1,98 @@
 package com.giulianobortolassi.jwt.manager;
 
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.giulianobortolassi.jwt.token.Token;
+import com.giulianobortolassi.jwt.token.TokenService;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
 public class JwtManagerControllerTest {
 
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TokenService tokenService;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private JsonNode getJson(String path) throws Exception {
+        String response = mockMvc.perform(get(path))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return mapper.readTree(response);
+    }
+
     @Test
-    public void listTokens() {
+    public void listTokens() throws Exception {
+        String user = "manager-" + UUID.randomUUID();
+        List<String> issued = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            issued.add(tokenService.generateToken(user, List.of("AUDIT")).getId());
+        }
+
+        List<String> listed = new ArrayList<>();
+        String path = "/v1/manager/token?limit=2&user=" + user;
+        JsonNode page = getJson(path);
+        while (true) {
+            for (JsonNode token : page.get("tokens")) {
+                assertThat(token.get("user").asText()).isEqualTo(user);
+                assertThat(token.has("token")).as("The signed JWT must not be listed.").isFalse();
+                listed.add(token.get("id").asText());
+            }
+            if( page.get("next").isNull() ) {
+                break;
+            }
+            page = getJson(path + "&after=" + page.get("next").asText());
+        }
+        assertThat(listed).containsExactlyInAnyOrderElementsOf(issued).isSorted();
+
+        mockMvc.perform(get("/v1/manager/token?limit=0")).andExpect(status().isBadRequest());
     }
 
     @Test
-    public void revokeToken() {
+    public void exportTokens() throws Exception {
+        String user = "manager-" + UUID.randomUUID();
+        Token kept = tokenService.generateToken(user, List.of("AUDIT"));
+        Token revoked = tokenService.generateToken(user, List.of("AUDIT"));
+        tokenService.revokeToken(revoked);
+
+        MvcResult result = mockMvc.perform(get("/v1/manager/token/export?role=AUDIT&user=" + user))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult();
+
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertThat(lines).hasSize(1);
+        JsonNode token = mapper.readTree(lines[0]);
+        assertThat(token.get("id").asText()).isEqualTo(kept.getId());
+        assertThat(token.get("expirationTime").asLong()).isEqualTo(kept.getExpirationTime().getTime());
+        assertThat(token.has("token")).isFalse();
+    }
+
+    @Test
+    public void revokeToken() throws Exception {
+        Token token = tokenService.generateToken("manager-" + UUID.randomUUID(), List.of());
+
+        mockMvc.perform(delete("/v1/manager/token/" + token.getToken())).andExpect(status().isOk());
+        assertThat(tokenService.listActiveTokensForUser(token.getUser())).isEmpty();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,50 @@
+package com.giulianobortolassi.jwt.replication;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HashRingTest {
+
+    @Test
+    public void ownersAreDistinctAndStableAcrossNodeOrder() {
+        HashRing ring = new HashRing(Arrays.asList("a", "b", "c"));
+        HashRing shuffled = new HashRing(Arrays.asList("c", "a", "b"));
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "token-" + i;
+            List<String> owners = ring.owners(key, 2);
+            assertThat(owners).hasSize(2).doesNotHaveDuplicates();
+            assertThat(shuffled.owners(key, 2)).isEqualTo(owners);
+            assertThat(ring.isOwner(owners.get(0), key, 1)).isTrue();
+        }
+        assertThat(ring.owners("token", 5)).containsExactlyInAnyOrder("a", "b", "c");
+    }
+
+    @Test
+    public void keysSpreadAndMoveLittleWhenANodeJoins() {
+        HashRing ring = new HashRing(Arrays.asList("a", "b", "c"));
+        HashRing grown = new HashRing(Arrays.asList("a", "b", "c", "d"));
+        Map<String, Integer> counts = new HashMap<>();
+        int moved = 0;
+        int keys = 30_000;
+        for (int i = 0; i < keys; i++) {
+            String key = "token-" + i;
+            String owner = ring.owners(key, 1).get(0);
+            counts.merge(owner, 1, Integer::sum);
+            String newOwner = grown.owners(key, 1).get(0);
+            if( !newOwner.equals(owner) ) {
+                assertThat(newOwner).isEqualTo("d");
+                moved++;
+            }
+        }
+
+        assertThat(counts.values()).allSatisfy(count -> assertThat(count).isBetween(keys / 5, keys / 2));
+        assertThat(moved).isBetween(keys / 8, keys / 3);
+    }
+}
@@ -0,0 +1,271 @@
+package com.giulianobortolassi.jwt.replication;
+
+import com.giulianobortolassi.jwt.revocation.RevocationList;
+import com.giulianobortolassi.jwt.token.InMemoryTokenRepository;
+import com.giulianobortolassi.jwt.token.Token;
+import com.giulianobortolassi.jwt.token.TokenNotFoundException;
+import com.giulianobortolassi.jwt.token.TokenRecords;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+public class ReplicatedTokenRepositoryTest {
+
+    private static final List<String> NODES = Arrays.asList("a", "b", "c");
+
+    private final InProcessTransport.Network network = new InProcessTransport.Network();
+
+    private final Map<String, ReplicatedTokenRepository> cluster = new LinkedHashMap<>();
+
+    private final Map<String, InMemoryTokenRepository> stores = new LinkedHashMap<>();
+
+    private static Token newToken(String id) {
+        Token token = new Token();
+        token.setId(id);
+        token.setUser("user-" + id);
+        token.setIssuedTime(new Date());
+        token.setExpirationTime(new Date(System.currentTimeMillis() + 60_000));
+        return token;
+    }
+
+    private ReplicatedTokenRepository startNode(String node, int replicas) throws IOException {
+        return startNode(node, replicas, new InMemoryTokenRepository());
+    }
+
+    private ReplicatedTokenRepository startNode(String node, int replicas, InMemoryTokenRepository store)
+            throws IOException {
+        ReplicatedTokenRepository repository = new ReplicatedTokenRepository();
+        ReflectionTestUtils.setField(repository, "NODE", node);
+        ReflectionTestUtils.setField(repository, "REPLICAS", replicas);
+        repository.start(store, network.join(node), NODES);
+        cluster.put(node, repository);
+        stores.put(node, store);
+        return repository;
+    }
+
+    private void startCluster(int replicas) throws IOException {
+        for (String node : NODES) {
+            startNode(node, replicas);
+        }
+    }
+
+    private void stopNode(String node) throws IOException {
+        cluster.remove(node).close();
+        stores.remove(node);
+    }
+
+    @AfterEach
+    public void stopCluster() throws IOException {
+        for (String node : NODES) {
+            if( cluster.containsKey(node) ) {
+                stopNode(node);
+            }
+        }
+    }
+
+    @Test
+    public void issuanceAndRevocationReachEveryNode() throws Exception {
+        startCluster(0);
+        cluster.get("a").registerToken(newToken("t1"));
+
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> {
+            assertThat(stores.get("b").getTokenById("t1").getUser()).isEqualTo("user-t1");
+            assertThat(stores.get("c").getTokenById("t1").getUser()).isEqualTo("user-t1");
+        });
+
+        cluster.get("b").removeTokenById("t1");
+
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> {
+            assertThat(stores.get("a").countTokens()).isZero();
+            assertThat(stores.get("c").countTokens()).isZero();
+        });
+    }
+
+    @Test
+    public void revocationsMadeElsewhereReachTheListeners() throws Exception {
+        startCluster(0);
+        RevocationList revocations = new RevocationList();
+        Map<String, Token> removedHere = new ConcurrentHashMap<>();
+        cluster.get("c").addRemovalListener((id, expirationMillis, token) -> {
+            revocations.revoke(id, expirationMillis);
+            removedHere.put(id, token);
+        });
+        Token token = cluster.get("a").registerToken(newToken("t1"));
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(stores.get("c").countTokens()).isEqualTo(1));
+
+        cluster.get("b").removeTokenById("t1");
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> revocations.isRevoked("t1"));
+        assertThat(revocations.getChangesSince(0).getRevoked()).singleElement()
+                .satisfies(revoked -> assertThat(revoked.getExpiresAt()).isEqualTo(token.getExpirationMillis()));
+        assertThat(removedHere.get("t1").getUser()).isEqualTo("user-t1");
+    }
+
+    /**
+     * A node revoking a token it has not received yet remembers the removal and replicates it, so the register
+     * arriving afterwards is dropped.
+     */
+    @Test
+    public void revocationOvertakingTheRegisterSticks() throws Exception {
+        startCluster(0);
+        network.disconnect("b");
+        Token token = cluster.get("a").registerToken(newToken("late"));
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(stores.get("c").countTokens()).isEqualTo(1));
+        network.reconnect("b");
+
+        assertThatThrownBy(() -> cluster.get("b").removeTokenById("late")).isInstanceOf(TokenNotFoundException.class);
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> {
+            assertThat(stores.get("a").countTokens()).isZero();
+            assertThat(stores.get("c").countTokens()).isZero();
+        });
+
+        // The register sent before the revocation reaches b at last
+        ReflectionTestUtils.invokeMethod(cluster.get("b"), "merge",
+                ByteBuffer.wrap(TokenRecords.encodeRegister(token)), System.currentTimeMillis());
+        assertThat(stores.get("b").countTokens()).isZero();
+    }
+
+    /**
+     * A merge stuck on the local store must not keep the node from reading the messages behind it.
+     */
+    @Test
+    public void lookupsAreAnsweredWhileAMergeIsBlocked() throws Exception {
+        CountDownLatch merging = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        startNode("a", 0);
+        startNode("b", 0, new InMemoryTokenRepository() {
+            @Override
+            public Token registerToken(Token token) {
+                if( token.getId().equals("blocked") ) {
+                    merging.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.registerToken(token);
+            }
+        });
+        startNode("c", 0);
+        try {
+            cluster.get("a").registerToken(newToken("held"));
+            await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(stores.get("b").countTokens()).isEqualTo(1));
+            cluster.get("a").registerToken(newToken("blocked"));
+            assertThat(merging.await(5, TimeUnit.SECONDS)).isTrue();
+
+            ReflectionTestUtils.setField(cluster.get("a"), "LOOKUP_TIMEOUT", 2000L);
+            List<Token> found = ReflectionTestUtils.invokeMethod(cluster.get("a"), "lookup", "b",
+                    Collections.singletonList("held"));
+            assertThat(found).extracting(Token::getId).containsExactly("held");
+        } finally {
+            release.countDown();
+        }
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(stores.get("b").countTokens()).isEqualTo(2));
+    }
+
+    @Test
+    public void renewalsReachEveryNode() throws Exception {
+        startCluster(0);
+        Token token = cluster.get("a").registerToken(newToken("t1"));
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(stores.get("c").countTokens()).isEqualTo(1));
+
+        long renewed = token.getExpirationMillis() + 60_000;
+        assertThat(cluster.get("a").renewToken(token, token.getExpirationMillis(), renewed)).isTrue();
+
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> {
+            for (InMemoryTokenRepository store : stores.values()) {
+                assertThat(store.getTokenById("t1").getExpirationMillis()).isEqualTo(renewed);
+            }
+        });
+    }
+
+    @Test
+    public void disconnectedNodeCatchesUpOnTheNextGap() throws Exception {
+        startCluster(0);
+        cluster.get("a").registerToken(newToken("revoked"));
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(stores.get("c").countTokens()).isEqualTo(1));
+
+        network.disconnect("c");
+        cluster.get("a").removeTokenById("revoked");
+        for (int i = 0; i < 100; i++) {
+            cluster.get("a").registerToken(newToken("missed-" + i));
+        }
+        network.reconnect("c");
+        cluster.get("a").registerToken(newToken("last"));
+
+        await().atMost(10, TimeUnit.SECONDS).untilAsserted(() -> {
+            assertThat(stores.get("c").countTokens()).isEqualTo(101);
+            assertThatThrownBy(() -> stores.get("c").getTokenById("revoked")).isInstanceOf(TokenNotFoundException.class);
+        });
+    }
+
+    @Test
+    public void restartedNodeCatchesUpOnJoin() throws Exception {
+        startCluster(0);
+        stopNode("c");
+        for (int i = 0; i < 10; i++) {
+            cluster.get("a").registerToken(newToken("a-" + i));
+            cluster.get("b").registerToken(newToken("b-" + i));
+        }
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(stores.get("b").countTokens()).isEqualTo(20));
+        cluster.get("b").removeTokenById("a-0");
+
+        startNode("c", 0);
+
+        await().atMost(10, TimeUnit.SECONDS).untilAsserted(() -> {
+            assertThat(stores.get("c").countTokens()).isEqualTo(19);
+            assertThat(stores.get("c").getTokensByIds(Collections.singletonList("a-0"))).isEmpty();
+        });
+    }
+
+    @Test
+    public void partialReplicationForwardsLookupsToTheOwners() throws Exception {
+        startCluster(1);
+        HashRing ring = new HashRing(NODES);
+        for (int i = 0; i < 30; i++) {
+            cluster.get("a").registerToken(newToken("t" + i));
+        }
+
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> {
+            long stored = 0;
+            for (InMemoryTokenRepository store : stores.values()) {
+                stored += store.countTokens();
+            }
+            assertThat(stored).isEqualTo(30);
+        });
+        for (int i = 0; i < 30; i++) {
+            String id = "t" + i;
+            String owner = ring.owners(id, 1).get(0);
+            assertThat(stores.get(owner).getTokenById(id).getUser()).isEqualTo("user-" + id);
+            for (String node : NODES) {
+                assertThat(cluster.get(node).getTokenById(id).getUser()).isEqualTo("user-" + id);
+            }
+        }
+
+        String id = "t0";
+        String owner = ring.owners(id, 1).get(0);
+        String other = NODES.stream().filter(node -> !node.equals(owner)).findFirst().get();
+        assertThat(cluster.get(other).removeTokenById(id).getId()).isEqualTo(id);
+
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() ->
+                assertThatThrownBy(() -> cluster.get(owner).getTokenById(id)).isInstanceOf(TokenNotFoundException.class));
+        assertThatThrownBy(() -> cluster.get(other).getTokenById(id)).isInstanceOf(TokenNotFoundException.class);
+    }
+}
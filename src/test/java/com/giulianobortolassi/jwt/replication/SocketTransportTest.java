@@ -0,0 +1,74 @@
+package com.giulianobortolassi.jwt.replication;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+public class SocketTransportTest {
+
+    private static final byte[] SECRET = "replication-secret".getBytes();
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Map<String, InetSocketAddress> loopbackNodes() throws IOException {
+        Map<String, InetSocketAddress> addresses = new LinkedHashMap<>();
+        addresses.put("a", new InetSocketAddress(InetAddress.getLoopbackAddress(), freePort()));
+        addresses.put("b", new InetSocketAddress(InetAddress.getLoopbackAddress(), freePort()));
+        return addresses;
+    }
+
+    @Test
+    public void messagesArriveInOrderOverLoopback() throws IOException {
+        Map<String, InetSocketAddress> addresses = loopbackNodes();
+        List<String> received = new CopyOnWriteArrayList<>();
+
+        try (SocketTransport a = new SocketTransport("a", addresses, SECRET);
+             SocketTransport b = new SocketTransport("b", addresses, SECRET)) {
+            a.start((from, message) -> received.add("a<" + from + ":" + new String(message)));
+            b.start((from, message) -> received.add("b<" + from + ":" + new String(message)));
+
+            for (int i = 0; i < 100; i++) {
+                a.send("b", ("m" + i).getBytes());
+            }
+            b.send("a", "reply".getBytes());
+
+            await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(received).hasSize(101));
+        }
+        assertThat(received).contains("a<b:reply");
+        assertThat(received.stream().filter(message -> message.startsWith("b<a:")))
+                .containsExactly(IntStream.range(0, 100).mapToObj(i -> "b<a:m" + i).toArray(String[]::new));
+    }
+
+    @Test
+    public void nodesWithoutTheSecretAreRefused() throws IOException {
+        Map<String, InetSocketAddress> addresses = loopbackNodes();
+        List<String> received = new CopyOnWriteArrayList<>();
+
+        try (SocketTransport a = new SocketTransport("a", addresses, "another-secret".getBytes());
+             SocketTransport b = new SocketTransport("b", addresses, SECRET)) {
+            a.start((from, message) -> received.add("a<" + from));
+            b.start((from, message) -> received.add("b<" + from));
+
+            assertThatThrownBy(() -> a.send("b", "forged".getBytes())).isInstanceOf(IOException.class);
+            assertThatThrownBy(() -> b.send("a", "leaked".getBytes())).isInstanceOf(IOException.class);
+        }
+        assertThat(received).isEmpty();
+    }
+}
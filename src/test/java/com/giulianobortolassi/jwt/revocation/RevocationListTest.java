@@ -0,0 +1,142 @@
+package com.giulianobortolassi.jwt.revocation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RevocationListTest {
+
+    private final long future = System.currentTimeMillis() + 60_000;
+
+    @Test
+    public void deltasOnlyContainNewRevocations() {
+        RevocationList revocationList = new RevocationList();
+        revocationList.revoke("a", future);
+        revocationList.revoke("b", future);
+
+        RevocationDelta all = revocationList.getChangesSince(0);
+        assertThat(all.getVersion()).isEqualTo(2);
+        assertThat(all.getRevoked()).extracting(RevokedToken::getId).containsExactly("a", "b");
+
+        revocationList.revoke("c", future);
+        RevocationDelta delta = revocationList.getChangesSince(all.getVersion());
+        assertThat(delta.getVersion()).isEqualTo(3);
+        assertThat(delta.getRevoked()).extracting(RevokedToken::getId).containsExactly("c");
+
+        assertThat(revocationList.getChangesSince(delta.getVersion()).getRevoked()).isEmpty();
+    }
+
+    @Test
+    public void unknownVersionsGetTheWholeList() {
+        RevocationList revocationList = new RevocationList();
+        revocationList.revoke("a", future);
+        revocationList.revoke("b", future);
+        assertThat(revocationList.getChangesSince(revocationList.getEpoch(), 1).isReset()).isFalse();
+
+        // Polled before a restart, or from another node
+        RevocationDelta ahead = revocationList.getChangesSince(revocationList.getEpoch(), 5);
+        assertThat(ahead.isReset()).isTrue();
+        assertThat(ahead.getVersion()).isEqualTo(2);
+        assertThat(ahead.getRevoked()).extracting(RevokedToken::getId).containsExactly("a", "b");
+
+        RevocationDelta otherEpoch = revocationList.getChangesSince("another-node", 1);
+        assertThat(otherEpoch.isReset()).isTrue();
+        assertThat(otherEpoch.getEpoch()).isEqualTo(revocationList.getEpoch());
+        assertThat(otherEpoch.getRevoked()).extracting(RevokedToken::getId).containsExactly("a", "b");
+    }
+
+    @Test
+    public void versionsBehindThePrunedEntriesGetTheWholeList() {
+        RevocationList revocationList = new RevocationList();
+        long now = System.currentTimeMillis();
+        revocationList.revoke("a", now + 1_000);
+        revocationList.revoke("b", now + 1_000);
+        revocationList.revoke("c", future);
+        revocationList.pruneExpired(now + 1_000);
+
+        RevocationDelta behind = revocationList.getChangesSince(revocationList.getEpoch(), 1);
+        assertThat(behind.isReset()).isTrue();
+        assertThat(behind.getRevoked()).extracting(RevokedToken::getId).containsExactly("c");
+        assertThat(revocationList.getChangesSince(revocationList.getEpoch(), 2).isReset()).isFalse();
+    }
+
+    @Test
+    public void revokingTwiceKeepsTheFirstVersion() {
+        RevocationList revocationList = new RevocationList();
+
+        assertThat(revocationList.revoke("a", future)).isEqualTo(1);
+        assertThat(revocationList.revoke("a", future)).isEqualTo(1);
+        assertThat(revocationList.getVersion()).isEqualTo(1);
+    }
+
+    @Test
+    public void expiredRevocationsArePruned() {
+        RevocationList revocationList = new RevocationList();
+        long now = System.currentTimeMillis();
+        revocationList.revoke("expired", now - 1);
+        revocationList.revoke("live", future);
+
+        assertThat(revocationList.pruneExpired(now)).isEqualTo(1);
+        assertThat(revocationList.isRevoked("expired")).isFalse();
+        assertThat(revocationList.isRevoked("live")).isTrue();
+        assertThat(revocationList.getChangesSince(0).getRevoked()).extracting(RevokedToken::getId).containsExactly("live");
+    }
+
+    @Test
+    public void pruningStopsAtTheFirstLiveEntry() {
+        RevocationList revocationList = new RevocationList();
+        long now = System.currentTimeMillis();
+        // Revoked out of expiration order
+        revocationList.revoke("late", now + 2_000);
+        revocationList.revoke("early", now + 1_000);
+        revocationList.revoke("live", future);
+
+        assertThat(revocationList.pruneExpired(now)).isZero();
+        assertThat(revocationList.pruneExpired(now + 1_000)).isEqualTo(1);
+        assertThat(revocationList.isRevoked("early")).isFalse();
+        assertThat(revocationList.pruneExpired(now + 2_000)).isEqualTo(1);
+        assertThat(revocationList.getChangesSince(0).getRevoked()).extracting(RevokedToken::getId).containsExactly("live");
+    }
+
+    @Test
+    public void filterIsRebuiltAfterPruning() {
+        RevocationList revocationList = new RevocationList();
+        long now = System.currentTimeMillis();
+        revocationList.revoke("expired", now - 1);
+        revocationList.revoke("live", future);
+        BloomFilter before = revocationList.getFilter();
+        assertThat(before.mightContain("expired")).isTrue();
+
+        revocationList.pruneExpired(now);
+        BloomFilter after = revocationList.getFilter();
+        assertThat(after).isNotSameAs(before);
+        assertThat(after.getVersion()).isEqualTo(before.getVersion());
+        assertThat(after.getPruned()).isEqualTo(1);
+        assertThat(after.mightContain("live")).isTrue();
+    }
+
+    @Test
+    public void filterHasNoFalseNegatives() {
+        RevocationList revocationList = new RevocationList();
+        for (int i = 0; i < 10_000; i++) {
+            revocationList.revoke("revoked-" + i, future);
+        }
+
+        BloomFilter filter = revocationList.getFilter();
+        assertThat(filter.getVersion()).isEqualTo(10_000);
+        assertThat(revocationList.getFilter()).isSameAs(filter);
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(filter.mightContain("revoked-" + i)).isTrue();
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if( filter.mightContain(UUID.randomUUID().toString()) ) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).isLessThan(300);
+    }
+}
@@ -0,0 +1,50 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.TreeSet;
+
+/**
+ * Run the JMH benchmarks at 1, 4 and all available threads, with the GC profiler to report allocation rates.
+ * Results are written to {@code target/jmh-threads-N.json}, one file per thread count, so they can be compared
+ * across versions.
+ * <p>
+ * Accepts the usual JMH command line options, for example a benchmark regexp, {@code -p storeSize=1000} to limit
+ * the store sizes or {@code -t 8} for a single thread count. The 10M token store needs a heap of at least 8 GB,
+ * set with {@code -jvmArgsAppend -Xmx8g}.
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.args="TokenServiceBenchmark -p storeSize=1000"
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        TreeSet<Integer> threadCounts = new TreeSet<>();
+        if( commandLine.getThreads().hasValue() ) {
+            threadCounts.add(commandLine.getThreads().get());
+        } else {
+            threadCounts.add(1);
+            threadCounts.add(4);
+            threadCounts.add(Runtime.getRuntime().availableProcessors());
+        }
+
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-threads-" + threads + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
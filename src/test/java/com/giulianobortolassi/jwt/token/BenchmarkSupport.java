@@ -0,0 +1,76 @@
+package com.giulianobortolassi.jwt.token;
+
+import com.giulianobortolassi.jwt.history.HistoryStore;
+import com.giulianobortolassi.jwt.key.KeyRing;
+import com.giulianobortolassi.jwt.revocation.RevocationList;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Wires {@link TokenService} for the JMH benchmarks without starting Spring. The cache of parsed tokens is off unless
+ * a size is given, so validations measure the parser rather than cache hits.
+ */
+final class BenchmarkSupport {
+
+    static final String SIGN_KEY = "MyKey1234567890-1234567890-1234567890";
+
+    static final long EXPIRATION_TIME = 600_000;
+
+    private BenchmarkSupport() {
+    }
+
+    static TokenService newService(TokenRepository repository) {
+        return newService(repository, new SimpleMeterRegistry());
+    }
+
+    static TokenService newService(TokenRepository repository, MeterRegistry registry) {
+        return newService(repository, registry, 0);
+    }
+
+    static TokenService newService(TokenRepository repository, MeterRegistry registry, long validationCacheSize) {
+        KeyRing keyRing = new KeyRing();
+        ReflectionTestUtils.setField(keyRing, "SIGN_KEY", SIGN_KEY);
+        ReflectionTestUtils.invokeMethod(keyRing, "init");
+
+        RevocationList revocationList = new RevocationList();
+        TokenMetrics metrics = new TokenMetrics();
+        ReflectionTestUtils.setField(metrics, "registry", registry);
+        ReflectionTestUtils.setField(metrics, "repository", repository);
+        ReflectionTestUtils.setField(metrics, "revocationList", revocationList);
+        SessionLimiter sessions = new SessionLimiter();
+        ReflectionTestUtils.setField(metrics, "sessions", sessions);
+        metrics.init();
+
+        TokenService service = new TokenService();
+        ReflectionTestUtils.setField(service, "EXPIRATION_TIME", EXPIRATION_TIME);
+        ReflectionTestUtils.setField(service, "VALIDATION_CACHE_SIZE", validationCacheSize);
+        ReflectionTestUtils.setField(service, "keyRing", keyRing);
+        ReflectionTestUtils.setField(service, "idGenerator", new TimeOrderedTokenIdGenerator());
+        ReflectionTestUtils.setField(service, "repository", repository);
+        ReflectionTestUtils.setField(service, "revocationList", revocationList);
+        ReflectionTestUtils.setField(service, "metrics", metrics);
+        ReflectionTestUtils.setField(service, "history", new HistoryStore());
+        ReflectionTestUtils.setField(service, "sessions", sessions);
+        service.init();
+        return service;
+    }
+
+    /**
+     * Fill the repository with unsigned tokens, so large stores can be built in seconds.
+     */
+    static void fill(TokenRepository repository, int count) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            Token token = new Token();
+            token.setId(UUID.randomUUID().toString());
+            token.setUser("user-" + (i % 10_000));
+            token.setIssuedTime(new Date(now));
+            token.setExpirationTime(new Date(now + EXPIRATION_TIME));
+            repository.registerToken(token);
+        }
+    }
+}
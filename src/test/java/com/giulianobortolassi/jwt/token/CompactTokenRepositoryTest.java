@@ -0,0 +1,203 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CompactTokenRepositoryTest {
+
+    private static Token newToken(long expiresInMillis) {
+        long now = System.currentTimeMillis();
+        return new Token(UUID.randomUUID().toString(), "signed.jwt.value", "giuliano", List.of("admin", "user"),
+                new Date(now), new Date(now + expiresInMillis));
+    }
+
+    @Test
+    public void tokensAreStoredWithoutTheSignedJwt() throws TokenNotFoundException {
+        CompactTokenRepository repository = new CompactTokenRepository();
+        Token token = repository.registerToken(newToken(60_000));
+
+        Token stored = repository.getTokenById(token.getId());
+        assertThat(stored.getId()).isEqualTo(token.getId());
+        assertThat(stored.getToken()).isNull();
+        assertThat(stored.getUser()).isEqualTo("giuliano");
+        assertThat(stored.getRoles()).containsExactly("admin", "user");
+        assertThat(stored.getIssuedTime()).isEqualTo(token.getIssuedTime());
+        assertThat(stored.getExpirationTime()).isEqualTo(token.getExpirationTime());
+
+        assertThat(repository.removeTokenById(token.getId()).getId()).isEqualTo(token.getId());
+        assertThatThrownBy(() -> repository.getTokenById(token.getId())).isInstanceOf(TokenNotFoundException.class);
+        assertThatThrownBy(() -> repository.removeTokenById(token.getId())).isInstanceOf(TokenNotFoundException.class);
+        assertThatThrownBy(() -> repository.getTokenById("not-a-uuid")).isInstanceOf(TokenNotFoundException.class);
+        assertThatThrownBy(() -> repository.registerToken(new Token("not-a-uuid", null, null, null, null, null)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * Random registers and removes, checked against a map, so the resizes and the backward shift deletions are
+     * exercised on long probe sequences.
+     */
+    @Test
+    public void matchesAMapUnderRandomOperations() throws TokenNotFoundException {
+        CompactTokenRepository repository = new CompactTokenRepository();
+        Map<String, Token> expected = new HashMap<>();
+        List<String> ids = new ArrayList<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            if( ids.isEmpty() || random.nextInt(3) > 0 ) {
+                Token token = newToken(60_000);
+                repository.registerToken(token);
+                expected.put(token.getId(), token);
+                ids.add(token.getId());
+            } else {
+                String id = ids.remove(random.nextInt(ids.size()));
+                assertThat(repository.removeTokenById(id).getId()).isEqualTo(id);
+                expected.remove(id);
+            }
+        }
+
+        assertThat(repository.countTokens()).isEqualTo(expected.size());
+        for (String id : expected.keySet()) {
+            assertThat(repository.getTokenById(id).getExpirationTime()).isEqualTo(expected.get(id).getExpirationTime());
+        }
+        assertThat(repository.listTokens()).hasSize(expected.size());
+        assertThat(repository.bytesPerToken()).isLessThan(200);
+    }
+
+    @Test
+    public void evictExpiredRemovesOnlyExpiredTokens() throws TokenNotFoundException {
+        CompactTokenRepository repository = new CompactTokenRepository();
+        long now = System.currentTimeMillis();
+        List<Token> live = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            repository.registerToken(newToken(-5_000));
+            live.add(repository.registerToken(newToken(60_000)));
+        }
+
+        assertThat(repository.listTokens()).hasSize(10_000);
+        // Repeated, since a shift can move a token behind the scan
+        int evicted = 0;
+        for (int i = 0; i < 5 && evicted < 10_000; i++) {
+            evicted += repository.evictExpired(now);
+        }
+        assertThat(evicted).isEqualTo(10_000);
+        assertThat(repository.countTokens()).isEqualTo(10_000);
+        for (Token token : live) {
+            assertThat(repository.getTokenById(token.getId())).isNotNull();
+        }
+        // Nothing is due until the live tokens expire
+        assertThat(repository.evictExpired(now)).isZero();
+    }
+
+    /**
+     * Readers look up a stable set of tokens while a writer keeps growing and shrinking the table.
+     */
+    @Test
+    public void optimisticReadsNeverMissDuringResizes() throws Exception {
+        CompactTokenRepository repository = new CompactTokenRepository();
+        List<String> stable = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            stable.add(repository.registerToken(newToken(60_000)).getId());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean running = new AtomicBoolean(true);
+        try {
+            Future<?> writer = executor.submit(() -> {
+                while (running.get()) {
+                    List<String> churn = new ArrayList<>();
+                    for (int i = 0; i < 50_000; i++) {
+                        churn.add(repository.registerToken(newToken(60_000)).getId());
+                    }
+                    repository.removeTokensByIds(churn);
+                }
+                return null;
+            });
+            List<Future<Long>> readers = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                readers.add(executor.submit(() -> {
+                    long reads = 0;
+                    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+                    while (System.nanoTime() < end) {
+                        repository.getTokenById(stable.get((int) (reads++ % stable.size())));
+                    }
+                    return reads;
+                }));
+            }
+            for (Future<Long> reader : readers) {
+                assertThat(reader.get()).isPositive();
+            }
+            running.set(false);
+            writer.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void lookupsByUserAndRoleScanTheSlots() throws TokenNotFoundException {
+        CompactTokenRepository repository = new CompactTokenRepository();
+        Token admin = newToken(60_000);
+        admin.setRoles(List.of("admin"));
+        Token other = newToken(60_000);
+        other.setUser("someone-else");
+        other.setRoles(List.of("user"));
+        Token user = newToken(60_000);
+        user.setRoles(List.of("user"));
+        repository.registerTokens(List.of(admin, other, user));
+
+        assertThat(repository.getTokensByUser("giuliano")).hasSize(2);
+        assertThat(repository.getTokensByUser("nobody")).isEmpty();
+        assertThat(repository.getTokensByRole("admin")).extracting(Token::getId).containsExactly(admin.getId());
+        assertThat(repository.getTokensByRole("user")).hasSize(2);
+
+        repository.removeTokenById(admin.getId());
+        assertThat(repository.getTokensByRole("admin")).isEmpty();
+        assertThat(repository.getTokensByUser("giuliano")).hasSize(1);
+    }
+
+    @Test
+    public void walkVisitsEveryStoredToken() {
+        CompactTokenRepository repository = new CompactTokenRepository();
+        List<Token> tokens = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            tokens.add(newToken(i % 2 == 0 ? 60_000 : -60_000));
+        }
+        repository.registerTokens(tokens);
+
+        List<String> walked = new ArrayList<>();
+        repository.forEachToken(token -> walked.add(token.getId()));
+        assertThat(walked).containsExactlyInAnyOrderElementsOf(tokens.stream().map(Token::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void renewTokenMovesTheStoredExpiration() throws TokenNotFoundException {
+        CompactTokenRepository repository = new CompactTokenRepository();
+        Token token = repository.registerToken(newToken(1_000));
+        Token read = repository.getTokenById(token.getId());
+        long expected = read.getExpirationMillis();
+
+        assertThat(repository.renewToken(read, expected, expected + 60_000)).isTrue();
+        assertThat(read.getExpirationMillis()).isEqualTo(expected + 60_000);
+        assertThat(repository.getTokenById(token.getId()).getExpirationMillis()).isEqualTo(expected + 60_000);
+        // Read before the renewal
+        assertThat(repository.renewToken(token, expected, expected + 120_000)).isFalse();
+        assertThat(repository.evictExpired(expected + 5_000)).isZero();
+    }
+}
@@ -0,0 +1,301 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+public class FileTokenRepositoryTest {
+
+    @TempDir
+    Path directory;
+
+    private FileTokenRepository open(long snapshotEvery) throws IOException {
+        FileTokenRepository repository = new FileTokenRepository();
+        ReflectionTestUtils.setField(repository, "DIRECTORY", directory.toString());
+        ReflectionTestUtils.setField(repository, "SNAPSHOT_EVERY", snapshotEvery);
+        repository.init();
+        return repository;
+    }
+
+    private static Token newToken(String id, long expiresInMillis) {
+        long now = System.currentTimeMillis();
+        return new Token(id, "header.payload." + id, "user-" + id, List.of("admin", "audit"), new Date(now),
+                new Date(now + expiresInMillis));
+    }
+
+    private List<String> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void tokensSurviveRestart() throws Exception {
+        FileTokenRepository repository = open(1_000);
+        Token kept = repository.registerToken(newToken("kept", 60_000));
+        repository.registerTokens(List.of(newToken("batch-1", 60_000), newToken("batch-2", 60_000)));
+        repository.registerToken(newToken("revoked", 60_000));
+        repository.removeTokenById("revoked");
+        repository.removeTokensByIds(List.of("batch-2", "missing"));
+        repository.close();
+
+        FileTokenRepository reopened = open(1_000);
+        assertThat(reopened.countTokens()).isEqualTo(2);
+        Token recovered = reopened.getTokenById("kept");
+        assertThat(recovered.getToken()).isEqualTo(kept.getToken());
+        assertThat(recovered.getUser()).isEqualTo(kept.getUser());
+        assertThat(recovered.getRoles()).containsExactly("admin", "audit");
+        assertThat(recovered.getIssuedTime()).isEqualTo(kept.getIssuedTime());
+        assertThat(recovered.getExpirationTime()).isEqualTo(kept.getExpirationTime());
+        assertThat(reopened.getTokenById("batch-1")).isNotNull();
+        assertThatThrownBy(() -> reopened.getTokenById("revoked")).isInstanceOf(TokenNotFoundException.class);
+        reopened.close();
+    }
+
+    @Test
+    public void recoveryWithoutSnapshotReplaysTheLog() throws Exception {
+        FileTokenRepository repository = open(1_000);
+        repository.registerToken(newToken("a", 60_000));
+        repository.registerToken(newToken("b", 60_000));
+        repository.removeTokenById("a");
+        repository.shutdown(false);
+
+        assertThat(files(FileTokenRepository.SNAPSHOT_PREFIX)).isEmpty();
+        FileTokenRepository reopened = open(1_000);
+        assertThat(reopened.countTokens()).isEqualTo(1);
+        assertThat(reopened.getTokenById("b")).isNotNull();
+        reopened.shutdown(false);
+    }
+
+    @Test
+    public void tornRecordIsDroppedAndTruncated() throws Exception {
+        FileTokenRepository repository = open(1_000);
+        repository.registerToken(newToken("a", 60_000));
+        repository.registerToken(newToken("b", 60_000));
+        repository.shutdown(false);
+
+        Path segment = directory.resolve(files(WriteAheadLog.SEGMENT_PREFIX).get(0));
+        long intact = Files.size(segment);
+        // Half of a frame, as left by a crash in the middle of a write
+        Files.write(segment, new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        FileTokenRepository reopened = open(1_000);
+        assertThat(reopened.countTokens()).isEqualTo(2);
+        assertThat(Files.size(segment)).isEqualTo(intact);
+        reopened.shutdown(false);
+    }
+
+    @Test
+    public void snapshotsCompactTheLog() throws Exception {
+        FileTokenRepository repository = open(10);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            ids.add(repository.registerToken(newToken("token-" + i, 60_000)).getId());
+        }
+        for (int i = 0; i < 5; i++) {
+            repository.removeTokenById(ids.get(i));
+        }
+        // Let the background snapshots finish, without writing a final one
+        repository.shutdown(false);
+
+        List<String> snapshots = files(FileTokenRepository.SNAPSHOT_PREFIX);
+        assertThat(snapshots).hasSize(1);
+        String snapshot = snapshots.get(0);
+        long covered = Long.parseLong(snapshot.substring(FileTokenRepository.SNAPSHOT_PREFIX.length(),
+                snapshot.length() - FileTokenRepository.SNAPSHOT_SUFFIX.length()));
+        for (String segment : files(WriteAheadLog.SEGMENT_PREFIX)) {
+            long number = Long.parseLong(segment.substring(WriteAheadLog.SEGMENT_PREFIX.length(),
+                    segment.length() - WriteAheadLog.SEGMENT_SUFFIX.length()));
+            assertThat(number).isGreaterThanOrEqualTo(covered);
+        }
+
+        FileTokenRepository reopened = open(10);
+        assertThat(reopened.countTokens()).isEqualTo(20);
+        assertThatThrownBy(() -> reopened.getTokenById("token-0")).isInstanceOf(TokenNotFoundException.class);
+        assertThat(reopened.getTokenById("token-24")).isNotNull();
+        reopened.shutdown(false);
+    }
+
+    @Test
+    public void expiredTokensAreNotRecovered() throws Exception {
+        FileTokenRepository repository = open(1_000);
+        repository.registerToken(newToken("expired", -1_000));
+        repository.registerToken(newToken("live", 60_000));
+        repository.close();
+
+        FileTokenRepository reopened = open(1_000);
+        assertThat(reopened.countTokens()).isEqualTo(1);
+        assertThat(reopened.getTokenById("live")).isNotNull();
+        reopened.shutdown(false);
+    }
+
+    @Test
+    public void mappedSnapshotServesLookupsAndTracksChanges() throws Exception {
+        FileTokenRepository repository = open(1_000);
+        for (int i = 0; i < 100; i++) {
+            repository.registerToken(newToken("mapped-" + i, 60_000));
+        }
+        repository.registerToken(newToken("expired", 1));
+        repository.close();
+        Thread.sleep(5);
+
+        FileTokenRepository reopened = open(1_000);
+        assertThat(reopened.countTokens()).isEqualTo(100);
+        Token mapped = reopened.getTokenById("mapped-7");
+        assertThat(mapped.getUser()).isEqualTo("user-mapped-7");
+        assertThat(mapped.getRoles()).containsExactly("admin", "audit");
+        assertThatThrownBy(() -> reopened.getTokenById("missing")).isInstanceOf(TokenNotFoundException.class);
+
+        assertThat(reopened.removeTokenById("mapped-1").getId()).isEqualTo("mapped-1");
+        assertThatThrownBy(() -> reopened.getTokenById("mapped-1")).isInstanceOf(TokenNotFoundException.class);
+        assertThatThrownBy(() -> reopened.removeTokenById("mapped-1")).isInstanceOf(TokenNotFoundException.class);
+        Token replacement = newToken("mapped-2", 60_000);
+        replacement.setUser("someone-else");
+        reopened.registerToken(replacement);
+        reopened.registerToken(newToken("fresh", 60_000));
+
+        assertThat(reopened.getTokenById("mapped-2").getUser()).isEqualTo("someone-else");
+        assertThat(reopened.countTokens()).isEqualTo(100);
+        assertThat(reopened.listTokens()).hasSize(100);
+        assertThat(reopened.getTokensByIds(List.of("mapped-1", "mapped-3", "fresh"))).containsOnlyKeys("mapped-3", "fresh");
+        assertThat(reopened.removeTokensByIds(List.of("mapped-3", "fresh", "missing"))).containsOnlyKeys("mapped-3", "fresh");
+        reopened.close();
+
+        FileTokenRepository third = open(1_000);
+        assertThat(third.countTokens()).isEqualTo(98);
+        assertThat(third.getTokenById("mapped-2").getUser()).isEqualTo("someone-else");
+        assertThatThrownBy(() -> third.getTokenById("mapped-3")).isInstanceOf(TokenNotFoundException.class);
+        assertThat(files(FileTokenRepository.SNAPSHOT_PREFIX)).hasSize(1);
+        third.shutdown(false);
+    }
+
+    @Test
+    public void changesThatCouldNotBeLoggedAreUndone() throws Exception {
+        FileTokenRepository repository = open(1_000);
+        for (int i = 0; i < 10; i++) {
+            repository.registerToken(newToken("mapped-" + i, 60_000));
+        }
+        repository.close();
+
+        FileTokenRepository reopened = open(1_000);
+        reopened.registerToken(newToken("live", 60_000));
+        await().atMost(Duration.ofSeconds(5)).until(() -> (Boolean) ReflectionTestUtils.getField(reopened, "mappedIndexed"));
+        ((WriteAheadLog) ReflectionTestUtils.getField(reopened, "wal")).close();
+
+        assertThatThrownBy(() -> reopened.registerToken(newToken("new", 60_000))).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> reopened.getTokenById("new")).isInstanceOf(TokenNotFoundException.class);
+        Token replacement = newToken("mapped-1", 60_000);
+        replacement.setUser("someone-else");
+        assertThatThrownBy(() -> reopened.registerToken(replacement)).isInstanceOf(IllegalStateException.class);
+        assertThat(reopened.getTokenById("mapped-1").getUser()).isEqualTo("user-mapped-1");
+        assertThatThrownBy(() -> reopened.registerTokens(List.of(newToken("batch", 60_000))))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> reopened.getTokenById("batch")).isInstanceOf(TokenNotFoundException.class);
+
+        assertThatThrownBy(() -> reopened.removeTokenById("live")).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> reopened.removeTokenById("mapped-2")).isInstanceOf(IllegalStateException.class);
+        assertThat(reopened.removeTokensByIds(List.of("live", "mapped-3", "missing"))).isEmpty();
+
+        assertThat(reopened.countTokens()).isEqualTo(11);
+        assertThat(reopened.getTokensByIds(List.of("live", "mapped-2", "mapped-3"))).hasSize(3);
+        assertThat(reopened.getTokensByUser("user-mapped-2")).extracting(Token::getId).containsExactly("mapped-2");
+        assertThat(reopened.getTokensByUser("user-live")).extracting(Token::getId).containsExactly("live");
+        reopened.shutdown(false);
+    }
+
+    @Test
+    public void lookupsByUserAndRoleCoverTheSnapshot() throws Exception {
+        FileTokenRepository repository = open(1_000);
+        repository.registerToken(newToken("mapped-1", 60_000));
+        repository.registerToken(newToken("mapped-2", 60_000));
+        repository.close();
+
+        FileTokenRepository reopened = open(1_000);
+        Token fresh = newToken("fresh", 60_000);
+        fresh.setUser("user-mapped-1");
+        reopened.registerToken(fresh);
+        reopened.removeTokenById("mapped-2");
+
+        assertThat(reopened.getTokensByUser("user-mapped-1")).extracting(Token::getId)
+                .containsExactlyInAnyOrder("mapped-1", "fresh");
+        assertThat(reopened.getTokensByUser("user-mapped-2")).isEmpty();
+        assertThat(reopened.getTokensByRole("audit")).extracting(Token::getId)
+                .containsExactlyInAnyOrder("mapped-1", "fresh");
+        reopened.shutdown(false);
+    }
+
+    /**
+     * Once the snapshot is indexed, the ordered walk merges its tokens with the ones registered since startup.
+     */
+    @Test
+    public void forEachTokenAfterMergesTheSnapshot() throws Exception {
+        FileTokenRepository repository = open(1_000);
+        for (String id : List.of("a", "c", "e", "g")) {
+            repository.registerToken(newToken(id, 60_000));
+        }
+        repository.close();
+
+        FileTokenRepository reopened = open(1_000);
+        reopened.registerToken(newToken("b", 60_000));
+        reopened.registerToken(newToken("f", 60_000));
+        reopened.registerToken(newToken("e", 120_000));
+        reopened.removeTokenById("c");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!(Boolean) ReflectionTestUtils.getField(reopened, "mappedIndexed")) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+
+        List<Token> walked = new ArrayList<>();
+        reopened.forEachTokenAfter(null, walked::add);
+        assertThat(walked).extracting(Token::getId).containsExactly("a", "b", "e", "f", "g");
+        assertThat(walked.get(2).getExpirationMillis()).isGreaterThan(System.currentTimeMillis() + 60_000);
+
+        List<String> resumed = new ArrayList<>();
+        reopened.forEachTokenAfter("b", token -> resumed.add(token.getId()) && resumed.size() < 2);
+        assertThat(resumed).containsExactly("e", "f");
+        reopened.shutdown(false);
+    }
+
+    @Test
+    public void renewalsSurviveRestart() throws Exception {
+        FileTokenRepository repository = open(1_000);
+        repository.registerToken(newToken("mapped", 1_000));
+        repository.registerToken(newToken("logged", 1_000));
+        repository.close();
+
+        FileTokenRepository reopened = open(1_000);
+        for (String id : List.of("mapped", "logged")) {
+            Token token = reopened.getTokenById(id);
+            long expected = token.getExpirationMillis();
+            assertThat(reopened.renewToken(token, expected, expected + 60_000)).isTrue();
+            assertThat(reopened.renewToken(token, expected, expected + 120_000)).isFalse();
+        }
+        long renewed = reopened.getTokenById("mapped").getExpirationMillis();
+        // Renewals do not wait for the disk, the log is flushed on shutdown
+        reopened.shutdown(false);
+
+        FileTokenRepository restarted = open(1_000);
+        assertThat(restarted.getTokenById("mapped").getExpirationMillis()).isEqualTo(renewed);
+        assertThat(restarted.countTokens()).isEqualTo(2);
+        restarted.shutdown(false);
+    }
+}
@@ -0,0 +1,106 @@
+package com.giulianobortolassi.jwt.token;
+
+import com.giulianobortolassi.jwt.key.SigningKey;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HmacTokenEncoderTest {
+
+    private static final SigningKey KEY = new SigningKey("key-1",
+            Keys.hmacShaKeyFor("MyKey1234567890-1234567890-1234567890".getBytes(StandardCharsets.UTF_8)));
+
+    private final HmacTokenEncoder encoder = new HmacTokenEncoder();
+
+    private void assertSameAsJjwt(SigningKey key, String id, String user, List<String> roles, long issued, long expiration) {
+        String expected = TokenService.compact(key, id, user, roles, new Date(issued), new Date(expiration));
+        assertThat(encoder.encode(key, id, user, roles, issued, expiration)).isEqualTo(expected);
+    }
+
+    @Test
+    public void matchesJjwt() {
+        long now = System.currentTimeMillis();
+        assertSameAsJjwt(KEY, "0190a1b2-c3d4-7e5f-8a9b-0c1d2e3f4a5b", "alice", List.of("ADMIN", "AUDIT"), now, now + 600_000);
+        assertSameAsJjwt(KEY, "id", "bob", List.of(), now, now + 1);
+        assertSameAsJjwt(KEY, "id", "bob", null, 999, 1_999);
+        assertSameAsJjwt(KEY, "id", null, List.of("ADMIN"), now, now);
+        assertSameAsJjwt(KEY, "id", " bob\t", Arrays.asList("", null, "x"), now, now);
+    }
+
+    @Test
+    public void escapesLikeJackson() {
+        long now = System.currentTimeMillis();
+        StringBuilder ascii = new StringBuilder();
+        for (char c = 0; c < 0x80; c++) {
+            ascii.append(c);
+        }
+        assertSameAsJjwt(KEY, "id", ascii.toString(), List.of(ascii.toString()), now, now);
+        assertSameAsJjwt(KEY, "id", "José über € 中文 😀    ﻿", List.of("rôle"), now, now);
+        assertSameAsJjwt(KEY, "id", "unpaired \ud83d and \ude00", List.of("\udbff"), now, now);
+        assertSameAsJjwt(new SigningKey("k\"é😀\n", (SecretKey) KEY.getSigningKey()), "id", "user", null, now, now);
+    }
+
+    @Test
+    public void matchesJjwtOnRandomClaims() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 2_000; i++) {
+            List<String> roles = new ArrayList<>();
+            for (int r = random.nextInt(4); r > 0; r--) {
+                roles.add(randomString(random));
+            }
+            long issued = random.nextLong(0, 4_000_000_000_000L);
+            assertSameAsJjwt(KEY, randomString(random), randomString(random), roles, issued,
+                    issued + random.nextLong(0, 100_000_000));
+        }
+    }
+
+    private static String randomString(ThreadLocalRandom random) {
+        StringBuilder value = new StringBuilder();
+        for (int i = random.nextInt(1, 40); i > 0; i--) {
+            int kind = random.nextInt(4);
+            if( kind == 0 ) {
+                value.append((char) random.nextInt(0x80));
+            } else if( kind == 1 ) {
+                value.append((char) random.nextInt(0x80, 0xD800));
+            } else if( kind == 2 ) {
+                value.appendCodePoint(random.nextInt(0x10000, 0x110000));
+            } else {
+                value.append((char) random.nextInt('a', 'z' + 1));
+            }
+        }
+        // Blank values are left to jjwt, see leavesOtherTokensToJjwt
+        return value.append((char) random.nextInt('a', 'z' + 1)).toString();
+    }
+
+    @Test
+    public void leavesOtherTokensToJjwt() {
+        KeyPair pair = Jwts.SIG.ES256.keyPair().build();
+        SigningKey ecKey = new SigningKey(pair, Jwts.SIG.ES256);
+        assertThat(encoder.encode(ecKey, "id", "user", null, 0, 1)).isNull();
+        // Blank values are left out by jjwt
+        assertThat(encoder.encode(KEY, "id", " ", null, 0, 1)).isNull();
+        assertThat(encoder.encode(KEY, "id", "user", List.of("\t"), 0, 1)).isNull();
+        assertThat(encoder.encode(KEY, "id", "user", null, 0, 1000)).isEqualTo(
+                TokenService.compact(KEY, "id", "user", null, new Date(0), new Date(1000)));
+    }
+
+    @Test
+    public void followsKeyRotation() {
+        SigningKey next = new SigningKey("key-2",
+                Keys.hmacShaKeyFor("Another-key-1234567890-1234567890-123".getBytes(StandardCharsets.UTF_8)));
+        assertSameAsJjwt(KEY, "a", "user", null, 0, 1000);
+        assertSameAsJjwt(next, "b", "user", null, 0, 1000);
+        assertSameAsJjwt(KEY, "c", "user", null, 0, 1000);
+    }
+}
@@ -0,0 +1,303 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class InMemoryTokenRepositoryTest {
+
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private static Token newToken(String id) {
+        Token token = new Token();
+        token.setId(id);
+        token.setUser("user-" + id);
+        token.setIssuedTime(new Date());
+        token.setExpirationTime(new Date(System.currentTimeMillis() + 60_000));
+        return token;
+    }
+
+    @Test
+    public void removeTokenById() throws TokenNotFoundException {
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        Token token = repository.registerToken(newToken("123-456"));
+
+        assertThat(repository.removeTokenById("123-456")).isSameAs(token);
+        assertThatThrownBy(() -> repository.removeTokenById("123-456")).isInstanceOf(TokenNotFoundException.class);
+        assertThatThrownBy(() -> repository.getTokenById("123-456")).isInstanceOf(TokenNotFoundException.class);
+    }
+
+    @Test
+    public void evictExpiredRemovesOnlyExpiredTokens() throws TokenNotFoundException {
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        long now = System.currentTimeMillis();
+        Token expired = newToken("expired");
+        expired.setExpirationTime(new Date(now - 5_000));
+        Token live = newToken("live");
+        Token revoked = newToken("revoked");
+        revoked.setExpirationTime(new Date(now - 5_000));
+        repository.registerToken(expired);
+        repository.registerToken(live);
+        repository.registerToken(revoked);
+        repository.removeTokenById("revoked");
+
+        assertThat(repository.listTokens()).containsExactly(live);
+        assertThat(repository.countTokens()).isEqualTo(2);
+
+        assertThat(repository.evictExpired(now)).isEqualTo(1);
+        assertThat(repository.countTokens()).isEqualTo(1);
+        assertThat(repository.getTokenById("live")).isSameAs(live);
+        assertThatThrownBy(() -> repository.getTokenById("expired")).isInstanceOf(TokenNotFoundException.class);
+
+        // Nothing else is due until the live token expires
+        assertThat(repository.evictExpired(now)).isZero();
+        assertThat(repository.evictExpired(now + 120_000)).isEqualTo(1);
+        assertThat(repository.countTokens()).isZero();
+    }
+
+    @Test
+    public void evictExpiredReschedulesExtendedTokens() throws TokenNotFoundException {
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        long now = System.currentTimeMillis();
+        Token token = newToken("extended");
+        token.setExpirationTime(new Date(now + 1_000));
+        repository.registerToken(token);
+
+        token.setExpirationTime(new Date(now + 60_000));
+
+        assertThat(repository.evictExpired(now + 2_000)).isZero();
+        assertThat(repository.getTokenById("extended")).isSameAs(token);
+        assertThat(repository.evictExpired(now + 61_000)).isEqualTo(1);
+    }
+
+    /**
+     * Many writers register disjoint token ids at the same time. No write may be lost.
+     */
+    @Test
+    public void concurrentRegisterKeepsEveryToken() throws Exception {
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        int perThread = 20_000;
+
+        runConcurrently(thread -> () -> {
+            for (int i = 0; i < perThread; i++) {
+                repository.registerToken(newToken(thread + "-" + i));
+            }
+            return null;
+        });
+
+        assertThat(repository.listTokens()).hasSize(THREADS * perThread);
+        for (int thread = 0; thread < THREADS; thread++) {
+            assertThat(repository.getTokenById(thread + "-" + (perThread - 1))).isNotNull();
+        }
+    }
+
+    /**
+     * Every thread tries to remove the same tokens. Each token must be handed to exactly one of them.
+     */
+    @Test
+    public void concurrentRemoveIsAtomic() throws Exception {
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        int tokens = 10_000;
+        for (int i = 0; i < tokens; i++) {
+            repository.registerToken(newToken(String.valueOf(i)));
+        }
+
+        AtomicInteger removed = new AtomicInteger();
+        AtomicInteger missed = new AtomicInteger();
+        runConcurrently(thread -> () -> {
+            for (int i = 0; i < tokens; i++) {
+                try {
+                    repository.removeTokenById(String.valueOf(i));
+                    removed.incrementAndGet();
+                } catch (TokenNotFoundException e) {
+                    missed.incrementAndGet();
+                }
+            }
+            return null;
+        });
+
+        assertThat(removed.get()).isEqualTo(tokens);
+        assertThat(missed.get()).isEqualTo(tokens * (THREADS - 1));
+        assertThat(repository.listTokens()).isEmpty();
+    }
+
+    /**
+     * Readers keep hitting a stable set of tokens while a writer churns other ids (and forces the map to resize).
+     * Readers must never miss a stable token. Read scaling is measured by {@code TokenRepositoryBenchmark}.
+     */
+    @Test
+    public void readsDuringWritesNeverMiss() throws Exception {
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        int stable = 1_000;
+        for (int i = 0; i < stable; i++) {
+            repository.registerToken(newToken("stable-" + i));
+        }
+
+        assertThat(readWhileWriting(repository, stable, THREADS)).isPositive();
+        assertThat(repository.listTokens()).hasSize(stable);
+    }
+
+    private long readWhileWriting(InMemoryTokenRepository repository, int stable, int readers) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(readers + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        long durationNanos = TimeUnit.MILLISECONDS.toNanos(200);
+        try {
+            int round = readers;
+            Future<?> writer = executor.submit(() -> {
+                start.await();
+                long end = System.nanoTime() + durationNanos;
+                int i = 0;
+                while (System.nanoTime() < end) {
+                    String id = "churn-" + round + "-" + i++;
+                    repository.registerToken(newToken(id));
+                    repository.removeTokenById(id);
+                }
+                return null;
+            });
+
+            List<Future<Long>> results = new ArrayList<>();
+            for (int r = 0; r < readers; r++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    long end = System.nanoTime() + durationNanos;
+                    long count = 0;
+                    while (System.nanoTime() < end) {
+                        repository.getTokenById("stable-" + (count % stable));
+                        count++;
+                    }
+                    return count;
+                }));
+            }
+
+            start.countDown();
+            writer.get();
+            long total = 0;
+            for (Future<Long> result : results) {
+                total += result.get();
+            }
+            return total * TimeUnit.SECONDS.toNanos(1) / durationNanos;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runConcurrently(IntFunction<Callable<Void>> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                Callable<Void> work = task.apply(thread);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return work.call();
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void indexesFollowRegisterRemoveAndEviction() {
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        long now = System.currentTimeMillis();
+        Token admin = newToken("admin-token");
+        admin.setUser("alice");
+        admin.setRoles(List.of("admin", "user"));
+        Token user = newToken("user-token");
+        user.setUser("alice");
+        user.setRoles(List.of("user"));
+        Token expired = newToken("expired-token");
+        expired.setUser("bob");
+        expired.setRoles(List.of("user"));
+        expired.setExpirationTime(new Date(now - 5_000));
+        repository.registerTokens(List.of(admin, user, expired));
+
+        assertThat(repository.getTokensByUser("alice")).containsExactlyInAnyOrder(admin, user);
+        assertThat(repository.getTokensByRole("user")).containsExactlyInAnyOrder(admin, user, expired);
+        assertThat(repository.getTokensByRole("admin")).containsExactly(admin);
+        assertThat(repository.getTokensByUser("nobody")).isEmpty();
+
+        repository.removeTokensByIds(List.of("admin-token"));
+        repository.evictExpired(now);
+        assertThat(repository.getTokensByUser("alice")).containsExactly(user);
+        assertThat(repository.getTokensByUser("bob")).isEmpty();
+        assertThat(repository.getTokensByRole("user")).containsExactly(user);
+        assertThat(repository.getTokensByRole("admin")).isEmpty();
+    }
+
+    /**
+     * The ordered walk resumes after the given id, even one no longer stored, and stops when the consumer says so.
+     */
+    @Test
+    public void forEachTokenAfterResumesInIdOrder() throws TokenNotFoundException {
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        for (String id : List.of("d", "b", "e", "a", "c")) {
+            repository.registerToken(newToken(id));
+        }
+        repository.removeTokenById("c");
+
+        List<String> walked = new ArrayList<>();
+        repository.forEachTokenAfter(null, token -> walked.add(token.getId()));
+        assertThat(walked).containsExactly("a", "b", "d", "e");
+
+        walked.clear();
+        repository.forEachTokenAfter("c", token -> walked.add(token.getId()));
+        assertThat(walked).containsExactly("d", "e");
+
+        walked.clear();
+        repository.forEachTokenAfter("a", token -> walked.add(token.getId()) && walked.size() < 2);
+        assertThat(walked).containsExactly("b", "d");
+    }
+
+    /**
+     * Only one of the threads racing to renew a token wins, and the renewed token is not evicted at its previous
+     * expiration time.
+     */
+    @Test
+    public void renewTokenIsACompareAndSet() throws Exception {
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        long now = System.currentTimeMillis();
+        Token token = newToken("renewed");
+        token.setExpirationTime(new Date(now + 1_000));
+        repository.registerToken(token);
+        long expected = token.getExpirationMillis();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Boolean>> renewals = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            long renewed = now + 60_000 + i;
+            renewals.add(executor.submit(() -> repository.renewToken(repository.getTokenById("renewed"), expected, renewed)));
+        }
+        int won = 0;
+        for (Future<Boolean> renewal : renewals) {
+            won += renewal.get() ? 1 : 0;
+        }
+        executor.shutdown();
+        assertThat(won).isEqualTo(1);
+        assertThat(token.getExpirationMillis()).isGreaterThanOrEqualTo(now + 60_000);
+        assertThat(repository.renewToken(newToken("missing"), expected, now + 60_000)).isFalse();
+
+        assertThat(repository.evictExpired(now + 5_000)).isZero();
+        assertThat(repository.getTokenById("renewed")).isSameAs(token);
+        assertThat(repository.evictExpired(now + 120_000)).isEqualTo(1);
+    }
+}
@@ -0,0 +1,155 @@
+package com.giulianobortolassi.jwt.token;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SessionLimiterTest {
+
+    private static SessionLimiter newLimiter(TokenRepository repository, int maxPerUser, String overflow) {
+        SessionLimiter limiter = new SessionLimiter();
+        ReflectionTestUtils.setField(limiter, "MAX_PER_USER", maxPerUser);
+        ReflectionTestUtils.setField(limiter, "OVERFLOW", overflow);
+        ReflectionTestUtils.setField(limiter, "repository", repository);
+        limiter.init();
+        return limiter;
+    }
+
+    private static Token newToken(String id, String user, long issued, long expiration) {
+        return new Token(id, null, user, List.of(), new Date(issued), new Date(expiration));
+    }
+
+    @Test
+    public void evictsOldestFirst() {
+        SessionLimiter limiter = newLimiter(new InMemoryTokenRepository(), 2, "evict");
+        long later = System.currentTimeMillis() + 60_000;
+        assertThat(limiter.add(newToken("a", "alice", 0, later))).isEmpty();
+        assertThat(limiter.add(newToken("b", "alice", 0, later))).isEmpty();
+        assertThat(limiter.add(newToken("x", "bob", 0, later))).isEmpty();
+        assertThat(limiter.add(newToken("c", "alice", 0, later))).containsExactly("a");
+
+        limiter.remove(newToken("b", "alice", 0, later));
+        assertThat(limiter.add(newToken("d", "alice", 0, later))).isEmpty();
+        assertThat(limiter.add(newToken("e", "alice", 0, later))).containsExactly("c");
+        assertThat(limiter.count("alice")).isEqualTo(2);
+        assertThat(limiter.count("bob")).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectsOverTheLimit() {
+        SessionLimiter limiter = newLimiter(new InMemoryTokenRepository(), 1, "reject");
+        long later = System.currentTimeMillis() + 60_000;
+        assertThat(limiter.add(newToken("a", "alice", 0, later))).isEmpty();
+        assertThat(limiter.add(newToken("b", "alice", 0, later))).isNull();
+
+        limiter.remove(newToken("a", "alice", 0, later));
+        assertThat(limiter.countUsers()).isZero();
+        assertThat(limiter.add(newToken("c", "alice", 0, later))).isEmpty();
+    }
+
+    @Test
+    public void expiredTokensStopCounting() {
+        SessionLimiter limiter = newLimiter(new InMemoryTokenRepository(), 2, "reject");
+        long now = System.currentTimeMillis();
+        Token renewed = newToken("a", "alice", 0, now - 1);
+        limiter.add(newToken("a", "alice", 0, now + 60_000));
+        limiter.add(newToken("b", "alice", 0, now - 1));
+        limiter.add(newToken("x", "bob", 0, now - 1));
+        limiter.renewed(renewed, now - 1);
+
+        assertThat(limiter.count("alice")).isZero();
+        limiter.sweep();
+        assertThat(limiter.countUsers()).isZero();
+    }
+
+    @Test
+    public void countsStoredTokensOnStartup() {
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        long now = System.currentTimeMillis();
+        repository.registerToken(newToken("newer", "alice", now - 1_000, now + 60_000));
+        repository.registerToken(newToken("older", "alice", now - 2_000, now + 60_000));
+
+        SessionLimiter limiter = newLimiter(repository, 2, "evict");
+        assertThat(limiter.add(newToken("new", "alice", now, now + 60_000))).containsExactly("older");
+    }
+
+    @Test
+    public void serviceRevokesEvictedTokens() {
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        TokenService service = BenchmarkSupport.newService(repository);
+        SessionLimiter limiter = (SessionLimiter) ReflectionTestUtils.getField(service, "sessions");
+        ReflectionTestUtils.setField(limiter, "MAX_PER_USER", 3);
+        ReflectionTestUtils.setField(limiter, "repository", repository);
+        limiter.init();
+
+        Token first = service.generateToken("alice", List.of());
+        for (int i = 0; i < 4; i++) {
+            service.generateToken("alice", List.of());
+        }
+        List<Token> batch = service.generateTokens(List.of(new TokenRequest("alice", null), new TokenRequest("bob", null)));
+
+        assertThat(batch).doesNotContainNull();
+        assertThat(repository.getTokensByUser("alice")).hasSize(3).extracting(Token::getId).contains(batch.get(0).getId());
+        assertThat(service.validate(first.getToken()).getStatus()).isEqualTo(TokenStatus.UNKNOWN);
+        MeterRegistry registry = (MeterRegistry) ReflectionTestUtils.getField(
+                ReflectionTestUtils.getField(service, "metrics"), "registry");
+        assertThat(registry.get("jwt.sessions.evicted").counter().count()).isEqualTo(3);
+
+        ReflectionTestUtils.setField(limiter, "overflow", SessionLimiter.Overflow.REJECT);
+        assertThatThrownBy(() -> service.generateToken("alice", List.of())).isInstanceOf(SessionLimitExceededException.class);
+        assertThat(service.generateTokens(List.of(new TokenRequest("alice", null)))).containsExactly((Token) null);
+        assertThat(registry.get("jwt.sessions.rejected").counter().count()).isEqualTo(2);
+        assertThat(repository.getTokensByUser("alice")).hasSize(3);
+    }
+
+    /**
+     * A token the repository fails to store is not counted, and the tokens it would have pushed out keep their place.
+     */
+    @Test
+    public void failedRegistrationsAreNotCounted() {
+        AtomicBoolean failing = new AtomicBoolean();
+        InMemoryTokenRepository repository = new InMemoryTokenRepository() {
+            @Override
+            public Token registerToken(Token token) {
+                if( failing.get() ) {
+                    throw new IllegalStateException("Disk full.");
+                }
+                return super.registerToken(token);
+            }
+
+            @Override
+            public List<Token> registerTokens(Collection<Token> tokens) {
+                if( failing.get() ) {
+                    throw new IllegalStateException("Disk full.");
+                }
+                return super.registerTokens(tokens);
+            }
+        };
+        TokenService service = BenchmarkSupport.newService(repository);
+        SessionLimiter limiter = (SessionLimiter) ReflectionTestUtils.getField(service, "sessions");
+        ReflectionTestUtils.setField(limiter, "MAX_PER_USER", 2);
+        ReflectionTestUtils.setField(limiter, "repository", repository);
+        limiter.init();
+
+        Token first = service.generateToken("alice", List.of());
+        Token second = service.generateToken("alice", List.of());
+        failing.set(true);
+        assertThatThrownBy(() -> service.generateToken("alice", List.of())).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> service.generateTokens(List.of(new TokenRequest("alice", null), new TokenRequest("alice", null))))
+                .isInstanceOf(IllegalStateException.class);
+        failing.set(false);
+
+        assertThat(limiter.count("alice")).isEqualTo(2);
+        service.generateToken("alice", List.of());
+        assertThat(service.validate(first.getToken()).getStatus()).isEqualTo(TokenStatus.UNKNOWN);
+        assertThat(service.validate(second.getToken()).getStatus()).isEqualTo(TokenStatus.VALID);
+    }
+}
@@ -0,0 +1,76 @@
+package com.giulianobortolassi.jwt.token;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.io.Encoders;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKey;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the former per-request key derivation and parser construction against the key ring and parser
+ * shared by {@link TokenService}.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.args="SigningKeyBenchmark -t 1"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SigningKeyBenchmark {
+
+    private static final String SIGN_KEY = "MyKey1234567890-1234567890-1234567890";
+
+    private TokenService service;
+    private String tokenString;
+
+    @Setup
+    public void setup() {
+        service = BenchmarkSupport.newService(new InMemoryTokenRepository());
+        tokenString = service.generateTokenObject("benchmark", List.of("ADMIN", "AUDIT")).getToken();
+    }
+
+    /** The key derivation done for every sign and verify before the key was cached. */
+    @Benchmark
+    public SecretKey deriveKeyPerCall() {
+        String encodedKey = Encoders.BASE64.encode(SIGN_KEY.getBytes());
+        return Keys.hmacShaKeyFor(Decoders.BASE64.decode(encodedKey));
+    }
+
+    /** Parsing as it was done before: new key and new parser for every token. */
+    @Benchmark
+    public Claims parseWithPerCallParser() {
+        return Jwts.parser()
+                .verifyWith(deriveKeyPerCall())
+                .build().parseSignedClaims(tokenString)
+                .getPayload();
+    }
+
+    @Benchmark
+    public Token parseWithCachedParser() throws TokenExpiredException {
+        return service.parseToken(tokenString);
+    }
+
+    @Benchmark
+    public Token generateWithCachedKey() {
+        return service.generateTokenObject("benchmark", List.of("ADMIN", "AUDIT"));
+    }
+}
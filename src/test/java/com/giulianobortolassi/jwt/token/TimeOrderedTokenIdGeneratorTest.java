@@ -0,0 +1,75 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimeOrderedTokenIdGeneratorTest {
+
+    @Test
+    public void idsAreVersion7UuidsWithTheCurrentTime() {
+        TimeOrderedTokenIdGenerator generator = new TimeOrderedTokenIdGenerator();
+        long before = System.currentTimeMillis();
+        String id = generator.nextId();
+        long after = System.currentTimeMillis();
+
+        UUID uuid = UUID.fromString(id);
+        assertThat(uuid.toString()).isEqualTo(id);
+        assertThat(uuid.version()).isEqualTo(7);
+        assertThat(uuid.variant()).isEqualTo(2);
+        assertThat(uuid.getMostSignificantBits() >>> 16).isBetween(before, after);
+    }
+
+    @Test
+    public void idsOfAThreadAreStrictlyIncreasing() {
+        TimeOrderedTokenIdGenerator generator = new TimeOrderedTokenIdGenerator();
+        String previous = generator.nextId();
+        for (int i = 0; i < 100_000; i++) {
+            String id = generator.nextId();
+            assertThat(id).isGreaterThan(previous);
+            previous = id;
+        }
+    }
+
+    @Test
+    public void idsAreUniqueAcrossThreads() throws Exception {
+        TimeOrderedTokenIdGenerator generator = new TimeOrderedTokenIdGenerator();
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        int threads = 8;
+        int perThread = 50_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        ids.add(generator.nextId());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(ids).hasSize(threads * perThread);
+    }
+
+    @Test
+    public void formatMatchesUuidToString() {
+        for (long[] bits : new long[][]{{0, 0}, {-1, -1}, {0x0123456789abcdefL, 0xfedcba9876543210L}}) {
+            assertThat(TimeOrderedTokenIdGenerator.format(bits[0], bits[1]))
+                    .isEqualTo(new UUID(bits[0], bits[1]).toString());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.giulianobortolassi.jwt.token;
+
+import com.giulianobortolassi.jwt.key.SigningKey;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing the same HS256 token with {@link HmacTokenEncoder} and with the jjwt builder.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.args="TokenEncoderBenchmark"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenEncoderBenchmark {
+
+    private static final SigningKey KEY = new SigningKey("default",
+            Keys.hmacShaKeyFor(BenchmarkSupport.SIGN_KEY.getBytes(StandardCharsets.UTF_8)));
+
+    private static final List<String> ROLES = List.of("ADMIN", "AUDIT");
+
+    private static final String ID = "0190a1b2-c3d4-7e5f-8a9b-0c1d2e3f4a5b";
+
+    private final HmacTokenEncoder encoder = new HmacTokenEncoder();
+
+    @Benchmark
+    public String template() {
+        long now = System.currentTimeMillis();
+        return encoder.encode(KEY, ID, "benchmark", ROLES, now, now + BenchmarkSupport.EXPIRATION_TIME);
+    }
+
+    @Benchmark
+    public String jjwt() {
+        Date now = new Date();
+        return TokenService.compact(KEY, ID, "benchmark", ROLES, now, new Date(now.getTime() + BenchmarkSupport.EXPIRATION_TIME));
+    }
+}
@@ -0,0 +1,88 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap footprint and GC cost of {@link InMemoryTokenRepository} ({@code map}) against
+ * {@link CompactTokenRepository} ({@code compact}) holding {@code storeSize} tokens.
+ * <p>
+ * The heap used per token is printed at setup. The benchmark churns short-lived tokens and looks up stored ones,
+ * and the {@code gc.count} and {@code gc.time} columns of the GC profiler show what the live store costs the
+ * collector:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.args="TokenFootprintBenchmark -t 4 -jvmArgsAppend -Xmx8g"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class TokenFootprintBenchmark {
+
+    @Param({"map", "compact"})
+    public String repositoryType;
+
+    @Param({"1000000", "10000000"})
+    public int storeSize;
+
+    private TokenRepository repository;
+    private String[] ids;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        long before = usedHeap();
+        repository = "compact".equals(repositoryType) ? new CompactTokenRepository() : new InMemoryTokenRepository();
+        BenchmarkSupport.fill(repository, storeSize);
+        long bytesPerToken = (usedHeap() - before) / storeSize;
+
+        List<Token> stored = repository.listTokens();
+        ids = new String[Math.min(stored.size(), 65_536)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = stored.get(i).getId();
+        }
+        System.out.printf("%n%s repository: %d bytes of heap per token%s%n", repositoryType, bytesPerToken,
+                repository instanceof CompactTokenRepository
+                        ? " (" + ((CompactTokenRepository) repository).bytesPerToken() + " reported)" : "");
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Issue and revoke a token, with a lookup of a stored one, roughly the mix of a busy node.
+     */
+    @Benchmark
+    public Token churn() throws TokenNotFoundException {
+        Token token = new Token(UUID.randomUUID().toString(), null, "benchmark", List.of("user"), new Date(),
+                new Date(System.currentTimeMillis() + BenchmarkSupport.EXPIRATION_TIME));
+        repository.registerToken(token);
+        repository.getTokenById(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+        return repository.removeTokenById(token.getId());
+    }
+}
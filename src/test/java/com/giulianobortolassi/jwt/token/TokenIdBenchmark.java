@@ -0,0 +1,45 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the token id generators. {@link BenchmarkRunner} runs it at 1, 4 and all cores, so the score per
+ * thread shows how each one scales: random UUIDs share one {@link java.security.SecureRandom}.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.args="TokenIdBenchmark"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenIdBenchmark {
+
+    private final TokenIdGenerator random = new RandomTokenIdGenerator();
+
+    private final TokenIdGenerator timeOrdered = new TimeOrderedTokenIdGenerator();
+
+    @Benchmark
+    public String random() {
+        return random.nextId();
+    }
+
+    @Benchmark
+    public String timeOrdered() {
+        return timeOrdered.nextId();
+    }
+}
@@ -0,0 +1,99 @@
+package com.giulianobortolassi.jwt.token;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of the {@link TokenMetrics} meters on the {@link TokenService} hot paths: the same operations recorded
+ * into the Prometheus registry exported in production, with its percentile histograms, or into a composite
+ * registry with no registry added, whose meters do nothing. {@code sampleEvery} is {@code jwt.metrics.sample-every},
+ * the default or timing every operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenMetricsBenchmark {
+
+    private static final int SIGNED_TOKENS = 1024;
+
+    @Param({"prometheus", "noop"})
+    public String registry;
+
+    @Param({"64", "1"})
+    public int sampleEvery;
+
+    private TokenService service;
+    private InMemoryTokenRepository repository;
+    private Token[] tokens;
+    private String[] tokenStrings;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MeterRegistry meterRegistry = "noop".equals(registry) ? new CompositeMeterRegistry()
+                : new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        repository = new InMemoryTokenRepository();
+        service = BenchmarkSupport.newService(repository, meterRegistry);
+        ReflectionTestUtils.setField(ReflectionTestUtils.getField(service, "metrics"), "SAMPLE_EVERY", sampleEvery);
+
+        tokens = new Token[SIGNED_TOKENS];
+        tokenStrings = new String[SIGNED_TOKENS];
+        for (int i = 0; i < SIGNED_TOKENS; i++) {
+            tokens[i] = service.generateToken("user-" + i, List.of("ADMIN", "AUDIT"));
+            tokenStrings[i] = tokens[i].getToken();
+        }
+    }
+
+    private static int next() {
+        return ThreadLocalRandom.current().nextInt(SIGNED_TOKENS);
+    }
+
+    @Benchmark
+    public Token generateToken() throws TokenNotFoundException {
+        Token token = service.generateToken("benchmark", List.of("ADMIN", "AUDIT"));
+        repository.removeTokenById(token.getId());
+        return token;
+    }
+
+    @Benchmark
+    public TokenCheckResult validate() {
+        return service.validate(tokenStrings[next()]);
+    }
+
+    @Benchmark
+    public TokenCheckResult validateMalformed() {
+        return service.validate("not-a-token");
+    }
+
+    @Benchmark
+    public Token revokeToken() {
+        Token token = tokens[next()];
+        try {
+            service.revokeToken(token);
+        } catch (TokenNotFoundException e) {
+            return null;
+        }
+        return repository.registerToken(token);
+    }
+}
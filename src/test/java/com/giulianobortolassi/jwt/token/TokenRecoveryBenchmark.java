@@ -0,0 +1,131 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup time of {@link FileTokenRepository}: mapping a snapshot of {@code storeSize} tokens and replaying
+ * {@code logTail} log records written after it, then serving the first lookups from the cold mapping.
+ * Recovery is single threaded, so run it with {@code -t 1}:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.args="TokenRecoveryBenchmark -t 1 -jvmArgsAppend -Xmx8g"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class TokenRecoveryBenchmark {
+
+    private static final int CHUNK = 10_000;
+
+    private static final int LOOKUPS = 10_000;
+
+    @Param({"1000000", "10000000"})
+    public int storeSize;
+
+    @Param({"0", "1000000"})
+    public int logTail;
+
+    private Path directory;
+
+    private final List<String> snapshotIds = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("token-recovery");
+        FileTokenRepository repository = open();
+        register(repository, storeSize, snapshotIds);
+        repository.close();
+
+        // Written after the snapshot, and left in the log as after a crash
+        repository = open();
+        register(repository, logTail, new ArrayList<>());
+        repository.shutdown(false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public long recover() throws IOException {
+        FileTokenRepository repository = newRepository();
+        repository.recover();
+        return repository.countTokens();
+    }
+
+    /**
+     * Recover, then look up tokens spread over the whole snapshot, as the first validations after a restart do.
+     */
+    @Benchmark
+    public int recoverAndLookup() throws IOException, TokenNotFoundException {
+        FileTokenRepository repository = newRepository();
+        repository.recover();
+        int found = 0;
+        for (String id : snapshotIds) {
+            found += repository.getTokenById(id) != null ? 1 : 0;
+        }
+        return found;
+    }
+
+    private FileTokenRepository newRepository() {
+        FileTokenRepository repository = new FileTokenRepository();
+        ReflectionTestUtils.setField(repository, "DIRECTORY", directory.toString());
+        ReflectionTestUtils.setField(repository, "SNAPSHOT_EVERY", Long.MAX_VALUE);
+        return repository;
+    }
+
+    private FileTokenRepository open() throws IOException {
+        FileTokenRepository repository = newRepository();
+        repository.init();
+        return repository;
+    }
+
+    /**
+     * Register in chunks, so the group commit writes thousands of records per fsync.
+     */
+    private static void register(FileTokenRepository repository, int count, List<String> sampleIds) {
+        long now = System.currentTimeMillis();
+        // Long enough to outlive the benchmark, so recovery does not skip them
+        long expiration = now + TimeUnit.HOURS.toMillis(12);
+        List<Token> chunk = new ArrayList<>(CHUNK);
+        for (int i = 0; i < count; i++) {
+            String id = UUID.randomUUID().toString();
+            if( i % Math.max(1, count / LOOKUPS) == 0 && sampleIds.size() < LOOKUPS ) {
+                sampleIds.add(id);
+            }
+            chunk.add(new Token(id, "eyJhbGciOiJIUzI1NiJ9.payload." + id, "user-" + (i % 10_000), List.of("user"),
+                    new Date(now), new Date(expiration)));
+            if( chunk.size() == CHUNK || i == count - 1 ) {
+                repository.registerTokens(chunk);
+                chunk = new ArrayList<>(CHUNK);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.giulianobortolassi.jwt.token;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link InMemoryTokenRepository} operations on a store holding {@code storeSize} tokens.
+ * Thread counts are set by {@link BenchmarkRunner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenRepositoryBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int storeSize;
+
+    private InMemoryTokenRepository repository;
+    private String[] ids;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        repository = new InMemoryTokenRepository();
+        BenchmarkSupport.fill(repository, storeSize);
+        List<Token> stored = repository.listTokens();
+        ids = new String[Math.min(stored.size(), 65_536)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = stored.get(i).getId();
+        }
+    }
+
+    @Benchmark
+    public Token getTokenById() throws TokenNotFoundException {
+        return repository.getTokenById(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+    }
+
+    @Benchmark
+    public boolean getTokenByIdMissing() {
+        try {
+            repository.getTokenById("missing");
+            return true;
+        } catch (TokenNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Register a new token and remove it again, so the store keeps its size.
+     */
+    @Benchmark
+    public Token registerAndRemove() throws TokenNotFoundException {
+        Token token = new Token();
+        token.setId(UUID.randomUUID().toString());
+        token.setUser("benchmark");
+        token.setExpirationTime(new Date(System.currentTimeMillis() + BenchmarkSupport.EXPIRATION_TIME));
+        repository.registerToken(token);
+        return repository.removeTokenById(token.getId());
+    }
+}
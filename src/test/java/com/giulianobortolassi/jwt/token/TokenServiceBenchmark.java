@@ -0,0 +1,100 @@
+package com.giulianobortolassi.jwt.token;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link TokenService} hot paths against an {@link InMemoryTokenRepository} holding
+ * {@code storeSize} tokens, without and with the cache of parsed tokens. Thread counts are set by
+ * {@link BenchmarkRunner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenServiceBenchmark {
+
+    private static final int SIGNED_TOKENS = 1024;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int storeSize;
+
+    /** 0 for every validation to go through the parser; the default size otherwise. */
+    @Param({"0", "100000"})
+    public long validationCacheSize;
+
+    private TokenService service;
+    private InMemoryTokenRepository repository;
+    private Token[] tokens;
+    private String[] tokenStrings;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        repository = new InMemoryTokenRepository();
+        service = BenchmarkSupport.newService(repository, new SimpleMeterRegistry(), validationCacheSize);
+        BenchmarkSupport.fill(repository, Math.max(0, storeSize - SIGNED_TOKENS));
+
+        tokens = new Token[SIGNED_TOKENS];
+        tokenStrings = new String[SIGNED_TOKENS];
+        for (int i = 0; i < SIGNED_TOKENS; i++) {
+            tokens[i] = service.generateToken("user-" + i, List.of("ADMIN", "AUDIT"));
+            tokenStrings[i] = tokens[i].getToken();
+        }
+    }
+
+    private static int next() {
+        return ThreadLocalRandom.current().nextInt(SIGNED_TOKENS);
+    }
+
+    @Benchmark
+    public Token generateTokenObject() {
+        return service.generateTokenObject("benchmark", List.of("ADMIN", "AUDIT"));
+    }
+
+    @Benchmark
+    public Token parseToken() throws TokenExpiredException {
+        return service.parseToken(tokenStrings[next()]);
+    }
+
+    @Benchmark
+    public Token checkToken() throws TokenExpiredException {
+        return service.checkToken(tokenStrings[next()]);
+    }
+
+    @Benchmark
+    public TokenCheckResult validateMalformed() {
+        return service.validate("not-a-token");
+    }
+
+    /**
+     * Revoke a token and register it again, so the store keeps its size. Concurrent threads may pick the same
+     * token; losing that race is a cheap not-found path and is counted as an operation too.
+     */
+    @Benchmark
+    public Token revokeToken() {
+        Token token = tokens[next()];
+        try {
+            service.revokeToken(token);
+        } catch (TokenNotFoundException e) {
+            return null;
+        }
+        return repository.registerToken(token);
+    }
+}
@@ -1,20 +1,29 @@
 package com.giulianobortolassi.jwt.token;
 
+import com.giulianobortolassi.jwt.key.KeyRing;
+import com.giulianobortolassi.jwt.key.SigningKey;
+import com.giulianobortolassi.jwt.revocation.RevocationList;
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.*;
 
 @SpringBootTest
@@ -26,6 +35,15 @@ public class TokenServiceTest {
     @MockBean
     TokenRepository tokenRepository;
 
+    @Autowired
+    private RevocationList revocationList;
+
+    @Autowired
+    private KeyRing keyRing;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     /**
      * Points to Check
      * - Role name generation
@@ -198,11 +216,13 @@ public class TokenServiceTest {
         token.setUser("my_user");
 
         // Created a mock to avoid repository logic contamination
-        when(tokenRepository.getTokenById(any())).thenAnswer((Answer<Token>) invocationOnMock -> token);
+        when(tokenRepository.removeTokenById(any())).thenAnswer((Answer<Token>) invocationOnMock -> token);
 
 
         service.revokeToken(token);
-        verify(tokenRepository, times(1)).removeToken(token);
+        verify(tokenRepository, times(1)).removeTokenById("123-456");
+        verify(tokenRepository, never()).getTokenById(any());
+        assertThat(revocationList.isRevoked("123-456")).isTrue();
     }
 
     /**
@@ -216,7 +236,8 @@ public class TokenServiceTest {
         token.setUser("my_user");
 
         // Created a mock to avoid repository logic contamination
-       when(tokenRepository.getTokenById("123-456")).thenAnswer((Answer<Token>) invocationOnMock -> null);
+       when(tokenRepository.removeTokenById("123-456")).thenThrow(new TokenNotFoundException());
+        long revocations = meterRegistry.get("jwt.token.operation").tag("operation", "revoke").timer().count();
 
         try {
             service.revokeToken(token);
@@ -225,15 +246,19 @@ public class TokenServiceTest {
             assertThat(e).isNotNull();
             assertThat(e).isInstanceOf(TokenNotFoundException.class);
         }
+        // Failed revocations are timed too
+        assertThat(meterRegistry.get("jwt.token.operation").tag("operation", "revoke").timer().count())
+                .isEqualTo(revocations + 1);
     }
 
     @Test
     public void revokeTokenString() throws TokenNotFoundException, TokenExpiredException {
         Token token = service.generateTokenObject("Giuliano", List.of("A", "B"));
         // Created a mock to avoid repository logic contamination
-        when(tokenRepository.getTokenById(any())).thenAnswer((Answer<Token>) invocationOnMock -> token);
+        when(tokenRepository.removeTokenById(any())).thenAnswer((Answer<Token>) invocationOnMock -> token);
 
         service.revokeToken(token.getToken());
+        verify(tokenRepository).removeTokenById(token.getId());
     }
 
     @Test
@@ -288,8 +313,219 @@ public class TokenServiceTest {
         assertThat(tokens).isNull();
     }
 
+    /**
+     * Pages follow each other by id, skip expired and filtered out tokens, and a token handed twice by the walk
+     * shows up once. The repository mock only walks in no particular order, so pages go through the default ordered
+     * walk.
+     */
+    @Test
+    public void listActiveTokensByPage() {
+        long now = System.currentTimeMillis();
+        List<Token> stored = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            long expiration = i % 5 == 0 ? now - 1_000 : now + 60_000 + i;
+            List<String> roles = i % 2 == 0 ? List.of("ADMIN") : List.of("USER");
+            stored.add(new Token(String.format("token-%02d", i), null, "user", roles, new Date(now), new Date(expiration)));
+        }
+        stored.add(stored.get(7));
+        doAnswer(invocation -> {
+            Consumer<Token> consumer = invocation.getArgument(0);
+            stored.forEach(consumer);
+            return null;
+        }).when(tokenRepository).forEachToken(any());
+        doCallRealMethod().when(tokenRepository).forEachTokenAfter(any(), any());
+
+        List<String> ids = new ArrayList<>();
+        String after = null;
+        List<Token> page;
+        do {
+            page = service.listActiveTokens(TokenFilter.none(), after, 7);
+            assertThat(page.size()).isLessThanOrEqualTo(7);
+            page.forEach(token -> ids.add(token.getId()));
+            after = page.isEmpty() ? null : page.get(page.size() - 1).getId();
+        } while (page.size() == 7);
+
+        assertThat(ids).hasSize(20).isSorted().doesNotHaveDuplicates()
+                .doesNotContain("token-00", "token-05", "token-10", "token-15", "token-20");
+
+        TokenFilter admins = new TokenFilter(null, "ADMIN", null, new Date(now + 60_010));
+        assertThat(service.listActiveTokens(admins, null, 100)).extracting(Token::getId)
+                .containsExactly("token-02", "token-04", "token-06", "token-08");
+        Assertions.assertThatThrownBy(() -> service.listActiveTokens(TokenFilter.none(), null, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
     @Test
     public void parseTokenWithException() {
         Assertions.assertThatThrownBy(() -> service.parseToken("xxxxeyJhbGciOiJIUzI1NiJ9.eyJyb2xlcyI6ImFkbWluLHVzZXIiLCJqdGkiOiI5MWNkZGYxZC1hZWI3LTQ0Y2EtYjNmYS04YjAxYTI4OTQzNTMiLCJzdWIiOiJnaXVsaWFubyIsImlhdCI6MTcwMjkzMTgyMCwiZXhwIjoxNzAyOTMyNDIwfQ.cXcDkfWQ2ZT42HimMaCK-8OXvLd4b6TdrCNZpht89MY")).isInstanceOf(TokenExpiredException.class);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void validateReportsEveryStatusWithoutThrowing() throws TokenNotFoundException {
+        Token token = service.generateTokenObject("giuliano", List.of("admin"));
+        String tokenString = token.getToken();
+        String[] parts = tokenString.split("\\.");
+        String badSignature = parts[0] + "." + parts[1] + "." + new StringBuilder(parts[2]).reverse();
+
+        when(tokenRepository.getTokenById(token.getId())).thenReturn(token);
+        TokenCheckResult valid = service.validate(tokenString);
+        assertThat(valid.getStatus()).isEqualTo(TokenStatus.VALID);
+        assertThat(valid.getToken()).isSameAs(token);
+
+        assertThat(service.validate(badSignature).getStatus()).isEqualTo(TokenStatus.BAD_SIGNATURE);
+        assertThat(service.validate("not a token").getStatus()).isEqualTo(TokenStatus.MALFORMED);
+        assertThat(service.validate("a.b.c").getStatus()).isEqualTo(TokenStatus.MALFORMED);
+        assertThat(service.validate(null).getStatus()).isEqualTo(TokenStatus.MALFORMED);
+
+        when(tokenRepository.getTokenById(token.getId())).thenThrow(new TokenNotFoundException());
+        assertThat(service.validate(tokenString).getStatus()).isEqualTo(TokenStatus.UNKNOWN);
+
+        // Rejections share preallocated results
+        assertThat(service.validate("not a token")).isSameAs(service.validate("a.b.c"));
+    }
+
+    /**
+     * The parser tolerates any clock skew so expired tokens are reported without an exception, which must not let
+     * a token through before its {@code nbf} claim.
+     */
+    @Test
+    public void validateRejectsTokensBeforeNotBefore() throws TokenNotFoundException {
+        SigningKey key = keyRing.getActiveKey();
+        long now = System.currentTimeMillis();
+        String early = Jwts.builder().header().keyId(key.getId()).and()
+                .id(UUID.randomUUID().toString()).subject("giuliano")
+                .issuedAt(new Date(now)).notBefore(new Date(now + 60_000)).expiration(new Date(now + 120_000))
+                .signWith(key.getSigningKey(), key.getAlgorithm()).compact();
+        when(tokenRepository.getTokenById(any())).thenReturn(new Token());
+
+        assertThat(service.validate(early).getStatus()).isEqualTo(TokenStatus.NOT_YET_VALID);
+    }
+
+    @Test
+    public void validateExpiredStoredToken() throws TokenNotFoundException {
+        Token token = service.generateTokenObject("giuliano", null);
+        Token storedToken = new Token(token.getId(), token.getToken(), token.getUser(), null, token.getIssuedTime(),
+                new Date(System.currentTimeMillis() - 1000));
+        when(tokenRepository.getTokenById(token.getId())).thenReturn(storedToken);
+
+        assertThat(service.validate(token.getToken()).getStatus()).isEqualTo(TokenStatus.EXPIRED);
+        Assertions.assertThatThrownBy(() -> service.checkToken(token.getToken()))
+                .isInstanceOf(TokenExpiredException.class)
+                .hasMessage("EXPIRED");
+    }
+
+    @Test
+    public void validateRecordsOutcomesAndPhases() throws TokenNotFoundException {
+        Token token = service.generateTokenObject("giuliano", null);
+        when(tokenRepository.getTokenById(token.getId())).thenReturn(token);
+        double valid = meterRegistry.get("jwt.token.check.outcome").tag("outcome", "valid").counter().count();
+        double malformed = meterRegistry.get("jwt.token.check.outcome").tag("outcome", "malformed").counter().count();
+        long lookups = meterRegistry.get("jwt.token.check.phase").tag("phase", "lookup").timer().count();
+
+        service.validate(token.getToken());
+        service.validate("not a token");
+
+        assertThat(meterRegistry.get("jwt.token.check.outcome").tag("outcome", "valid").counter().count())
+                .isEqualTo(valid + 1);
+        assertThat(meterRegistry.get("jwt.token.check.outcome").tag("outcome", "malformed").counter().count())
+                .isEqualTo(malformed + 1);
+        // Malformed tokens never reach the repository
+        assertThat(meterRegistry.get("jwt.token.check.phase").tag("phase", "lookup").timer().count())
+                .isEqualTo(lookups + 1);
+    }
+
+    @Test
+    public void repeatValidationsHitTheParsedTokenCacheUntilRevoked() throws TokenNotFoundException, TokenExpiredException {
+        Token token = service.generateTokenObject("cached", List.of("admin"));
+        when(tokenRepository.getTokenById(token.getId())).thenReturn(token);
+        when(tokenRepository.removeTokenById(token.getId())).thenReturn(token);
+        double hits = meterRegistry.get("cache.gets").tag("cache", "jwt.validation").tag("result", "hit").functionCounter().count();
+        double misses = meterRegistry.get("cache.gets").tag("cache", "jwt.validation").tag("result", "miss").functionCounter().count();
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(service.validate(token.getToken()).getStatus()).isEqualTo(TokenStatus.VALID);
+        }
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "jwt.validation").tag("result", "hit").functionCounter().count())
+                .isEqualTo(hits + 2);
+
+        service.revokeToken(token.getToken());
+        when(tokenRepository.getTokenById(token.getId())).thenThrow(new TokenNotFoundException());
+
+        assertThat(service.validate(token.getToken()).getStatus()).isEqualTo(TokenStatus.UNKNOWN);
+        // The revoked token was dropped from the cache, and verified again
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "jwt.validation").tag("result", "miss").functionCounter().count())
+                .isEqualTo(misses + 2);
+    }
+
+    /**
+     * A cached token is rejected once the key that verified it is retired, and cache hits are timed apart from
+     * signature checks.
+     */
+    @Test
+    public void cachedTokensSignedWithARetiredKeyAreRejected() throws TokenNotFoundException {
+        Token token = service.generateTokenObject("retired", List.of("admin"));
+        when(tokenRepository.getTokenById(token.getId())).thenReturn(token);
+        assertThat(service.validate(token.getToken()).getStatus()).isEqualTo(TokenStatus.VALID);
+
+        long signatures = meterRegistry.get("jwt.token.check.phase").tag("phase", "signature").timer().count();
+        long hits = meterRegistry.get("jwt.token.check.phase").tag("phase", "cache").timer().count();
+        assertThat(service.validate(token.getToken()).getStatus()).isEqualTo(TokenStatus.VALID);
+        assertThat(meterRegistry.get("jwt.token.check.phase").tag("phase", "signature").timer().count()).isEqualTo(signatures);
+        assertThat(meterRegistry.get("jwt.token.check.phase").tag("phase", "cache").timer().count()).isEqualTo(hits + 1);
+
+        KeyRing retired = mock(KeyRing.class);
+        ReflectionTestUtils.setField(service, "keyRing", retired);
+        try {
+            assertThat(service.validate(token.getToken()).getStatus()).isEqualTo(TokenStatus.BAD_SIGNATURE);
+        } finally {
+            ReflectionTestUtils.setField(service, "keyRing", keyRing);
+        }
+    }
+
+    @Test
+    public void revokeAllForUserRevokesWhatWasRemoved() {
+        long expiration = System.currentTimeMillis() + 60_000;
+        Token first = new Token("first", null, "alice", null, new Date(), new Date(expiration));
+        Token second = new Token("second", null, "alice", null, new Date(), new Date(expiration));
+        when(tokenRepository.getTokensByUser("alice")).thenReturn(List.of(first, second));
+        // The second one was revoked concurrently
+        when(tokenRepository.removeTokensByIds(List.of("first", "second"))).thenReturn(Map.of("first", first));
+
+        double revoked = meterRegistry.get("jwt.token.revocations").counter().count();
+
+        assertThat(service.revokeAllForUser("alice")).containsExactly(first);
+        assertThat(meterRegistry.get("jwt.token.revocations").counter().count()).isEqualTo(revoked + 1);
+        assertThat(meterRegistry.get("jwt.token.operation").tag("operation", "revoke_all").timer().count()).isPositive();
+        assertThat(revocationList.isRevoked("first")).isTrue();
+        assertThat(revocationList.isRevoked("second")).isFalse();
+    }
+
+    /**
+     * With sliding expiration, a token validated many times is renewed once per window, and its expired {@code exp}
+     * claim does not matter as long as the stored expiration is ahead.
+     */
+    @Test
+    public void slidingExpirationRenewsOncePerWindow() throws TokenNotFoundException {
+        long expirationTime = (long) ReflectionTestUtils.getField(service, "EXPIRATION_TIME");
+        ReflectionTestUtils.setField(service, "EXPIRATION_TIME", -1_000L);
+        Token token = service.generateTokenObject("sliding", List.of("USER"));
+        ReflectionTestUtils.setField(service, "EXPIRATION_TIME", expirationTime);
+        token.setExpirationMillis(System.currentTimeMillis() + 5_000);
+        when(tokenRepository.getTokenById(token.getId())).thenReturn(token);
+        when(tokenRepository.renewToken(any(), anyLong(), anyLong())).thenAnswer(invocation ->
+                token.compareAndSetExpiration(invocation.getArgument(1), invocation.getArgument(2)));
+
+        assertThat(service.validate(token.getToken()).getStatus()).isEqualTo(TokenStatus.EXPIRED);
+
+        ReflectionTestUtils.setField(service, "SLIDING_EXPIRATION", true);
+        try {
+            for (int i = 0; i < 100; i++) {
+                assertThat(service.validate(token.getToken()).getStatus()).isEqualTo(TokenStatus.VALID);
+            }
+        } finally {
+            ReflectionTestUtils.setField(service, "SLIDING_EXPIRATION", false);
+        }
+        verify(tokenRepository, times(1)).renewToken(any(), anyLong(), anyLong());
+        assertThat(token.getExpirationMillis()).isGreaterThan(System.currentTimeMillis() + expirationTime - 60_000);
+    }
+}